@@ -0,0 +1,103 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Serves the control stream of a generation 4 server over TCP. Each packet consists of a type, a payload
+ * length and a payload, where the type and the length are 16-bit little endian integers. The start,
+ * IDR frame request and reference frame invalidation packets are answered with an empty packet, and
+ * make the video source send an IDR frame. The loss statistics are summed up and logged when the client
+ * disconnects, which ends the session.
+ */
+final class FakeControlServer extends FakeTcpServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeControlServer.class);
+
+    static final int PORT = 47995;
+
+    private static final int TYPE_REQUEST_IDR_FRAME = 0x0606; // Also known as start A
+    private static final int TYPE_START_B = 0x0609;
+    private static final int TYPE_INVALIDATE_REF_FRAMES = 0x0604;
+    private static final int TYPE_LOSS_STATS = 0x060a;
+
+    private final FakeGameStreamServer server;
+
+    FakeControlServer(FakeGameStreamServer server, InetAddress address) throws IOException {
+        super("Control", address, PORT);
+        this.server = server;
+        start();
+    }
+
+    @Override
+    void serve(Socket s) throws IOException {
+        logger.info("Control stream connected from {}", s.getRemoteSocketAddress());
+        server.controlStreamOpened();
+
+        InputStream in = s.getInputStream();
+        OutputStream out = s.getOutputStream();
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer payload = ByteBuffer.allocate(65536).order(ByteOrder.LITTLE_ENDIAN);
+        long numIdrFrameRequests = 0;
+        long numLostPackets = 0;
+        try {
+            for (;;) {
+                header.clear();
+                if (!readFully(in, header.array(), 4)) {
+                    break;
+                }
+                int type = header.getShort(0) & 0xFFFF;
+                int length = header.getShort(2) & 0xFFFF;
+                payload.clear();
+                ByteStreams.readFully(in, payload.array(), 0, length);
+                payload.limit(length);
+
+                switch (type) {
+                    case TYPE_REQUEST_IDR_FRAME:
+                    case TYPE_INVALIDATE_REF_FRAMES:
+                        numIdrFrameRequests++;
+                        server.requestIdrFrame();
+                        // Fall through
+                    case TYPE_START_B:
+                        header.putShort(2, (short) 0);
+                        out.write(header.array(), 0, 4);
+                        out.flush();
+                        break;
+                    case TYPE_LOSS_STATS:
+                        if (length >= 4) {
+                            numLostPackets += payload.getInt(0);
+                        }
+                        break;
+                    default:
+                        logger.debug("Ignored a control packet: 0x{} ({} bytes)",
+                                     Integer.toHexString(type), length);
+                }
+            }
+        } finally {
+            logger.info("Control stream disconnected from {} ({} IDR frame requests, {} lost packets reported)",
+                        s.getRemoteSocketAddress(), numIdrFrameRequests, numLostPackets);
+            server.controlStreamClosed();
+        }
+    }
+
+    private static boolean readFully(InputStream in, byte[] buf, int length) throws IOException {
+        int n = ByteStreams.read(in, buf, 0, length);
+        if (n == 0) {
+            return false;
+        }
+        if (n != length) {
+            throw new IOException("Truncated control packet header");
+        }
+        return true;
+    }
+}
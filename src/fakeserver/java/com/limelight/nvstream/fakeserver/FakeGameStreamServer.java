@@ -0,0 +1,338 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import javax.crypto.SecretKey;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.av.capture.RtpCaptureHeader;
+import com.limelight.nvstream.av.capture.RtpCaptureReader;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+
+/**
+ * A stand-in for a GameStream server, which lets the client be exercised end to end without a PC running
+ * GeForce Experience, e.g. for the throughput, soak and regression benchmarks. It serves the server
+ * information, the application list, the launch and the pairing over HTTP and HTTPS, answers the RTSP
+ * handshake, accepts the control and input streams, and streams synthetic or recorded video and audio
+ * at the configured bitrate, packet size and loss rate.
+ *
+ * <p>It poses as a generation 4 server, because the newer servers do the RTSP handshake and the control
+ * stream over ENet, of which only the client side is available. It listens to the well-known GameStream
+ * ports, so the client connects to it as usual, e.g. {@code -connect 127.0.0.1}.
+ */
+public final class FakeGameStreamServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeGameStreamServer.class);
+
+    static final String APP_VERSION = "4.0.0.0";
+    static final String APP_NAME = "Steam";
+    static final int APP_ID = 1;
+
+    public static final class Builder {
+        private InetAddress address = InetAddress.getLoopbackAddress();
+        private int bitrateKbps;
+        private int packetSize;
+        private double lossPercentage;
+        private File recording;
+        private boolean requirePairing;
+        private Supplier<String> pinSupplier = () -> null;
+
+        /**
+         * Sets the address to listen to. The loopback address by default.
+         */
+        public Builder setAddress(InetAddress address) {
+            this.address = address;
+            return this;
+        }
+
+        /**
+         * Sets the bitrate of the synthetic video. The bitrate the client asks for by default.
+         */
+        public Builder setBitrate(int bitrateKbps) {
+            this.bitrateKbps = bitrateKbps;
+            return this;
+        }
+
+        /**
+         * Sets the size of the video packets, excluding the RTP header. The size the client asks for
+         * by default.
+         */
+        public Builder setPacketSize(int packetSize) {
+            this.packetSize = packetSize;
+            return this;
+        }
+
+        /**
+         * Sets the percentage of the video and audio datagrams to drop.
+         */
+        public Builder setLossPercentage(double lossPercentage) {
+            this.lossPercentage = lossPercentage;
+            return this;
+        }
+
+        /**
+         * Sets the RTP capture recorded with the {@code -capture} option of the client, whose video
+         * and audio are sent instead of the synthetic ones.
+         */
+        public Builder setRecording(File recording) {
+            this.recording = recording;
+            return this;
+        }
+
+        /**
+         * Sets whether the client has to pair before launching the application. Otherwise, every client
+         * is reported as paired.
+         */
+        public Builder setRequirePairing(boolean requirePairing) {
+            this.requirePairing = requirePairing;
+            return this;
+        }
+
+        /**
+         * Sets the function which returns the PIN the user entered when a client pairs, or {@code null}
+         * to reject the pairing. Every pairing is rejected by default.
+         */
+        public Builder setPinSupplier(Supplier<String> pinSupplier) {
+            this.pinSupplier = pinSupplier;
+            return this;
+        }
+
+        public FakeGameStreamServer start() throws IOException {
+            return new FakeGameStreamServer(this);
+        }
+    }
+
+    private final InetAddress address;
+    private final int bitrateKbps;
+    private final int packetSize;
+    private final File recording;
+    private final VideoFormat recordingFormat;
+    private final boolean requirePairing;
+    private final Supplier<String> pinSupplier;
+    private final String uniqueId = UUID.randomUUID().toString();
+    private final Set<String> pairedClients = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger numControlStreams = new AtomicInteger();
+
+    private volatile int currentGame;
+    private volatile SecretKey riKey;
+    private volatile int riKeyId;
+    private volatile StreamParameters streamParameters;
+
+    private final FakeMediaServer media;
+    private final FakeHttpServer http;
+    private final FakeRtspServer rtsp;
+    private final FakeControlServer control;
+    private final FakeInputServer input;
+
+    private FakeGameStreamServer(Builder builder) throws IOException {
+        address = builder.address;
+        bitrateKbps = builder.bitrateKbps;
+        packetSize = builder.packetSize;
+        recording = builder.recording;
+        requirePairing = builder.requirePairing;
+        pinSupplier = builder.pinSupplier;
+
+        if (recording != null) {
+            try (RtpCaptureReader reader = new RtpCaptureReader(recording)) {
+                RtpCaptureHeader header = reader.header();
+                recordingFormat = header.getVideoFormat();
+                logger.info("Streaming {} ({})", recording, header);
+            }
+        } else {
+            recordingFormat = null;
+        }
+
+        FakeMediaServer media = null;
+        FakeHttpServer http = null;
+        FakeRtspServer rtsp = null;
+        FakeControlServer control = null;
+        FakeInputServer input = null;
+        boolean success = false;
+        try {
+            media = new FakeMediaServer(address, builder.lossPercentage);
+            http = new FakeHttpServer(this, address);
+            rtsp = new FakeRtspServer(this, address);
+            control = new FakeControlServer(this, address);
+            input = new FakeInputServer(this, address);
+            success = true;
+        } finally {
+            if (!success) {
+                close(input, control, rtsp, http, media);
+            }
+        }
+
+        this.media = media;
+        this.http = http;
+        this.rtsp = rtsp;
+        this.control = control;
+        this.input = input;
+        logger.info("Fake GameStream server is listening at {}", address.getHostAddress());
+    }
+
+    InetAddress address() {
+        return address;
+    }
+
+    String hostname() {
+        return "FakeGameStream";
+    }
+
+    String uniqueId() {
+        return uniqueId;
+    }
+
+    boolean isPaired(String clientId) {
+        return !requirePairing || pairedClients.contains(clientId);
+    }
+
+    void setPaired(String clientId, boolean paired) {
+        if (paired) {
+            pairedClients.add(clientId);
+        } else {
+            pairedClients.remove(clientId);
+        }
+    }
+
+    String readPin() {
+        return pinSupplier.get();
+    }
+
+    int currentGame() {
+        return currentGame;
+    }
+
+    SecretKey riKey() {
+        return riKey;
+    }
+
+    int riKeyId() {
+        return riKeyId;
+    }
+
+    boolean supportsHevc() {
+        return recordingFormat == null || recordingFormat == VideoFormat.H265;
+    }
+
+    void launch(int appId, SecretKey riKey, int riKeyId) {
+        logger.info("Launching the app {}", appId);
+        media.stop();
+        this.riKey = riKey;
+        this.riKeyId = riKeyId;
+        currentGame = appId;
+    }
+
+    boolean resume(SecretKey riKey, int riKeyId) {
+        if (currentGame == 0) {
+            return false;
+        }
+        logger.info("Resuming the app {}", currentGame);
+        media.stop();
+        this.riKey = riKey;
+        this.riKeyId = riKeyId;
+        return true;
+    }
+
+    void quit() {
+        logger.info("Quitting the app {}", currentGame);
+        media.stop();
+        currentGame = 0;
+        riKey = null;
+    }
+
+    void announce(StreamParameters params) {
+        logger.info("The client asked for {}", params);
+        streamParameters = params;
+    }
+
+    /**
+     * Starts streaming with the parameters announced by the client.
+     *
+     * @return {@code false} if the client has not announced the parameters or no app is running
+     */
+    boolean play() {
+        StreamParameters params = streamParameters;
+        if (params == null || currentGame == 0) {
+            return false;
+        }
+
+        FrameSource videoSource = null;
+        FrameSource audioSource = null;
+        try {
+            if (recording != null) {
+                RecordedVideoSource recordedVideo = new RecordedVideoSource(recording);
+                videoSource = recordedVideo;
+                if (recordedVideo.format() != params.videoFormat) {
+                    logger.warn("The client asked for {}, but {} contains {}",
+                                params.videoFormat, recording, recordedVideo.format());
+                }
+
+                RecordedAudioSource recordedAudio = new RecordedAudioSource(recording);
+                if (recordedAudio.channelCount() == params.audioChannelCount) {
+                    audioSource = recordedAudio;
+                } else {
+                    logger.warn("The client asked for {} audio channels, but {} contains {}; " +
+                                "sending the synthetic audio", params.audioChannelCount, recording,
+                                recordedAudio.channelCount());
+                    recordedAudio.close();
+                }
+            } else {
+                int bitrateKbps = this.bitrateKbps != 0 ? this.bitrateKbps : params.bitrateKbps;
+                videoSource = new SyntheticVideoSource(params.videoFormat, bitrateKbps * 1000 / 8 / params.fps);
+            }
+            if (audioSource == null) {
+                audioSource = new SyntheticAudioSource(params.audioChannelCount);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to open {}", recording, e);
+            close(videoSource, audioSource);
+            return false;
+        }
+
+        media.start(params, packetSize != 0 ? packetSize : params.packetSize, videoSource, audioSource);
+        return true;
+    }
+
+    void requestIdrFrame() {
+        media.requestIdrFrame();
+    }
+
+    void controlStreamOpened() {
+        numControlStreams.incrementAndGet();
+    }
+
+    void controlStreamClosed() {
+        // The session ends when the client disconnects.
+        if (numControlStreams.decrementAndGet() == 0) {
+            media.stop();
+        }
+    }
+
+    @Override
+    public void close() {
+        close(input, control, rtsp, http, media);
+        logger.info("Fake GameStream server has been stopped");
+    }
+
+    private static void close(Closeable... closeables) {
+        for (Closeable c : closeables) {
+            if (c == null) {
+                continue;
+            }
+            try {
+                c.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close {}", c, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.http.NvHTTP;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * Serves the HTTP and HTTPS requests of the client, i.e. the server information, the application list,
+ * the launch, resume and quit of the application, and the pairing. The responses are the XML documents
+ * GFE sends, and an error is reported with the {@code status_code} attribute of the root element as GFE does.
+ * The HTTPS port uses a self-signed certificate generated at startup, which is also the certificate
+ * the client gets when it pairs.
+ */
+final class FakeHttpServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeHttpServer.class);
+
+    private final FakeGameStreamServer server;
+    private final KeyPair keyPair;
+    private final X509Certificate cert;
+    private final FakePairing pairing;
+    private final ExecutorService executor;
+    private final HttpServer http;
+    private final HttpsServer https;
+
+    FakeHttpServer(FakeGameStreamServer server, InetAddress address) throws IOException {
+        this.server = server;
+
+        try {
+            KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            keyPair = keyPairGenerator.generateKeyPair();
+            cert = generateCertificate(keyPair);
+        } catch (Exception e) {
+            throw new IOException("Failed to generate the server certificate", e);
+        }
+
+        pairing = new FakePairing(server, keyPair.getPrivate(), cert);
+
+        // Use a thread per request, because the first pairing request blocks until the PIN is entered.
+        executor = Executors.newCachedThreadPool(task -> {
+            Thread t = new Thread(task);
+            t.setName("FakeServer - HTTP");
+            t.setDaemon(true);
+            return t;
+        });
+
+        http = HttpServer.create(new InetSocketAddress(address, NvHTTP.HTTP_PORT), 0);
+        boolean success = false;
+        try {
+            https = HttpsServer.create(new InetSocketAddress(address, NvHTTP.HTTPS_PORT), 0);
+            https.setHttpsConfigurator(new HttpsConfigurator(newSslContext()));
+            success = true;
+        } finally {
+            if (!success) {
+                http.stop(0);
+                executor.shutdown();
+            }
+        }
+
+        for (HttpServer s : new HttpServer[] { http, https }) {
+            s.createContext("/serverinfo", exchange -> handle(exchange, this::serverInfo));
+            s.createContext("/applist", exchange -> handle(exchange, this::appList));
+            s.createContext("/launch", exchange -> handle(exchange, this::launch));
+            s.createContext("/resume", exchange -> handle(exchange, this::resume));
+            s.createContext("/cancel", exchange -> handle(exchange, this::cancel));
+            s.createContext("/pair", exchange -> handle(exchange, pairing::pair));
+            s.createContext("/unpair", exchange -> handle(exchange, pairing::unpair));
+            s.setExecutor(executor);
+            s.start();
+        }
+    }
+
+    private static X509Certificate generateCertificate(KeyPair keyPair) throws Exception {
+        Date now = new Date();
+        Date expirationDate = new Date(now.getTime() + TimeUnit.DAYS.toMillis(365));
+        X500Name name = new X500Name("CN=Fake GameStream Server");
+        JcaX509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(
+                name, new BigInteger(64, new SecureRandom()), now, expirationDate, name, keyPair.getPublic());
+        return new JcaX509CertificateConverter().getCertificate(
+                certBuilder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+    }
+
+    private SSLContext newSslContext() throws IOException {
+        try {
+            char[] password = new char[0];
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(null, null);
+            keyStore.setKeyEntry("server", keyPair.getPrivate(), password, new Certificate[] { cert });
+
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(keyStore, password);
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(kmf.getKeyManagers(), null, new SecureRandom());
+            return sslContext;
+        } catch (Exception e) {
+            throw new IOException("Failed to initialize the TLS context", e);
+        }
+    }
+
+    private void handle(HttpExchange exchange, RequestHandler handler) throws IOException {
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String uniqueId = params.getOrDefault("uniqueid", "");
+            logger.debug("{} {} from {}", exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                         uniqueId);
+
+            String content;
+            try {
+                content = "<root status_code=\"200\">" + handler.handle(uniqueId, params) + "</root>";
+            } catch (GfeException e) {
+                logger.info("{} failed: {}", exchange.getRequestURI().getPath(), e.getMessage());
+                content = "<root status_code=\"" + e.statusCode + "\" status_message=\"" +
+                          e.getMessage() + "\"></root>";
+            }
+
+            byte[] body = ("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" + content)
+                    .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/xml");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to handle {}", exchange.getRequestURI(), e);
+            exchange.sendResponseHeaders(500, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String param : query.split("&")) {
+            int equals = param.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(param.substring(0, equals), "UTF-8"),
+                           URLDecoder.decode(param.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private String serverInfo(String uniqueId, Map<String, String> params) {
+        int currentGame = server.currentGame();
+        String localIp = server.address().getHostAddress();
+        return "<hostname>" + server.hostname() + "</hostname>" +
+               "<appversion>" + FakeGameStreamServer.APP_VERSION + "</appversion>" +
+               // Report GFE 3.x, which lets the client ask for 4K.
+               "<GfeVersion>3.0.0.0</GfeVersion>" +
+               "<uniqueid>" + server.uniqueId() + "</uniqueid>" +
+               "<mac>00:00:00:00:00:00</mac>" +
+               "<LocalIP>" + localIp + "</LocalIP>" +
+               "<ExternalIP>" + localIp + "</ExternalIP>" +
+               "<PairStatus>" + (server.isPaired(uniqueId) ? 1 : 0) + "</PairStatus>" +
+               "<currentgame>" + currentGame + "</currentgame>" +
+               "<state>" + (currentGame != 0 ? "MJOLNIR_STATE_SERVER_BUSY" : "MJOLNIR_STATE_SERVER_AVAILABLE") +
+               "</state>" +
+               "<CurrentClient>1</CurrentClient>" +
+               "<SupportedDisplayMode>" +
+               "<DisplayMode><Width>3840</Width><Height>2160</Height><RefreshRate>60</RefreshRate></DisplayMode>" +
+               "</SupportedDisplayMode>";
+    }
+
+    private String appList(String uniqueId, Map<String, String> params) throws GfeException {
+        checkPaired(uniqueId);
+        return "<App><AppTitle>" + FakeGameStreamServer.APP_NAME + "</AppTitle>" +
+               "<ID>" + FakeGameStreamServer.APP_ID + "</ID>" +
+               "<IsRunning>" + (server.currentGame() != 0 ? 1 : 0) + "</IsRunning></App>";
+    }
+
+    private String launch(String uniqueId, Map<String, String> params) throws GfeException {
+        checkPaired(uniqueId);
+        int appId = parseInt(params, "appid");
+        if (appId != FakeGameStreamServer.APP_ID) {
+            throw new GfeException(404, "No such app: " + appId);
+        }
+        server.launch(appId, parseRiKey(params), parseInt(params, "rikeyid"));
+        return "<gamesession>1</gamesession>";
+    }
+
+    private String resume(String uniqueId, Map<String, String> params) throws GfeException {
+        checkPaired(uniqueId);
+        boolean resumed = server.resume(parseRiKey(params), parseInt(params, "rikeyid"));
+        return "<resume>" + (resumed ? 1 : 0) + "</resume>";
+    }
+
+    private String cancel(String uniqueId, Map<String, String> params) throws GfeException {
+        checkPaired(uniqueId);
+        server.quit();
+        return "<cancel>1</cancel>";
+    }
+
+    private void checkPaired(String uniqueId) throws GfeException {
+        if (!server.isPaired(uniqueId)) {
+            throw new GfeException(401, "The client is not paired");
+        }
+    }
+
+    private static int parseInt(Map<String, String> params, String name) throws GfeException {
+        try {
+            return Integer.parseInt(params.get(name));
+        } catch (NumberFormatException e) {
+            throw new GfeException(400, "Invalid " + name + ": " + params.get(name));
+        }
+    }
+
+    private static SecretKey parseRiKey(Map<String, String> params) throws GfeException {
+        String hex = params.get("rikey");
+        if (hex == null || hex.length() != 32) {
+            throw new GfeException(400, "Invalid rikey: " + hex);
+        }
+        return new SecretKeySpec(FakePairing.hexToBytes(hex), "AES");
+    }
+
+    @Override
+    public void close() {
+        http.stop(0);
+        https.stop(0);
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    interface RequestHandler {
+        /**
+         * Returns the content of the root element of the response.
+         */
+        String handle(String uniqueId, Map<String, String> params) throws GfeException;
+    }
+
+    /**
+     * An error reported with the {@code status_code} attribute of the response.
+     */
+    static final class GfeException extends Exception {
+        private static final long serialVersionUID = 7418261740958297620L;
+
+        final int statusCode;
+
+        GfeException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Receives the input packets of a generation 4 server over TCP. Each packet consists of a 32-bit big endian
+ * length and the packet encrypted with AES/CBC, whose key and IV are derived from the remote input key
+ * given at the launch. The cipher is not reset between the packets. The decrypted packets are counted
+ * by their type, which is logged when the client disconnects.
+ */
+final class FakeInputServer extends FakeTcpServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeInputServer.class);
+
+    static final int PORT = 35043;
+
+    private final FakeGameStreamServer server;
+
+    FakeInputServer(FakeGameStreamServer server, InetAddress address) throws IOException {
+        super("Input", address, PORT);
+        this.server = server;
+        start();
+    }
+
+    @Override
+    void serve(Socket s) throws IOException {
+        logger.info("Input stream connected from {}", s.getRemoteSocketAddress());
+
+        SecretKey riKey = server.riKey();
+        if (riKey == null) {
+            logger.warn("Rejected an input stream without a launched app");
+            return;
+        }
+
+        Cipher cipher;
+        try {
+            cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            byte[] iv = ByteBuffer.allocate(16).putInt(server.riKeyId()).array();
+            cipher.init(Cipher.DECRYPT_MODE, riKey, new IvParameterSpec(iv));
+        } catch (Exception e) {
+            throw new IOException("Failed to initialize the input cipher", e);
+        }
+
+        InputStream in = s.getInputStream();
+        byte[] header = new byte[4];
+        byte[] encrypted = new byte[0];
+        Map<String, Long> numPackets = new TreeMap<>();
+        try {
+            for (;;) {
+                if (ByteStreams.read(in, header, 0, 4) != 4) {
+                    break;
+                }
+                int length = ByteBuffer.wrap(header).getInt();
+                if (length < 16 || length % 16 != 0 || length > 65536) {
+                    throw new IOException("Invalid input packet length: " + length);
+                }
+                if (encrypted.length < length) {
+                    encrypted = new byte[length];
+                }
+                ByteStreams.readFully(in, encrypted, 0, length);
+
+                byte[] decrypted = cipher.update(encrypted, 0, length);
+                int type = ByteBuffer.wrap(decrypted).getInt();
+                numPackets.merge("0x" + Integer.toHexString(type), 1L, Long::sum);
+            }
+        } catch (EOFException ignored) {
+            // Disconnected in the middle of a packet.
+        } finally {
+            logger.info("Input stream disconnected from {} (packets by type: {})",
+                        s.getRemoteSocketAddress(), numPackets);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.limelight.nvstream.av.RtpPacket;
+import com.limelight.nvstream.av.audio.AudioStream;
+import com.limelight.nvstream.av.video.VideoStream;
+
+/**
+ * Sends the video frames and the audio packets of a session over UDP as a generation 4 server does,
+ * i.e. without the frame header and the FEC packets of the newer servers.
+ *
+ * <p>Each video frame is split into the datagrams of the negotiated packet size and sent in a burst at
+ * the frame rate, and an audio packet is sent every {@value #AUDIO_PACKET_DURATION_MS} milliseconds.
+ * The datagrams are sent to the address that sent the last ping to each port, and nothing is sent until
+ * the video stream sends its first ping. A datagram is dropped at the configured loss rate, and when
+ * the socket buffer is full, which is no different from a loss on the network.
+ */
+final class FakeMediaServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeMediaServer.class);
+
+    private static final int SEND_BUFFER = 1024 * 1024;
+    private static final int AUDIO_PACKET_DURATION_MS = 5;
+    private static final long PING_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int NV_HEADER_SIZE = 16;
+    private static final int FLAG_CONTAINS_PIC_DATA = 0x1;
+    private static final int FLAG_EOF = 0x2;
+    private static final int FLAG_SOF = 0x4;
+
+    private final DatagramChannel video;
+    private final DatagramChannel audio;
+    private final double lossRate;
+    private final ByteBuffer pingBuffer = ByteBuffer.allocate(16);
+
+    private Session session;
+
+    FakeMediaServer(InetAddress address, double lossPercentage) throws IOException {
+        lossRate = lossPercentage / 100;
+        video = bind(address, VideoStream.RTP_PORT);
+        boolean success = false;
+        try {
+            audio = bind(address, AudioStream.RTP_PORT);
+            success = true;
+        } finally {
+            if (!success) {
+                video.close();
+            }
+        }
+    }
+
+    private static DatagramChannel bind(InetAddress address, int port) throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        boolean success = false;
+        try {
+            ch.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);
+            ch.bind(new InetSocketAddress(address, port));
+            ch.configureBlocking(false);
+            success = true;
+            return ch;
+        } finally {
+            if (!success) {
+                ch.close();
+            }
+        }
+    }
+
+    /**
+     * Starts a session which sends the frames from the specified sources, stopping the current one if any.
+     */
+    synchronized void start(StreamParameters params, int packetSize,
+                            FrameSource videoSource, FrameSource audioSource) {
+        stop();
+        session = new Session(params, packetSize, videoSource, audioSource);
+    }
+
+    synchronized void requestIdrFrame() {
+        if (session != null) {
+            session.videoSource.requestIdrFrame();
+        }
+    }
+
+    synchronized void stop() {
+        if (session != null) {
+            session.stop();
+            session = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+        closeQuietly(video);
+        closeQuietly(audio);
+    }
+
+    private SocketAddress receivePing(DatagramChannel ch, SocketAddress client) throws IOException {
+        for (;;) {
+            pingBuffer.clear();
+            SocketAddress sender = ch.receive(pingBuffer);
+            if (sender == null) {
+                return client;
+            }
+            if (client == null) {
+                logger.info("Received the first ping from {} at {}", sender, ch.getLocalAddress());
+            }
+            client = sender;
+        }
+    }
+
+    private void discardPings(DatagramChannel ch) throws IOException {
+        do {
+            pingBuffer.clear();
+        } while (ch.receive(pingBuffer) != null);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close {}", c, e);
+        }
+    }
+
+    private final class Session {
+        final StreamParameters params;
+        final FrameSource videoSource;
+        final FrameSource audioSource;
+        final int payloadLength;
+        final ByteBuffer videoDatagram;
+        final ByteBuffer audioDatagram;
+        final Random random = new Random();
+        final Thread thread;
+        volatile boolean stopped;
+
+        SocketAddress videoClient;
+        SocketAddress audioClient;
+        int videoSequenceNumber;
+        int audioSequenceNumber;
+        int streamPacketIndex;
+        int frameIndex;
+
+        long framesSent;
+        long videoDatagramsSent;
+        long videoBytesSent;
+        long audioDatagramsSent;
+        long datagramsLost;
+        long datagramsDropped;
+
+        Session(StreamParameters params, int packetSize, FrameSource videoSource, FrameSource audioSource) {
+            this.params = params;
+            this.videoSource = videoSource;
+            this.audioSource = audioSource;
+            payloadLength = packetSize - NV_HEADER_SIZE;
+            videoDatagram = ByteBuffer.allocateDirect(RtpPacket.MAX_HEADER_SIZE + packetSize)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+            audioDatagram = ByteBuffer.allocateDirect(RtpPacket.FIXED_HEADER_SIZE + 65536);
+
+            thread = new Thread(this::serve);
+            thread.setName("FakeServer - Media");
+            thread.setPriority(Thread.MAX_PRIORITY - 1);
+            thread.start();
+        }
+
+        private void serve() {
+            long startTime = 0;
+            try {
+                // Forget the pings sent by the client of the previous session.
+                discardPings(video);
+                discardPings(audio);
+
+                long deadline = System.nanoTime() + PING_TIMEOUT_NANOS;
+                while ((videoClient = receivePing(video, null)) == null) {
+                    if (stopped) {
+                        return;
+                    }
+                    if (System.nanoTime() - deadline > 0) {
+                        logger.warn("The client did not ping the video port; not streaming");
+                        return;
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+                }
+
+                logger.info("Streaming {}", params);
+                long frameInterval = TimeUnit.SECONDS.toNanos(1) / params.fps;
+                long audioInterval = TimeUnit.MILLISECONDS.toNanos(AUDIO_PACKET_DURATION_MS);
+                startTime = System.nanoTime();
+                long nextVideoTime = startTime;
+                long nextAudioTime = startTime;
+                boolean hasVideo = true;
+                boolean hasAudio = true;
+                while (!stopped && (hasVideo || hasAudio)) {
+                    long currentTime = System.nanoTime();
+                    if (hasVideo && currentTime - nextVideoTime >= 0) {
+                        videoClient = receivePing(video, videoClient);
+                        hasVideo = sendVideoFrame();
+                        nextVideoTime += frameInterval;
+                        if (currentTime - nextVideoTime > TimeUnit.SECONDS.toNanos(1)) {
+                            // Fell behind too much, e.g. after a long GC pause. Do not send a burst.
+                            nextVideoTime = currentTime;
+                        }
+                    }
+                    if (hasAudio && currentTime - nextAudioTime >= 0) {
+                        audioClient = receivePing(audio, audioClient);
+                        hasAudio = sendAudioPacket();
+                        nextAudioTime += audioInterval;
+                        if (currentTime - nextAudioTime > TimeUnit.SECONDS.toNanos(1)) {
+                            nextAudioTime = currentTime;
+                        }
+                    }
+
+                    long nextTime = hasVideo ? nextVideoTime : nextAudioTime;
+                    if (hasAudio && nextAudioTime - nextTime < 0) {
+                        nextTime = nextAudioTime;
+                    }
+                    long delay = nextTime - System.nanoTime();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(delay);
+                    }
+                }
+            } catch (ClosedChannelException ignored) {
+            } catch (IOException e) {
+                logger.warn("Failed to stream", e);
+            } finally {
+                if (startTime != 0) {
+                    double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+                    logger.info("Sent {} frames in {} video datagrams ({} kbps) and {} audio datagrams " +
+                                "in {} seconds ({} lost on purpose, {} dropped)",
+                                framesSent, videoDatagramsSent,
+                                elapsedSeconds > 0 ? (long) (videoBytesSent * 8 / elapsedSeconds / 1000) : 0,
+                                audioDatagramsSent, String.format(Locale.ROOT, "%.1f", elapsedSeconds),
+                                datagramsLost, datagramsDropped);
+                }
+                closeQuietly(videoSource);
+                closeQuietly(audioSource);
+            }
+        }
+
+        private boolean sendVideoFrame() throws IOException {
+            ByteBuffer frame = videoSource.nextFrame();
+            if (frame == null) {
+                return false;
+            }
+
+            frameIndex++;
+            int numPackets = Math.max(1, (frame.remaining() + payloadLength - 1) / payloadLength);
+            for (int i = 0; i < numPackets; i++) {
+                int flags = FLAG_CONTAINS_PIC_DATA;
+                if (i == 0) {
+                    flags |= FLAG_SOF;
+                }
+                if (i == numPackets - 1) {
+                    flags |= FLAG_EOF;
+                }
+
+                videoDatagram.clear();
+                // The RTP header is big endian while the rest of the header is little endian.
+                videoDatagram.put(0, (byte) 0x90);
+                videoDatagram.put(1, (byte) 0x60);
+                videoDatagram.putShort(2, Short.reverseBytes((short) videoSequenceNumber++));
+                videoDatagram.putInt(4, Integer.reverseBytes(frameIndex * (90000 / params.fps)));
+                videoDatagram.putInt(8, 0);
+                videoDatagram.putInt(12, 0);
+                videoDatagram.putInt(RtpPacket.MAX_HEADER_SIZE, (streamPacketIndex++ & 0xFFFFFF) << 8);
+                videoDatagram.putInt(RtpPacket.MAX_HEADER_SIZE + 4, frameIndex);
+                videoDatagram.putInt(RtpPacket.MAX_HEADER_SIZE + 8, flags);
+                videoDatagram.putInt(RtpPacket.MAX_HEADER_SIZE + 12, 0);
+                videoDatagram.position(RtpPacket.MAX_HEADER_SIZE + NV_HEADER_SIZE);
+
+                int limit = frame.limit();
+                frame.limit(Math.min(limit, frame.position() + payloadLength));
+                videoDatagram.put(frame);
+                frame.limit(limit);
+                videoDatagram.flip();
+
+                int length = videoDatagram.remaining();
+                if (send(video, videoDatagram, videoClient)) {
+                    videoDatagramsSent++;
+                    videoBytesSent += length;
+                }
+            }
+            framesSent++;
+            return true;
+        }
+
+        private boolean sendAudioPacket() throws IOException {
+            ByteBuffer packet = audioSource.nextFrame();
+            if (packet == null) {
+                return false;
+            }
+
+            int sequenceNumber = audioSequenceNumber++;
+            audioDatagram.clear();
+            audioDatagram.put((byte) 0x80);
+            audioDatagram.put((byte) 97);
+            audioDatagram.putShort((short) sequenceNumber);
+            audioDatagram.putInt(sequenceNumber * AUDIO_PACKET_DURATION_MS);
+            audioDatagram.putInt(0);
+            audioDatagram.put(packet);
+            audioDatagram.flip();
+
+            if (audioClient != null && send(audio, audioDatagram, audioClient)) {
+                audioDatagramsSent++;
+            }
+            return true;
+        }
+
+        private boolean send(DatagramChannel ch, ByteBuffer datagram, SocketAddress client) throws IOException {
+            if (lossRate > 0 && random.nextDouble() < lossRate) {
+                datagramsLost++;
+                return false;
+            }
+
+            // A non-blocking send fails silently when the socket buffer is full.
+            if (ch.send(datagram, client) == 0) {
+                datagramsDropped++;
+                return false;
+            }
+            return true;
+        }
+
+        void stop() {
+            // Do not interrupt the thread, because it would close the channels shared by all sessions.
+            stopped = true;
+            LockSupport.unpark(thread);
+            Uninterruptibles.joinUninterruptibly(thread);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.fakeserver.FakeHttpServer.GfeException;
+
+/**
+ * The server side of the pairing done by {@link com.limelight.nvstream.http.PairingManager}. It takes five
+ * requests, in each of which the client and the server prove that they know the same PIN and own
+ * the private keys of their certificates, by exchanging the challenges encrypted with the key derived from
+ * the PIN and the secrets signed with their private keys. The first request blocks until the PIN is
+ * entered, as GFE waits for the user to type it. A generation 4 server hashes with SHA-1.
+ */
+final class FakePairing {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakePairing.class);
+
+    private static final int HASH_LENGTH = 20;
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private final FakeGameStreamServer server;
+    private final PrivateKey privateKey;
+    private final X509Certificate cert;
+    private final String pemCertHex;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    FakePairing(FakeGameStreamServer server, PrivateKey privateKey, X509Certificate cert) throws IOException {
+        this.server = server;
+        this.privateKey = privateKey;
+        this.cert = cert;
+
+        StringWriter pem = new StringWriter();
+        try (JcaPEMWriter pemWriter = new JcaPEMWriter(pem)) {
+            pemWriter.writeObject(cert);
+        }
+        pemCertHex = bytesToHex(pem.toString().replace("\r", "").getBytes(StandardCharsets.US_ASCII));
+    }
+
+    String pair(String uniqueId, Map<String, String> params) throws GfeException {
+        try {
+            if ("getservercert".equals(params.get("phrase"))) {
+                return getServerCert(uniqueId, params);
+            }
+            if ("pairchallenge".equals(params.get("phrase"))) {
+                return paired(server.isPaired(uniqueId));
+            }
+
+            Session session = sessions.get(uniqueId);
+            if (session == null) {
+                throw new GfeException(400, "Not pairing");
+            }
+            if (params.containsKey("clientchallenge")) {
+                return clientChallenge(session, params.get("clientchallenge"));
+            }
+            if (params.containsKey("serverchallengeresp")) {
+                return serverChallengeResponse(session, params.get("serverchallengeresp"));
+            }
+            if (params.containsKey("clientpairingsecret")) {
+                return clientPairingSecret(uniqueId, session, params.get("clientpairingsecret"));
+            }
+            throw new GfeException(400, "Unknown pairing request");
+        } catch (GeneralSecurityException e) {
+            logger.warn("Failed to pair with {}", uniqueId, e);
+            sessions.remove(uniqueId);
+            return paired(false);
+        }
+    }
+
+    String unpair(String uniqueId, Map<String, String> params) {
+        sessions.remove(uniqueId);
+        server.setPaired(uniqueId, false);
+        return "";
+    }
+
+    private String getServerCert(String uniqueId, Map<String, String> params) throws GeneralSecurityException {
+        byte[] salt = hexToBytes(params.get("salt"));
+        X509Certificate clientCert = (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(
+                new ByteArrayInputStream(hexToBytes(params.get("clientcert"))));
+
+        logger.info("Pairing with {}; enter the PIN shown by the client ..", uniqueId);
+        String pin = server.readPin();
+        if (pin == null) {
+            return paired(false);
+        }
+
+        byte[] saltAndPin = concat(salt, pin.getBytes(StandardCharsets.UTF_8));
+        SecretKey aesKey = new SecretKeySpec(Arrays.copyOf(hash(saltAndPin), 16), "AES");
+        sessions.put(uniqueId, new Session(aesKey, clientCert));
+        return paired(true) + "<plaincert>" + pemCertHex + "</plaincert>";
+    }
+
+    private String clientChallenge(Session session, String encryptedChallenge) throws GeneralSecurityException {
+        byte[] clientChallenge = Arrays.copyOf(decrypt(session.aesKey, hexToBytes(encryptedChallenge)), 16);
+
+        session.serverSecret = randomBytes(16);
+        session.serverChallenge = randomBytes(16);
+        byte[] response = hash(concat(concat(clientChallenge, cert.getSignature()), session.serverSecret));
+        byte[] challengeResponse = encrypt(session.aesKey, concat(response, session.serverChallenge));
+        return paired(true) + "<challengeresponse>" + bytesToHex(challengeResponse) + "</challengeresponse>";
+    }
+
+    private String serverChallengeResponse(Session session, String encryptedResponse)
+            throws GeneralSecurityException {
+        if (session.serverChallenge == null) {
+            return paired(false);
+        }
+
+        session.clientResponse = Arrays.copyOf(decrypt(session.aesKey, hexToBytes(encryptedResponse)),
+                                               HASH_LENGTH);
+
+        Signature sig = Signature.getInstance("SHA256withRSA");
+        sig.initSign(privateKey);
+        sig.update(session.serverSecret);
+        byte[] pairingSecret = concat(session.serverSecret, sig.sign());
+        return paired(true) + "<pairingsecret>" + bytesToHex(pairingSecret) + "</pairingsecret>";
+    }
+
+    private String clientPairingSecret(String uniqueId, Session session, String pairingSecretHex)
+            throws GeneralSecurityException {
+        sessions.remove(uniqueId);
+        if (session.clientResponse == null) {
+            return paired(false);
+        }
+
+        byte[] pairingSecret = hexToBytes(pairingSecretHex);
+        if (pairingSecret.length <= 16) {
+            return paired(false);
+        }
+        byte[] clientSecret = Arrays.copyOf(pairingSecret, 16);
+        byte[] clientSignature = Arrays.copyOfRange(pairingSecret, 16, pairingSecret.length);
+
+        Signature sig = Signature.getInstance("SHA256withRSA");
+        sig.initVerify(session.clientCert.getPublicKey());
+        sig.update(clientSecret);
+        if (!sig.verify(clientSignature)) {
+            logger.warn("Failed to pair with {}: invalid signature", uniqueId);
+            return paired(false);
+        }
+
+        // The response to the server challenge proves that the client knows the PIN.
+        byte[] expectedResponse = hash(concat(concat(session.serverChallenge,
+                                                     session.clientCert.getSignature()), clientSecret));
+        if (!MessageDigest.isEqual(expectedResponse, session.clientResponse)) {
+            logger.warn("Failed to pair with {}: wrong PIN", uniqueId);
+            return paired(false);
+        }
+
+        server.setPaired(uniqueId, true);
+        logger.info("Paired with {}", uniqueId);
+        return paired(true);
+    }
+
+    private static String paired(boolean paired) {
+        return "<paired>" + (paired ? 1 : 0) + "</paired>";
+    }
+
+    private static byte[] hash(byte[] data) throws GeneralSecurityException {
+        return MessageDigest.getInstance("SHA-1").digest(data);
+    }
+
+    private static byte[] encrypt(SecretKey key, byte[] data) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key);
+        return cipher.doFinal(Arrays.copyOf(data, (data.length + 15) / 16 * 16));
+    }
+
+    private static byte[] decrypt(SecretKey key, byte[] data) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key);
+        return cipher.doFinal(Arrays.copyOf(data, (data.length + 15) / 16 * 16));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    static byte[] hexToBytes(String hex) {
+        if (hex == null || hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hex string: " + hex);
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String bytesToHex(byte[] bytes) {
+        char[] hexChars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int v = bytes[i] & 0xFF;
+            hexChars[i * 2] = HEX_DIGITS[v >>> 4];
+            hexChars[i * 2 + 1] = HEX_DIGITS[v & 0x0F];
+        }
+        return new String(hexChars);
+    }
+
+    private static final class Session {
+        final SecretKey aesKey;
+        final X509Certificate clientCert;
+        byte[] serverSecret;
+        byte[] serverChallenge;
+        byte[] clientResponse;
+
+        Session(SecretKey aesKey, X509Certificate clientCert) {
+            this.aesKey = aesKey;
+            this.clientCert = clientCert;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import com.limelight.nvstream.av.audio.AudioStream;
+import com.limelight.nvstream.av.video.VideoStream;
+import com.limelight.nvstream.rtsp.RtspConnection;
+import com.tinyrtsp.rtsp.message.RtspMessage;
+import com.tinyrtsp.rtsp.message.RtspRequest;
+import com.tinyrtsp.rtsp.message.RtspResponse;
+import com.tinyrtsp.rtsp.parser.RtspParseException;
+import com.tinyrtsp.rtsp.parser.RtspStream;
+
+/**
+ * Answers the RTSP handshake of a generation 4 server over TCP, one request per connection.
+ * The DESCRIBE response advertises HEVC if the video source can send it, the ANNOUNCE request carries
+ * the stream parameters of the client, and the PLAY request of the video stream starts the session.
+ */
+final class FakeRtspServer extends FakeTcpServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeRtspServer.class);
+
+    private static final String SESSION_ID = "1";
+
+    private final FakeGameStreamServer server;
+
+    FakeRtspServer(FakeGameStreamServer server, InetAddress address) throws IOException {
+        super("RTSP", address, RtspConnection.PORT);
+        this.server = server;
+        start();
+    }
+
+    @Override
+    void serve(Socket s) throws IOException {
+        InputStream in = s.getInputStream();
+        RtspStream rtspStream = new RtspStream(in, s.getOutputStream());
+        RtspMessage message;
+        try {
+            message = rtspStream.read();
+        } catch (RtspParseException e) {
+            throw new IOException("Failed to parse an RTSP request", e);
+        }
+        if (!(message instanceof RtspRequest)) {
+            throw new IOException("Not an RTSP request: " + message);
+        }
+
+        RtspRequest req = (RtspRequest) message;
+        if (Strings.isNullOrEmpty(req.getPayload()) && req.getOption("Content-length") != null) {
+            // RtspStream reads the payload only when the header is spelled 'Content-Length'.
+            byte[] payload = new byte[Integer.parseInt(req.getOption("Content-length").trim())];
+            ByteStreams.readFully(in, payload);
+            req.setPayload(new String(payload, StandardCharsets.ISO_8859_1));
+        }
+
+        logger.debug("RTSP {} {}", req.getCommand(), req.getTarget());
+        RtspResponse res = new RtspResponse("RTSP/1.0", 200, "OK", req.getSequenceNumber(),
+                                            new HashMap<>(), null);
+        switch (req.getCommand()) {
+            case "OPTIONS":
+                break;
+            case "DESCRIBE":
+                res.setPayload(describe());
+                break;
+            case "SETUP":
+                res.setOption("Session", SESSION_ID);
+                res.setOption("Transport", "unicast");
+                break;
+            case "ANNOUNCE":
+                if (Strings.isNullOrEmpty(req.getPayload())) {
+                    res.setStatus(400, "Bad Request");
+                } else {
+                    server.announce(StreamParameters.parse(req.getPayload()));
+                }
+                break;
+            case "PLAY":
+                if (req.getTarget().endsWith("video") && !server.play()) {
+                    res.setStatus(455, "Method Not Valid In This State");
+                }
+                break;
+            default:
+                res.setStatus(501, "Not Implemented");
+        }
+
+        if (res.getPayload() != null) {
+            res.setOption("Content-Length", String.valueOf(res.getPayload().length()));
+        }
+        rtspStream.write(res);
+    }
+
+    private String describe() {
+        // The client looks for the base64-encoded prefix of a VPS NAL unit to tell if HEVC is supported.
+        String spropParameterSets = server.supportsHevc() ? "AAAAAUAB" : "AAAAAWdk";
+        return "v=0\r\n" +
+               "o=- 0 0 IN IP4 0.0.0.0\r\n" +
+               "s=Fake GameStream\r\n" +
+               "t=0 0\r\n" +
+               "m=video " + VideoStream.RTP_PORT + " RTP/AVP 96\r\n" +
+               "a=fmtp:96 sprop-parameter-sets=" + spropParameterSets + "\r\n" +
+               "m=audio " + AudioStream.RTP_PORT + " RTP/AVP 97\r\n";
+    }
+}
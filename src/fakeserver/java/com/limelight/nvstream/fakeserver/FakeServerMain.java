@@ -0,0 +1,131 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Runs a {@link FakeGameStreamServer} until it is interrupted, e.g.
+ * {@code ./gradlew fakeServer -PfakeServerArgs='-bitrate 50 -loss 1'}.
+ */
+public final class FakeServerMain {
+
+    @Parameter(names = "-address", description = "The IP address to listen to")
+    private String address = "127.0.0.1";
+
+    @Parameter(
+            names = "-bitrate",
+            description = "The bitrate of the synthetic video in Mbps. The bitrate the client asks for by default.")
+    private int bitrateMbps;
+
+    @Parameter(
+            names = "-packetsize",
+            description = "The size of the video packets in bytes. The size the client asks for by default.")
+    private int packetSize;
+
+    @Parameter(names = "-loss", description = "The percentage of the video and audio packets to drop")
+    private double lossPercentage;
+
+    @Parameter(
+            names = "-replay",
+            description = "Streams the video and audio recorded with -capture option in the specified file " +
+                          "instead of the synthetic ones")
+    private String replayFile;
+
+    @Parameter(
+            names = "-requirepairing",
+            description = "Requires the client to pair before launching an application. " +
+                          "Otherwise, every client is reported as paired.")
+    private Boolean requirePairing;
+
+    @Parameter(names = { "-help", "-h" }, description = "Prints the usage", help = true)
+    private Boolean help;
+
+    private FakeServerMain() {}
+
+    private void run(String[] args) throws Exception {
+        JCommander commander = new JCommander(this);
+        commander.setProgramName("fakeserver");
+
+        try {
+            commander.parse(args);
+        } catch (ParameterException ignored) {
+            System.err.println("Invalid arguments: " + String.join(", ", args));
+            help = true;
+        }
+
+        if (parseAddress(address) == null) {
+            System.err.println("The value of -address option must be an IP address.");
+            help = true;
+        } else if (bitrateMbps < 0) {
+            System.err.println("The value of -bitrate option must not be negative.");
+            help = true;
+        } else if (packetSize != 0 && (packetSize < 64 || packetSize > 65507)) {
+            System.err.println("The value of -packetsize option must be between 64 and 65507.");
+            help = true;
+        } else if (lossPercentage < 0 || lossPercentage > 100) {
+            System.err.println("The value of -loss option must be between 0 and 100.");
+            help = true;
+        } else if (replayFile != null && bitrateMbps != 0) {
+            System.err.println("-bitrate option cannot be specified with -replay.");
+            help = true;
+        } else if (replayFile != null && !new File(replayFile).isFile()) {
+            System.err.println("The file specified with -replay option does not exist: " + replayFile);
+            help = true;
+        }
+
+        if (Boolean.TRUE.equals(help)) {
+            StringBuilder buf = new StringBuilder();
+            commander.usage(buf);
+            System.err.print(buf);
+            System.err.flush();
+            System.exit(1);
+            return;
+        }
+
+        BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        FakeGameStreamServer server = new FakeGameStreamServer.Builder()
+                .setAddress(parseAddress(address))
+                .setBitrate(bitrateMbps * 1000)
+                .setPacketSize(packetSize)
+                .setLossPercentage(lossPercentage)
+                .setRecording(replayFile != null ? new File(replayFile) : null)
+                .setRequirePairing(Boolean.TRUE.equals(requirePairing))
+                .setPinSupplier(() -> {
+                    try {
+                        return stdin.readLine();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "FakeServer - Shutdown"));
+        Thread.currentThread().join();
+    }
+
+    private static InetAddress parseAddress(String address) {
+        // Accept only a literal IP address, so that no name lookup happens.
+        if (address.isEmpty() || !Character.isDigit(address.charAt(0)) && address.indexOf(':') < 0) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(address);
+        } catch (UnknownHostException ignored) {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FakeServerMain().run(args);
+    }
+}
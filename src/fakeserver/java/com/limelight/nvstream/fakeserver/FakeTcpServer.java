@@ -0,0 +1,107 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.Util;
+
+/**
+ * Accepts the TCP connections to a port and serves each of them in its own thread.
+ */
+abstract class FakeTcpServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeTcpServer.class);
+
+    private final String name;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final Thread thread;
+
+    FakeTcpServer(String name, InetAddress address, int port) throws IOException {
+        this.name = name;
+        serverSocket = new ServerSocket();
+        boolean success = false;
+        try {
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(new InetSocketAddress(address, port));
+            success = true;
+        } finally {
+            if (!success) {
+                serverSocket.close();
+            }
+        }
+
+        thread = new Thread(this::accept);
+        thread.setName("FakeServer - " + name);
+    }
+
+    /**
+     * Starts accepting the connections. Invoked by the constructor of a subclass when it is ready to serve.
+     */
+    final void start() {
+        thread.start();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            Socket s;
+            try {
+                s = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.warn("Failed to accept a {} connection", name, e);
+                }
+                continue;
+            }
+
+            sockets.add(s);
+            Thread t = new Thread(() -> {
+                try {
+                    s.setTcpNoDelay(true);
+                    serve(s);
+                } catch (IOException e) {
+                    if (!s.isClosed()) {
+                        logger.warn("Failed to serve a {} connection from {}", name, s.getRemoteSocketAddress(), e);
+                    }
+                } finally {
+                    sockets.remove(s);
+                    closeQuietly(s);
+                }
+            });
+            t.setName("FakeServer - " + name + " - " + s.getRemoteSocketAddress());
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Serves the specified connection until it is closed. The connection is closed when this method returns.
+     */
+    abstract void serve(Socket s) throws IOException;
+
+    @Override
+    public void close() {
+        closeQuietly(serverSocket);
+        for (Socket s : sockets) {
+            closeQuietly(s);
+        }
+        Util.stop(thread);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close {}", c, e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the video frames or the audio packets the {@link FakeMediaServer} sends.
+ */
+interface FrameSource extends Closeable {
+
+    /**
+     * Returns the next frame, i.e. an Annex B access unit for a video source or an Opus packet for
+     * an audio source. The returned buffer is valid until the next call.
+     *
+     * @return {@code null} if there are no frames to send
+     */
+    ByteBuffer nextFrame() throws IOException;
+
+    /**
+     * Makes a video source send an IDR frame as soon as possible. Invoked by the thread which serves
+     * the control stream.
+     */
+    default void requestIdrFrame() {}
+
+    @Override
+    default void close() throws IOException {}
+}
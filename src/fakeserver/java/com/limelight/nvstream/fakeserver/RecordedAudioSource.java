@@ -0,0 +1,89 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.av.RtpPacket;
+import com.limelight.nvstream.av.capture.RtpCaptureHeader;
+import com.limelight.nvstream.av.capture.RtpCaptureReader;
+
+/**
+ * Reads the Opus packets from the audio datagrams in an RTP capture, skipping the FEC packets of newer
+ * servers. The capture is played in a loop.
+ */
+final class RecordedAudioSource implements FrameSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordedAudioSource.class);
+
+    private static final int OPUS_PAYLOAD_TYPE = 97;
+
+    private final File file;
+    private final int channelCount;
+    private final ByteBuffer datagram = ByteBuffer.allocate(65536);
+
+    private RtpCaptureReader reader;
+    private int numPacketsInPass;
+
+    RecordedAudioSource(File file) throws IOException {
+        this.file = file;
+        reader = new RtpCaptureReader(file);
+        channelCount = reader.header().getAudioChannelCount();
+    }
+
+    int channelCount() {
+        return channelCount;
+    }
+
+    @Override
+    public ByteBuffer nextFrame() throws IOException {
+        for (;;) {
+            if (!reader.next()) {
+                if (numPacketsInPass == 0) {
+                    logger.warn("No audio packets in {}", file);
+                    return null;
+                }
+
+                // Start over.
+                reader.close();
+                reader = new RtpCaptureReader(file);
+                numPacketsInPass = 0;
+                continue;
+            }
+
+            if (reader.streamType() != RtpCaptureHeader.AUDIO ||
+                reader.length() <= RtpPacket.FIXED_HEADER_SIZE) {
+                continue;
+            }
+
+            datagram.clear();
+            reader.read(datagram);
+            datagram.flip();
+
+            if ((datagram.get(1) & 0x7F) != OPUS_PAYLOAD_TYPE) {
+                continue;
+            }
+
+            // Skip the CSRCs and the header extension if any.
+            int offset = RtpPacket.FIXED_HEADER_SIZE + (datagram.get(0) & 0x0F) * 4;
+            if ((datagram.get(0) & 0x10) != 0 && offset + 4 <= datagram.limit()) {
+                offset += 4 + (datagram.getShort(offset + 2) & 0xFFFF) * 4;
+            }
+            if (offset >= datagram.limit()) {
+                continue;
+            }
+
+            numPacketsInPass++;
+            datagram.position(offset);
+            return datagram;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
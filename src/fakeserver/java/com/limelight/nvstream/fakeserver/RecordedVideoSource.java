@@ -0,0 +1,171 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.av.RtpPacket;
+import com.limelight.nvstream.av.capture.RtpCaptureHeader;
+import com.limelight.nvstream.av.capture.RtpCaptureReader;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+import com.limelight.nvstream.av.video.VideoDepacketizer;
+
+/**
+ * Reassembles the video frames from the datagrams in an RTP capture, so that they can be re-packetized at
+ * the packet size the client asks for. The FEC parity packets and the frame header of the capturing server
+ * are stripped, and the frames with a lost packet are skipped. The capture is played in a loop.
+ *
+ * <p>An IDR frame request skips the frames until the next IDR frame in the capture, or until the end of
+ * the capture, whose first frame is usually an IDR frame.
+ */
+final class RecordedVideoSource implements FrameSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecordedVideoSource.class);
+
+    private static final int MAX_FRAME_SIZE = 8 * 1024 * 1024;
+    private static final int NV_HEADER_SIZE = 16;
+    private static final int FLAG_EOF = 0x2;
+    private static final int FLAG_SOF = 0x4;
+
+    private final File file;
+    private final VideoFormat format;
+    private final int frameHeaderSize;
+    private final ByteBuffer datagram =
+            ByteBuffer.allocate(RtpPacket.MAX_HEADER_SIZE + NV_HEADER_SIZE + 65536).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer frame = ByteBuffer.allocate(MAX_FRAME_SIZE);
+
+    private RtpCaptureReader reader;
+    private boolean assembling;
+    private int nextStreamPacketIndex;
+    private int numFramesInPass;
+    private volatile boolean idrFrameRequested;
+
+    RecordedVideoSource(File file) throws IOException {
+        this.file = file;
+        reader = new RtpCaptureReader(file);
+        RtpCaptureHeader header = reader.header();
+        format = header.getVideoFormat();
+        frameHeaderSize = VideoDepacketizer.getFrameHeaderSize(header.getServerGeneration(),
+                                                               header.getServerAppVersion());
+    }
+
+    VideoFormat format() {
+        return format;
+    }
+
+    @Override
+    public ByteBuffer nextFrame() throws IOException {
+        for (;;) {
+            if (!reader.next()) {
+                if (numFramesInPass == 0) {
+                    logger.warn("No complete video frames in {}", file);
+                    return null;
+                }
+
+                // Start over.
+                reader.close();
+                reader = new RtpCaptureReader(file);
+                assembling = false;
+                numFramesInPass = 0;
+                idrFrameRequested = false;
+                continue;
+            }
+
+            if (reader.streamType() != RtpCaptureHeader.VIDEO ||
+                reader.length() < RtpPacket.MAX_HEADER_SIZE + NV_HEADER_SIZE) {
+                continue;
+            }
+
+            datagram.clear();
+            reader.read(datagram);
+            datagram.flip();
+            if (!append()) {
+                continue;
+            }
+
+            numFramesInPass++;
+            frame.flip();
+            if (idrFrameRequested) {
+                if (!isIdrFrame()) {
+                    continue;
+                }
+                idrFrameRequested = false;
+            }
+            return frame;
+        }
+    }
+
+    /**
+     * Appends the data in {@link #datagram} to {@link #frame}.
+     *
+     * @return {@code true} if the frame has been completed
+     */
+    private boolean append() {
+        int streamPacketIndex = datagram.getInt(RtpPacket.MAX_HEADER_SIZE) >> 8 & 0xFFFFFF;
+        int flags = datagram.getInt(RtpPacket.MAX_HEADER_SIZE + 8) & 0xFF;
+        int fecInfo = datagram.getInt(RtpPacket.MAX_HEADER_SIZE + 12);
+
+        // Skip the FEC parity packets.
+        int dataShards = fecInfo >>> 22;
+        int fecIndex = fecInfo >>> 12 & 0x3FF;
+        if (dataShards != 0 && fecIndex >= dataShards) {
+            return false;
+        }
+
+        int offset = RtpPacket.MAX_HEADER_SIZE + NV_HEADER_SIZE;
+        if ((flags & FLAG_SOF) != 0) {
+            frame.clear();
+            assembling = true;
+            offset += frameHeaderSize;
+        } else if (!assembling || streamPacketIndex != nextStreamPacketIndex) {
+            // Lost the start or a part of the frame.
+            assembling = false;
+            return false;
+        }
+        nextStreamPacketIndex = streamPacketIndex + 1 & 0xFFFFFF;
+
+        int length = datagram.limit() - offset;
+        if (length < 0 || length > frame.remaining()) {
+            assembling = false;
+            return false;
+        }
+
+        datagram.position(offset);
+        frame.put(datagram);
+
+        if ((flags & FLAG_EOF) == 0) {
+            return false;
+        }
+
+        assembling = false;
+        return true;
+    }
+
+    private boolean isIdrFrame() {
+        // Look for the parameter set that starts an IDR frame, i.e. SPS for H.264 or VPS for HEVC,
+        // after the 4-byte start code.
+        if (frame.remaining() < 5) {
+            return false;
+        }
+        int nalHeader = frame.get(frame.position() + 4);
+        if (format == VideoFormat.H265) {
+            return (nalHeader >> 1 & 0x3F) == 32;
+        } else {
+            return (nalHeader & 0x1F) == 7;
+        }
+    }
+
+    @Override
+    public void requestIdrFrame() {
+        idrFrameRequested = true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,72 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+
+/**
+ * The stream parameters a client announced in the SDP of its RTSP ANNOUNCE request.
+ */
+final class StreamParameters {
+
+    static StreamParameters parse(String sdp) {
+        // Each attribute looks like 'a=x-nv-video[0].maxFPS:60 '.
+        Map<String, String> attrs = new HashMap<>();
+        for (String line : sdp.split("\r\n")) {
+            if (!line.startsWith("a=")) {
+                continue;
+            }
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                attrs.put(line.substring(2, colon), line.substring(colon + 1).trim());
+            }
+        }
+
+        return new StreamParameters(
+                "1".equals(attrs.get("x-nv-clientSupportHevc")) ? VideoFormat.H265 : VideoFormat.H264,
+                parseInt(attrs, "x-nv-video[0].clientViewportWd", 1280),
+                parseInt(attrs, "x-nv-video[0].clientViewportHt", 720),
+                parseInt(attrs, "x-nv-video[0].maxFPS", 60),
+                parseInt(attrs, "x-nv-video[0].packetSize", 1024),
+                parseInt(attrs, "x-nv-vqos[0].bw.maximumBitrate", 10000),
+                parseInt(attrs, "x-nv-audio.surround.numChannels", 2));
+    }
+
+    private static int parseInt(Map<String, String> attrs, String name, int defaultValue) {
+        String value = attrs.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    final VideoFormat videoFormat;
+    final int width;
+    final int height;
+    final int fps;
+    final int packetSize;
+    final int bitrateKbps;
+    final int audioChannelCount;
+
+    StreamParameters(VideoFormat videoFormat, int width, int height, int fps,
+                     int packetSize, int bitrateKbps, int audioChannelCount) {
+        this.videoFormat = videoFormat;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.packetSize = packetSize;
+        this.bitrateKbps = bitrateKbps;
+        this.audioChannelCount = audioChannelCount;
+    }
+
+    @Override
+    public String toString() {
+        return videoFormat + " " + width + 'x' + height + 'x' + fps + ", " + bitrateKbps + " kbps, " +
+               packetSize + "-byte packets, " + audioChannelCount + " audio channels";
+    }
+}
@@ -0,0 +1,35 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Generates 5 ms Opus packets without any coded frame in them, which the client decodes into silence
+ * through the packet loss concealment of Opus. They exercise the receive, decode and playback path at
+ * the packet rate of a real server, while being only a few bytes long.
+ */
+final class SyntheticAudioSource implements FrameSource {
+
+    // A TOC byte for a single 5 ms CELT fullband frame, stereo and mono respectively
+    private static final byte STEREO_TOC = (byte) 0xEC;
+    private static final byte MONO_TOC = (byte) 0xE8;
+
+    private final ByteBuffer packet;
+
+    SyntheticAudioSource(int channelCount) {
+        if (channelCount > 2) {
+            // The 5.1 multistream of GFE: 2 coupled streams and 2 mono streams. All but the last stream
+            // use the self-delimiting framing, i.e. a zero frame length after the TOC byte.
+            packet = ByteBuffer.wrap(new byte[] {
+                    STEREO_TOC, 0, STEREO_TOC, 0, MONO_TOC, 0, MONO_TOC
+            });
+        } else {
+            packet = ByteBuffer.wrap(new byte[] { STEREO_TOC });
+        }
+    }
+
+    @Override
+    public ByteBuffer nextFrame() {
+        packet.clear();
+        return packet;
+    }
+}
@@ -0,0 +1,91 @@
+package com.limelight.nvstream.fakeserver;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+
+/**
+ * Generates the frames of an H.264 or HEVC elementary stream of a fixed bitrate. Each frame is a valid
+ * sequence of Annex B NAL units, so that the client finds the parameter sets and the IDR frames in it,
+ * but the slices are random bytes which a decoder rejects. Use a recording to send a decodable stream.
+ *
+ * <p>An IDR frame is sent at the start and when the client requests one, and is
+ * {@value #IDR_FRAME_SIZE_MULTIPLIER} times as large as the other frames, as is typical of an encoder.
+ */
+final class SyntheticVideoSource implements FrameSource {
+
+    static final int IDR_FRAME_SIZE_MULTIPLIER = 4;
+
+    private final ByteBuffer idrFrame;
+    private final ByteBuffer pFrame;
+    private volatile boolean idrFrameRequested = true;
+
+    /**
+     * Creates a new source.
+     *
+     * @param frameSize the number of bytes in a non-IDR frame
+     */
+    SyntheticVideoSource(VideoFormat format, int frameSize) {
+        Random random = new Random(0x5eed);
+        idrFrame = ByteBuffer.wrap(createFrame(format, frameSize * IDR_FRAME_SIZE_MULTIPLIER, true, random));
+        pFrame = ByteBuffer.wrap(createFrame(format, frameSize, false, random));
+    }
+
+    private static byte[] createFrame(VideoFormat format, int size, boolean idr, Random random) {
+        byte[] frame = new byte[Math.max(size, 128)];
+
+        // Fill with anything but zeros so that no accidental start sequences appear.
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (1 + random.nextInt(255));
+        }
+
+        int offset = 0;
+        if (format == VideoFormat.H265) {
+            if (idr) {
+                offset = putNal(frame, offset, 0x40, 24); // VPS
+                offset = putNal(frame, offset, 0x42, 40); // SPS
+                offset = putNal(frame, offset, 0x44, 8);  // PPS
+                putNal(frame, offset, 0x26, 0);           // IDR_W_RADL
+            } else {
+                putNal(frame, offset, 0x02, 0);           // TRAIL_R
+            }
+        } else {
+            if (idr) {
+                offset = putNal(frame, offset, 0x67, 24); // SPS
+                offset = putNal(frame, offset, 0x68, 4);  // PPS
+                putNal(frame, offset, 0x65, 0);           // IDR slice
+            } else {
+                putNal(frame, offset, 0x41, 0);           // Non-IDR slice
+            }
+        }
+
+        return frame;
+    }
+
+    private static int putNal(byte[] frame, int offset, int nalHeader, int length) {
+        frame[offset++] = 0;
+        frame[offset++] = 0;
+        frame[offset++] = 0;
+        frame[offset++] = 1;
+        frame[offset] = (byte) nalHeader;
+        return offset + length;
+    }
+
+    @Override
+    public ByteBuffer nextFrame() {
+        if (idrFrameRequested) {
+            idrFrameRequested = false;
+            idrFrame.clear();
+            return idrFrame;
+        }
+
+        pFrame.clear();
+        return pFrame;
+    }
+
+    @Override
+    public void requestIdrFrame() {
+        idrFrameRequested = true;
+    }
+}
@@ -0,0 +1,115 @@
+package com.limelight.nvstream.av;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.limelight.nvstream.av.DecodedUnitPool.WaitStrategy;
+
+/**
+ * Measures the handoff of the decode units from the benchmark thread, which plays the receive thread,
+ * to a consumer thread, which plays the video decoder or the audio player thread, for the blocking pool
+ * and the single-producer single-consumer pool with each {@link WaitStrategy}.
+ *
+ * <p>{@code throughput} hands the units off as fast as the consumer frees them. {@code latency} hands off
+ * a unit at a time and waits until the consumer takes it, so its score is the time the consumer takes
+ * to wake up and see a new unit, plus the time the benchmark thread takes to see that it did. e.g.
+ * <pre>{@code
+ * ./gradlew jmh -PjmhArgs='DecodedUnitPoolBenchmark'
+ * }</pre>
+ * Note that {@link Pool#BUSY_SPIN} needs a CPU core for each of the two threads to be meaningful.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DecodedUnitPoolBenchmark {
+
+    public enum Pool {
+        // An MpscArrayQueue for the free units and an ArrayBlockingQueue for the decoded units
+        BLOCKING,
+        BUSY_SPIN,
+        SPIN_THEN_PARK,
+        PARK
+    }
+
+    @Param
+    public Pool pool;
+
+    // The DU_LIMIT of VideoDepacketizer and AudioDepacketizer
+    @Param({ "15", "30" })
+    public int size;
+
+    private DecodedUnitPool<Object> units;
+    private Thread consumer;
+    private long numProduced;
+    private volatile long numConsumed;
+
+    @Setup
+    public void setUp() {
+        if (pool == Pool.BLOCKING) {
+            units = new DecodedUnitPool<>(size, true, Object::new);
+        } else {
+            units = new DecodedUnitPool<>(size, WaitStrategy.valueOf(pool.name()), Object::new);
+        }
+
+        consumer = new Thread(() -> {
+            long n = 0;
+            try {
+                for (;;) {
+                    final Object unit = units.takeDecoded();
+                    numConsumed = ++n;
+                    units.freeDecoded(unit);
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        });
+        consumer.setName("DecodedUnitPoolBenchmark - Consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        consumer.interrupt();
+        consumer.join();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput() {
+        handOff();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void latency() {
+        final long n = handOff();
+        while (numConsumed < n) {
+            // Wait until the consumer takes the unit.
+        }
+    }
+
+    private long handOff() {
+        Object unit;
+        while ((unit = units.pollFree()) == null) {
+            // Wait until the consumer frees a unit.
+        }
+        units.addDecoded(unit);
+        return ++numProduced;
+    }
+}
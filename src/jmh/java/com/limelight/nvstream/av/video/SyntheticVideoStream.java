@@ -0,0 +1,305 @@
+package com.limelight.nvstream.av.video;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.limelight.nvstream.ConnectionContext;
+import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.av.RtpPacket;
+import com.limelight.nvstream.av.fec.ReedSolomon;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+
+/**
+ * Generates a repeating sequence of {@link VideoPacket}s that look like what a GFE 7.1.320+ server sends,
+ * i.e. an Annex B H.264/HEVC elementary stream split into RTP datagrams with a 12-byte frame header.
+ * The packets are built once and then re-sequenced in place on every cycle, so that iterating over the
+ * stream does not allocate anything by itself.
+ */
+final class SyntheticVideoStream {
+
+    static final int[] SERVER_APP_VERSION = { 7, 1, 431, 0 };
+    static final int FRAME_HEADER_SIZE = 12;
+
+    // The largest stream packet index we can send before the 24-bit field wraps around
+    private static final int MAX_STREAM_PACKET_INDEX = 0xFFFFFF;
+
+    // The number of frames the server takes to respond to a loss report with an IDR frame
+    private static final int IDR_RESPONSE_DELAY = 3;
+
+    private static final int PAYLOAD_OFFSET = RtpPacket.MAX_HEADER_SIZE + VideoPacket.HEADER_SIZE;
+
+    private final VideoPacket[] packets;
+    private final int[] lengths;
+    private final int[] rtpSequenceNumbers;
+    private final int[] streamPacketIndices;
+    private final int[] frameIndices;
+    private final int rtpPacketsPerCycle;
+    private final int packetsPerCycle;
+    private final int framesPerCycle;
+
+    private int cursor;
+    private int cycle;
+
+    /**
+     * Creates a new stream.
+     *
+     * @param format the video codec
+     * @param maxPacketSize the negotiated maximum packet size, excluding the RTP header
+     * @param frames the number of frames in a cycle
+     * @param idrInterval the number of frames between two IDR frames
+     * @param pFrameSize the number of bytes in a P-frame
+     * @param idrFrameSize the number of bytes in an IDR frame
+     * @param lossRate the probability of a packet being dropped
+     * @param reorder whether packets are delivered out of order from time to time
+     * @param fecPercentage the number of FEC parity packets sent after the data packets of each frame,
+     *                      in percentage of the data packets
+     * @param useAtomicRefCount whether the packets use an atomic reference counter
+     */
+    SyntheticVideoStream(VideoFormat format, int maxPacketSize, int frames, int idrInterval,
+                         int pFrameSize, int idrFrameSize, double lossRate, boolean reorder,
+                         int fecPercentage, boolean useAtomicRefCount) {
+
+        Random random = new Random(0x5eed);
+        int payloadLength = maxPacketSize - VideoPacket.HEADER_SIZE;
+        int shardSize = maxPacketSize + RtpPacket.MAX_HEADER_SIZE;
+        List<Entry> entries = new ArrayList<>();
+
+        int rtpSequenceNumber = 0;
+        int streamPacketIndex = 0;
+        int pendingIdrFrame = -1;
+        for (int i = 0; i < frames; i++) {
+            boolean idr = i % idrInterval == 0 || i == pendingIdrFrame;
+            byte[] frame = createFrame(format, idr ? idrFrameSize : pFrameSize, idr, random);
+            int numPackets = (frame.length + payloadLength - 1) / payloadLength;
+            int numParityPackets = (numPackets * fecPercentage + 99) / 100;
+
+            // Build the packets of the FEC block, i.e. the data packets followed by the parity packets.
+            byte[][] shards = new byte[numPackets + numParityPackets][shardSize];
+            int[] shardLengths = new int[shards.length];
+            for (int j = 0; j < numPackets; j++) {
+                int offset = j * payloadLength;
+                int length = Math.min(payloadLength, frame.length - offset);
+                System.arraycopy(frame, offset, shards[j], PAYLOAD_OFFSET, length);
+                shardLengths[j] = PAYLOAD_OFFSET + length;
+            }
+            if (numParityPackets != 0) {
+                new ReedSolomon(numPackets, numParityPackets).encodeParity(
+                        shards, PAYLOAD_OFFSET, shardSize - PAYLOAD_OFFSET);
+                for (int j = numPackets; j < shards.length; j++) {
+                    shardLengths[j] = shardSize;
+                }
+            }
+
+            boolean lost = false;
+            for (int j = 0; j < shards.length; j++) {
+                int flags = 0;
+                if (j < numPackets) {
+                    flags = VideoPacket.FLAG_CONTAINS_PIC_DATA;
+                    if (j == 0) {
+                        flags |= VideoPacket.FLAG_SOF;
+                    }
+                    if (j == numPackets - 1) {
+                        flags |= VideoPacket.FLAG_EOF;
+                    }
+                }
+
+                int fecInfo = 0;
+                if (numParityPackets != 0) {
+                    fecInfo = numPackets << 22 | j << 12 | fecPercentage << 4;
+                }
+
+                int sequenceNumber = rtpSequenceNumber++;
+                // The parity packets are not counted in the stream packet index.
+                int index = j < numPackets ? streamPacketIndex++ : streamPacketIndex - 1;
+                if (lossRate > 0 && random.nextDouble() < lossRate) {
+                    lost |= j < numPackets;
+                    continue;
+                }
+
+                ByteBuffer buf = ByteBuffer.allocateDirect(shardSize).order(ByteOrder.LITTLE_ENDIAN);
+                buf.put(shards[j]);
+                buf.put(0, (byte) 0x90);
+                buf.put(1, (byte) 0x60);
+                buf.putInt(RtpPacket.MAX_HEADER_SIZE + 8, flags);
+                buf.putInt(RtpPacket.MAX_HEADER_SIZE + 12, fecInfo);
+
+                entries.add(new Entry(new VideoPacket(buf, useAtomicRefCount), shardLengths[j],
+                                      sequenceNumber, index, i + 1));
+            }
+
+            // Let the server respond to the loss with an IDR frame, as it would in a real session.
+            // With FEC, the client does not report the loss unless it fails to recover the lost packets,
+            // but we don't know that here.
+            if (lost && numParityPackets == 0 && pendingIdrFrame < i) {
+                pendingIdrFrame = i + IDR_RESPONSE_DELAY;
+            }
+        }
+
+        if (reorder) {
+            // Deliver a packet 1 to 3 packets late every 16 packets or so,
+            // which is well within the reorder queue's window.
+            for (int i = 0; i < entries.size() - 4; i++) {
+                if (random.nextInt(16) == 0) {
+                    int distance = 1 + random.nextInt(3);
+                    entries.add(i + distance, entries.remove(i));
+                    i += distance;
+                }
+            }
+        }
+
+        int size = entries.size();
+        packets = new VideoPacket[size];
+        lengths = new int[size];
+        rtpSequenceNumbers = new int[size];
+        streamPacketIndices = new int[size];
+        frameIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            Entry e = entries.get(i);
+            packets[i] = e.packet;
+            lengths[i] = e.length;
+            rtpSequenceNumbers[i] = e.rtpSequenceNumber;
+            streamPacketIndices[i] = e.streamPacketIndex;
+            frameIndices[i] = e.frameIndex;
+        }
+
+        rtpPacketsPerCycle = rtpSequenceNumber;
+        packetsPerCycle = streamPacketIndex;
+        framesPerCycle = frames;
+    }
+
+    private static byte[] createFrame(VideoFormat format, int size, boolean idr, Random random) {
+        byte[] frame = new byte[FRAME_HEADER_SIZE + size];
+
+        // Fill with anything but zeros so that no accidental start sequences appear.
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (1 + random.nextInt(255));
+        }
+
+        int offset = FRAME_HEADER_SIZE;
+        if (format == VideoFormat.H265) {
+            if (idr) {
+                offset = putNal(frame, offset, 0x40, 24); // VPS
+                offset = putNal(frame, offset, 0x42, 40); // SPS
+                offset = putNal(frame, offset, 0x44, 8);  // PPS
+                putNal(frame, offset, 0x26, 0);           // IDR_W_RADL
+            } else {
+                putNal(frame, offset, 0x02, 0);           // TRAIL_R
+            }
+        } else {
+            if (idr) {
+                offset = putNal(frame, offset, 0x67, 24); // SPS
+                offset = putNal(frame, offset, 0x68, 4);  // PPS
+                putNal(frame, offset, 0x65, 0);           // IDR slice
+            } else {
+                putNal(frame, offset, 0x41, 0);           // Non-IDR slice
+            }
+        }
+
+        return frame;
+    }
+
+    private static int putNal(byte[] frame, int offset, int nalHeader, int length) {
+        frame[offset++] = 0;
+        frame[offset++] = 0;
+        frame[offset++] = 0;
+        frame[offset++] = 1;
+        frame[offset] = (byte) nalHeader;
+        return offset + length;
+    }
+
+    static ConnectionContext newConnectionContext(VideoFormat format, int videoCaps) {
+        ConnectionContext context = new ConnectionContext();
+        context.streamConfig = new StreamConfiguration.Builder().build();
+        context.serverGeneration = ConnectionContext.SERVER_GENERATION_7;
+        context.serverAppVersion = SERVER_APP_VERSION.clone();
+        context.negotiatedVideoFormat = format;
+        context.videoDecoderRenderer = new VideoDecoderRenderer() {
+            @Override
+            public int getCapabilities() {
+                return videoCaps;
+            }
+
+            @Override
+            public boolean setup(VideoFormat format, int width, int height, int drFlags) {
+                return true;
+            }
+
+            @Override
+            public boolean start(VideoDepacketizer depacketizer) {
+                return true;
+            }
+
+            @Override
+            public void stop() {}
+
+            @Override
+            public void release() {}
+        };
+        return context;
+    }
+
+    int packetsPerCycle() {
+        return packetsPerCycle;
+    }
+
+    int framesPerCycle() {
+        return framesPerCycle;
+    }
+
+    /**
+     * Returns {@code false} if the next packet would overflow the 24-bit stream packet index.
+     * {@link #rewind()} the stream and start over with a new depacketizer when this happens.
+     */
+    boolean hasNext() {
+        return cursor != packets.length ||
+               (long) (cycle + 2) * packetsPerCycle <= MAX_STREAM_PACKET_INDEX;
+    }
+
+    void rewind() {
+        cursor = 0;
+        cycle = 0;
+    }
+
+    /**
+     * Returns the next packet, initialized as if it has just been received from the network.
+     */
+    VideoPacket next() {
+        if (cursor == packets.length) {
+            cursor = 0;
+            cycle++;
+        }
+
+        int i = cursor++;
+        VideoPacket packet = packets[i];
+        int rtpSequenceNumber = rtpSequenceNumbers[i] + cycle * rtpPacketsPerCycle;
+        int streamPacketIndex = streamPacketIndices[i] + cycle * packetsPerCycle;
+        ByteBuffer buf = packet.getByteBuffer();
+
+        // The RTP sequence number is big endian while the rest of the header is little endian.
+        buf.putShort(2, Short.reverseBytes((short) rtpSequenceNumber));
+        buf.putInt(RtpPacket.MAX_HEADER_SIZE, streamPacketIndex << 8);
+        buf.putInt(RtpPacket.MAX_HEADER_SIZE + 4, frameIndices[i] + cycle * framesPerCycle);
+
+        packet.initializeWithLength(lengths[i]);
+        return packet;
+    }
+
+    private static final class Entry {
+        VideoPacket packet;
+        int length;
+        int rtpSequenceNumber;
+        int streamPacketIndex;
+        int frameIndex;
+
+        Entry(VideoPacket packet, int length, int rtpSequenceNumber, int streamPacketIndex, int frameIndex) {
+            this.packet = packet;
+            this.length = length;
+            this.rtpSequenceNumber = rtpSequenceNumber;
+            this.streamPacketIndex = streamPacketIndex;
+            this.frameIndex = frameIndex;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.limelight.nvstream.av.video;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.limelight.nvstream.ConnectionContext;
+import com.limelight.nvstream.av.ConnectionStatusListener;
+import com.limelight.nvstream.av.RtpReorderQueue;
+import com.limelight.nvstream.av.RtpReorderQueue.RtpQueueStatus;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+
+/**
+ * Measures the cost of handling a single video packet on the receive thread, i.e.
+ * {@link RtpReorderQueue#addPacket(com.limelight.nvstream.av.RtpPacket)},
+ * {@link VideoFecQueue#addPacket(VideoPacket)}, {@link VideoDepacketizer#addInputData(VideoPacket)} and
+ * the round trip of the completed decode units through the {@link com.limelight.nvstream.av.DecodedUnitPool},
+ * exactly as {@link VideoStream} does.
+ *
+ * <p>The primary score is the average time per packet. The {@code frames} score is the average time per
+ * reassembled picture. Run with {@code -bm thrpt -tu s} to get packets/sec and frames/sec instead, and with
+ * {@code -prof gc} to get the allocation rate, e.g.
+ * <pre>{@code
+ * ./gradlew jmh -PjmhArgs='VideoDepacketizerBenchmark -prof gc'
+ * }</pre>
+ * The depacketization of an in-order stream should not allocate at all, i.e. {@code gc.alloc.rate.norm}
+ * should be 0 B/op for {@link Scenario#IN_ORDER} and {@link Scenario#IDR_HEAVY}, which
+ * {@code VideoDepacketizerAllocationTest} also checks on every build.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class VideoDepacketizerBenchmark {
+
+    public enum Scenario {
+        // Packets arrive in order without any loss.
+        IN_ORDER,
+        // Packets arrive a few packets late from time to time.
+        REORDERED,
+        // 0.1% of the packets never arrive. The server responds to a loss with an IDR frame.
+        LOSSY,
+        // Same as LOSSY, but the server sends 20% of FEC parity packets, so that the lost packets can be recovered.
+        LOSSY_FEC,
+        // Every 4th frame is an IDR frame, which has to go through the slow path.
+        IDR_HEAVY
+    }
+
+    // About 80 Mbps at 60 FPS
+    private static final int P_FRAME_SIZE = 48 * 1024;
+    private static final int IDR_FRAME_SIZE = 160 * 1024;
+    private static final int FRAMES_PER_CYCLE = 120;
+
+    @Param({ "H264", "H265" })
+    public VideoFormat format;
+
+    @Param
+    public Scenario scenario;
+
+    @Param("1024")
+    public int maxPacketSize;
+
+    // The default of StreamConfiguration, and a deep window for lossy Wi-Fi
+    @Param({ "16", "256" })
+    public int reorderQueueSize;
+
+    private ConnectionContext context;
+    private SyntheticVideoStream stream;
+    private VideoDepacketizer depacketizer;
+    private RtpReorderQueue<VideoPacket> rtpQueue;
+    private VideoFecQueue fecQueue;
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Counters {
+        public long frames;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            frames = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        // Use the same capabilities with FFmpegVideoDecoderRenderer,
+        // i.e. no direct submission and no reference frame invalidation.
+        context = SyntheticVideoStream.newConnectionContext(format, 0);
+
+        switch (scenario) {
+            case IN_ORDER:
+                stream = new SyntheticVideoStream(format, maxPacketSize, FRAMES_PER_CYCLE, FRAMES_PER_CYCLE,
+                                                  P_FRAME_SIZE, IDR_FRAME_SIZE, 0, false, 0, true);
+                break;
+            case REORDERED:
+                stream = new SyntheticVideoStream(format, maxPacketSize, FRAMES_PER_CYCLE, FRAMES_PER_CYCLE,
+                                                  P_FRAME_SIZE, IDR_FRAME_SIZE, 0, true, 0, true);
+                break;
+            case LOSSY:
+                stream = new SyntheticVideoStream(format, maxPacketSize, FRAMES_PER_CYCLE, FRAMES_PER_CYCLE,
+                                                  P_FRAME_SIZE, IDR_FRAME_SIZE, 0.001, false, 0, true);
+                break;
+            case LOSSY_FEC:
+                stream = new SyntheticVideoStream(format, maxPacketSize, FRAMES_PER_CYCLE, FRAMES_PER_CYCLE,
+                                                  P_FRAME_SIZE, IDR_FRAME_SIZE, 0.001, false, 20, true);
+                break;
+            case IDR_HEAVY:
+                stream = new SyntheticVideoStream(format, maxPacketSize, FRAMES_PER_CYCLE, 4,
+                                                  P_FRAME_SIZE, IDR_FRAME_SIZE, 0, false, 0, true);
+                break;
+            default:
+                throw new IllegalStateException("unknown scenario: " + scenario);
+        }
+
+        restart();
+    }
+
+    private void restart() {
+        stream.rewind();
+        depacketizer = new VideoDepacketizer(context, NoopConnectionStatusListener.INSTANCE, maxPacketSize);
+        rtpQueue = new RtpReorderQueue<>(reorderQueueSize, context.streamConfig.getVideoReorderQueueDelay());
+        fecQueue = new VideoFecQueue(depacketizer, true, maxPacketSize, true);
+    }
+
+    @Benchmark
+    public void addInputData(Counters counters, Blackhole bh) {
+        if (!stream.hasNext()) {
+            // Start a new session before the stream packet index wraps around.
+            restart();
+        }
+
+        VideoPacket packet = stream.next();
+        VideoPacket queuedPacket;
+
+        RtpQueueStatus queueStatus = rtpQueue.addPacket(packet);
+        if (queueStatus == RtpQueueStatus.HANDLE_IMMEDIATELY) {
+            fecQueue.addPacket(packet);
+        } else if (queueStatus == RtpQueueStatus.QUEUED_PACKETS_READY) {
+            while ((queuedPacket = rtpQueue.getQueuedPacket()) != null) {
+                fecQueue.addPacket(queuedPacket);
+                queuedPacket.dereferencePacket();
+            }
+        }
+
+        // Consume the decode units as the decoder thread would.
+        VideoDecodeUnit du;
+        while ((du = depacketizer.pollNextDecodeUnit()) != null) {
+            if ((du.getFlags() & VideoDecodeUnit.DU_FLAG_CODEC_CONFIG) == 0) {
+                counters.frames++;
+            }
+            bh.consume(du.getDataLength());
+            depacketizer.freeDecodeUnit(du);
+        }
+    }
+
+    static final class NoopConnectionStatusListener implements ConnectionStatusListener {
+
+        static final NoopConnectionStatusListener INSTANCE = new NoopConnectionStatusListener();
+
+        @Override
+        public void connectionDetectedFrameLoss(int firstLostFrame, int nextSuccessfulFrame) {}
+
+        @Override
+        public void connectionSinkTooSlow(int firstLostFrame, int nextSuccessfulFrame) {}
+
+        @Override
+        public void connectionReceivedCompleteFrame(int frameIndex) {}
+
+        @Override
+        public void connectionSawFrame(int frameIndex) {}
+
+        @Override
+        public void connectionLostPackets(int lastReceivedPacket, int nextReceivedPacket) {}
+    }
+}
@@ -0,0 +1,152 @@
+package com.limelight.nvstream.av.video;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.limelight.nvstream.av.RtpPacket;
+
+/**
+ * Measures how many video datagrams per second the receive thread of {@link VideoStream} can pull off
+ * a loopback UDP socket, i.e. {@link NioVideoPacketReceiver#receive(VideoPacket[], int)} for a batch of
+ * datagrams and {@link VideoPacket#initializeWithLength(int)} per datagram. A batch size of 1 reads
+ * one datagram per wakeup, as the receive thread did before it read in batches.
+ *
+ * <p>A sender thread floods the socket so that the receiver never waits for a datagram. The benchmark
+ * thread is therefore busy all the time, and the inverse of the score is the CPU time spent per datagram.
+ * Run with {@code -prof perfnorm} on Linux to see the syscall and cache costs per datagram, e.g.
+ * <pre>{@code
+ * ./gradlew jmh -PjmhArgs='VideoReceiveBenchmark -prof perfnorm'
+ * }</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class VideoReceiveBenchmark {
+
+    // Same as VideoStream
+    private static final int RTP_RECV_BUFFER = 256 * 1024;
+
+    @Param("1024")
+    public int maxPacketSize;
+
+    // 32 is the batch size of VideoStream.
+    @Param({ "1", "32" })
+    public int batchSize;
+
+    private VideoPacketReceiver receiver;
+    private Sender sender;
+    private VideoPacket[] packets;
+    private int received;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+
+        DatagramChannel channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, RTP_RECV_BUFFER);
+        channel.bind(new InetSocketAddress(loopback, 0));
+
+        sender = new Sender(loopback, channel.getLocalAddress(), maxPacketSize + RtpPacket.MAX_HEADER_SIZE);
+        channel.connect(sender.localAddress());
+        receiver = new NioVideoPacketReceiver(channel);
+
+        packets = new VideoPacket[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            packets[i] = new VideoPacket(ByteBuffer.allocateDirect(maxPacketSize + RtpPacket.MAX_HEADER_SIZE),
+                                         false);
+        }
+
+        sender.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sender.close();
+        receiver.close();
+    }
+
+    @Benchmark
+    public VideoPacket receive() throws IOException {
+        // One datagram per operation, reading the next batch when the last one is used up
+        if (next == received) {
+            received = receiver.receive(packets, batchSize);
+            next = 0;
+        }
+
+        VideoPacket packet = packets[next++];
+        packet.initializeWithLength(packet.getByteBuffer().remaining());
+        return packet;
+    }
+
+    private static final class Sender extends Thread implements AutoCloseable {
+
+        private final DatagramChannel channel;
+        private final ByteBuffer datagram;
+
+        Sender(InetAddress address, SocketAddress receiverAddress, int size) throws IOException {
+            super("VideoReceiveBenchmark - Sender");
+            setDaemon(true);
+
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(address, 0));
+            channel.connect(receiverAddress);
+
+            // A video packet of the maximum size with a valid header
+            datagram = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            datagram.put(0, (byte) 0x90);
+            datagram.put(1, (byte) 0x60);
+            datagram.putInt(RtpPacket.MAX_HEADER_SIZE + 8, VideoPacket.FLAG_CONTAINS_PIC_DATA);
+        }
+
+        SocketAddress localAddress() throws IOException {
+            return channel.getLocalAddress();
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int seq = 0; !isInterrupted(); seq++) {
+                    datagram.clear();
+                    datagram.putShort(2, Short.reverseBytes((short) seq));
+                    datagram.putInt(RtpPacket.MAX_HEADER_SIZE, seq << 8);
+                    channel.write(datagram);
+                }
+            } catch (ClosedChannelException ignored) {
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void close() throws Exception {
+            interrupt();
+            channel.close();
+            join();
+        }
+    }
+}
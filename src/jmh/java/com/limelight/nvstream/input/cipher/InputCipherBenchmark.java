@@ -0,0 +1,92 @@
+package com.limelight.nvstream.input.cipher;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the AES/GCM encryption of an input packet as done by {@code ControllerStream} for a Gen 7 server,
+ * i.e. the score is the time taken to encrypt a packet and to chain the last 16 bytes of its ciphertext
+ * into the IV of the next packet. {@code packetLength} of 12 and 34 are a mouse movement, which does not
+ * chain the IV, and a controller state. Run with e.g.
+ * <pre>{@code
+ * ./gradlew jmh -PjmhArgs='InputCipherBenchmark -prof gc'
+ * }</pre>
+ * Note that {@link Implementation#FAST} fails to set up on a JDK which does not let the reflection into
+ * {@code javax.crypto}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class InputCipherBenchmark {
+
+    public enum Implementation {
+        // AesGcmInputCipher
+        JCE,
+        // FastAesGcmInputCipher
+        FAST,
+        // ReusableAesGcmInputCipher
+        REUSABLE
+    }
+
+    @Param
+    public Implementation implementation;
+
+    @Param({ "12", "34" })
+    public int packetLength;
+
+    private InputCipher inputCipher;
+    private SecretKeySpec key;
+    private final byte[] packet = new byte[128];
+    private final byte[] encryptedPacket = new byte[128];
+    private int encryptedLength;
+
+    @Setup
+    public void setUp() throws Exception {
+        switch (implementation) {
+            case JCE:
+                inputCipher = new AesGcmInputCipher();
+                break;
+            case FAST:
+                inputCipher = new FastAesGcmInputCipher();
+                break;
+            case REUSABLE:
+                inputCipher = new ReusableAesGcmInputCipher();
+                break;
+        }
+
+        final Random random = new Random(0);
+        final byte[] keyBytes = new byte[16];
+        random.nextBytes(keyBytes);
+        random.nextBytes(packet);
+        key = new SecretKeySpec(keyBytes, "AES");
+        inputCipher.initialize(key, new byte[16], 0, 16);
+        encryptedLength = inputCipher.getEncryptedSize(packetLength);
+    }
+
+    @Benchmark
+    public byte encrypt() {
+        // Leave 4 bytes for the length prefix as ControllerStream does.
+        inputCipher.encrypt(packet, 0, packetLength, encryptedPacket, 4);
+        if (encryptedLength >= 32) {
+            inputCipher.initialize(key, encryptedPacket, 4 + encryptedLength - 16, 16);
+        }
+        return encryptedPacket[4];
+    }
+}
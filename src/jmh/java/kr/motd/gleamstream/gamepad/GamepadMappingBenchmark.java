@@ -0,0 +1,346 @@
+package kr.motd.gleamstream.gamepad;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.system.Platform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableList;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Measures the mapping of the joystick states of 4 gamepads read at 1 kHz, i.e. the score is the CPU time
+ * taken to map a second of input from 4 gamepads. The sticks and triggers move on every sample, and the
+ * buttons are pressed and released every 50 samples. {@code mapping} is the ID of a built-in mapping for
+ * Linux; {@code ps4} maps the DPAD from the axes and {@code default} from the buttons. Run with e.g.
+ * <pre>{@code
+ * ./gradlew jmh -PjmhArgs='GamepadMappingBenchmark -prof gc'
+ * }</pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GamepadMappingBenchmark {
+
+    private static final int NUM_GAMEPADS = 4;
+    private static final int SAMPLES_PER_SECOND = 1000;
+    private static final int NUM_BUTTONS = 13;
+    private static final int NUM_AXES = 8;
+
+    public enum Implementation {
+        // The lookup of the Int2ObjectMaps and the lists of the ranges, which GamepadMapping used to do
+        LOOKUP,
+        // GamepadMapper with CompiledGamepadMapping
+        COMPILED
+    }
+
+    @FunctionalInterface
+    private interface Mapper {
+        boolean map(JoystickState joystick, GamepadState state);
+    }
+
+    @Param
+    public Implementation implementation;
+
+    @Param({ "ps4", "default" })
+    public String mapping;
+
+    private final Mapper[] mappers = new Mapper[NUM_GAMEPADS];
+    private final JoystickState[] joysticks = new JoystickState[NUM_GAMEPADS];
+    private final GamepadState[] states = new GamepadState[NUM_GAMEPADS];
+    private final boolean[][][] buttons = new boolean[NUM_GAMEPADS][SAMPLES_PER_SECOND][NUM_BUTTONS];
+    private final float[][][] axes = new float[NUM_GAMEPADS][SAMPLES_PER_SECOND][NUM_AXES];
+
+    @Setup
+    public void setUp() throws Exception {
+        final GamepadMapping gamepadMapping;
+        try (InputStream in = GamepadMappingBenchmark.class.getResourceAsStream("/gamepads.json")) {
+            gamepadMapping = find(GamepadMappings.load(in), mapping);
+        }
+
+        final Random random = new Random(0);
+        for (int i = 0; i < NUM_GAMEPADS; i++) {
+            switch (implementation) {
+                case LOOKUP:
+                    mappers[i] = new LookupMapper(gamepadMapping)::map;
+                    break;
+                case COMPILED:
+                    mappers[i] = new GamepadMapper(String.valueOf(i), mapping, gamepadMapping)::map;
+                    break;
+            }
+            joysticks[i] = new JoystickState();
+            joysticks[i].numButtons = NUM_BUTTONS;
+            joysticks[i].numAxes = NUM_AXES;
+            states[i] = new GamepadState();
+
+            // Sticks and triggers drawing circles at different speeds, and a random button at a time.
+            final double phase = random.nextDouble() * 2 * Math.PI;
+            int pressedButton = -1;
+            for (int j = 0; j < SAMPLES_PER_SECOND; j++) {
+                if (j % 50 == 0) {
+                    pressedButton = pressedButton < 0 ? random.nextInt(NUM_BUTTONS) : -1;
+                }
+                if (pressedButton >= 0) {
+                    buttons[i][j][pressedButton] = true;
+                }
+                for (int k = 0; k < NUM_AXES; k++) {
+                    final double angle = phase + 2 * Math.PI * j * (k + 1) / SAMPLES_PER_SECOND;
+                    axes[i][j][k] = (float) (k % 2 == 0 ? Math.sin(angle) : Math.cos(angle));
+                }
+            }
+        }
+    }
+
+    private static GamepadMapping find(GamepadMappings mappings, String id) {
+        for (GamepadMapping m : mappings) {
+            if (m.id().equals(id) && m.platforms().contains(Platform.LINUX)) {
+                return m;
+            }
+        }
+        throw new IllegalArgumentException("mapping: " + id);
+    }
+
+    @Benchmark
+    public int mapOneSecond() {
+        int changes = 0;
+        for (int i = 0; i < SAMPLES_PER_SECOND; i++) {
+            for (int j = 0; j < NUM_GAMEPADS; j++) {
+                final JoystickState joystick = joysticks[j];
+                System.arraycopy(buttons[j][i], 0, joystick.buttons, 0, NUM_BUTTONS);
+                System.arraycopy(axes[j][i], 0, joystick.axes, 0, NUM_AXES);
+                if (mappers[j].map(joystick, states[j])) {
+                    changes++;
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Maps a {@link JoystickState} by looking up the {@link GamepadInput}s of each button and axis,
+     * as {@link GamepadMapper} did before {@link CompiledGamepadMapping}.
+     */
+    private static final class LookupMapper {
+
+        private static final int NV_STICK_MAX = 0x7FFE;
+        private static final int NV_TRIGGER_MAX = 0xFF;
+        private static final Entry IGNORED = new Entry(null, null);
+        private static final Entry MISSING = new Entry(null, null);
+
+        private final Int2ObjectMap<Entry> buttons = new Int2ObjectOpenHashMap<>();
+        private final Int2ObjectMap<List<Entry>> axes = new Int2ObjectOpenHashMap<>();
+        private final GamepadMapping mapping;
+
+        LookupMapper(GamepadMapping mapping) {
+            this.mapping = mapping;
+            for (Map.Entry<GamepadOutput, GamepadInput> e : mapping.mappings().entrySet()) {
+                final GamepadInput in = e.getValue();
+                if (in.isAxis()) {
+                    axes.computeIfAbsent(in.id(), unused -> new ArrayList<>()).add(new Entry(in, e.getKey()));
+                } else {
+                    buttons.put(in.id(), new Entry(in, e.getKey()));
+                }
+            }
+            mapping.ignoredButtons().forEach(button -> buttons.putIfAbsent(button, IGNORED));
+            mapping.ignoredAxes().forEach(axis -> axes.putIfAbsent(axis, ImmutableList.of(IGNORED)));
+        }
+
+        boolean map(JoystickState joystick, GamepadState state) {
+            short buttonFlags = 0;
+            short leftStickX  = 0;
+            short leftStickY  = 0;
+            short rightStickX = 0;
+            short rightStickY = 0;
+            byte leftTrigger  = 0;
+            byte rightTrigger = 0;
+
+            for (int i = 0; i < joystick.numButtons; i++) {
+                if (joystick.buttons[i]) {
+                    final Entry mapped = mapButton(i);
+                    if (mapped == MISSING || mapped == IGNORED) {
+                        continue;
+                    }
+
+                    switch (mapped.out) {
+                        case LS_LEFT:
+                            leftStickX = -NV_STICK_MAX;
+                            break;
+                        case LS_RIGHT:
+                            leftStickX = NV_STICK_MAX;
+                            break;
+                        case LS_DOWN:
+                            leftStickY = -NV_STICK_MAX;
+                            break;
+                        case LS_UP:
+                            leftStickY = NV_STICK_MAX;
+                            break;
+                        case RS_LEFT:
+                            rightStickX = -NV_STICK_MAX;
+                            break;
+                        case RS_RIGHT:
+                            rightStickX = NV_STICK_MAX;
+                            break;
+                        case RS_DOWN:
+                            rightStickY = -NV_STICK_MAX;
+                            break;
+                        case RS_UP:
+                            rightStickY = NV_STICK_MAX;
+                            break;
+                        case LT:
+                            leftTrigger = (byte) NV_TRIGGER_MAX;
+                            break;
+                        case RT:
+                            rightTrigger = (byte) NV_TRIGGER_MAX;
+                            break;
+                        default:
+                            buttonFlags |= mapped.out.buttonFlag();
+                            break;
+                    }
+                }
+            }
+
+            for (int i = 0; i < joystick.numAxes; i++) {
+                final float value = joystick.axes[i];
+                final Entry mapped = mapAxis(i, value);
+                if (mapped == MISSING || mapped == IGNORED) {
+                    continue;
+                }
+
+                final GamepadInput in = mapped.in;
+                switch (mapped.out) {
+                    case LS_LEFT:
+                    case LS_RIGHT:
+                        leftStickX = getStickValue(in, value);
+                        break;
+                    case LS_DOWN:
+                    case LS_UP:
+                        leftStickY = getStickValue(in, value);
+                        break;
+                    case RS_LEFT:
+                    case RS_RIGHT:
+                        rightStickX = getStickValue(in, value);
+                        break;
+                    case RS_DOWN:
+                    case RS_UP:
+                        rightStickY = getStickValue(in, value);
+                        break;
+                    case LT:
+                        leftTrigger = getTriggerValue(in, value);
+                        break;
+                    case RT:
+                        rightTrigger = getTriggerValue(in, value);
+                        break;
+                    default:
+                        if (Math.abs(value) > 0.5f) {
+                            buttonFlags |= mapped.out.buttonFlag();
+                        }
+                        break;
+                }
+            }
+
+            final float leftStickScalar = (float) Math.sqrt((double) leftStickX * leftStickX +
+                                                            (double) leftStickY * leftStickY) / NV_STICK_MAX;
+            final float rightStickScalar = (float) Math.sqrt((double) rightStickX * rightStickX +
+                                                             (double) rightStickY * rightStickY) / NV_STICK_MAX;
+            if (leftStickScalar < mapping.leftStickDeadZone()) {
+                leftStickX = 0;
+                leftStickY = 0;
+            }
+            if (rightStickScalar < mapping.rightStickDeadZone()) {
+                rightStickX = 0;
+                rightStickY = 0;
+            }
+
+            return state.update(buttonFlags, leftTrigger, rightTrigger,
+                                leftStickX, leftStickY, rightStickX, rightStickY);
+        }
+
+        private Entry mapButton(int id) {
+            final Entry entry = buttons.get(id);
+            return entry != null ? entry : MISSING;
+        }
+
+        private Entry mapAxis(int id, float value) {
+            final List<Entry> entries = axes.get(id);
+            if (entries == null) {
+                return MISSING;
+            }
+
+            for (Entry e : entries) {
+                if (e == IGNORED) {
+                    return IGNORED;
+                }
+
+                final float start = e.in.start();
+                final float end = e.in.end();
+                if (start < end) {
+                    if (value >= start && value <= end) {
+                        return e;
+                    }
+                } else {
+                    if (value <= start && value >= end) {
+                        return e;
+                    }
+                }
+            }
+            return IGNORED;
+        }
+
+        private static short getStickValue(GamepadInput in, float value) {
+            return (short) (Math.min(Math.max(getAxisValue(in, value), -1.0), 1.0) * NV_STICK_MAX);
+        }
+
+        private static byte getTriggerValue(GamepadInput in, float value) {
+            return (byte) (Math.min(Math.max(getAxisValue(in, value), 0), 1.0) * NV_TRIGGER_MAX);
+        }
+
+        private static float getAxisValue(GamepadInput in, float value) {
+            final float start = in.start();
+            final float end = in.end();
+            final float outputStart = in.outputStart();
+            final float outputEnd = in.outputEnd();
+            final float scalar;
+            if (start < end) {
+                scalar = (value - start) / (end - start);
+            } else {
+                scalar = (start - value) / (start - end);
+            }
+
+            if (outputStart < outputEnd) {
+                return outputStart + (outputEnd - outputStart) * scalar;
+            } else {
+                return outputStart - (outputStart - outputEnd) * scalar;
+            }
+        }
+
+        private static final class Entry {
+            final GamepadInput in;
+            final GamepadOutput out;
+
+            Entry(GamepadInput in, GamepadOutput out) {
+                this.in = in;
+                this.out = out;
+            }
+        }
+    }
+}
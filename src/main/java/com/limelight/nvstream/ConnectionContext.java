@@ -4,6 +4,8 @@ import java.net.InetAddress;
 
 import javax.crypto.SecretKey;
 
+import com.limelight.nvstream.av.capture.RtpCaptureWriter;
+import com.limelight.nvstream.av.capture.RtpReplay;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
 
@@ -23,6 +25,9 @@ public class ConnectionContext {
     // Gen 7 servers are GFE 2.11.2.46+
     public static final int SERVER_GENERATION_7 = 7;
 
+    // The System.nanoTime() when the connection started
+    public long connectionStartTime;
+
     public InetAddress serverAddress;
     public StreamConfiguration streamConfig;
     public VideoDecoderRenderer videoDecoderRenderer;
@@ -38,4 +43,10 @@ public class ConnectionContext {
     public VideoFormat negotiatedVideoFormat;
     public int negotiatedWidth, negotiatedHeight;
     public int negotiatedFps;
+
+    // Records the received RTP datagrams if not null
+    public RtpCaptureWriter rtpCapture;
+
+    // Replays the recorded RTP datagrams instead of streaming from the server if not null
+    public RtpReplay rtpReplay;
 }
@@ -8,8 +8,11 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -20,6 +23,10 @@ import org.xmlpull.v1.XmlPullParserException;
 
 import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.audio.AudioStream;
+import com.limelight.nvstream.av.capture.RtpCaptureWriter;
+import com.limelight.nvstream.av.capture.RtpReplay;
+import com.limelight.nvstream.av.capture.RtpReplayServer;
+import com.limelight.nvstream.av.capture.RtpReplayStatusListener;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
 import com.limelight.nvstream.av.video.VideoStream;
@@ -41,12 +48,16 @@ public class NvConnection {
     private final CryptoProvider cryptoProvider;
     private final String uniqueId;
     private final ConnectionContext context;
+    private final RtpReplay replay;
 
     // Stream objects
     private ControlStream controlStream;
     private ControllerStream inputStream;
     private VideoStream videoStream;
     private AudioStream audioStream;
+    private CompletableFuture<Boolean> audioStreamPrepared;
+    private RtpReplayServer replayServer;
+    private RtpReplayStatusListener replayStatus;
 
     // Start parameters
     private int drFlags;
@@ -56,9 +67,22 @@ public class NvConnection {
 
     public NvConnection(String host, String uniqueId, NvConnectionListener listener, StreamConfiguration config,
                         CryptoProvider cryptoProvider) {
+        this(host, uniqueId, listener, config, cryptoProvider, null);
+    }
+
+    /**
+     * Creates a connection which replays a recorded session instead of connecting to a server.
+     */
+    public NvConnection(RtpReplay replay, NvConnectionListener listener, StreamConfiguration config) {
+        this(InetAddress.getLoopbackAddress().getHostAddress(), null, listener, config, null, replay);
+    }
+
+    private NvConnection(String host, String uniqueId, NvConnectionListener listener, StreamConfiguration config,
+                         CryptoProvider cryptoProvider, RtpReplay replay) {
         this.host = host;
         this.cryptoProvider = cryptoProvider;
         this.uniqueId = uniqueId;
+        this.replay = replay;
 
         context = new ConnectionContext();
         context.connListener = listener;
@@ -114,6 +138,8 @@ public class NvConnection {
             }
 
             if (audioStream != null) {
+                // Let the preparation finish so that it does not race with the abort.
+                audioStreamPrepared.handle((unused, cause) -> null).join();
                 audioStream.abort();
                 audioStream = null;
             }
@@ -127,14 +153,37 @@ public class NvConnection {
                 controlStream.abort();
                 controlStream = null;
             }
+
+            if (replayServer != null) {
+                replayServer.close();
+                replayServer = null;
+            }
+
+            if (context.rtpCapture != null) {
+                context.rtpCapture.close();
+                context.rtpCapture = null;
+            }
+
+            if (replayStatus != null) {
+                logger.info("Replay finished ({})", replayStatus);
+                replayStatus = null;
+            }
         } finally {
             stopped = true;
         }
     }
 
-    private boolean startApp() throws XmlPullParserException, IOException {
+    private boolean startApp() throws Exception {
         NvHTTP h = new NvHTTP(context.serverAddress, uniqueId, cryptoProvider);
 
+        // If the client did not provide an exact app ID, look the app up in the app list
+        // while fetching the server info, because the two requests do not depend on each other.
+        CompletableFuture<NvApp> appLookup = null;
+        if (!context.streamConfig.getApp().isInitialized()) {
+            String appName = context.streamConfig.getApp().getAppName();
+            appLookup = supplyAsync("Connection - App lookup", () -> h.getAppByName(appName));
+        }
+
         String serverInfo = h.getServerInfo();
 
         context.serverAppVersion = h.getServerAppVersionQuad(serverInfo);
@@ -218,9 +267,8 @@ public class NvConnection {
 
         NvApp app = context.streamConfig.getApp();
 
-        // If the client did not provide an exact app ID, do a lookup with the app list
-        if (!context.streamConfig.getApp().isInitialized()) {
-            app = h.getAppByName(context.streamConfig.getApp().getAppName());
+        if (appLookup != null) {
+            app = await(appLookup);
             if (app == null) {
                 throw panicWithoutTrace(
                         "The app " + context.streamConfig.getApp().getAppName() + " is not in GFE app list");
@@ -263,6 +311,22 @@ public class NvConnection {
         }
     }
 
+    private boolean startReplay() throws IOException {
+        logger.info("Replaying {} ({})", replay.file(), replay.header());
+
+        // Pretend the RTSP handshake has been done already.
+        replay.header().applyTo(context);
+        replayStatus = new RtpReplayStatusListener();
+
+        if (replay.isLoopback()) {
+            replayServer = replay.startServer(context.serverAddress, VideoStream.RTP_PORT, AudioStream.RTP_PORT,
+                                              this::stop);
+        }
+
+        context.rtpReplay = replay;
+        return true;
+    }
+
     protected boolean quitAndLaunch(NvHTTP h, NvApp app) throws IOException, XmlPullParserException {
         try {
             logger.info("Quitting the previous session ..");
@@ -311,13 +375,61 @@ public class NvConnection {
     }
 
     private boolean startVideoStream() throws IOException {
-        videoStream = new VideoStream(this, context, controlStream);
+        if (context.streamConfig.getCaptureFile() != null && replay == null) {
+            context.rtpCapture = RtpCaptureWriter.open(context.streamConfig.getCaptureFile(), context);
+        }
+
+        videoStream = new VideoStream(this, context, replay != null ? replayStatus : controlStream);
         return videoStream.startVideoStream(drFlags);
     }
 
-    private boolean startAudioStream() throws IOException {
-        audioStream = new AudioStream(this, context, audioRenderer);
-        return audioStream.startAudioStream();
+    /**
+     * Opens the audio socket and sets up the audio decoder and renderer in the background, because they do not
+     * depend on the RTSP handshake and the stages which follow it.
+     */
+    private void prepareAudioStream() {
+        AudioStream audioStream = new AudioStream(this, context, audioRenderer);
+        audioStreamPrepared = supplyAsync("Audio - Prepare", audioStream::prepareAudioStream);
+        this.audioStream = audioStream;
+    }
+
+    private boolean startAudioStream() throws Exception {
+        return await(audioStreamPrepared) && audioStream.startAudioStream();
+    }
+
+    /**
+     * Runs the specified task in a new daemon thread rather than in the common pool, whose threads are shared
+     * with the rest of the JVM and can't be told apart in a thread dump.
+     */
+    private static <T> CompletableFuture<T> supplyAsync(String threadName, Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable cause) {
+                future.completeExceptionally(cause);
+            }
+        });
+
+        t.setName(threadName);
+        t.setDaemon(true);
+        t.start();
+        return future;
+    }
+
+    /**
+     * Waits for the specified future, rethrowing the exception it failed with.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
     }
 
     private boolean startInputConnection() throws IOException {
@@ -335,19 +447,22 @@ public class NvConnection {
     private void establishConnection() {
         for (NvConnectionListener.Stage currentStage : NvConnectionListener.Stage.values()) {
             boolean success = false;
+            long stageStartTime = System.nanoTime();
             context.connListener.stageStarting(currentStage);
             try {
                 switch (currentStage) {
                     case LAUNCH_APP:
-                        success = startApp();
+                        success = replay != null ? startReplay() : startApp();
                         break;
 
+                    // A replay has no server to talk to.
                     case RTSP_HANDSHAKE:
-                        success = doRtspHandshake();
+                        prepareAudioStream();
+                        success = replay != null || doRtspHandshake();
                         break;
 
                     case CONTROL_START:
-                        success = startControlStream();
+                        success = replay != null || startControlStream();
                         break;
 
                     case VIDEO_START:
@@ -359,7 +474,7 @@ public class NvConnection {
                         break;
 
                     case INPUT_START:
-                        success = startInputConnection();
+                        success = replay != null || startInputConnection();
                         break;
                 }
             } catch (Exception e) {
@@ -367,6 +482,8 @@ public class NvConnection {
             }
 
             if (success) {
+                logger.debug("{} took {} ms", currentStage,
+                             TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stageStartTime));
                 context.connListener.stageComplete(currentStage);
             } else {
                 context.connListener.stageFailed(currentStage);
@@ -374,7 +491,8 @@ public class NvConnection {
             }
         }
 
-        logger.info("Connection has been started");
+        logger.info("Connection has been started in {} ms",
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - context.connectionStartTime));
     }
 
     public void start(int drFlags, AudioRenderer audioRenderer, VideoDecoderRenderer videoDecoderRenderer)
@@ -386,6 +504,7 @@ public class NvConnection {
 
         boolean success = false;
         try {
+            context.connectionStartTime = System.nanoTime();
             context.serverAddress = InetAddress.getByName(host);
             establishConnection();
             success = true;
@@ -423,11 +542,25 @@ public class NvConnection {
                                     final byte leftTrigger, final byte rightTrigger,
                                     final short leftStickX, final short leftStickY,
                                     final short rightStickX, final short rightStickY) {
+        sendControllerInput(controllerNumber, buttonFlags, leftTrigger, rightTrigger,
+                            leftStickX, leftStickY, rightStickX, rightStickY, System.nanoTime());
+    }
+
+    /**
+     * Sends the state of a controller read at the specified {@link System#nanoTime()}, from which
+     * the {@code controller_input_latency} is measured.
+     */
+    public void sendControllerInput(final short controllerNumber,
+                                    final short buttonFlags,
+                                    final byte leftTrigger, final byte rightTrigger,
+                                    final short leftStickX, final short leftStickY,
+                                    final short rightStickX, final short rightStickY,
+                                    final long inputTime) {
         if (inputStream == null) { return; }
 
         inputStream.sendControllerInput(controllerNumber, buttonFlags, leftTrigger,
                                         rightTrigger, leftStickX, leftStickY,
-                                        rightStickX, rightStickY);
+                                        rightStickX, rightStickY, inputTime);
     }
 
     public void sendKeyboardInput(final short keyMap, final byte keyDirection, final byte modifier) {
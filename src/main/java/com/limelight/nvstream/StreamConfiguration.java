@@ -1,5 +1,8 @@
 package com.limelight.nvstream;
 
+import java.io.File;
+
+import com.limelight.nvstream.av.DecodedUnitPool.WaitStrategy;
 import com.limelight.nvstream.http.NvApp;
 
 public class StreamConfiguration {
@@ -14,6 +17,13 @@ public class StreamConfiguration {
     private static final int CHANNEL_MASK_STEREO = 0x3;
     private static final int CHANNEL_MASK_5_1 = 0xFC;
 
+    private static final int DEFAULT_VIDEO_REORDER_QUEUE_SIZE = 16;
+
+    // We can't request an IDR frame until the depacketizer knows
+    // that a packet was lost. This timeout bounds the time that
+    // the RTP queue will wait for missing/reordered packets.
+    private static final int DEFAULT_VIDEO_REORDER_QUEUE_DELAY_MS = 10;
+
     private NvApp app;
     private int width, height;
     private int refreshRate;
@@ -26,6 +36,11 @@ public class StreamConfiguration {
     private int audioChannelMask;
     private int audioChannelCount;
     private boolean supportsHevc;
+    private File captureFile;
+    private int videoReorderQueueSize;
+    private int videoReorderQueueDelay;
+    private boolean videoFecEnabled;
+    private WaitStrategy decodeUnitWaitStrategy;
 
     public static class Builder {
         private final StreamConfiguration config = new StreamConfiguration();
@@ -95,6 +110,31 @@ public class StreamConfiguration {
             return this;
         }
 
+        public Builder setCaptureFile(File captureFile) {
+            config.captureFile = captureFile;
+            return this;
+        }
+
+        public Builder setVideoReorderQueueSize(int maxSize) {
+            config.videoReorderQueueSize = maxSize;
+            return this;
+        }
+
+        public Builder setVideoReorderQueueDelay(int maxDelayMs) {
+            config.videoReorderQueueDelay = maxDelayMs;
+            return this;
+        }
+
+        public Builder setVideoFecEnabled(boolean videoFecEnabled) {
+            config.videoFecEnabled = videoFecEnabled;
+            return this;
+        }
+
+        public Builder setDecodeUnitWaitStrategy(WaitStrategy waitStrategy) {
+            config.decodeUnitWaitStrategy = waitStrategy;
+            return this;
+        }
+
         public StreamConfiguration build() {
             return config;
         }
@@ -113,6 +153,9 @@ public class StreamConfiguration {
         audioChannelCount = CHANNEL_COUNT_STEREO;
         audioChannelMask = CHANNEL_MASK_STEREO;
         supportsHevc = false;
+        videoReorderQueueSize = DEFAULT_VIDEO_REORDER_QUEUE_SIZE;
+        videoReorderQueueDelay = DEFAULT_VIDEO_REORDER_QUEUE_DELAY_MS;
+        decodeUnitWaitStrategy = WaitStrategy.SPIN_THEN_PARK;
     }
 
     public int getWidth() {
@@ -166,4 +209,24 @@ public class StreamConfiguration {
     public boolean getHevcSupported() {
         return supportsHevc;
     }
+
+    public File getCaptureFile() {
+        return captureFile;
+    }
+
+    public int getVideoReorderQueueSize() {
+        return videoReorderQueueSize;
+    }
+
+    public int getVideoReorderQueueDelay() {
+        return videoReorderQueueDelay;
+    }
+
+    public boolean getVideoFecEnabled() {
+        return videoFecEnabled;
+    }
+
+    public WaitStrategy getDecodeUnitWaitStrategy() {
+        return decodeUnitWaitStrategy;
+    }
 }
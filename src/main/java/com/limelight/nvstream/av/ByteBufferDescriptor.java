@@ -1,32 +1,62 @@
 package com.limelight.nvstream.av;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Describes a region of either a byte array ({@link #data}) or a {@link ByteBuffer} ({@link #buffer}),
+ * which is usually a direct buffer. Only one of the two is non-null. The region is addressed with absolute
+ * indices and the position and limit of the {@link ByteBuffer} are ignored.
+ */
 public class ByteBufferDescriptor {
 
     public byte[] data;
+    public ByteBuffer buffer;
     public int offset;
     public int length;
 
     public ByteBufferDescriptor nextDescriptor;
 
+    public ByteBufferDescriptor() {}
+
     public ByteBufferDescriptor(byte[] data, int offset, int length) {
         this.data = data;
         this.offset = offset;
         this.length = length;
     }
 
+    public ByteBufferDescriptor(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
     public ByteBufferDescriptor(ByteBufferDescriptor desc) {
         data = desc.data;
+        buffer = desc.buffer;
         offset = desc.offset;
         length = desc.length;
     }
 
     public void reinitialize(byte[] data, int offset, int length) {
         this.data = data;
+        buffer = null;
         this.offset = offset;
         this.length = length;
         nextDescriptor = null;
     }
 
+    public void reinitialize(ByteBuffer buffer, int offset, int length) {
+        data = null;
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        nextDescriptor = null;
+    }
+
+    public byte get(int index) {
+        return data != null ? data[index] : buffer.get(index);
+    }
+
     public void print() {
         print(offset, length);
     }
@@ -39,11 +69,11 @@ public class ByteBufferDescriptor {
         for (int i = offset; i < offset + length; ) {
             if (i + 8 <= offset + length) {
                 System.out.printf("%x: %02x %02x %02x %02x %02x %02x %02x %02x\n", i,
-                                  data[i], data[i + 1], data[i + 2], data[i + 3], data[i + 4], data[i + 5],
-                                  data[i + 6], data[i + 7]);
+                                  get(i), get(i + 1), get(i + 2), get(i + 3), get(i + 4), get(i + 5),
+                                  get(i + 6), get(i + 7));
                 i += 8;
             } else {
-                System.out.printf("%x: %02x \n", i, data[i]);
+                System.out.printf("%x: %02x \n", i, get(i));
                 i++;
             }
         }
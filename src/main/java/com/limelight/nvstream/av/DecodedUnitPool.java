@@ -4,17 +4,59 @@ import java.util.ArrayDeque;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 import java.util.function.IntFunction;
 import java.util.function.Supplier;
 
 import org.jctools.queues.MpscArrayQueue;
-
+import org.jctools.queues.SpscArrayQueue;
+
+/**
+ * A fixed set of decode units handed off from the thread which fills them (the producer) to the thread which
+ * consumes them (the consumer), and back.
+ *
+ * <p>A pool created with a {@link WaitStrategy} hands the decoded units off through a lock-free
+ * single-producer single-consumer queue, so only one thread may call {@link #addDecoded(Object)} and
+ * {@link #clearAllDecoded()}, and only one other thread may call {@link #pollDecoded()} and
+ * {@link #takeDecoded()}. {@link #clearAllDecoded()} does not free the decoded units by itself in this case.
+ * It marks them instead, and the consumer frees them the next time it polls or takes a unit.
+ */
 public final class DecodedUnitPool<T> {
 
+    /**
+     * How {@link #takeDecoded()} waits for a decoded unit in a single-producer single-consumer pool.
+     */
+    public enum WaitStrategy {
+        /**
+         * Polls until a unit arrives. The lowest latency, at the cost of a CPU core kept busy.
+         */
+        BUSY_SPIN,
+        /**
+         * Polls for a while and parks the consumer if no unit arrives meanwhile.
+         */
+        SPIN_THEN_PARK,
+        /**
+         * Parks the consumer until a unit arrives.
+         */
+        PARK
+    }
+
+    private static final int SPIN_TRIES = 1000;
+
     private final Queue<T> free;
     private final Queue<T> decoded;
     private final Consumer<T> cleaner;
+    private final WaitStrategy waitStrategy;
+
+    // The number of the units added so far; written only by the producer.
+    private volatile long numAdded;
+    // The number of the units added until the last clearAllDecoded(); written only by the producer.
+    private volatile long numDiscarded;
+    // The number of the units polled so far; accessed only by the consumer.
+    private long numPolled;
+    // The consumer which is parked or about to park.
+    private volatile Thread parkedConsumer;
 
     public DecodedUnitPool(int size, boolean threadSafe, Supplier<T> factory) {
         this(size, threadSafe, factory, null);
@@ -24,13 +66,24 @@ public final class DecodedUnitPool<T> {
         this(size,
              threadSafe ? MpscArrayQueue::new : ArrayDeque::new,
              threadSafe ? ArrayBlockingQueue::new : ArrayDeque::new,
-             factory, cleaner);
+             factory, cleaner, null);
+    }
+
+    public DecodedUnitPool(int size, WaitStrategy waitStrategy, Supplier<T> factory) {
+        this(size, waitStrategy, factory, null);
+    }
+
+    public DecodedUnitPool(int size, WaitStrategy waitStrategy, Supplier<T> factory, Consumer<T> cleaner) {
+        // The free queue has multiple producers because the producer frees
+        // the units it failed to fill as well.
+        this(size, MpscArrayQueue::new, SpscArrayQueue::new, factory, cleaner, waitStrategy);
     }
 
     private DecodedUnitPool(int size,
                             IntFunction<Queue<T>> freeQueueFactory,
                             IntFunction<Queue<T>> decodedQueueFactory,
-                            Supplier<T> factory, Consumer<T> cleaner) {
+                            Supplier<T> factory, Consumer<T> cleaner,
+                            WaitStrategy waitStrategy) {
 
         free = freeQueueFactory.apply(size);
         decoded = decodedQueueFactory.apply(size);
@@ -39,6 +92,7 @@ public final class DecodedUnitPool<T> {
             free.add(factory.get());
         }
         this.cleaner = cleaner;
+        this.waitStrategy = waitStrategy;
     }
 
     public T pollFree() {
@@ -47,6 +101,17 @@ public final class DecodedUnitPool<T> {
 
     public void addDecoded(T object) {
         decoded.add(object);
+        if (waitStrategy == null) {
+            return;
+        }
+
+        // Update the count before checking the parked consumer, so that either
+        // the consumer sees the new count or this thread sees the parked consumer.
+        numAdded++;
+        final Thread consumer = parkedConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
     }
 
     public void freeDecoded(T object) {
@@ -57,18 +122,64 @@ public final class DecodedUnitPool<T> {
     }
 
     public T pollDecoded() {
-        return decoded.poll();
+        if (waitStrategy == null) {
+            return decoded.poll();
+        }
+
+        for (;;) {
+            final T object = decoded.poll();
+            if (object == null || ++numPolled > numDiscarded) {
+                return object;
+            }
+
+            // Discarded by clearAllDecoded()
+            freeDecoded(object);
+        }
     }
 
     public T takeDecoded() throws InterruptedException {
-        if (!(decoded instanceof BlockingQueue)) {
-            throw new UnsupportedOperationException("Blocking is unsupported on this buffer list");
+        if (waitStrategy == null) {
+            if (!(decoded instanceof BlockingQueue)) {
+                throw new UnsupportedOperationException("Blocking is unsupported on this buffer list");
+            }
+
+            return ((BlockingQueue<T>) decoded).take();
         }
 
-        return ((BlockingQueue<T>) decoded).take();
+        int spins = 0;
+        for (;;) {
+            final T object = pollDecoded();
+            if (object != null) {
+                return object;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            switch (waitStrategy) {
+                case BUSY_SPIN:
+                    continue;
+                case SPIN_THEN_PARK:
+                    if (spins++ < SPIN_TRIES) {
+                        continue;
+                    }
+            }
+
+            parkedConsumer = Thread.currentThread();
+            if (numAdded == numPolled) {
+                LockSupport.park(this);
+            }
+            parkedConsumer = null;
+        }
     }
 
     public void clearAllDecoded() {
+        if (waitStrategy != null) {
+            // Only the consumer may poll the decoded units.
+            numDiscarded = numAdded;
+            return;
+        }
+
         T object;
         while ((object = pollDecoded()) != null) {
             freeDecoded(object);
@@ -1,25 +1,47 @@
 package com.limelight.nvstream.av;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.Iterator;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.limelight.nvstream.Util;
 
+/**
+ * Puts the RTP packets received out of order back in order.
+ *
+ * <p>The queued packets are kept in a ring indexed by {@code sequenceNumber & mask}, so that inserting,
+ * looking up and dequeuing a packet take constant time regardless of the queue size. The ring covers
+ * the window of sequence numbers starting at the next expected one, and is twice as large as the maximum
+ * number of queued packets so that a burst of lost packets does not push the next packet out of the window.
+ * A packet beyond the window flushes all queued packets in front of it.
+ */
 public final class RtpReorderQueue<T extends RtpPacket> {
 
     private static final Logger logger = LoggerFactory.getLogger(RtpReorderQueue.class);
 
+    public static final int DEFAULT_MAX_SIZE = 16;
+    public static final int DEFAULT_MAX_QUEUE_TIME = 40;
+
     private final int maxSize;
     private final int maxQueueTime;
-    private final Deque<RtpQueueEntry<T>> queue;
 
+    // Indexed by sequence number
+    private final int mask;
+    private final T[] packets;
+    private final long[] queueTimes;
+
+    // The sequence numbers in the order they were queued, used for finding the oldest queued packet.
+    // The entries of the packets dequeued already are skipped lazily when they reach the head.
+    private final int arrivalMask;
+    private final short[] arrivals;
+    private int arrivalHead;
+    private int arrivalTail;
+
+    private int size;
+    private boolean initialized;
     private short nextRtpSequenceNumber;
 
-    private long oldestQueuedTime;
+    // A packet beyond the window, which is queued once all other packets are dequeued
+    private T pendingPacket;
 
     public enum RtpQueueStatus {
         HANDLE_IMMEDIATELY,
@@ -29,211 +51,194 @@ public final class RtpReorderQueue<T extends RtpPacket> {
     }
 
     public RtpReorderQueue() {
-        maxSize = 16;
-        maxQueueTime = 40;
-        queue = new ArrayDeque<>();
-
-        oldestQueuedTime = Long.MAX_VALUE;
-        nextRtpSequenceNumber = Short.MAX_VALUE;
+        this(DEFAULT_MAX_SIZE, DEFAULT_MAX_QUEUE_TIME);
     }
 
+    /**
+     * Creates a new queue.
+     *
+     * @param maxSize the maximum number of packets to queue before giving up on the missing packets
+     * @param maxQueueTime the maximum time to wait for the missing packets, in milliseconds
+     */
+    @SuppressWarnings("unchecked")
     public RtpReorderQueue(int maxSize, int maxQueueTime) {
+        if (maxSize < 2 || maxSize > 16384) {
+            throw new IllegalArgumentException("maxSize: " + maxSize + " (expected: 2-16384)");
+        }
+        if (maxQueueTime < 0) {
+            throw new IllegalArgumentException("maxQueueTime: " + maxQueueTime + " (expected: >= 0)");
+        }
+
         this.maxSize = maxSize;
         this.maxQueueTime = maxQueueTime;
-        queue = new ArrayDeque<>();
 
-        oldestQueuedTime = Long.MAX_VALUE;
-        nextRtpSequenceNumber = Short.MAX_VALUE;
-    }
-
-    private boolean queuePacket(boolean head, T packet) {
-        short seq = packet.getRtpSequenceNumber();
+        int capacity = Integer.highestOneBit(maxSize - 1) << 2;
+        mask = capacity - 1;
+        packets = (T[]) new RtpPacket[capacity];
+        queueTimes = new long[capacity];
 
-        if (nextRtpSequenceNumber != Short.MAX_VALUE) {
-            // Don't queue packets we're already ahead of
-            if (SequenceHelper.isBeforeSigned(seq, nextRtpSequenceNumber, false)) {
-                return false;
-            }
+        // A queued packet can be preceded only by the packets behind it in the window,
+        // so the arrival order never holds more than two windows worth of entries.
+        arrivalMask = capacity * 2 - 1;
+        arrivals = new short[capacity * 2];
+    }
 
-            // Don't queue duplicates either
-            for (RtpQueueEntry<T> existingEntry : queue) {
-                if (existingEntry.sequenceNumber == seq) {
-                    return false;
-                }
-            }
-        }
+    private void queuePacket(T packet, short seq) {
+        int index = seq & mask;
+        packets[index] = packet;
+        queueTimes[index] = Util.monotonicMillis();
 
-        RtpQueueEntry<T> entry = new RtpQueueEntry<>(packet, seq, Util.monotonicMillis());
-        if (oldestQueuedTime == Long.MAX_VALUE) {
-            oldestQueuedTime = entry.queueTime;
+        if (arrivalTail - arrivalHead == arrivals.length) {
+            removeDequeuedArrivals();
         }
+        arrivals[arrivalTail++ & arrivalMask] = seq;
+        size++;
 
         // Add a reference to the packet while it's in the queue
         packet.referencePacket();
-
-        if (head) {
-            queue.addFirst(entry);
-        } else {
-            queue.addLast(entry);
-        }
-
-        return true;
     }
 
-    private void updateOldestQueued() {
-        oldestQueuedTime = Long.MAX_VALUE;
-        for (RtpQueueEntry<T> entry : queue) {
-            if (entry.queueTime < oldestQueuedTime) {
-                oldestQueuedTime = entry.queueTime;
-            }
-        }
+    private boolean isQueued(short seq) {
+        T packet = packets[seq & mask];
+        return packet != null && packet.getRtpSequenceNumber() == seq;
     }
 
-    private RtpQueueEntry<T> getEntryByLowestSeq() {
-        if (queue.isEmpty()) {
-            return null;
-        }
-
-        RtpQueueEntry<T> lowestSeqEntry = queue.getFirst();
-        short nextSeq = lowestSeqEntry.sequenceNumber;
-
-        for (RtpQueueEntry<T> entry : queue) {
-            if (SequenceHelper.isBeforeSigned(entry.sequenceNumber, nextSeq, true)) {
-                lowestSeqEntry = entry;
-                nextSeq = entry.sequenceNumber;
-            }
+    private void removeDequeuedArrivals() {
+        while (arrivalHead != arrivalTail && !isQueued(arrivals[arrivalHead & arrivalMask])) {
+            arrivalHead++;
         }
+    }
 
-        if (nextSeq != Short.MAX_VALUE) {
-            nextRtpSequenceNumber = nextSeq;
+    private long oldestQueuedTime() {
+        removeDequeuedArrivals();
+        if (arrivalHead == arrivalTail) {
+            return Long.MAX_VALUE;
         }
-
-        return lowestSeqEntry;
+        return queueTimes[arrivals[arrivalHead & arrivalMask] & mask];
     }
 
-    private RtpQueueEntry<T> validateQueueConstraints() {
-        if (queue.isEmpty()) {
-            return null;
+    private void skipToLowestSeq() {
+        // The skipped sequence numbers are never visited again,
+        // so the scan costs O(1) per sequence number on average.
+        while (packets[nextRtpSequenceNumber & mask] == null) {
+            nextRtpSequenceNumber++;
         }
+    }
 
-        boolean dequeuePacket = false;
-
+    private boolean validateQueueConstraints() {
         // Check that the queue's time constraint is satisfied
-        if (Util.monotonicMillis() - oldestQueuedTime > maxQueueTime) {
-            logger.info("Returning RTP packet queued for too long: " +
-                        (Util.monotonicMillis() - oldestQueuedTime));
-            dequeuePacket = true;
+        long queuedTime = Util.monotonicMillis() - oldestQueuedTime();
+        if (queuedTime > maxQueueTime) {
+            logger.info("Returning RTP packet queued for too long: {}", queuedTime);
+            skipToLowestSeq();
+            return true;
         }
 
         // Check that the queue's size constraint is satisfied. We subtract one
         // because this is validating that the queue will meet constraints _after_
         // the current packet is enqueued.
-        if (!dequeuePacket && queue.size() == maxSize - 1) {
+        if (size >= maxSize - 1) {
             logger.info("Returning RTP packet after queue overgrowth");
-            dequeuePacket = true;
+            skipToLowestSeq();
+            return true;
         }
 
-        if (dequeuePacket) {
-            // Return the lowest seq queued
-            return getEntryByLowestSeq();
-        } else {
-            return null;
-        }
+        return false;
     }
 
     public RtpQueueStatus addPacket(T packet) {
-        if (nextRtpSequenceNumber != Short.MAX_VALUE &&
-            SequenceHelper.isBeforeSigned(packet.getRtpSequenceNumber(), nextRtpSequenceNumber, false)) {
+        short seq = packet.getRtpSequenceNumber();
+
+        if (!initialized) {
+            initialized = true;
+            nextRtpSequenceNumber = (short) (seq + 1);
+            return RtpQueueStatus.HANDLE_IMMEDIATELY;
+        }
+
+        // Compare the sequence numbers in serial number arithmetic, so that a stale packet is not
+        // mistaken for a packet far ahead when the sequence number crosses zero or wraps around.
+        int distance = (short) (seq - nextRtpSequenceNumber);
+        if (distance < 0) {
             // Reject packets behind our current sequence number
             return RtpQueueStatus.REJECTED;
         }
 
-        if (queue.isEmpty()) {
-            // Return immediately for an exact match with an empty queue
-            if (nextRtpSequenceNumber == Short.MAX_VALUE ||
-                packet.getRtpSequenceNumber() == nextRtpSequenceNumber) {
-                nextRtpSequenceNumber = (short) (packet.getRtpSequenceNumber() + 1);
-                return RtpQueueStatus.HANDLE_IMMEDIATELY;
-            } else {
-                // Queue is empty currently so we'll put this packet on there
-                if (queuePacket(false, packet)) {
-                    return RtpQueueStatus.QUEUED_NOTHING_READY;
-                } else {
-                    return RtpQueueStatus.REJECTED;
-                }
-            }
-        } else {
-            // Validate that the queue remains within our constraints
-            RtpQueueEntry<T> lowestEntry = validateQueueConstraints();
-
-            // If the queue is now empty after validating queue constraints,
-            // this packet can be returned immediately
-            if (lowestEntry == null && queue.isEmpty()) {
-                nextRtpSequenceNumber = (short) (packet.getRtpSequenceNumber() + 1);
+        if (size == 0) {
+            // Return immediately for an exact match with an empty queue. There's also no point in
+            // waiting for the missing packets if they are too many to fit in the window.
+            if (distance == 0 || distance > mask) {
+                nextRtpSequenceNumber = (short) (seq + 1);
                 return RtpQueueStatus.HANDLE_IMMEDIATELY;
             }
 
-            // Queue has data inside, so we need to see where this packet fits
-            if (packet.getRtpSequenceNumber() == nextRtpSequenceNumber) {
-                // It fits in a hole where we need a packet, now we have some ready
-                if (queuePacket(true, packet)) {
-                    return RtpQueueStatus.QUEUED_PACKETS_READY;
-                } else {
-                    return RtpQueueStatus.REJECTED;
-                }
-            } else {
-                if (queuePacket(false, packet)) {
-                    // Constraint validation may have changed the oldest packet to one that
-                    // matches the next sequence number
-                    return lowestEntry != null ? RtpQueueStatus.QUEUED_PACKETS_READY :
-                           RtpQueueStatus.QUEUED_NOTHING_READY;
-                } else {
-                    return RtpQueueStatus.REJECTED;
-                }
-            }
+            // Queue is empty currently so we'll put this packet on there
+            queuePacket(packet, seq);
+            return RtpQueueStatus.QUEUED_NOTHING_READY;
+        }
+
+        if (distance > mask) {
+            // Flush everything in front of this packet, and return this packet after that.
+            pendingPacket = packet;
+            packet.referencePacket();
+            logger.info("Returning RTP packets before the reorder window: {}", distance);
+            return RtpQueueStatus.QUEUED_PACKETS_READY;
+        }
+
+        // Validate that the queue remains within our constraints
+        boolean flushed = validateQueueConstraints();
+
+        // Constraint validation may have skipped past this packet
+        if ((short) (seq - nextRtpSequenceNumber) < 0) {
+            return RtpQueueStatus.REJECTED;
         }
+
+        // Don't queue duplicates
+        if (packets[seq & mask] != null) {
+            return RtpQueueStatus.REJECTED;
+        }
+
+        queuePacket(packet, seq);
+
+        // Either the packet fits in a hole where we need a packet, or constraint validation
+        // has changed the next sequence number to the one of the oldest packet.
+        return flushed || seq == nextRtpSequenceNumber ? RtpQueueStatus.QUEUED_PACKETS_READY
+                                                       : RtpQueueStatus.QUEUED_NOTHING_READY;
     }
 
     // This function returns a referenced packet. The caller must dereference
     // the packet when it is finished.
     public T getQueuedPacket() {
-        RtpQueueEntry<T> queuedEntry = null;
-
-        // Find the matching entry
-        Iterator<RtpQueueEntry<T>> i = queue.iterator();
-        while (i.hasNext()) {
-            RtpQueueEntry<T> entry = i.next();
-            if (entry.sequenceNumber == nextRtpSequenceNumber) {
+        if (pendingPacket != null) {
+            // Skip the holes in front of the pending packet
+            while (size != 0 && packets[nextRtpSequenceNumber & mask] == null) {
                 nextRtpSequenceNumber++;
-                queuedEntry = entry;
-                i.remove();
-                break;
+            }
+
+            if (size == 0) {
+                // Everything in front of the pending packet has been dequeued; swap the reference of
+                // the pending packet with the one taken by the queue.
+                T packet = pendingPacket;
+                pendingPacket = null;
+                nextRtpSequenceNumber = packet.getRtpSequenceNumber();
+                queuePacket(packet, nextRtpSequenceNumber);
+                packet.dereferencePacket();
             }
         }
 
-        // Bail if we found nothing
-        if (queuedEntry == null) {
-            // Update the oldest queued packet time
-            updateOldestQueued();
+        int index = nextRtpSequenceNumber & mask;
+        T packet = packets[index];
 
+        // Bail if we found nothing
+        if (packet == null) {
             return null;
         }
 
-        // We don't update the oldest queued entry here, because we know
-        // the caller will call again until it receives null
-
-        return queuedEntry.packet;
-    }
-
-    private static class RtpQueueEntry<T> {
-        final T packet;
-        final short sequenceNumber;
-        final long queueTime;
-
-        RtpQueueEntry(T packet, short sequenceNumber, long queueTime) {
-            this.packet = packet;
-            this.sequenceNumber = sequenceNumber;
-            this.queueTime = queueTime;
+        packets[index] = null;
+        nextRtpSequenceNumber++;
+        if (--size == 0) {
+            arrivalHead = arrivalTail;
         }
+
+        return packet;
     }
 }
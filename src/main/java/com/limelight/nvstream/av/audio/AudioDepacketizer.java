@@ -5,32 +5,46 @@ import org.slf4j.LoggerFactory;
 
 import com.limelight.nvstream.av.ByteBufferDescriptor;
 import com.limelight.nvstream.av.DecodedUnitPool;
+import com.limelight.nvstream.av.DecodedUnitPool.WaitStrategy;
 import com.limelight.nvstream.av.SequenceHelper;
+import com.limelight.nvstream.metrics.Counter;
+import com.limelight.nvstream.metrics.MetricRegistry;
 
 final class AudioDepacketizer {
 
     private static final Logger logger = LoggerFactory.getLogger(AudioDepacketizer.class);
 
     private static final int DU_LIMIT = 30;
+
+    // Conceal at most 50 ms of lost audio. Opus fades the concealed audio out long before that anyway,
+    // and the jitter buffer fills a longer gap with silence.
+    private static final int MAX_CONCEALED_FRAMES = 10;
+
     private DecodedUnitPool<ByteBufferDescriptor> decodedUnits;
 
     // Direct submit state
-    private final AudioRenderer directSubmitRenderer;
+    private final AudioJitterBuffer directSubmitBuffer;
     private byte[] directSubmitData;
 
     // Cached objects
-    private final ByteBufferDescriptor cachedDesc = new ByteBufferDescriptor(null, 0, 0);
+    private final ByteBufferDescriptor cachedDesc = new ByteBufferDescriptor();
 
     // Sequencing state
     private short lastSequenceNumber;
 
-    AudioDepacketizer(AudioRenderer directSubmitRenderer, final int bufferSizeShorts) {
-        this.directSubmitRenderer = directSubmitRenderer;
-        if (directSubmitRenderer != null) {
+    private final Counter lostPackets = MetricRegistry.global().counter(
+            "audio_lost_packets_total", "The number of audio packets lost in the network");
+    private final Counter concealedFrames = MetricRegistry.global().counter(
+            "audio_concealed_frames_total", "The number of audio frames synthesized in place of the lost ones");
+
+    AudioDepacketizer(AudioJitterBuffer directSubmitBuffer, final int bufferSizeShorts,
+                      WaitStrategy waitStrategy) {
+        this.directSubmitBuffer = directSubmitBuffer;
+        if (directSubmitBuffer != null) {
             directSubmitData = new byte[bufferSizeShorts * 2];
         } else {
             decodedUnits = new DecodedUnitPool<>(
-                    DU_LIMIT, true,
+                    DU_LIMIT, waitStrategy,
                     () -> new ByteBufferDescriptor(
                             new byte[bufferSizeShorts * 2], 0, bufferSizeShorts * 2));
         }
@@ -47,24 +61,22 @@ final class AudioDepacketizer {
             bb = decodedUnits.pollFree();
             if (bb == null) {
                 logger.warn("Audio player too slow! Forced to drop decoded samples");
+                // The player frees the dropped samples when it takes the next ones,
+                // so drop these samples as well.
                 decodedUnits.clearAllDecoded();
-                bb = decodedUnits.pollFree();
-                if (bb == null) {
-                    logger.error("Audio player is leaking buffers!");
-                    return;
-                }
+                return;
             }
             decodeLen = OpusDecoder.decode(data, off, len, bb.data);
         }
 
         if (decodeLen > 0) {
-            if (directSubmitRenderer != null) {
-                directSubmitRenderer.playDecodedAudio(directSubmitData, 0, decodeLen);
+            if (directSubmitBuffer != null) {
+                directSubmitBuffer.play(directSubmitData, 0, decodeLen);
             } else {
                 bb.length = decodeLen;
                 decodedUnits.addDecoded(bb);
             }
-        } else if (directSubmitRenderer == null) {
+        } else if (directSubmitBuffer == null) {
             decodedUnits.freeDecoded(bb);
         }
     }
@@ -82,7 +94,14 @@ final class AudioDepacketizer {
             // Only tell the decoder if we got packets ahead of what we expected
             // If the packet is behind the current sequence number, drop it
             if (!SequenceHelper.isBeforeSigned(seq, (short) (lastSequenceNumber + 1), false)) {
-                decodeData(null, 0, 0);
+                // Let the decoder conceal each lost 5 ms frame, so that the audio stays in time.
+                int lost = (seq - lastSequenceNumber - 1) & 0xFFFF;
+                int concealed = Math.min(lost, MAX_CONCEALED_FRAMES);
+                lostPackets.add(lost);
+                concealedFrames.add(concealed);
+                for (int i = 0; i < concealed; i++) {
+                    decodeData(null, 0, 0);
+                }
             } else {
                 return;
             }
@@ -0,0 +1,235 @@
+package com.limelight.nvstream.av.audio;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import com.limelight.nvstream.metrics.Counter;
+import com.limelight.nvstream.metrics.Gauge;
+import com.limelight.nvstream.metrics.MetricRegistry;
+
+/**
+ * Keeps the amount of the audio queued in an {@link AudioRenderer} close to a target which follows
+ * the network jitter, so that the audio latency does not drift upward on a jittery link and
+ * a late packet does not make the renderer run dry.
+ *
+ * <p>The receive thread reports the arrival time of each packet. The inter-arrival jitter is estimated from
+ * them as in RFC 3550, along with a slowly decaying peak of the jitter, because the packets usually arrive
+ * late in bursts. The target depth is the number of frames which covers both.
+ *
+ * <p>The thread which plays the audio, i.e. the receive thread if the renderer supports direct submission
+ * or the player thread otherwise, hands each decoded frame to {@link #play(byte[], int, int)}, which compares
+ * the smoothed depth of the renderer queue with the target and:
+ * <ul>
+ *   <li>plays the frame as it is if the depth is on target,</li>
+ *   <li>resamples the frame to 1/{@value #STRETCH_DIVISOR} fewer or more samples if the depth is above or
+ *       below the target, which is hardly audible and converges by a frame in {@value #STRETCH_DIVISOR}
+ *       frames,</li>
+ *   <li>drops the frame if the depth is far above the target, e.g. after a long stall, and</li>
+ *   <li>queues silence up to the target before the frame if the renderer ran dry, rather than
+ *       restarting the playback with a single frame, which would run dry again.</li>
+ * </ul>
+ * If the renderer does not {@linkplain AudioRenderer#getPendingFrames() report} its depth, the frames are
+ * played as they are.
+ */
+final class AudioJitterBuffer {
+
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private static final int MIN_TARGET_FRAMES = 2;
+    private static final int MAX_TARGET_FRAMES = 40;
+
+    // Drop frames if the depth exceeds the target by this number of frames.
+    private static final int MAX_EXCESS_FRAMES = 8;
+
+    // Stretch or shrink a frame by 1/STRETCH_DIVISOR.
+    private static final int STRETCH_DIVISOR = 16;
+
+    // The target covers this multiple of the mean jitter.
+    private static final int JITTER_MULTIPLIER = 4;
+
+    // The weight of a new sample in the smoothed depth
+    private static final double DEPTH_EWMA_ALPHA = 1.0 / 16;
+
+    // The peak jitter decays by half in about 2 seconds of packets.
+    private static final double PEAK_HALF_LIFE_SECONDS = 2;
+
+    private final AudioRenderer renderer;
+    private final int channelCount;
+    private final int bytesPerFrame;
+    private final long frameIntervalNanos;
+    private final double peakDecay;
+
+    private final byte[] silence;
+    private final byte[] stretched;
+
+    // Updated by the receive thread
+    private long lastArrivalTime;
+    private double jitterNanos;
+    private double peakJitterNanos;
+    private volatile int targetFrames = MIN_TARGET_FRAMES;
+
+    // Updated by the thread which plays the audio
+    private double smoothedDepth = -1;
+
+    private final Gauge latency = MetricRegistry.global().gauge(
+            "audio_latency_ms", "The duration of the audio queued for playback");
+    private final Gauge targetLatency = MetricRegistry.global().gauge(
+            "audio_target_latency_ms", "The duration of the audio the jitter buffer tries to keep queued");
+    private final Gauge jitter = MetricRegistry.global().gauge(
+            "audio_jitter_ms", "The inter-arrival jitter of the audio packets");
+    private final Counter underruns = MetricRegistry.global().counter(
+            "audio_underruns_total", "The number of times the audio renderer ran out of samples");
+    private final Counter droppedFrames = MetricRegistry.global().counter(
+            "audio_dropped_frames_total", "The number of audio frames dropped to reduce the latency");
+    private final Counter shrunkFrames = MetricRegistry.global().counter(
+            "audio_stretched_frames_total", "The number of audio frames resampled to converge to the target",
+            "direction", "shrink");
+    private final Counter expandedFrames = MetricRegistry.global().counter(
+            "audio_stretched_frames_total", "The number of audio frames resampled to converge to the target",
+            "direction", "expand");
+
+    /**
+     * Creates a new jitter buffer.
+     *
+     * @param channelCount the number of the channels in a frame
+     * @param samplesPerChannel the number of 16-bit samples per channel in a frame
+     * @param sampleRate the sample rate of the audio
+     */
+    AudioJitterBuffer(AudioRenderer renderer, int channelCount, int samplesPerChannel, int sampleRate) {
+        this.renderer = renderer;
+        this.channelCount = channelCount;
+        bytesPerFrame = samplesPerChannel * channelCount * 2;
+        frameIntervalNanos = TimeUnit.SECONDS.toNanos(samplesPerChannel) / sampleRate;
+        peakDecay = Math.pow(0.5, frameIntervalNanos / (PEAK_HALF_LIFE_SECONDS * 1e9));
+
+        silence = new byte[bytesPerFrame];
+        stretched = new byte[bytesPerFrame + bytesPerFrame / STRETCH_DIVISOR + channelCount * 2];
+        targetLatency.set(MIN_TARGET_FRAMES * frameIntervalNanos / 1e6);
+    }
+
+    /**
+     * Invoked by the receive thread when an audio packet arrives.
+     */
+    void packetReceived(long arrivalTimeNanos) {
+        final long lastArrivalTime = this.lastArrivalTime;
+        this.lastArrivalTime = arrivalTimeNanos;
+        if (lastArrivalTime == 0) {
+            return;
+        }
+
+        final long deviation = Math.abs(arrivalTimeNanos - lastArrivalTime - frameIntervalNanos);
+        jitterNanos += (deviation - jitterNanos) / 16;
+        peakJitterNanos = Math.max(deviation, peakJitterNanos * peakDecay);
+        jitter.set(jitterNanos / 1e6);
+
+        final double coveredNanos = Math.max(jitterNanos * JITTER_MULTIPLIER, peakJitterNanos);
+        final int newTargetFrames = (int) Math.ceil(coveredNanos / frameIntervalNanos) + 1;
+        targetFrames = Math.max(MIN_TARGET_FRAMES, Math.min(MAX_TARGET_FRAMES, newTargetFrames));
+    }
+
+    /**
+     * Plays a decoded frame.
+     */
+    void play(byte[] data, int offset, int length) {
+        final int depth = renderer.getPendingFrames();
+        if (depth < 0) {
+            renderer.playDecodedAudio(data, offset, length);
+            return;
+        }
+
+        final int targetFrames = this.targetFrames;
+        latency.set(depth * frameIntervalNanos / 1e6);
+        targetLatency.set(targetFrames * frameIntervalNanos / 1e6);
+
+        if (depth == 0) {
+            // Ran dry, or not started yet. Fill up to the target at once.
+            if (smoothedDepth >= 0) {
+                underruns.increment();
+            }
+            for (int i = 1; i < targetFrames; i++) {
+                renderer.playDecodedAudio(silence, 0, silence.length);
+            }
+            smoothedDepth = targetFrames;
+            renderer.playDecodedAudio(data, offset, length);
+            return;
+        }
+
+        smoothedDepth += (depth - smoothedDepth) * DEPTH_EWMA_ALPHA;
+
+        if (smoothedDepth > targetFrames + MAX_EXCESS_FRAMES) {
+            droppedFrames.increment();
+            // Let the depth catch up with the dropped frame.
+            smoothedDepth--;
+            return;
+        }
+
+        if (length != bytesPerFrame) {
+            // Do not resample a partial frame.
+            renderer.playDecodedAudio(data, offset, length);
+            return;
+        }
+
+        final int samplesPerChannel = length / (channelCount * 2);
+        final int stretchSamples = samplesPerChannel / STRETCH_DIVISOR;
+        if (smoothedDepth > targetFrames + 0.5) {
+            shrunkFrames.increment();
+            final int outLength = resample(data, offset, samplesPerChannel, samplesPerChannel - stretchSamples);
+            renderer.playDecodedAudio(stretched, 0, outLength);
+        } else if (smoothedDepth < targetFrames - 0.5) {
+            expandedFrames.increment();
+            final int outLength = resample(data, offset, samplesPerChannel, samplesPerChannel + stretchSamples);
+            renderer.playDecodedAudio(stretched, 0, outLength);
+        } else {
+            renderer.playDecodedAudio(data, offset, length);
+        }
+    }
+
+    /**
+     * Lets the renderer play the frames passed to {@link #play(byte[], int, int)} so far.
+     */
+    void flush() {
+        renderer.flushDecodedAudio();
+    }
+
+    /**
+     * Resamples the interleaved 16-bit samples in {@code data} into {@link #stretched} with
+     * the linear interpolation, keeping the first and the last samples so that the frames stay continuous.
+     *
+     * @return the number of the bytes written
+     */
+    private int resample(byte[] data, int offset, int inSamples, int outSamples) {
+        final int frameStride = channelCount * 2;
+        final double step = (double) (inSamples - 1) / (outSamples - 1);
+        for (int i = 0; i < outSamples; i++) {
+            final double pos = i * step;
+            final int index = Math.min((int) pos, inSamples - 2);
+            final double frac = pos - index;
+            final int in = offset + index * frameStride;
+            final int out = i * frameStride;
+            for (int ch = 0; ch < channelCount; ch++) {
+                final int a = getSample(data, in + ch * 2);
+                final int b = getSample(data, in + frameStride + ch * 2);
+                putSample(stretched, out + ch * 2, (int) Math.round(a + (b - a) * frac));
+            }
+        }
+        return outSamples * frameStride;
+    }
+
+    private static int getSample(byte[] data, int offset) {
+        if (LITTLE_ENDIAN) {
+            return (short) (data[offset] & 0xFF | data[offset + 1] << 8);
+        } else {
+            return (short) (data[offset] << 8 | data[offset + 1] & 0xFF);
+        }
+    }
+
+    private static void putSample(byte[] data, int offset, int sample) {
+        if (LITTLE_ENDIAN) {
+            data[offset] = (byte) sample;
+            data[offset + 1] = (byte) (sample >>> 8);
+        } else {
+            data[offset] = (byte) (sample >>> 8);
+            data[offset + 1] = (byte) sample;
+        }
+    }
+}
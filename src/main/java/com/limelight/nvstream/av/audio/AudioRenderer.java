@@ -10,5 +10,15 @@ public interface AudioRenderer {
 
     void playDecodedAudio(byte[] audioData, int offset, int length);
 
+    // The number of the frames passed to playDecodedAudio() but not played yet, or -1 if unknown.
+    // AudioStream keeps it close to the network jitter if known.
+    default int getPendingFrames() {
+        return -1;
+    }
+
+    // Invoked after the frames decoded from a batch of received packets were passed to playDecodedAudio(),
+    // so that the renderer may hand them to the sound device at once.
+    default void flushDecodedAudio() {}
+
     void streamClosing();
 }
@@ -6,6 +6,7 @@ import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.util.concurrent.ScheduledFuture;
 
 import org.slf4j.Logger;
@@ -18,12 +19,14 @@ import com.limelight.nvstream.av.ByteBufferDescriptor;
 import com.limelight.nvstream.av.RtpPingSender;
 import com.limelight.nvstream.av.RtpReorderQueue;
 import com.limelight.nvstream.av.RtpReorderQueue.RtpQueueStatus;
+import com.limelight.nvstream.av.capture.RtpCaptureHeader;
+import com.limelight.nvstream.av.capture.RtpCaptureWriter;
 
 public final class AudioStream {
 
     private static final Logger logger = LoggerFactory.getLogger(AudioStream.class);
 
-    private static final int RTP_PORT = 48000;
+    public static final int RTP_PORT = 48000;
 
     private static final int SAMPLE_RATE = 48000;
     private static final int SHORTS_PER_CHANNEL = 240;
@@ -36,13 +39,16 @@ public final class AudioStream {
     }
 
     private DatagramChannel rtp;
+    private ReadableByteChannel rtpSource;
 
     private AudioDepacketizer depacketizer;
+    private AudioJitterBuffer jitterBuffer;
 
     private Thread decodeThread;
     private Thread receiveThread;
     private ScheduledFuture<?> pingFuture;
 
+    private boolean prepared;
     private volatile boolean aborting;
 
     private final NvConnection parent;
@@ -69,9 +75,9 @@ public final class AudioStream {
         }
 
         // Close the socket to interrupt the receive thread
-        if (rtp != null) {
+        if (rtpSource != null) {
             try {
-                rtp.close();
+                rtpSource.close();
             } catch (IOException e) {
                 logger.warn("Failed to close a RTP connection", e);
             }
@@ -85,7 +91,11 @@ public final class AudioStream {
         streamListener.streamClosing();
     }
 
-    public boolean startAudioStream() throws IOException {
+    /**
+     * Opens the RTP socket and sets up the decoder and the renderer, which do not depend on the RTSP handshake.
+     * {@link #startAudioStream()} does this by itself if not done yet.
+     */
+    public boolean prepareAudioStream() throws IOException {
         setupRtpSession();
 
         if (!setupAudio()) {
@@ -93,18 +103,36 @@ public final class AudioStream {
             return false;
         }
 
+        prepared = true;
+        return true;
+    }
+
+    public boolean startAudioStream() throws IOException {
+        if (!prepared && !prepareAudioStream()) {
+            return false;
+        }
+
         if ((streamListener.getCapabilities() & AudioRenderer.CAPABILITY_DIRECT_SUBMIT) == 0) {
             decodeThread = startDecoderThread();
         }
 
         receiveThread = startReceiveThread();
-        pingFuture = RtpPingSender.start(rtp);
+        if (rtp != null) {
+            pingFuture = RtpPingSender.start(rtp);
+        }
 
         return true;
     }
 
     private void setupRtpSession() throws IOException {
+        if (context.rtpReplay != null && !context.rtpReplay.isLoopback()) {
+            // Read the recorded datagrams directly, bypassing the network.
+            rtpSource = context.rtpReplay.newChannel(RtpCaptureHeader.AUDIO);
+            return;
+        }
+
         rtp = DatagramChannel.open();
+        rtpSource = rtp;
         rtp.setOption(StandardSocketOptions.SO_RCVBUF, RTP_RECV_BUFFER);
         try {
             rtp.setOption(StandardSocketOptions.IP_TOS, 0x10); // IPTOS_LOWDELAY
@@ -150,12 +178,16 @@ public final class AudioStream {
             return false;
         }
 
+        jitterBuffer = new AudioJitterBuffer(streamListener, context.streamConfig.getAudioChannelCount(),
+                                             SHORTS_PER_CHANNEL, SAMPLE_RATE);
         if ((streamListener.getCapabilities() & AudioRenderer.CAPABILITY_DIRECT_SUBMIT) != 0) {
-            depacketizer = new AudioDepacketizer(streamListener, context.streamConfig.getAudioChannelCount()
-                                                                 * SHORTS_PER_CHANNEL);
+            depacketizer = new AudioDepacketizer(jitterBuffer, context.streamConfig.getAudioChannelCount()
+                                                               * SHORTS_PER_CHANNEL,
+                                                 context.streamConfig.getDecodeUnitWaitStrategy());
         } else {
             depacketizer = new AudioDepacketizer(null, context.streamConfig.getAudioChannelCount()
-                                                       * SHORTS_PER_CHANNEL);
+                                                       * SHORTS_PER_CHANNEL,
+                                                 context.streamConfig.getDecodeUnitWaitStrategy());
         }
 
         return true;
@@ -167,7 +199,8 @@ public final class AudioStream {
             try {
                 while (!Thread.currentThread().isInterrupted()) {
                     ByteBufferDescriptor samples = depacketizer.getNextDecodedData();
-                    streamListener.playDecodedAudio(samples.data, samples.offset, samples.length);
+                    jitterBuffer.play(samples.data, samples.offset, samples.length);
+                    jitterBuffer.flush();
                     depacketizer.freeDecodedData(samples);
                 }
             } catch (InterruptedException e) {
@@ -191,13 +224,20 @@ public final class AudioStream {
             AudioPacket queuedPacket, rtpPacket = new AudioPacket(buffer);
             RtpReorderQueue<AudioPacket> rtpQueue = new RtpReorderQueue<>();
             RtpQueueStatus queueStatus;
+            RtpCaptureWriter capture = context.rtpCapture;
+            AudioJitterBuffer jitterBuffer = this.jitterBuffer;
+            boolean directSubmit = (streamListener.getCapabilities() & AudioRenderer.CAPABILITY_DIRECT_SUBMIT) != 0;
 
             try {
                 while (!Thread.currentThread().isInterrupted()) {
                     packet.clear();
-                    rtp.read(packet);
+                    rtpSource.read(packet);
                     packet.flip();
 
+                    if (capture != null) {
+                        capture.write(RtpCaptureHeader.AUDIO, packet);
+                    }
+
                     // DecodeInputData() doesn't hold onto the buffer so we are free to reuse it
                     rtpPacket.initializeWithLength(packet.remaining());
 
@@ -207,6 +247,8 @@ public final class AudioStream {
                         continue;
                     }
 
+                    jitterBuffer.packetReceived(System.nanoTime());
+
                     queueStatus = rtpQueue.addPacket(rtpPacket);
                     if (queueStatus == RtpQueueStatus.HANDLE_IMMEDIATELY) {
                         // Send directly to the depacketizer
@@ -227,6 +269,10 @@ public final class AudioStream {
                             }
                         }
                     }
+
+                    if (directSubmit) {
+                        jitterBuffer.flush();
+                    }
                 }
             } catch (ClosedChannelException ignored) {
             } catch (IOException e) {
@@ -0,0 +1,168 @@
+package com.limelight.nvstream.av.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.limelight.nvstream.ConnectionContext;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+
+/**
+ * The header of an RTP capture file, which contains the session parameters negotiated with the server
+ * so that the recorded datagrams can be replayed without the server.
+ *
+ * <p>A capture file consists of this header followed by a sequence of records:
+ * <pre>
+ * Header : magic (8) | version (4) | server generation (4) | server app version (4 x 4) |
+ *          video format (1) | width (4) | height (4) | fps (4) | max packet size (4) |
+ *          audio channel count (4) | audio channel mask (4)
+ * Record : stream type (1) | nanoseconds since the start of the capture (8) | length (2) | datagram
+ * </pre>
+ * All fields are big endian.
+ */
+public final class RtpCaptureHeader {
+
+    public static final byte VIDEO = 0;
+    public static final byte AUDIO = 1;
+
+    static final long MAGIC = 0x4753525450434150L; // "GSRTPCAP"
+    static final int VERSION = 1;
+    static final int SIZE = 8 + 4 + 4 + 4 * 4 + 1 + 4 * 6;
+    static final int RECORD_HEADER_SIZE = 1 + 8 + 2;
+    static final int MAX_DATAGRAM_SIZE = 65535;
+
+    private final int serverGeneration;
+    private final int[] serverAppVersion;
+    private final VideoFormat videoFormat;
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final int maxPacketSize;
+    private final int audioChannelCount;
+    private final int audioChannelMask;
+
+    static RtpCaptureHeader of(ConnectionContext context) {
+        int[] serverAppVersion = new int[4];
+        System.arraycopy(context.serverAppVersion, 0, serverAppVersion, 0,
+                         Math.min(context.serverAppVersion.length, serverAppVersion.length));
+
+        return new RtpCaptureHeader(context.serverGeneration, serverAppVersion,
+                                    context.negotiatedVideoFormat,
+                                    context.negotiatedWidth, context.negotiatedHeight, context.negotiatedFps,
+                                    context.streamConfig.getMaxPacketSize(),
+                                    context.streamConfig.getAudioChannelCount(),
+                                    context.streamConfig.getAudioChannelMask());
+    }
+
+    static RtpCaptureHeader read(ByteBuffer buf) throws IOException {
+        if (buf.getLong() != MAGIC) {
+            throw new IOException("Not an RTP capture file");
+        }
+
+        int version = buf.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported RTP capture file version: " + version);
+        }
+
+        int serverGeneration = buf.getInt();
+        int[] serverAppVersion = new int[4];
+        for (int i = 0; i < serverAppVersion.length; i++) {
+            serverAppVersion[i] = buf.getInt();
+        }
+
+        int videoFormatOrdinal = buf.get();
+        if (videoFormatOrdinal <= 0 || videoFormatOrdinal >= VideoFormat.values().length) {
+            throw new IOException("Unknown video format: " + videoFormatOrdinal);
+        }
+
+        return new RtpCaptureHeader(serverGeneration, serverAppVersion,
+                                    VideoFormat.values()[videoFormatOrdinal],
+                                    buf.getInt(), buf.getInt(), buf.getInt(), buf.getInt(),
+                                    buf.getInt(), buf.getInt());
+    }
+
+    private RtpCaptureHeader(int serverGeneration, int[] serverAppVersion, VideoFormat videoFormat,
+                             int width, int height, int fps, int maxPacketSize,
+                             int audioChannelCount, int audioChannelMask) {
+        this.serverGeneration = serverGeneration;
+        this.serverAppVersion = serverAppVersion;
+        this.videoFormat = videoFormat;
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.maxPacketSize = maxPacketSize;
+        this.audioChannelCount = audioChannelCount;
+        this.audioChannelMask = audioChannelMask;
+    }
+
+    void write(ByteBuffer buf) {
+        buf.putLong(MAGIC);
+        buf.putInt(VERSION);
+        buf.putInt(serverGeneration);
+        for (int v : serverAppVersion) {
+            buf.putInt(v);
+        }
+        buf.put((byte) videoFormat.ordinal());
+        buf.putInt(width);
+        buf.putInt(height);
+        buf.putInt(fps);
+        buf.putInt(maxPacketSize);
+        buf.putInt(audioChannelCount);
+        buf.putInt(audioChannelMask);
+    }
+
+    /**
+     * Fills the specified {@link ConnectionContext} with the parameters negotiated with the server
+     * when the capture was recorded, as if the RTSP handshake has just been completed.
+     */
+    public void applyTo(ConnectionContext context) {
+        context.serverGeneration = serverGeneration;
+        context.serverAppVersion = serverAppVersion.clone();
+        context.negotiatedVideoFormat = videoFormat;
+        context.negotiatedWidth = width;
+        context.negotiatedHeight = height;
+        context.negotiatedFps = fps;
+    }
+
+    public int getServerGeneration() {
+        return serverGeneration;
+    }
+
+    public int[] getServerAppVersion() {
+        return serverAppVersion.clone();
+    }
+
+    public VideoFormat getVideoFormat() {
+        return videoFormat;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getFps() {
+        return fps;
+    }
+
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    public int getAudioChannelCount() {
+        return audioChannelCount;
+    }
+
+    public int getAudioChannelMask() {
+        return audioChannelMask;
+    }
+
+    @Override
+    public String toString() {
+        return videoFormat + " " + width + 'x' + height + '@' + fps +
+               ", " + audioChannelCount + "ch audio, gen " + serverGeneration +
+               ", max packet size " + maxPacketSize;
+    }
+}
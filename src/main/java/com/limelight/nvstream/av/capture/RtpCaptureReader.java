@@ -0,0 +1,137 @@
+package com.limelight.nvstream.av.capture;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the records of an RTP capture file sequentially.
+ * See {@link RtpCaptureHeader} for the file format.
+ */
+public final class RtpCaptureReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private final FileChannel in;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final RtpCaptureHeader header;
+
+    private byte streamType;
+    private long timestamp;
+    private int length;
+    private boolean hasPayload;
+
+    public RtpCaptureReader(File file) throws IOException {
+        in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        boolean success = false;
+        try {
+            buffer.flip();
+            if (!fill(RtpCaptureHeader.SIZE)) {
+                throw new EOFException("Truncated RTP capture header: " + file);
+            }
+            header = RtpCaptureHeader.read(buffer);
+            success = true;
+        } finally {
+            if (!success) {
+                in.close();
+            }
+        }
+    }
+
+    public RtpCaptureHeader header() {
+        return header;
+    }
+
+    /**
+     * Moves to the next record, skipping the payload of the current record if it was not read.
+     *
+     * @return {@code false} if there are no more records
+     */
+    public boolean next() throws IOException {
+        if (hasPayload) {
+            skip(length);
+            hasPayload = false;
+        }
+
+        if (!fill(RtpCaptureHeader.RECORD_HEADER_SIZE)) {
+            return false;
+        }
+
+        streamType = buffer.get();
+        timestamp = buffer.getLong();
+        length = buffer.getShort() & 0xFFFF;
+        hasPayload = true;
+        return true;
+    }
+
+    /**
+     * Returns {@link RtpCaptureHeader#VIDEO} or {@link RtpCaptureHeader#AUDIO}.
+     */
+    public byte streamType() {
+        return streamType;
+    }
+
+    /**
+     * Returns the time when the current datagram was received, in nanoseconds since the start of the capture.
+     */
+    public long timestamp() {
+        return timestamp;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Copies the current datagram into the specified buffer.
+     *
+     * @return the number of bytes copied, which may be less than {@link #length()}
+     *         if the buffer does not have enough room
+     */
+    public int read(ByteBuffer dst) throws IOException {
+        if (!hasPayload) {
+            throw new IllegalStateException("payload consumed already");
+        }
+
+        if (!fill(length)) {
+            throw new EOFException("Truncated RTP capture record");
+        }
+
+        int copied = Math.min(length, dst.remaining());
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + copied);
+        dst.put(buffer);
+        buffer.limit(limit);
+        buffer.position(buffer.position() + length - copied);
+        hasPayload = false;
+        return copied;
+    }
+
+    private void skip(int n) throws IOException {
+        if (!fill(n)) {
+            throw new EOFException("Truncated RTP capture record");
+        }
+        buffer.position(buffer.position() + n);
+    }
+
+    private boolean fill(int n) throws IOException {
+        while (buffer.remaining() < n) {
+            buffer.compact();
+            int read = in.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
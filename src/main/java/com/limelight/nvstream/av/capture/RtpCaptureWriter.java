@@ -0,0 +1,120 @@
+package com.limelight.nvstream.av.capture;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.ConnectionContext;
+
+/**
+ * Records the RTP datagrams received by the video and audio streams into a file.
+ * See {@link RtpCaptureHeader} for the file format.
+ */
+public final class RtpCaptureWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RtpCaptureWriter.class);
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    public static RtpCaptureWriter open(File file, ConnectionContext context) throws IOException {
+        FileChannel out = FileChannel.open(file.toPath(),
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.TRUNCATE_EXISTING,
+                                           StandardOpenOption.WRITE);
+        boolean success = false;
+        try {
+            RtpCaptureWriter writer = new RtpCaptureWriter(file, out);
+            RtpCaptureHeader header = RtpCaptureHeader.of(context);
+            header.write(writer.buffer);
+            logger.info("Recording RTP datagrams into {} ({})", file, header);
+            success = true;
+            return writer;
+        } finally {
+            if (!success) {
+                out.close();
+            }
+        }
+    }
+
+    private final File file;
+    private final FileChannel out;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final long startTime = System.nanoTime();
+    private boolean closed;
+
+    private RtpCaptureWriter(File file, FileChannel out) {
+        this.file = file;
+        this.out = out;
+    }
+
+    /**
+     * Appends the remaining content of the specified datagram to the capture.
+     * The position of the datagram buffer is left unchanged.
+     *
+     * @param streamType {@link RtpCaptureHeader#VIDEO} or {@link RtpCaptureHeader#AUDIO}
+     */
+    public synchronized void write(byte streamType, ByteBuffer datagram) {
+        if (closed) {
+            return;
+        }
+
+        int length = datagram.remaining();
+        if (length > RtpCaptureHeader.MAX_DATAGRAM_SIZE) {
+            return;
+        }
+
+        try {
+            if (buffer.remaining() < RtpCaptureHeader.RECORD_HEADER_SIZE + length) {
+                flush();
+            }
+
+            buffer.put(streamType);
+            buffer.putLong(System.nanoTime() - startTime);
+            buffer.putShort((short) length);
+
+            int position = datagram.position();
+            buffer.put(datagram);
+            datagram.position(position);
+        } catch (IOException e) {
+            // Do not interrupt the stream just because we failed to record it.
+            logger.warn("Failed to record RTP datagrams into {}; stopping the capture", file, e);
+            close();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        try {
+            flush();
+        } catch (IOException e) {
+            logger.warn("Failed to flush the RTP capture: {}", file, e);
+        }
+
+        try {
+            out.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the RTP capture: {}", file, e);
+        }
+
+        logger.info("Closed the RTP capture: {}", file);
+    }
+}
@@ -0,0 +1,139 @@
+package com.limelight.nvstream.av.capture;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+
+/**
+ * Replays the RTP datagrams recorded by {@link RtpCaptureWriter}, either in-process by letting the receive
+ * threads of the video and audio streams read from {@link #newChannel(byte)} instead of a socket, or over
+ * UDP by {@link #startServer(InetAddress, int, int, Runnable)} so that the socket path is exercised as well.
+ */
+public final class RtpReplay {
+
+    private final File file;
+    private final RtpCaptureHeader header;
+    private final boolean realtime;
+    private final boolean loopback;
+    private final long firstTimestamp;
+    private final AtomicLong startTime = new AtomicLong();
+
+    /**
+     * Opens a capture file for replay.
+     *
+     * @param realtime {@code true} to replay the datagrams at their original timing,
+     *                 {@code false} to replay them as fast as the receive threads can take them
+     * @param loopback {@code true} to serve the datagrams over the loopback interface,
+     *                 {@code false} to feed them to the receive threads directly
+     */
+    public static RtpReplay open(File file, boolean realtime, boolean loopback) throws IOException {
+        try (RtpCaptureReader reader = new RtpCaptureReader(file)) {
+            long firstTimestamp = reader.next() ? reader.timestamp() : 0;
+            return new RtpReplay(file, reader.header(), realtime, loopback, firstTimestamp);
+        }
+    }
+
+    private RtpReplay(File file, RtpCaptureHeader header, boolean realtime, boolean loopback,
+                      long firstTimestamp) {
+        this.file = file;
+        this.header = header;
+        this.realtime = realtime;
+        this.loopback = loopback;
+        this.firstTimestamp = firstTimestamp;
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public RtpCaptureHeader header() {
+        return header;
+    }
+
+    public boolean isRealtime() {
+        return realtime;
+    }
+
+    public boolean isLoopback() {
+        return loopback;
+    }
+
+    /**
+     * Returns a new {@link StreamConfiguration.Builder} filled with the parameters the capture was recorded with.
+     */
+    public StreamConfiguration.Builder newStreamConfigurationBuilder() {
+        int audioConfig;
+        if (header.getAudioChannelCount() == 6) {
+            audioConfig = StreamConfiguration.AUDIO_CONFIGURATION_5_1;
+        } else {
+            audioConfig = StreamConfiguration.AUDIO_CONFIGURATION_STEREO;
+        }
+
+        return new StreamConfiguration.Builder()
+                .setResolution(header.getWidth(), header.getHeight())
+                .setRefreshRate(header.getFps())
+                .setMaxPacketSize(header.getMaxPacketSize())
+                .setAudioConfiguration(audioConfig)
+                .setHevcSupported(header.getVideoFormat() == VideoFormat.H265);
+    }
+
+    /**
+     * Returns a new channel whose {@link ReadableByteChannel#read(java.nio.ByteBuffer)} yields
+     * the recorded datagrams of the specified stream type, one datagram per call. A video channel is closed
+     * when all datagrams have been read, while an audio channel blocks until closed so that the end of
+     * the audio stream does not end the session prematurely.
+     *
+     * @param streamType {@link RtpCaptureHeader#VIDEO} or {@link RtpCaptureHeader#AUDIO}
+     */
+    public ReadableByteChannel newChannel(byte streamType) throws IOException {
+        return new RtpReplayChannel(this, new RtpCaptureReader(file), streamType);
+    }
+
+    /**
+     * Starts to serve the recorded datagrams over UDP, as if the server was at the specified address.
+     * A client address is learned from the first ping sent to each port.
+     *
+     * @param onComplete invoked when all datagrams have been sent
+     */
+    public RtpReplayServer startServer(InetAddress address, int videoPort, int audioPort,
+                                       Runnable onComplete) throws IOException {
+        return RtpReplayServer.start(this, address, videoPort, audioPort, onComplete);
+    }
+
+    /**
+     * Blocks until the datagram recorded at the specified timestamp is due. All channels share the same
+     * clock, which starts when the first datagram is requested, so that the relative timing between
+     * the video and audio datagrams is preserved.
+     */
+    void await(long timestamp) {
+        if (!realtime) {
+            return;
+        }
+
+        long startTime = this.startTime.get();
+        if (startTime == 0) {
+            long now = System.nanoTime();
+            if (this.startTime.compareAndSet(0, now)) {
+                startTime = now;
+            } else {
+                startTime = this.startTime.get();
+            }
+        }
+
+        long deadline = startTime + timestamp - firstTimestamp;
+        for (;;) {
+            long delay = deadline - System.nanoTime();
+            if (delay <= 0 || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            LockSupport.parkNanos(Math.min(delay, TimeUnit.MILLISECONDS.toNanos(10)));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.limelight.nvstream.av.capture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ReadableByteChannel} that yields the datagrams of a certain stream type in an RTP capture,
+ * one datagram per {@link #read(ByteBuffer)}, just like a connected {@link java.nio.channels.DatagramChannel}.
+ */
+final class RtpReplayChannel implements ReadableByteChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(RtpReplayChannel.class);
+
+    private final RtpReplay replay;
+    private final RtpCaptureReader reader;
+    private final byte streamType;
+    private volatile boolean open = true;
+    private long datagrams;
+
+    RtpReplayChannel(RtpReplay replay, RtpCaptureReader reader, byte streamType) {
+        this.replay = replay;
+        this.reader = reader;
+        this.streamType = streamType;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+
+        try {
+            for (;;) {
+                if (!reader.next()) {
+                    logger.info("Replayed {} {} datagrams from {}", datagrams,
+                                streamType == RtpCaptureHeader.VIDEO ? "video" : "audio", replay.file());
+                    if (streamType != RtpCaptureHeader.VIDEO) {
+                        // Let the end of the video stream end the session.
+                        awaitClose();
+                    }
+                    close();
+                    throw new ClosedChannelException();
+                }
+
+                if (reader.streamType() == streamType) {
+                    break;
+                }
+            }
+
+            replay.await(reader.timestamp());
+        } catch (ClosedChannelException e) {
+            throw e;
+        } catch (IOException e) {
+            if (!open) {
+                // Closed by another thread while reading.
+                throw new AsynchronousCloseException();
+            }
+            throw e;
+        }
+
+        if (Thread.currentThread().isInterrupted()) {
+            close();
+            throw new ClosedByInterruptException();
+        }
+        if (!open) {
+            throw new AsynchronousCloseException();
+        }
+
+        datagrams++;
+        return reader.read(dst);
+    }
+
+    private void awaitClose() throws ClosedByInterruptException {
+        while (open) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new ClosedByInterruptException();
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        reader.close();
+    }
+}
@@ -0,0 +1,183 @@
+package com.limelight.nvstream.av.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.Util;
+
+/**
+ * Serves the datagrams in an RTP capture over UDP, standing in for the video and audio ports of a server.
+ * The datagrams are sent to the address that sent the last ping to each port. Nothing is sent until the
+ * video stream sends its first ping, and the audio datagrams are dropped until the audio stream does.
+ */
+public final class RtpReplayServer implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RtpReplayServer.class);
+
+    private static final int SEND_BUFFER = 1024 * 1024;
+
+    static RtpReplayServer start(RtpReplay replay, InetAddress address, int videoPort, int audioPort,
+                                 Runnable onComplete) throws IOException {
+        DatagramChannel video = null;
+        DatagramChannel audio = null;
+        RtpCaptureReader reader = null;
+        boolean success = false;
+        try {
+            video = bind(address, videoPort);
+            audio = bind(address, audioPort);
+            reader = new RtpCaptureReader(replay.file());
+            RtpReplayServer server = new RtpReplayServer(replay, reader, video, audio, onComplete);
+            logger.info("Serving {} at {} (video: {}, audio: {})",
+                        replay.file(), address.getHostAddress(), videoPort, audioPort);
+            success = true;
+            return server;
+        } finally {
+            if (!success) {
+                closeQuietly(video);
+                closeQuietly(audio);
+                closeQuietly(reader);
+            }
+        }
+    }
+
+    private static DatagramChannel bind(InetAddress address, int port) throws IOException {
+        DatagramChannel ch = DatagramChannel.open();
+        boolean success = false;
+        try {
+            ch.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);
+            ch.bind(new InetSocketAddress(address, port));
+            ch.configureBlocking(false);
+            success = true;
+            return ch;
+        } finally {
+            if (!success) {
+                ch.close();
+            }
+        }
+    }
+
+    private final RtpReplay replay;
+    private final RtpCaptureReader reader;
+    private final DatagramChannel video;
+    private final DatagramChannel audio;
+    private final Runnable onComplete;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(RtpCaptureHeader.MAX_DATAGRAM_SIZE);
+    private final ByteBuffer pingBuffer = ByteBuffer.allocate(16);
+    private final Thread thread;
+
+    private SocketAddress videoClient;
+    private SocketAddress audioClient;
+
+    private RtpReplayServer(RtpReplay replay, RtpCaptureReader reader,
+                            DatagramChannel video, DatagramChannel audio, Runnable onComplete) {
+        this.replay = replay;
+        this.reader = reader;
+        this.video = video;
+        this.audio = audio;
+        this.onComplete = onComplete;
+
+        thread = new Thread(this::serve);
+        thread.setName("Replay - Server");
+        thread.setPriority(Thread.MAX_PRIORITY - 1);
+        thread.start();
+    }
+
+    private void serve() {
+        long sent = 0;
+        long dropped = 0;
+        boolean completed = false;
+        try {
+            while ((videoClient = receivePing(video, null)) == null) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+
+            while (!Thread.currentThread().isInterrupted() && reader.next()) {
+                boolean isVideo = reader.streamType() == RtpCaptureHeader.VIDEO;
+                DatagramChannel ch = isVideo ? video : audio;
+
+                buffer.clear();
+                reader.read(buffer);
+                buffer.flip();
+
+                replay.await(reader.timestamp());
+
+                SocketAddress client = receivePing(ch, isVideo ? videoClient : audioClient);
+                if (isVideo) {
+                    videoClient = client;
+                } else {
+                    audioClient = client;
+                }
+
+                if (client == null) {
+                    dropped++;
+                    continue;
+                }
+
+                // A non-blocking send fails silently when the socket buffer is full,
+                // which is no different from a loss on the network.
+                if (ch.send(buffer, client) != 0) {
+                    sent++;
+                } else {
+                    dropped++;
+                }
+            }
+            completed = !Thread.currentThread().isInterrupted();
+        } catch (ClosedChannelException ignored) {
+        } catch (IOException e) {
+            logger.warn("Failed to replay {}", replay.file(), e);
+        } finally {
+            logger.info("Sent {} datagrams from {} ({} dropped)", sent, replay.file(), dropped);
+            closeQuietly(reader);
+            if (completed) {
+                onComplete.run();
+            }
+        }
+    }
+
+    private SocketAddress receivePing(DatagramChannel ch, SocketAddress client) throws IOException {
+        for (;;) {
+            pingBuffer.clear();
+            SocketAddress sender = ch.receive(pingBuffer);
+            if (sender == null) {
+                return client;
+            }
+            if (client == null) {
+                logger.info("Received the first ping from {} at {}", sender, ch.getLocalAddress());
+            }
+            client = sender;
+        }
+    }
+
+    @Override
+    public void close() {
+        Util.stop(thread);
+        closeQuietly(video);
+        closeQuietly(audio);
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) {
+            return;
+        }
+        try {
+            c.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close {}", c, e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.limelight.nvstream.av.capture;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.limelight.nvstream.av.ConnectionStatusListener;
+
+/**
+ * A {@link ConnectionStatusListener} which stands in for the control stream during a replay. There is no
+ * server to ask for an IDR frame, so it only counts the events to report them when the replay is over.
+ */
+public final class RtpReplayStatusListener implements ConnectionStatusListener {
+
+    private final LongAdder completeFrames = new LongAdder();
+    private final LongAdder frameLosses = new LongAdder();
+    private final LongAdder sinkTooSlow = new LongAdder();
+    private final LongAdder packetLosses = new LongAdder();
+
+    @Override
+    public void connectionDetectedFrameLoss(int firstLostFrame, int nextSuccessfulFrame) {
+        frameLosses.increment();
+    }
+
+    @Override
+    public void connectionSinkTooSlow(int firstLostFrame, int nextSuccessfulFrame) {
+        sinkTooSlow.increment();
+    }
+
+    @Override
+    public void connectionReceivedCompleteFrame(int frameIndex) {
+        completeFrames.increment();
+    }
+
+    @Override
+    public void connectionSawFrame(int frameIndex) {}
+
+    @Override
+    public void connectionLostPackets(int lastReceivedPacket, int nextReceivedPacket) {
+        packetLosses.increment();
+    }
+
+    @Override
+    public String toString() {
+        return "complete frames: " + completeFrames.sum() +
+               ", frame losses: " + frameLosses.sum() +
+               ", sink too slow: " + sinkTooSlow.sum() +
+               ", packet losses: " + packetLosses.sum();
+    }
+}
@@ -0,0 +1,157 @@
+package com.limelight.nvstream.av.fec;
+
+/**
+ * Arithmetic in GF(2^8) generated by the polynomial x^8 + x^4 + x^3 + x^2 + 1 (0x11D).
+ * Addition and subtraction are XOR. Multiplication is a lookup into a full 256x256 table,
+ * so that the inner loop of the codec is a single array load per byte.
+ */
+final class GaloisField {
+
+    static final int FIELD_SIZE = 256;
+
+    // The generator of the multiplicative group, i.e. x
+    static final byte GENERATOR = 2;
+
+    private static final int GENERATING_POLYNOMIAL = 0x11D;
+
+    private static final byte[] LOG = new byte[FIELD_SIZE];
+    // Twice as long as needed so that exp(log(a) + log(b)) does not need a modulo.
+    private static final byte[] EXP = new byte[FIELD_SIZE * 2 - 2];
+
+    // MULTIPLICATION[a][b] = a * b
+    static final byte[][] MULTIPLICATION = new byte[FIELD_SIZE][FIELD_SIZE];
+
+    static {
+        int b = 1;
+        for (int log = 0; log < FIELD_SIZE - 1; log++) {
+            EXP[log] = (byte) b;
+            EXP[log + FIELD_SIZE - 1] = (byte) b;
+            LOG[b] = (byte) log;
+
+            b <<= 1;
+            if (b >= FIELD_SIZE) {
+                b ^= GENERATING_POLYNOMIAL;
+            }
+        }
+
+        for (int i = 1; i < FIELD_SIZE; i++) {
+            for (int j = 1; j < FIELD_SIZE; j++) {
+                MULTIPLICATION[i][j] = EXP[(LOG[i] & 0xFF) + (LOG[j] & 0xFF)];
+            }
+        }
+    }
+
+    static byte multiply(byte a, byte b) {
+        return MULTIPLICATION[a & 0xFF][b & 0xFF];
+    }
+
+    static byte divide(byte a, byte b) {
+        if (b == 0) {
+            throw new ArithmeticException("division by zero");
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return EXP[(LOG[a & 0xFF] & 0xFF) - (LOG[b & 0xFF] & 0xFF) + FIELD_SIZE - 1];
+    }
+
+    /**
+     * Returns {@code a} raised to the power of {@code n}.
+     */
+    static byte exp(byte a, int n) {
+        if (n == 0) {
+            return 1;
+        }
+        if (a == 0) {
+            return 0;
+        }
+        return EXP[(LOG[a & 0xFF] & 0xFF) * n % (FIELD_SIZE - 1)];
+    }
+
+    /**
+     * Inverts the specified square matrix in place by Gauss-Jordan elimination.
+     *
+     * @return {@code false} if the matrix is singular
+     */
+    static boolean invert(byte[][] matrix) {
+        int n = matrix.length;
+        byte[][] inverse = new byte[n][n];
+        for (int i = 0; i < n; i++) {
+            inverse[i][i] = 1;
+        }
+
+        for (int col = 0; col < n; col++) {
+            // Find a pivot and move it to the diagonal
+            int pivot = col;
+            while (pivot < n && matrix[pivot][col] == 0) {
+                pivot++;
+            }
+            if (pivot == n) {
+                return false;
+            }
+            swap(matrix, col, pivot);
+            swap(inverse, col, pivot);
+
+            // Scale the pivot row so that the pivot becomes 1
+            byte scale = divide((byte) 1, matrix[col][col]);
+            multiplyRow(matrix[col], scale);
+            multiplyRow(inverse[col], scale);
+
+            // Eliminate the column from all other rows
+            for (int row = 0; row < n; row++) {
+                byte factor = matrix[row][col];
+                if (row != col && factor != 0) {
+                    multiplyAdd(matrix[col], matrix[row], factor);
+                    multiplyAdd(inverse[col], inverse[row], factor);
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(inverse[i], 0, matrix[i], 0, n);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the product of the specified matrices.
+     */
+    static byte[][] multiply(byte[][] a, byte[][] b) {
+        int rows = a.length;
+        int inner = b.length;
+        int cols = b[0].length;
+        byte[][] result = new byte[rows][cols];
+        for (int r = 0; r < rows; r++) {
+            for (int i = 0; i < inner; i++) {
+                byte factor = a[r][i];
+                if (factor != 0) {
+                    multiplyAdd(b[i], result[r], factor);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void swap(byte[][] matrix, int a, int b) {
+        byte[] tmp = matrix[a];
+        matrix[a] = matrix[b];
+        matrix[b] = tmp;
+    }
+
+    private static void multiplyRow(byte[] row, byte factor) {
+        byte[] table = MULTIPLICATION[factor & 0xFF];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = table[row[i] & 0xFF];
+        }
+    }
+
+    // dst += src * factor
+    private static void multiplyAdd(byte[] src, byte[] dst, byte factor) {
+        byte[] table = MULTIPLICATION[factor & 0xFF];
+        for (int i = 0; i < src.length; i++) {
+            dst[i] ^= table[src[i] & 0xFF];
+        }
+    }
+
+    private GaloisField() {}
+}
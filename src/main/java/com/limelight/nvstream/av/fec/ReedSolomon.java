@@ -0,0 +1,202 @@
+package com.limelight.nvstream.av.fec;
+
+/**
+ * A systematic Reed-Solomon erasure code over GF(2^8), which is what GFE uses for the FEC of the video stream.
+ *
+ * <p>A block consists of {@code dataShards} data shards, which are sent as is, followed by
+ * {@code parityShards} parity shards, and all shards have the same length. Any {@code dataShards} shards
+ * of a block are enough to reconstruct the missing data shards. The encoding matrix is a Vandermonde
+ * matrix multiplied by the inverse of its top square, so that its top square becomes the identity matrix
+ * while any {@code dataShards} rows remain linearly independent. As in {@code fec.c} by Luigi Rizzo, from
+ * which the decoder of Moonlight is derived, the rows of the Vandermonde matrix are the powers of
+ * 0, 1, &alpha;, &alpha;<sup>2</sup>, ..., where &alpha; is the generator of the field, rather than of
+ * 0, 1, 2, 3, ..., which yields different parity from the fourth row on.
+ *
+ * <p>An instance holds only the encoding matrix, so it can be shared by the blocks of the same shape.
+ * A parity row does not depend on the number of parity shards, so an instance with more parity shards
+ * can also decode a block with fewer parity shards.
+ */
+public final class ReedSolomon {
+
+    /**
+     * The maximum number of shards in a block.
+     */
+    public static final int MAX_SHARDS = GaloisField.FIELD_SIZE;
+
+    private final int dataShards;
+    private final int parityShards;
+
+    // parityShards x dataShards
+    private final byte[][] parityRows;
+
+    public ReedSolomon(int dataShards, int parityShards) {
+        if (dataShards <= 0) {
+            throw new IllegalArgumentException("dataShards: " + dataShards + " (expected: > 0)");
+        }
+        if (parityShards < 0) {
+            throw new IllegalArgumentException("parityShards: " + parityShards + " (expected: >= 0)");
+        }
+        if (dataShards + parityShards > MAX_SHARDS) {
+            throw new IllegalArgumentException(
+                    "dataShards + parityShards: " + (dataShards + parityShards) + " (expected: <= " +
+                    MAX_SHARDS + ')');
+        }
+
+        this.dataShards = dataShards;
+        this.parityShards = parityShards;
+
+        byte[][] top = new byte[dataShards][];
+        for (int r = 0; r < dataShards; r++) {
+            top[r] = vandermondeRow(r, dataShards);
+        }
+        if (!GaloisField.invert(top)) {
+            // Never happens because a Vandermonde matrix with distinct rows is never singular.
+            throw new IllegalStateException("singular Vandermonde matrix");
+        }
+
+        byte[][] bottom = new byte[parityShards][];
+        for (int r = 0; r < parityShards; r++) {
+            bottom[r] = vandermondeRow(dataShards + r, dataShards);
+        }
+        parityRows = parityShards != 0 ? GaloisField.multiply(bottom, top) : bottom;
+    }
+
+    private static byte[] vandermondeRow(int row, int columns) {
+        byte[] result = new byte[columns];
+        if (row == 0) {
+            // The powers of 0, i.e. 0^0 = 1 followed by zeros
+            result[0] = 1;
+            return result;
+        }
+
+        for (int c = 0; c < columns; c++) {
+            result[c] = GaloisField.exp(GaloisField.GENERATOR, (row - 1) * c);
+        }
+        return result;
+    }
+
+    public int dataShards() {
+        return dataShards;
+    }
+
+    public int parityShards() {
+        return parityShards;
+    }
+
+    /**
+     * Computes the parity shards from the data shards.
+     *
+     * @param shards the data shards followed by the parity shards to fill
+     * @param offset the offset of the shard content in each array
+     * @param length the length of a shard
+     */
+    public void encodeParity(byte[][] shards, int offset, int length) {
+        for (int p = 0; p < parityShards; p++) {
+            byte[] parity = shards[dataShards + p];
+            byte[] row = parityRows[p];
+            fill(parity, offset, length);
+            for (int i = 0; i < dataShards; i++) {
+                multiplyAdd(row[i], shards[i], parity, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Reconstructs the missing data shards in place. The content of the parity shards used for
+     * the reconstruction is destroyed, and the missing parity shards are not reconstructed.
+     *
+     * @param shards the data shards followed by the parity shards
+     * @param present whether each shard in {@code shards} was received
+     * @param offset the offset of the shard content in each array
+     * @param length the length of a shard
+     *
+     * @return {@code false} if there are not enough shards to reconstruct the data shards
+     */
+    public boolean reconstructData(byte[][] shards, boolean[] present, int offset, int length) {
+        int missing = 0;
+        for (int i = 0; i < dataShards; i++) {
+            if (!present[i]) {
+                missing++;
+            }
+        }
+        if (missing == 0) {
+            return true;
+        }
+
+        // Pick as many parity shards as the missing data shards
+        int[] missingIndices = new int[missing];
+        int[] parityIndices = new int[missing];
+        for (int i = 0, m = 0; i < dataShards; i++) {
+            if (!present[i]) {
+                missingIndices[m++] = i;
+            }
+        }
+        for (int p = 0, m = 0; m < missing; p++) {
+            if (p == parityShards || dataShards + p == present.length) {
+                return false;
+            }
+            if (present[dataShards + p]) {
+                parityIndices[m++] = p;
+            }
+        }
+
+        // Subtract what the data shards we have contribute to the chosen parity shards,
+        // which leaves what the missing data shards contribute to them.
+        for (int m = 0; m < missing; m++) {
+            byte[] parity = shards[dataShards + parityIndices[m]];
+            byte[] row = parityRows[parityIndices[m]];
+            for (int i = 0; i < dataShards; i++) {
+                if (present[i]) {
+                    multiplyAdd(row[i], shards[i], parity, offset, length);
+                }
+            }
+        }
+
+        // Solve the remaining equations for the missing data shards.
+        byte[][] decodingMatrix = new byte[missing][missing];
+        for (int r = 0; r < missing; r++) {
+            for (int c = 0; c < missing; c++) {
+                decodingMatrix[r][c] = parityRows[parityIndices[r]][missingIndices[c]];
+            }
+        }
+        if (!GaloisField.invert(decodingMatrix)) {
+            return false;
+        }
+
+        for (int m = 0; m < missing; m++) {
+            byte[] data = shards[missingIndices[m]];
+            fill(data, offset, length);
+            for (int p = 0; p < missing; p++) {
+                multiplyAdd(decodingMatrix[m][p], shards[dataShards + parityIndices[p]], data, offset, length);
+            }
+        }
+
+        return true;
+    }
+
+    private static void fill(byte[] shard, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            shard[i] = 0;
+        }
+    }
+
+    // dst += src * factor
+    private static void multiplyAdd(byte factor, byte[] src, byte[] dst, int offset, int length) {
+        if (factor == 0) {
+            return;
+        }
+
+        int end = offset + length;
+        if (factor == 1) {
+            for (int i = offset; i < end; i++) {
+                dst[i] ^= src[i];
+            }
+            return;
+        }
+
+        byte[] table = GaloisField.MULTIPLICATION[factor & 0xFF];
+        for (int i = offset; i < end; i++) {
+            dst[i] ^= table[src[i] & 0xFF];
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.limelight.nvstream.av.video;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.limelight.nvstream.av.ByteBufferDescriptor;
+
+/**
+ * Holds the copies of the NAL units that cannot reference their {@link VideoPacket}, i.e. the codec
+ * configuration NAL units that precede an IDR frame. The buffer and the descriptors are reused once
+ * {@link #reset()}, so that no allocation happens once they have grown to fit the largest frame.
+ */
+final class FrameArena {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int INITIAL_DESCRIPTORS = 4;
+
+    private ByteBuffer data = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    private int dataLength;
+    private ByteBufferDescriptor[] descriptors = new ByteBufferDescriptor[INITIAL_DESCRIPTORS];
+    private int numDescriptors;
+
+    FrameArena() {
+        for (int i = 0; i < descriptors.length; i++) {
+            descriptors[i] = new ByteBufferDescriptor();
+        }
+    }
+
+    /**
+     * Copies the specified bytes into this arena.
+     *
+     * @return the descriptor of the copy, which remains valid until {@link #reset()}
+     */
+    ByteBufferDescriptor copy(ByteBuffer src, int offset, int length) {
+        if (data.capacity() - dataLength < length) {
+            // The descriptors returned so far keep referring to the old buffer, which is fine.
+            data = ByteBuffer.allocateDirect(Math.max(data.capacity() * 2, dataLength + length));
+            dataLength = 0;
+        }
+
+        if (numDescriptors == descriptors.length) {
+            int oldLength = descriptors.length;
+            descriptors = Arrays.copyOf(descriptors, oldLength * 2);
+            for (int i = oldLength; i < descriptors.length; i++) {
+                descriptors[i] = new ByteBufferDescriptor();
+            }
+        }
+
+        // The copied NAL units are only a few dozen bytes long.
+        for (int i = 0; i < length; i++) {
+            data.put(dataLength + i, src.get(offset + i));
+        }
+
+        ByteBufferDescriptor desc = descriptors[numDescriptors++];
+        desc.reinitialize(data, dataLength, length);
+        dataLength += length;
+        return desc;
+    }
+
+    /**
+     * Makes all the copies and their descriptors available for reuse.
+     */
+    void reset() {
+        dataLength = 0;
+        numDescriptors = 0;
+    }
+}
@@ -0,0 +1,92 @@
+package com.limelight.nvstream.av.video;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+/**
+ * A {@link VideoPacketReceiver} on top of NIO, which has no batched datagram receive. Instead, the socket is
+ * non-blocking, and the receiver keeps reading until the socket runs dry or the batch is full, so that it waits
+ * for the network only once per burst of datagrams. A channel which isn't a socket, e.g. a replayed capture,
+ * is read one datagram at a time.
+ */
+final class NioVideoPacketReceiver implements VideoPacketReceiver {
+
+    private final ReadableByteChannel channel;
+    // null if the channel is read in blocking mode
+    private final Selector selector;
+
+    NioVideoPacketReceiver(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+
+        if (channel instanceof DatagramChannel) {
+            DatagramChannel datagramChannel = (DatagramChannel) channel;
+            selector = Selector.open();
+            try {
+                datagramChannel.configureBlocking(false);
+                datagramChannel.register(selector, SelectionKey.OP_READ);
+            } catch (IOException e) {
+                selector.close();
+                throw e;
+            }
+        } else {
+            selector = null;
+        }
+    }
+
+    @Override
+    public int receive(VideoPacket[] packets, int maxPackets) throws IOException {
+        if (selector == null) {
+            ByteBuffer buffer = packets[0].getByteBuffer();
+            buffer.clear();
+            channel.read(buffer);
+            buffer.flip();
+            packets[0].setReceiveTimestampNanos(System.nanoTime());
+            return 1;
+        }
+
+        int received = 0;
+        while (received < maxPackets) {
+            ByteBuffer buffer = packets[received].getByteBuffer();
+            buffer.clear();
+            if (channel.read(buffer) == 0) {
+                if (received != 0) {
+                    // Hand over what we have rather than waiting for more.
+                    break;
+                }
+
+                // Nothing to read yet. Wait for the next datagram.
+                try {
+                    selector.select();
+                    selector.selectedKeys().clear();
+                } catch (ClosedSelectorException e) {
+                    // Closed between the read and the select
+                    throw new ClosedChannelException();
+                }
+                continue;
+            }
+
+            buffer.flip();
+            packets[received++].setReceiveTimestampNanos(System.nanoTime());
+        }
+        return received;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // Close the channel first, so that the receive thread fails to read rather than
+        // selecting again once it's woken up by closing the selector.
+        try {
+            channel.close();
+        } finally {
+            if (selector != null) {
+                selector.close();
+            }
+        }
+    }
+}
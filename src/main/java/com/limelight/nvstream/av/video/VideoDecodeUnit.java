@@ -10,24 +10,47 @@ public final class VideoDecodeUnit {
     private ByteBufferDescriptor bufferHead;
     private int dataLength;
     private int frameNumber;
-    private long receiveTimestamp;
+    private long receiveTimestampNanos;
+    private long reassembleTimestampNanos;
     private int flags;
     private VideoPacket backingPacketHead;
+    private FrameArena arena = new FrameArena();
 
     VideoDecodeUnit() {}
 
     void initialize(ByteBufferDescriptor bufferHead, int dataLength,
-                    int frameNumber, long receiveTimestamp, int flags, VideoPacket backingPacketHead) {
+                    int frameNumber, long receiveTimestampNanos, long reassembleTimestampNanos,
+                    int flags, VideoPacket backingPacketHead) {
         this.bufferHead = bufferHead;
         this.dataLength = dataLength;
         this.frameNumber = frameNumber;
-        this.receiveTimestamp = receiveTimestamp;
+        this.receiveTimestampNanos = receiveTimestampNanos;
+        this.reassembleTimestampNanos = reassembleTimestampNanos;
         this.flags = flags;
         this.backingPacketHead = backingPacketHead;
     }
 
+    /**
+     * Returns the {@link System#nanoTime()} when the first packet of this frame was received,
+     * in milliseconds.
+     */
     public long getReceiveTimestamp() {
-        return receiveTimestamp;
+        return receiveTimestampNanos / 1000000L;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} when the first packet of this frame was received.
+     */
+    public long getReceiveTimestampNanos() {
+        return receiveTimestampNanos;
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} when the last packet of this frame was received and
+     * this decode unit was handed to the decoder.
+     */
+    public long getReassembleTimestampNanos() {
+        return reassembleTimestampNanos;
     }
 
     public ByteBufferDescriptor getBufferHead() {
@@ -46,6 +69,15 @@ public final class VideoDecodeUnit {
         return flags;
     }
 
+    // Internal use only
+    FrameArena exchangeArena(FrameArena arena) {
+        // Our arena is free because we have been freed before reinitialized.
+        FrameArena oldArena = this.arena;
+        this.arena = arena;
+        oldArena.reset();
+        return oldArena;
+    }
+
     // Internal use only
     VideoPacket removeBackingPacketHead() {
         VideoPacket pkt = backingPacketHead;
@@ -1,14 +1,17 @@
 package com.limelight.nvstream.av.video;
 
+import java.util.function.Consumer;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.limelight.nvstream.ConnectionContext;
-import com.limelight.nvstream.Util;
 import com.limelight.nvstream.av.ByteBufferDescriptor;
 import com.limelight.nvstream.av.ConnectionStatusListener;
 import com.limelight.nvstream.av.DecodedUnitPool;
 import com.limelight.nvstream.av.SequenceHelper;
+import com.limelight.nvstream.metrics.Gauge;
+import com.limelight.nvstream.metrics.MetricRegistry;
 
 public class VideoDepacketizer {
 
@@ -20,6 +23,7 @@ public class VideoDepacketizer {
     private ByteBufferDescriptor frameDataChainTail;
     private VideoPacket backingPacketHead;
     private VideoPacket backingPacketTail;
+    private FrameArena frameArena = new FrameArena();
 
     // Sequencing state
     private int lastPacketInStream = -1;
@@ -28,13 +32,14 @@ public class VideoDepacketizer {
     private boolean waitingForNextSuccessfulFrame;
     private boolean waitingForIdrFrame = true;
     private long lastWaitForIdrFrameLogTime = System.nanoTime();
+    // The receive time of the first packet of the current frame in nanoseconds
     private long frameStartTime;
     private boolean decodingFrame;
     private final boolean strictIdrFrameWait;
 
     // Cached objects
-    private final ByteBufferDescriptor cachedReassemblyDesc = new ByteBufferDescriptor(null, 0, 0);
-    private final ByteBufferDescriptor cachedSpecialDesc = new ByteBufferDescriptor(null, 0, 0);
+    private final ByteBufferDescriptor cachedReassemblyDesc = new ByteBufferDescriptor();
+    private final ByteBufferDescriptor cachedSpecialDesc = new ByteBufferDescriptor();
 
     private final ConnectionStatusListener controlListener;
     private final int nominalPacketDataLength;
@@ -47,24 +52,38 @@ public class VideoDepacketizer {
 
     private final int frameHeaderOffset;
 
+    // The System.nanoTime() when the connection started, or 0 after the first frame
+    private long connectionStartTime;
+    private final Gauge timeToFirstFrame = MetricRegistry.global().gauge(
+            "connection_time_to_first_frame_ms",
+            "The time from the start of the connection until the first complete video frame");
+
+    /**
+     * Returns the length of the header the specified server puts in front of the data in the first packet
+     * of each frame.
+     */
+    public static int getFrameHeaderSize(int serverGeneration, int[] serverAppVersion) {
+        if (serverAppVersion[0] > 7 ||
+            serverAppVersion[0] == 7 && serverAppVersion[1] > 1 ||
+            serverAppVersion[0] == 7 && serverAppVersion[1] == 1 && serverAppVersion[2] >= 320) {
+            // Anything over 7.1.320 should use the 12 byte frame header
+            return 12;
+        }
+        if (serverGeneration >= ConnectionContext.SERVER_GENERATION_5) {
+            // Gen 5 servers have an 8 byte header in the data portion of the first
+            // packet of each frame
+            return 8;
+        }
+        return 0;
+    }
+
     VideoDepacketizer(ConnectionContext context, ConnectionStatusListener controlListener,
                       int nominalPacketSize) {
         this.controlListener = controlListener;
+        connectionStartTime = context.connectionStartTime;
         nominalPacketDataLength = nominalPacketSize - VideoPacket.HEADER_SIZE;
 
-        if (context.serverAppVersion[0] > 7 ||
-            context.serverAppVersion[0] == 7 && context.serverAppVersion[1] > 1 ||
-            context.serverAppVersion[0] == 7 && context.serverAppVersion[1] == 1
-             && context.serverAppVersion[2] >= 320) {
-            // Anything over 7.1.320 should use the 12 byte frame header
-            frameHeaderOffset = 12;
-        } else if (context.serverGeneration >= ConnectionContext.SERVER_GENERATION_5) {
-            // Gen 5 servers have an 8 byte header in the data portion of the first
-            // packet of each frame
-            frameHeaderOffset = 8;
-        } else {
-            frameHeaderOffset = 0;
-        }
+        frameHeaderOffset = getFrameHeaderSize(context.serverGeneration, context.serverAppVersion);
 
         final boolean threadSafe;
         if (context.videoDecoderRenderer != null) {
@@ -78,16 +97,19 @@ public class VideoDepacketizer {
             threadSafe = false;
         }
 
-        decodedUnits = new DecodedUnitPool<>(
-                DU_LIMIT, threadSafe,
-                VideoDecodeUnit::new,
-                du -> {
-                    // Disassociate video packets from this DU
-                    VideoPacket pkt;
-                    while ((pkt = du.removeBackingPacketHead()) != null) {
-                        pkt.dereferencePacket();
-                    }
-                });
+        Consumer<VideoDecodeUnit> cleaner = du -> {
+            // Disassociate video packets from this DU
+            VideoPacket pkt;
+            while ((pkt = du.removeBackingPacketHead()) != null) {
+                pkt.dereferencePacket();
+            }
+        };
+        if (threadSafe) {
+            decodedUnits = new DecodedUnitPool<>(
+                    DU_LIMIT, context.streamConfig.getDecodeUnitWaitStrategy(), VideoDecodeUnit::new, cleaner);
+        } else {
+            decodedUnits = new DecodedUnitPool<>(DU_LIMIT, false, VideoDecodeUnit::new, cleaner);
+        }
     }
 
     private void dropFrameState() {
@@ -123,6 +145,7 @@ public class VideoDepacketizer {
 
         frameDataChainHead = frameDataChainTail = null;
         frameDataLength = 0;
+        frameArena.reset();
     }
 
     private static boolean isReferencePictureNalu(byte nalType) {
@@ -153,7 +176,7 @@ public class VideoDepacketizer {
             int flags = 0;
             if (NAL.getSpecialSequenceDescriptor(firstBuffer, cachedSpecialDesc) &&
                 NAL.isAnnexBFrameStart(cachedSpecialDesc)) {
-                switch (cachedSpecialDesc.data[cachedSpecialDesc.offset + cachedSpecialDesc.length]) {
+                switch (cachedSpecialDesc.buffer.get(cachedSpecialDesc.offset + cachedSpecialDesc.length)) {
 
                     // H265
                     case 0x40: // VPS
@@ -170,7 +193,7 @@ public class VideoDepacketizer {
                 }
 
                 if (isReferencePictureNalu(
-                        cachedSpecialDesc.data[cachedSpecialDesc.offset + cachedSpecialDesc.length])) {
+                        cachedSpecialDesc.buffer.get(cachedSpecialDesc.offset + cachedSpecialDesc.length))) {
                     flags |= VideoDecodeUnit.DU_FLAG_SYNC_FRAME;
                 }
             }
@@ -195,16 +218,24 @@ public class VideoDepacketizer {
 
             // Initialize the free DU
             du.initialize(frameDataChainHead, frameDataLength, frameNumber,
-                          frameStartTime, flags, backingPacketHead);
+                          frameStartTime, System.nanoTime(), flags, backingPacketHead);
 
-            // Packets now owned by the DU
+            // Packets and copied data now owned by the DU
             backingPacketTail = backingPacketHead = null;
+            frameArena = du.exchangeArena(frameArena);
 
             controlListener.connectionReceivedCompleteFrame(frameNumber);
 
             // Submit the DU to the consumer
             decodedUnits.addDecoded(du);
 
+            if (connectionStartTime != 0) {
+                double elapsedMillis = (System.nanoTime() - connectionStartTime) / 1e6;
+                connectionStartTime = 0;
+                timeToFirstFrame.set(elapsedMillis);
+                logger.info("Received the first frame in {} ms", (long) elapsedMillis);
+            }
+
             // Clear old state
             cleanupFrameState();
 
@@ -265,7 +296,7 @@ public class VideoDepacketizer {
                         NAL.getSpecialSequenceDescriptor(location, cachedSpecialDesc);
 
                         if (isReferencePictureNalu(
-                                cachedSpecialDesc.data[cachedSpecialDesc.offset + cachedSpecialDesc.length])) {
+                                cachedSpecialDesc.buffer.get(cachedSpecialDesc.offset + cachedSpecialDesc.length))) {
                             // This is the NALU code for I-frame data
                             waitingForIdrFrame = false;
 
@@ -296,7 +327,7 @@ public class VideoDepacketizer {
             // Move to the next special sequence
             while (location.length != 0) {
                 // Catch the easy case first where byte 0 != 0x00
-                if (location.data[location.offset] == 0x00) {
+                if (location.buffer.get(location.offset) == 0x00) {
                     // Check if this should end the current NAL
                     if (NAL.getSpecialSequenceDescriptor(location, cachedSpecialDesc)) {
                         // Only stop if we're decoding something or this
@@ -320,19 +351,14 @@ public class VideoDepacketizer {
                 // go to the end of the frame means we'll be only copying the SPS and PPS which
                 // are quite small, while the actual I-frame data is referenced via the packet.
                 if (location.length != 0) {
-                    // Copy the packet data into a new array
-                    byte[] dataCopy = new byte[location.offset - start];
-                    System.arraycopy(location.data, start, dataCopy, 0, dataCopy.length);
-
-                    // Chain a descriptor referencing the copied data
-                    chainBufferToCurrentFrame(new ByteBufferDescriptor(dataCopy, 0, dataCopy.length));
+                    // Copy the packet data into the arena and chain the copy
+                    chainBufferToCurrentFrame(frameArena.copy(location.buffer, start, location.offset - start));
                 } else {
                     // Chain this packet to the current frame
                     chainPacketToCurrentFrame(packet);
 
                     // Add a buffer descriptor describing the NAL data in this packet
-                    chainBufferToCurrentFrame(
-                            new ByteBufferDescriptor(location.data, start, location.offset - start));
+                    chainBufferToCurrentFrame(packet.frameDataDescriptor(start, location.offset - start));
                 }
             }
         }
@@ -341,11 +367,11 @@ public class VideoDepacketizer {
     private void addInputDataFast(VideoPacket packet, ByteBufferDescriptor location, boolean firstPacket) {
         if (firstPacket) {
             // Setup state for the new frame
-            frameStartTime = Util.monotonicMillis();
+            frameStartTime = packet.getReceiveTimestampNanos();
         }
 
         // Add the payload data to the chain
-        chainBufferToCurrentFrame(new ByteBufferDescriptor(location));
+        chainBufferToCurrentFrame(packet.frameDataDescriptor(location.offset, location.length));
 
         // The receive thread can't use this until we're done with it
         chainPacketToCurrentFrame(packet);
@@ -466,7 +492,7 @@ public class VideoDepacketizer {
 
         if (firstPacket && isIdrFrameStart(cachedReassemblyDesc)) {
             // The slow path doesn't update the frame start time by itself
-            frameStartTime = Util.monotonicMillis();
+            frameStartTime = packet.getReceiveTimestampNanos();
 
             // SPS and PPS prefix is padded between NALs, so we must decode it with the slow path
             addInputDataSlow(packet, cachedReassemblyDesc);
@@ -506,10 +532,14 @@ public class VideoDepacketizer {
     }
 
     private boolean isIdrFrameStart(ByteBufferDescriptor desc) {
-        return NAL.getSpecialSequenceDescriptor(desc, cachedSpecialDesc) &&
-               NAL.isAnnexBFrameStart(cachedSpecialDesc) &&
-               (cachedSpecialDesc.data[cachedSpecialDesc.offset + cachedSpecialDesc.length] == 0x67 || // H264 SPS
-                cachedSpecialDesc.data[cachedSpecialDesc.offset + cachedSpecialDesc.length] == 0x40);  // H265 VPS
+        if (!NAL.getSpecialSequenceDescriptor(desc, cachedSpecialDesc) ||
+            !NAL.isAnnexBFrameStart(cachedSpecialDesc)) {
+            return false;
+        }
+
+        byte nalType = cachedSpecialDesc.buffer.get(cachedSpecialDesc.offset + cachedSpecialDesc.length);
+        return nalType == 0x67 || // H264 SPS
+               nalType == 0x40;   // H265 VPS
     }
 
     public VideoDecodeUnit takeNextDecodeUnit() throws InterruptedException {
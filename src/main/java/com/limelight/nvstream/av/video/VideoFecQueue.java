@@ -0,0 +1,318 @@
+package com.limelight.nvstream.av.video;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.av.RtpPacket;
+import com.limelight.nvstream.av.fec.ReedSolomon;
+import com.limelight.nvstream.metrics.Counter;
+import com.limelight.nvstream.metrics.MetricRegistry;
+
+/**
+ * Recovers the lost video packets from the FEC parity packets the server sends after the data packets of
+ * each frame, and passes the data packets to the {@link VideoDepacketizer} in order.
+ *
+ * <p>Each frame is sent as an FEC block, i.e. its data packets followed by its parity packets, and every packet
+ * carries its index in the block and the number of data packets in the block. The parity is computed over
+ * the packets padded with zeros to the maximum packet size. Only the payload of a recovered packet is taken from
+ * the reconstruction, and its headers are rebuilt from another data packet of the same block.
+ *
+ * <p>The packets must be added in RTP sequence order, i.e. as they come out of
+ * the {@link com.limelight.nvstream.av.RtpReorderQueue}. While no data packet of the current block is missing,
+ * the data packets go straight through and the parity packets are ignored. Once a data packet is found missing,
+ * the rest of the block is held back until enough packets arrive to reconstruct the missing ones.
+ * If the next block starts first, the packets held back are passed as they are, and the depacketizer handles
+ * the loss as it would without FEC.
+ */
+final class VideoFecQueue {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoFecQueue.class);
+
+    // The offsets of the header fields rebuilt for a recovered packet
+    private static final int RTP_SEQUENCE_NUMBER_OFFSET = 2;
+    private static final int STREAM_PACKET_INDEX_OFFSET = RtpPacket.MAX_HEADER_SIZE;
+    private static final int FLAGS_OFFSET = RtpPacket.MAX_HEADER_SIZE + 8;
+    private static final int FEC_INFO_OFFSET = RtpPacket.MAX_HEADER_SIZE + 12;
+    private static final int PAYLOAD_OFFSET = RtpPacket.MAX_HEADER_SIZE + VideoPacket.HEADER_SIZE;
+
+    private final VideoDepacketizer depacketizer;
+    private final boolean enabled;
+    private final int shardSize;
+    private final boolean useAtomicRefCount;
+
+    // The packets of the current block, indexed by the FEC index
+    private final VideoPacket[] shards = new VideoPacket[ReedSolomon.MAX_SHARDS];
+    private boolean inBlock;
+    private int blockFrameIndex;
+    private short blockFirstSequenceNumber;
+    private int dataShards;
+    private int totalShards;
+    private int receivedShards;
+    private int nextDataShard;
+    private boolean recovering;
+    // Set when the block cannot be recovered however many parity packets arrive
+    private boolean unrecoverable;
+
+    // Indexed by the number of data shards
+    private final ReedSolomon[] codecs = new ReedSolomon[ReedSolomon.MAX_SHARDS];
+
+    // Allocated on the first loss
+    private byte[][] scratch;
+    private final boolean[] present = new boolean[ReedSolomon.MAX_SHARDS];
+    private final List<VideoPacket> recoveredPackets = new ArrayList<>();
+
+    private long recoveredPacketCount;
+    private long unrecoverableBlockCount;
+    private final Counter recoveredPacketCounter = MetricRegistry.global().counter(
+            "video_fec_recovered_packets_total", "The number of video packets recovered with FEC");
+    private final Counter unrecoverableBlockCounter = MetricRegistry.global().counter(
+            "video_fec_unrecoverable_frames_total", "The number of video frames FEC could not recover");
+
+    /**
+     * Creates a new queue.
+     *
+     * @param enabled {@code false} if the server does not send FEC, in which case all packets go straight through
+     * @param maxPacketSize the negotiated maximum packet size, excluding the RTP header
+     * @param useAtomicRefCount whether the recovered packets should use an atomic reference counter
+     */
+    VideoFecQueue(VideoDepacketizer depacketizer, boolean enabled, int maxPacketSize, boolean useAtomicRefCount) {
+        this.depacketizer = depacketizer;
+        this.enabled = enabled;
+        this.useAtomicRefCount = useAtomicRefCount;
+        shardSize = maxPacketSize + RtpPacket.MAX_HEADER_SIZE;
+    }
+
+    long getRecoveredPacketCount() {
+        return recoveredPacketCount;
+    }
+
+    long getUnrecoverableBlockCount() {
+        return unrecoverableBlockCount;
+    }
+
+    void addPacket(VideoPacket packet) {
+        int packetDataShards = packet.getFecDataShards();
+        int packetParityShards = (packetDataShards * packet.getFecPercentage() + 99) / 100;
+        if (!enabled || packetDataShards == 0 || packetDataShards + packetParityShards > ReedSolomon.MAX_SHARDS) {
+            // No FEC, or too many packets in a block for Reed-Solomon over GF(2^8)
+            finishBlock();
+            depacketizer.addInputData(packet);
+            return;
+        }
+
+        int fecIndex = packet.getFecIndex();
+        short firstSequenceNumber = (short) (packet.getRtpSequenceNumber() - fecIndex);
+        if (!inBlock || packet.getFrameIndex() != blockFrameIndex ||
+            firstSequenceNumber != blockFirstSequenceNumber) {
+            finishBlock();
+            startBlock(packet, firstSequenceNumber, packetDataShards, packetParityShards);
+        }
+
+        if (fecIndex >= totalShards || shards[fecIndex] != null) {
+            // Bogus or duplicate packet
+            return;
+        }
+
+        if (!recovering) {
+            if (fecIndex == nextDataShard && fecIndex < dataShards) {
+                // No loss so far
+                holdPacket(packet, fecIndex);
+                nextDataShard++;
+                depacketizer.addInputData(packet);
+                return;
+            }
+
+            if (nextDataShard == dataShards) {
+                // All data packets are here, so we don't need the parity packets.
+                return;
+            }
+
+            // A data packet is missing. Hold back the rest of the block.
+            recovering = true;
+        }
+
+        holdPacket(packet, fecIndex);
+        if (receivedShards >= dataShards && !unrecoverable) {
+            recover();
+        }
+    }
+
+    private void startBlock(VideoPacket packet, short firstSequenceNumber, int dataShards, int parityShards) {
+        inBlock = true;
+        blockFrameIndex = packet.getFrameIndex();
+        blockFirstSequenceNumber = firstSequenceNumber;
+        this.dataShards = dataShards;
+        totalShards = dataShards + parityShards;
+        receivedShards = 0;
+        nextDataShard = 0;
+        recovering = false;
+        unrecoverable = false;
+    }
+
+    private void holdPacket(VideoPacket packet, int fecIndex) {
+        // Keep the packet intact until the end of the block,
+        // because it may be needed for reconstructing the packets after it.
+        packet.referencePacket();
+        shards[fecIndex] = packet;
+        receivedShards++;
+    }
+
+    private void finishBlock() {
+        if (!inBlock) {
+            return;
+        }
+
+        if (recovering) {
+            // Not enough packets to recover the lost ones. Pass what we have.
+            unrecoverableBlockCount++;
+            unrecoverableBlockCounter.increment();
+            for (int i = nextDataShard; i < dataShards; i++) {
+                if (shards[i] != null) {
+                    depacketizer.addInputData(shards[i]);
+                }
+            }
+        }
+
+        for (int i = 0; i < totalShards; i++) {
+            if (shards[i] != null) {
+                shards[i].dereferencePacket();
+                shards[i] = null;
+            }
+        }
+
+        inBlock = false;
+    }
+
+    private void recover() {
+        int parityShards = totalShards - dataShards;
+        ReedSolomon codec = codecs[dataShards];
+        if (codec == null || codec.parityShards() < parityShards) {
+            codec = codecs[dataShards] = new ReedSolomon(dataShards, parityShards);
+        }
+
+        VideoPacket template = null;
+        for (int i = 0; i < dataShards && template == null; i++) {
+            template = shards[i];
+        }
+        if (template == null) {
+            // All data packets are lost, so there's nothing to rebuild the headers from.
+            // Give up rather than copying the whole block again for every parity packet that follows.
+            unrecoverable = true;
+            return;
+        }
+
+        if (scratch == null) {
+            scratch = new byte[ReedSolomon.MAX_SHARDS][shardSize];
+        }
+
+        // Copy the data packets we have and as many parity packets as the missing data packets.
+        Arrays.fill(present, false);
+        int missing = 0;
+        for (int i = 0; i < dataShards; i++) {
+            if (shards[i] != null) {
+                copyShard(shards[i], scratch[i]);
+                present[i] = true;
+            } else {
+                missing++;
+            }
+        }
+        for (int i = dataShards, parityUsed = 0; i < totalShards && parityUsed < missing; i++) {
+            if (shards[i] != null) {
+                copyShard(shards[i], scratch[i]);
+                present[i] = true;
+                parityUsed++;
+            }
+        }
+
+        if (!codec.reconstructData(scratch, present, PAYLOAD_OFFSET, shardSize - PAYLOAD_OFFSET)) {
+            // Never happens because we have enough shards.
+            logger.warn("Failed to reconstruct the FEC block of frame {}", blockFrameIndex);
+            unrecoverable = true;
+            return;
+        }
+
+        for (int i = nextDataShard; i < dataShards; i++) {
+            VideoPacket packet = shards[i];
+            if (packet == null) {
+                packet = newRecoveredPacket(i, template);
+                holdPacket(packet, i);
+                recoveredPacketCount++;
+                recoveredPacketCounter.increment();
+            }
+            depacketizer.addInputData(packet);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Recovered {} video packet(s) of frame {}", missing, blockFrameIndex);
+        }
+
+        nextDataShard = dataShards;
+        recovering = false;
+    }
+
+    private void copyShard(VideoPacket packet, byte[] shard) {
+        ByteBuffer buf = packet.getByteBuffer();
+        int length = Math.min(packet.getLength(), shardSize);
+
+        buf.clear();
+        buf.get(shard, 0, length);
+        buf.clear();
+
+        // The parity was computed with the shorter packets padded with zeros.
+        Arrays.fill(shard, length, shardSize, (byte) 0);
+    }
+
+    private VideoPacket newRecoveredPacket(int fecIndex, VideoPacket template) {
+        VideoPacket packet = null;
+        for (VideoPacket p : recoveredPackets) {
+            if (p.getRefCount() == 0) {
+                packet = p;
+                break;
+            }
+        }
+        if (packet == null) {
+            packet = new VideoPacket(ByteBuffer.allocateDirect(shardSize), useAtomicRefCount);
+            recoveredPackets.add(packet);
+        }
+
+        ByteBuffer buf = packet.getByteBuffer();
+        ByteBuffer templateBuf = template.getByteBuffer();
+        buf.clear();
+        buf.put(scratch[fecIndex], 0, shardSize);
+
+        // Rebuild the headers from the template, which is another data packet of the same frame.
+        for (int i = 0; i < PAYLOAD_OFFSET; i++) {
+            buf.put(i, templateBuf.get(i));
+        }
+
+        int distance = fecIndex - template.getFecIndex();
+        buf.putShort(RTP_SEQUENCE_NUMBER_OFFSET,
+                     Short.reverseBytes((short) (blockFirstSequenceNumber + fecIndex)));
+
+        int streamPacketIndex = template.getStreamPacketIndex() + distance & 0xFFFFFF;
+        buf.putInt(STREAM_PACKET_INDEX_OFFSET,
+                   streamPacketIndex << 8 | templateBuf.getInt(STREAM_PACKET_INDEX_OFFSET) & 0xFF);
+
+        int flags = VideoPacket.FLAG_CONTAINS_PIC_DATA;
+        if (fecIndex == 0) {
+            flags |= VideoPacket.FLAG_SOF;
+        }
+        if (fecIndex == dataShards - 1) {
+            flags |= VideoPacket.FLAG_EOF;
+        }
+        buf.putInt(FLAGS_OFFSET, templateBuf.getInt(FLAGS_OFFSET) & ~0xFF | flags);
+
+        buf.putInt(FEC_INFO_OFFSET, templateBuf.getInt(FEC_INFO_OFFSET) & ~(0x3FF << 12) | fecIndex << 12);
+
+        // The original length is unknown, so the last packet of a frame keeps its zero padding.
+        // It's harmless because the decoders ignore the trailing zeros after the last NAL unit.
+        packet.initializeWithLength(shardSize);
+        packet.setReceiveTimestampNanos(template.getReceiveTimestampNanos());
+        return packet;
+    }
+}
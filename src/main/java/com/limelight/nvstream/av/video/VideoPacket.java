@@ -16,6 +16,9 @@ final class VideoPacket implements RtpPacket {
     public static final int HEADER_SIZE = 16;
 
     private final ByteBufferDescriptor buffer;
+    // Describes the part of this packet chained to a frame. One is enough
+    // because a packet is chained to at most one frame, at most once.
+    private final ByteBufferDescriptor frameData = new ByteBufferDescriptor();
     private final ByteBuffer byteBuffer;
     private final boolean useAtomicRefCount;
 
@@ -24,8 +27,10 @@ final class VideoPacket implements RtpPacket {
     private int frameIndex;
     private int flags;
     private int streamPacketIndex;
+    private int fecInfo;
 
     private short rtpSequenceNumber;
+    private long receiveTimestampNanos;
 
     private final AtomicInteger duAtomicRefCount = new AtomicInteger();
     private int duRefCount;
@@ -33,9 +38,9 @@ final class VideoPacket implements RtpPacket {
     // Only for use in DecodeUnit for packet queuing
     VideoPacket nextPacket;
 
-    VideoPacket(byte[] buffer, boolean useAtomicRefCount) {
-        this.buffer = new ByteBufferDescriptor(buffer, 0, buffer.length);
-        byteBuffer = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+    VideoPacket(ByteBuffer buffer, boolean useAtomicRefCount) {
+        byteBuffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.buffer = new ByteBufferDescriptor(byteBuffer, 0, byteBuffer.capacity());
         this.useAtomicRefCount = useAtomicRefCount;
     }
 
@@ -49,6 +54,7 @@ final class VideoPacket implements RtpPacket {
         streamPacketIndex = byteBuffer.getInt() >> 8 & 0xFFFFFF;
         frameIndex = byteBuffer.getInt();
         flags = byteBuffer.getInt() & 0xFF;
+        fecInfo = byteBuffer.getInt();
 
         // Data offset without the RTP header
         dataOffset = HEADER_SIZE;
@@ -71,6 +77,7 @@ final class VideoPacket implements RtpPacket {
         streamPacketIndex = byteBuffer.getInt() >> 8 & 0xFFFFFF;
         frameIndex = byteBuffer.getInt();
         flags = byteBuffer.getInt() & 0xFF;
+        fecInfo = byteBuffer.getInt();
 
         // Data offset includes the RTP header
         dataOffset = RtpPacket.MAX_HEADER_SIZE + HEADER_SIZE;
@@ -79,6 +86,14 @@ final class VideoPacket implements RtpPacket {
         buffer.length = length;
     }
 
+    long getReceiveTimestampNanos() {
+        return receiveTimestampNanos;
+    }
+
+    void setReceiveTimestampNanos(long receiveTimestampNanos) {
+        this.receiveTimestampNanos = receiveTimestampNanos;
+    }
+
     int getFlags() {
         return flags;
     }
@@ -91,8 +106,23 @@ final class VideoPacket implements RtpPacket {
         return streamPacketIndex;
     }
 
-    byte[] getBuffer() {
-        return buffer.data;
+    // The FEC info field consists of the number of data shards in the FEC block (10 bits),
+    // the index of this packet in the FEC block (10 bits), the FEC percentage (8 bits) and 4 unused bits.
+
+    int getFecIndex() {
+        return fecInfo >>> 12 & 0x3FF;
+    }
+
+    int getFecDataShards() {
+        return fecInfo >>> 22;
+    }
+
+    int getFecPercentage() {
+        return fecInfo >>> 4 & 0xFF;
+    }
+
+    int getLength() {
+        return buffer.length;
     }
 
     ByteBuffer getByteBuffer() {
@@ -100,7 +130,12 @@ final class VideoPacket implements RtpPacket {
     }
 
     void initializePayloadDescriptor(ByteBufferDescriptor bb) {
-        bb.reinitialize(buffer.data, buffer.offset + dataOffset, buffer.length - dataOffset);
+        bb.reinitialize(buffer.buffer, buffer.offset + dataOffset, buffer.length - dataOffset);
+    }
+
+    ByteBufferDescriptor frameDataDescriptor(int offset, int length) {
+        frameData.reinitialize(buffer.buffer, offset, length);
+        return frameData;
     }
 
     @Override
@@ -0,0 +1,33 @@
+package com.limelight.nvstream.av.video;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the video datagrams off the network straight into the {@link VideoPacket}s of the receive ring.
+ * The receive thread of {@link VideoStream} asks for a batch of datagrams at a time, so that a receiver which
+ * reads many datagrams per system call, e.g. with {@code recvmmsg(2)}, can take the place of
+ * {@link NioVideoPacketReceiver}.
+ */
+interface VideoPacketReceiver extends Closeable {
+
+    /**
+     * Reads one or more datagrams into {@code packets[0]}, {@code packets[1]}, and so on, waiting for the first
+     * one to arrive. The buffer of each packet read is flipped, i.e. the datagram is between its position and
+     * limit, and its receive timestamp is set. The packets are not initialized.
+     *
+     * @param maxPackets the maximum number of datagrams to read, i.e. the number of packets to fill
+     *
+     * @return the number of datagrams read, which is at least 1
+     *
+     * @throws java.nio.channels.ClosedChannelException if the receiver has been closed
+     */
+    int receive(VideoPacket[] packets, int maxPackets) throws IOException;
+
+    /**
+     * Closes the receiver, and makes the thread waiting in {@link #receive(VideoPacket[], int)} throw
+     * a {@link java.nio.channels.ClosedChannelException}.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -20,28 +20,29 @@ import com.limelight.nvstream.av.RtpPacket;
 import com.limelight.nvstream.av.RtpPingSender;
 import com.limelight.nvstream.av.RtpReorderQueue;
 import com.limelight.nvstream.av.RtpReorderQueue.RtpQueueStatus;
+import com.limelight.nvstream.av.capture.RtpCaptureHeader;
+import com.limelight.nvstream.av.capture.RtpCaptureWriter;
 
 public class VideoStream {
 
     private static final Logger logger = LoggerFactory.getLogger(VideoStream.class);
 
-    private static final int RTP_PORT = 47998;
+    public static final int RTP_PORT = 47998;
     private static final int FIRST_FRAME_PORT = 47996;
 
     private static final int FIRST_FRAME_TIMEOUT = 5000;
     private static final int RTP_RECV_BUFFER = 256 * 1024;
 
-    // We can't request an IDR frame until the depacketizer knows
-    // that a packet was lost. This timeout bounds the time that
-    // the RTP queue will wait for missing/reordered packets.
-    private static final int MAX_RTP_QUEUE_DELAY_MS = 10;
-
     // The ring size MUST be greater than or equal to
     // the maximum number of packets in a fully
     // presentable frame
     private static final int VIDEO_RING_SIZE = 384 * 8;
 
+    // The maximum number of datagrams to read at once
+    private static final int VIDEO_RECEIVE_BATCH_SIZE = 32;
+
     private DatagramChannel rtp;
+    private VideoPacketReceiver rtpReceiver;
     private Socket firstFrameSocket;
 
     private Thread receiveThread;
@@ -77,9 +78,9 @@ public class VideoStream {
         }
 
         // Close the socket to interrupt the receive thread
-        if (rtp != null) {
+        if (rtpReceiver != null) {
             try {
-                rtp.close();
+                rtpReceiver.close();
             } catch (IOException e) {
                 logger.warn("Failed to close a RTP connection", e);
             }
@@ -121,7 +122,14 @@ public class VideoStream {
     }
 
     private void setupRtpSession() throws IOException {
+        if (context.rtpReplay != null && !context.rtpReplay.isLoopback()) {
+            // Read the recorded datagrams directly, bypassing the network.
+            rtpReceiver = new NioVideoPacketReceiver(context.rtpReplay.newChannel(RtpCaptureHeader.VIDEO));
+            return;
+        }
+
         rtp = DatagramChannel.open();
+        rtpReceiver = new NioVideoPacketReceiver(rtp);
         rtp.setOption(StandardSocketOptions.SO_RCVBUF, RTP_RECV_BUFFER);
         try {
             rtp.setOption(StandardSocketOptions.IP_TOS, 0x10); // IPTOS_LOWDELAY
@@ -176,95 +184,139 @@ public class VideoStream {
         }
 
         // Open the first frame port connection on Gen 3 servers
-        if (context.serverGeneration == ConnectionContext.SERVER_GENERATION_3) {
+        boolean firstFrame = context.serverGeneration == ConnectionContext.SERVER_GENERATION_3 &&
+                             context.rtpReplay == null;
+        if (firstFrame) {
             connectFirstFrame();
         }
 
         // Start pinging before reading the first frame
         // so GFE knows where to send UDP data
-        pingFuture = RtpPingSender.start(rtp);
+        if (rtp != null) {
+            pingFuture = RtpPingSender.start(rtp);
+        }
 
         // Read the first frame on Gen 3 servers
-        if (context.serverGeneration == ConnectionContext.SERVER_GENERATION_3) {
+        if (firstFrame) {
             readFirstFrame();
         }
 
         return true;
     }
 
+    private static void initializeRing(VideoPacket[] ring, int packetSize, boolean useAtomicRefCount) {
+        // Receive straight into direct memory so that NIO does not have to copy every datagram
+        // from its temporary direct buffer, and the decoder can copy it out with a plain memcpy.
+        ByteBuffer memory = ByteBuffer.allocateDirect(packetSize * ring.length);
+        for (int i = 0; i < ring.length; i++) {
+            memory.limit((i + 1) * packetSize).position(i * packetSize);
+            ring[i] = new VideoPacket(memory.slice(), useAtomicRefCount);
+        }
+    }
+
     private Thread startReceiveThread() {
         // Receive thread
         Thread t = new Thread(() -> {
             VideoPacket[] ring = new VideoPacket[VIDEO_RING_SIZE];
             VideoPacket queuedPacket;
             int ringIndex = 0;
-            RtpReorderQueue<VideoPacket> rtpQueue = new RtpReorderQueue<>(16, MAX_RTP_QUEUE_DELAY_MS);
+            RtpReorderQueue<VideoPacket> rtpQueue = new RtpReorderQueue<>(
+                    context.streamConfig.getVideoReorderQueueSize(),
+                    context.streamConfig.getVideoReorderQueueDelay());
             RtpQueueStatus queueStatus;
+            RtpCaptureWriter capture = context.rtpCapture;
 
             boolean directSubmit = decRend != null && (decRend.getCapabilities() &
                                                        VideoDecoderRenderer.CAPABILITY_DIRECT_SUBMIT) != 0;
 
             // Preinitialize the ring buffer
             int requiredBufferSize = context.streamConfig.getMaxPacketSize() + RtpPacket.MAX_HEADER_SIZE;
-            for (int i = 0; i < VIDEO_RING_SIZE; i++) {
-                ring[i] = new VideoPacket(new byte[requiredBufferSize], !directSubmit);
-            }
-
+            initializeRing(ring, requiredBufferSize, !directSubmit);
+
+            // FEC is enabled only for Gen 7 servers when asked. See SdpGenerator.
+            VideoFecQueue fecQueue = new VideoFecQueue(
+                    depacketizer, context.streamConfig.getVideoFecEnabled() &&
+                                  context.serverGeneration >= ConnectionContext.SERVER_GENERATION_7,
+                    context.streamConfig.getMaxPacketSize(), !directSubmit);
+
+            // The free packets of the ring to read the next datagrams into
+            VideoPacket[] batch = new VideoPacket[VIDEO_RECEIVE_BATCH_SIZE];
+            int batchSize = 0;
+            VideoPacket packet;
             ByteBuffer buffer;
+            int received;
             int iterationStart;
 
             try {
                 while (!Thread.currentThread().isInterrupted()) {
-                    // Pull the next buffer in the ring and reset it
-                    buffer = ring[ringIndex].getByteBuffer();
-                    buffer.clear();
+                    // Top up the batch with the next free buffers in the ring. The batch holds a reference
+                    // to its packets, so that the ring doesn't hand them out again until they're used.
+                    while (batchSize < VIDEO_RECEIVE_BATCH_SIZE) {
+                        ring[ringIndex].referencePacket();
+                        batch[batchSize++] = ring[ringIndex];
+
+                        // Go to the next free element in the ring
+                        iterationStart = ringIndex;
+                        do {
+                            ringIndex = (ringIndex + 1) % VIDEO_RING_SIZE;
+                            if (ringIndex == iterationStart) {
+                                // Reinitialize the video ring since they're all being used
+                                logger.warn("Packet ring wrapped around!");
+                                initializeRing(ring, requiredBufferSize, !directSubmit);
+                                break;
+                            }
+                        } while (ring[ringIndex].getRefCount() != 0);
+                    }
 
                     // Read the video data off the network
-                    rtp.read(buffer);
-                    buffer.flip();
-
-                    // Initialize the video packet
-                    ring[ringIndex].initializeWithLength(buffer.remaining());
-
-                    queueStatus = rtpQueue.addPacket(ring[ringIndex]);
-                    if (queueStatus == RtpQueueStatus.HANDLE_IMMEDIATELY) {
-                        // Submit immediately because the packet is in order
-                        depacketizer.addInputData(ring[ringIndex]);
-                    } else if (queueStatus == RtpQueueStatus.QUEUED_PACKETS_READY) {
-                        // The packet queue now has packets ready
-                        while ((queuedPacket = rtpQueue.getQueuedPacket()) != null) {
-                            depacketizer.addInputData(queuedPacket);
-                            queuedPacket.dereferencePacket();
-                        }
-                    }
+                    received = rtpReceiver.receive(batch, batchSize);
 
-                    // If the DR supports direct submission, call the direct submit callback
-                    if (directSubmit) {
-                        VideoDecodeUnit du;
+                    for (int i = 0; i < received; i++) {
+                        packet = batch[i];
+                        buffer = packet.getByteBuffer();
 
-                        while ((du = depacketizer.pollNextDecodeUnit()) != null) {
-                            decRend.directSubmitDecodeUnit(du);
+                        if (capture != null) {
+                            capture.write(RtpCaptureHeader.VIDEO, buffer);
                         }
-                    }
 
-                    // Go to the next free element in the ring
-                    iterationStart = ringIndex;
-                    do {
-                        ringIndex = (ringIndex + 1) % VIDEO_RING_SIZE;
-                        if (ringIndex == iterationStart) {
-                            // Reinitialize the video ring since they're all being used
-                            logger.warn("Packet ring wrapped around!");
-                            for (int i = 0; i < VIDEO_RING_SIZE; i++) {
-                                ring[i] = new VideoPacket(new byte[requiredBufferSize], !directSubmit);
+                        // Initialize the video packet
+                        packet.initializeWithLength(buffer.remaining());
+
+                        queueStatus = rtpQueue.addPacket(packet);
+                        if (queueStatus == RtpQueueStatus.HANDLE_IMMEDIATELY) {
+                            // Submit immediately because the packet is in order
+                            fecQueue.addPacket(packet);
+                        } else if (queueStatus == RtpQueueStatus.QUEUED_PACKETS_READY) {
+                            // The packet queue now has packets ready
+                            while ((queuedPacket = rtpQueue.getQueuedPacket()) != null) {
+                                fecQueue.addPacket(queuedPacket);
+                                queuedPacket.dereferencePacket();
+                            }
+                        }
+                        packet.dereferencePacket();
+
+                        // If the DR supports direct submission, call the direct submit callback
+                        if (directSubmit) {
+                            VideoDecodeUnit du;
+
+                            while ((du = depacketizer.pollNextDecodeUnit()) != null) {
+                                decRend.directSubmitDecodeUnit(du);
                             }
-                            break;
                         }
-                    } while (ring[ringIndex].getRefCount() != 0);
+                    }
+
+                    // Keep the packets left unused for the next read.
+                    System.arraycopy(batch, received, batch, 0, batchSize - received);
+                    batchSize -= received;
                 }
             } catch (ClosedChannelException ignored) {
             } catch (IOException e) {
                 logger.warn("Failed to receive a video packet", e);
             } finally {
+                if (fecQueue.getRecoveredPacketCount() != 0 || fecQueue.getUnrecoverableBlockCount() != 0) {
+                    logger.info("Recovered {} video packet(s) with FEC ({} unrecoverable frame(s))",
+                                fecQueue.getRecoveredPacketCount(), fecQueue.getUnrecoverableBlockCount());
+                }
                 parent.stop();
             }
         });
@@ -2,15 +2,23 @@ package com.limelight.nvstream.control;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
 
+import org.jctools.queues.MpmcArrayQueue;
+import org.jctools.queues.MpscArrayQueue;
 import org.jctools.queues.SpscLinkedQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +30,10 @@ import com.limelight.nvstream.Util;
 import com.limelight.nvstream.av.ConnectionStatusListener;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.enet.EnetConnection;
+import com.limelight.nvstream.metrics.Counter;
+import com.limelight.nvstream.metrics.Gauge;
+import com.limelight.nvstream.metrics.LatencyHistogram;
+import com.limelight.nvstream.metrics.MetricRegistry;
 
 public class ControlStream implements ConnectionStatusListener, InputPacketSender {
 
@@ -32,6 +44,12 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
 
     private static final int CONTROL_TIMEOUT = 10000;
 
+    private static final int SEND_QUEUE_SIZE = 256;
+    private static final int MAX_PACKET_SIZE = 256;
+    // How often the I/O thread services the connection while no packet is being sent
+    private static final long IDLE_SERVICE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long REPLY_SERVICE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
     private static final int IDX_START_A = 0;
     private static final int IDX_REQUEST_IDR_FRAME = 0;
     private static final int IDX_START_B = 1;
@@ -144,6 +162,16 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
     private int lastSeenFrame;
     private int lossCountSinceLastReport;
 
+    private final Counter lostPackets = MetricRegistry.global().counter(
+            "video_lost_packets_total", "The number of video packets lost in the network");
+    private final Counter frameLosses = MetricRegistry.global().counter(
+            "video_frame_losses_total",
+            "The number of times video frames were lost and the server was asked to resync");
+    private final Counter sinkTooSlow = MetricRegistry.global().counter(
+            "video_sink_too_slow_total", "The number of times the decoder could not keep up with the stream");
+    private final Counter completeFrames = MetricRegistry.global().counter(
+            "video_received_frames_total", "The number of video frames received completely");
+
     private final NvConnection parent;
     private final ConnectionContext context;
 
@@ -170,13 +198,28 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
     private Socket s;
     private InputStream in;
     private OutputStream out;
-    private final byte[] packetSendBuf = new byte[256];
     private final byte[] packetRecvBuf = new byte[4];
 
+    // The packets are sent by the I/O thread, so that the senders never wait for the network or for
+    // the reply to another packet. ENet is not thread-safe, so the I/O thread is also the only thread
+    // which services the ENet connection.
+    private Thread ioThread;
+    private final Queue<OutboundPacket> freePackets = new MpmcArrayQueue<>(SEND_QUEUE_SIZE);
+    private final Queue<OutboundPacket> sendQueue = new MpscArrayQueue<>(SEND_QUEUE_SIZE);
+    private final Gauge sendQueueDepth = MetricRegistry.global().gauge(
+            "control_send_queue_depth", "The number of control packets waiting to be sent");
+    private final LatencyHistogram roundTripTime = MetricRegistry.global().histogram(
+            "control_round_trip_time", "The time taken for the server to reply to a control packet");
+    private final LatencyHistogram controllerInputLatency = MetricRegistry.global().histogram(
+            "controller_input_latency", "The time taken from reading a controller state to writing it out");
+
     private ScheduledFuture<?> lossStatsFuture;
     private final Runnable resyncTask;
     private final Queue<int[]> invalidReferenceFrameTuples = new SpscLinkedQueue<>();
+    // Accessed only by the resync task
+    private CompletableFuture<Void> pendingResync;
     private volatile boolean aborting;
+    private volatile boolean closed;
     private boolean forceIdrRequest;
 
     private final short[] packetTypes;
@@ -216,51 +259,71 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
                                VideoDecoderRenderer.CAPABILITY_REFERENCE_FRAME_INVALIDATION) == 0;
         }
 
-        resyncTask = () -> {
-            try {
-                boolean idrFrameRequired = false;
-                int[] tuple = invalidReferenceFrameTuples.poll();
-                if (tuple == null) {
-                    // Aggregated by previous resync task
-                    return;
-                }
+        for (int i = 0; i < SEND_QUEUE_SIZE; i++) {
+            freePackets.add(new OutboundPacket());
+        }
+
+        resyncTask = this::resync;
+    }
+
+    private void resync() {
+        // Send one request at a time, aggregating the frame losses reported until the reply.
+        if (pendingResync != null && !pendingResync.isDone()) {
+            return;
+        }
+
+        try {
+            boolean idrFrameRequired = false;
+            int[] tuple = invalidReferenceFrameTuples.poll();
+            if (tuple == null) {
+                // Aggregated by previous resync task
+                return;
+            }
 
-                // Check for the magic IDR frame tuple
-                int[] lastTuple = null;
-                if (tuple[0] != 0 || tuple[1] != 0) {
-                    // Aggregate all lost frames into one range
-                    for (;;) {
-                        int[] nextTuple = lastTuple = invalidReferenceFrameTuples.poll();
-                        if (nextTuple == null) {
-                            break;
-                        }
-
-                        // Check if this tuple has IDR frame magic values
-                        if (nextTuple[0] == 0 && nextTuple[1] == 0) {
-                            // We will need an IDR frame now, but we won't break out
-                            // of the loop because we want to dequeue all pending requests
-                            idrFrameRequired = true;
-                        }
+            // Check for the magic IDR frame tuple
+            int[] lastTuple = null;
+            if (tuple[0] != 0 || tuple[1] != 0) {
+                // Aggregate all lost frames into one range
+                for (;;) {
+                    int[] nextTuple = lastTuple = invalidReferenceFrameTuples.poll();
+                    if (nextTuple == null) {
+                        break;
                     }
-                } else {
-                    // We must require an IDR frame
-                    idrFrameRequired = true;
-                }
 
-                if (forceIdrRequest || idrFrameRequired) {
-                    requestIdrFrame();
-                } else {
-                    // Update the end of the range to the latest tuple
-                    if (lastTuple != null) {
-                        tuple[1] = lastTuple[1];
+                    // Check if this tuple has IDR frame magic values
+                    if (nextTuple[0] == 0 && nextTuple[1] == 0) {
+                        // We will need an IDR frame now, but we won't break out
+                        // of the loop because we want to dequeue all pending requests
+                        idrFrameRequired = true;
                     }
+                }
+            } else {
+                // We must require an IDR frame
+                idrFrameRequired = true;
+            }
 
-                    invalidateReferenceFrames(tuple[0], tuple[1]);
+            if (forceIdrRequest || idrFrameRequired) {
+                pendingResync = requestIdrFrame();
+            } else {
+                // Update the end of the range to the latest tuple
+                if (lastTuple != null) {
+                    tuple[1] = lastTuple[1];
                 }
-            } catch (IOException e) {
-                logger.warn("Failed to request an IDR frame", e);
+
+                pendingResync = invalidateReferenceFrames(tuple[0], tuple[1]);
             }
-        };
+
+            pendingResync.whenComplete((unused, cause) -> {
+                if (cause != null) {
+                    logger.warn("Failed to request an IDR frame", cause);
+                }
+                if (!invalidReferenceFrameTuples.isEmpty()) {
+                    Util.execute(resyncTask);
+                }
+            });
+        } catch (IOException e) {
+            logger.warn("Failed to request an IDR frame", e);
+        }
     }
 
     public void initialize() throws IOException {
@@ -271,45 +334,209 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
             s = new Socket();
             s.setTcpNoDelay(true);
             s.connect(new InetSocketAddress(context.serverAddress, TCP_PORT), CONTROL_TIMEOUT);
+            // The I/O thread reads only when a packet has started to arrive, so a read should never take long.
+            // Without the timeout, a partially received packet would block the I/O thread and the packets
+            // waiting to be sent.
+            s.setSoTimeout(CONTROL_TIMEOUT);
             in = s.getInputStream();
             out = s.getOutputStream();
         }
+
+        ioThread = new Thread(this::serviceConnection);
+        ioThread.setName("Control - I/O");
+        ioThread.setPriority(Thread.NORM_PRIORITY + 1);
+        ioThread.start();
     }
 
-    private synchronized void sendPacket(
+    /**
+     * Queues a packet to be sent by the I/O thread.
+     *
+     * @return the future which is completed when the server replies to the packet
+     * @throws IOException if the control stream has been closed or too many packets are queued
+     */
+    private CompletableFuture<Void> sendPacketWithReply(
             short type, byte[] payload, int offset, int length) throws IOException {
-        // Prevent multiple clients from writing to the stream at the same time
+        CompletableFuture<Void> reply = new CompletableFuture<>();
+        if (!sendPacket(type, payload, offset, length, reply, 0)) {
+            throw new IOException("Too many control packets queued: " + SEND_QUEUE_SIZE);
+        }
+        return reply;
+    }
+
+    /**
+     * Queues a packet to be sent by the I/O thread, unless too many packets are queued already.
+     *
+     * @param reply the future to complete when the server replies to the packet,
+     *              or {@code null} if the packet has no reply
+     * @param inputTime the {@link System#nanoTime()} when the controller state in the packet was read,
+     *                  or {@code 0} if the packet has no controller state
+     * @return {@code false} if the packet has been dropped because too many packets are queued
+     * @throws IOException if the control stream has been closed
+     */
+    private boolean sendPacket(short type, byte[] payload, int offset, int length,
+                               CompletableFuture<Void> reply, long inputTime) throws IOException {
+        if (closed) {
+            throw new IOException("Control stream closed");
+        }
+
+        OutboundPacket packet = freePackets.poll();
+        if (packet == null) {
+            return false;
+        }
+
+        byte[] data = packet.data;
+        data[0] = (byte) (type & 0xFF);
+        data[1] = (byte) (type >>> 8 & 0xFF);
         if (context.serverGeneration >= ConnectionContext.SERVER_GENERATION_5) {
-            enetConnection.pumpSocket();
+            System.arraycopy(payload, offset, data, 2, length);
+            packet.length = length + 2;
+        } else {
+            data[2] = (byte) (length & 0xFF);
+            data[3] = (byte) (length >>> 8 & 0xFF);
+            System.arraycopy(payload, offset, data, 4, length);
+            packet.length = length + 4;
+        }
+
+        packet.reply = reply;
+        packet.inputTime = inputTime;
+        synchronized (sendQueue) {
+            // Check again, so that the I/O thread does not stop right before the packet is queued and leave the
+            // packet behind with its reply never completed.
+            if (closed) {
+                recycle(packet);
+                throw new IOException("Control stream closed");
+            }
+            sendQueue.add(packet);
+        }
+        sendQueueDepth.set(sendQueue.size());
+        LockSupport.unpark(ioThread);
+        return true;
+    }
+
+    private void serviceConnection() {
+        // The packets sent and not replied yet, in the order the replies are expected
+        ArrayDeque<OutboundPacket> unrepliedPackets = new ArrayDeque<>();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean sent = false;
+                OutboundPacket packet;
+                while ((packet = sendQueue.poll()) != null) {
+                    writePacket(packet);
+                    sent = true;
+                    if (packet.inputTime != 0) {
+                        controllerInputLatency.record(System.nanoTime() - packet.inputTime);
+                    }
+                    if (packet.reply != null) {
+                        packet.sendTime = System.nanoTime();
+                        unrepliedPackets.add(packet);
+                    } else {
+                        recycle(packet);
+                    }
+                }
+
+                // Match the received packets to the sent ones in order.
+                int numReceivedPackets = receivePackets();
+                long currentTime = System.nanoTime();
+                for (int i = 0; i < numReceivedPackets; i++) {
+                    packet = unrepliedPackets.poll();
+                    if (packet == null) {
+                        // Not a reply
+                        break;
+                    }
+                    roundTripTime.record(currentTime - packet.sendTime);
+                    packet.reply.complete(null);
+                    recycle(packet);
+                }
+
+                packet = unrepliedPackets.peek();
+                if (packet != null &&
+                    currentTime - packet.sendTime > TimeUnit.MILLISECONDS.toNanos(CONTROL_TIMEOUT)) {
+                    unrepliedPackets.poll();
+                    packet.reply.completeExceptionally(
+                            new IOException("Control stream timed out waiting for a reply"));
+                    recycle(packet);
+                }
+
+                if (!sent && numReceivedPackets == 0) {
+                    LockSupport.parkNanos(unrepliedPackets.isEmpty() ? IDLE_SERVICE_INTERVAL_NANOS
+                                                                     : REPLY_SERVICE_INTERVAL_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            if (!aborting) {
+                logger.warn("Control stream failed", e);
+                parent.stop();
+            }
+        } finally {
+            synchronized (sendQueue) {
+                // No packet is queued from now on, so that the packets below are all the packets left.
+                closed = true;
+            }
+            IOException cause = new IOException("Control stream closed");
+            OutboundPacket packet;
+            while ((packet = unrepliedPackets.poll()) != null || (packet = sendQueue.poll()) != null) {
+                if (packet.reply != null) {
+                    packet.reply.completeExceptionally(cause);
+                }
+                recycle(packet);
+            }
+        }
+    }
 
-            packetSendBuf[0] = (byte) (type & 0xFF);
-            packetSendBuf[1] = (byte) (type >>> 8 & 0xFF);
-            System.arraycopy(payload, offset, packetSendBuf, 2, length);
-            enetConnection.writePacket(packetSendBuf, length + 2);
+    private void writePacket(OutboundPacket packet) throws IOException {
+        if (context.serverGeneration >= ConnectionContext.SERVER_GENERATION_5) {
+            enetConnection.writePacket(packet.data, packet.length);
         } else {
-            packetSendBuf[0] = (byte) (type & 0xFF);
-            packetSendBuf[1] = (byte) (type >>> 8 & 0xFF);
-            packetSendBuf[2] = (byte) (length & 0xFF);
-            packetSendBuf[3] = (byte) (length >>> 8 & 0xFF);
-            System.arraycopy(payload, offset, packetSendBuf, 4, length);
-            out.write(packetSendBuf, 0, length + 4);
+            out.write(packet.data, 0, packet.length);
             out.flush();
         }
     }
 
-    private synchronized void sendAndDiscardReply(
-            short type, byte[] payload, int offset, int length) throws IOException {
-        sendPacket(type, payload, offset, length);
+    /**
+     * Returns the number of the packets received from the server, discarding their content.
+     */
+    private int receivePackets() throws IOException {
+        int numPackets = 0;
         if (context.serverGeneration >= ConnectionContext.SERVER_GENERATION_5) {
-            enetConnection.readPacket(0, CONTROL_TIMEOUT);
+            // Servicing the ENet connection also flushes the written packets.
+            while (enetConnection.pollPacket(0) > 0) {
+                numPackets++;
+            }
         } else {
-            ByteStreams.readFully(in, packetRecvBuf, 0, 4);
-            final int recvLength = packetRecvBuf[2] & 0xFF | (packetRecvBuf[3] & 0xFF) << 8;
-            ByteStreams.skipFully(in, recvLength);
+            while (in.available() >= packetRecvBuf.length) {
+                ByteStreams.readFully(in, packetRecvBuf, 0, 4);
+                final int recvLength = packetRecvBuf[2] & 0xFF | (packetRecvBuf[3] & 0xFF) << 8;
+                ByteStreams.skipFully(in, recvLength);
+                numPackets++;
+            }
+        }
+        return numPackets;
+    }
+
+    private void recycle(OutboundPacket packet) {
+        packet.reply = null;
+        freePackets.add(packet);
+    }
+
+    private static void awaitReply(CompletableFuture<Void> reply) throws IOException {
+        try {
+            // The I/O thread fails the future if the server does not reply in time, but do not rely on it
+            // in case the I/O thread has stopped.
+            reply.get(CONTROL_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Control stream timed out waiting for a reply", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
         }
     }
 
-    private void sendLossStats(ByteBuffer bb) throws IOException {
+    private boolean sendLossStats(ByteBuffer bb) throws IOException {
         bb.rewind();
         bb.putInt(lossCountSinceLastReport); // Packet loss count
         bb.putInt(LOSS_REPORT_INTERVAL_MS); // Time since last report in milliseconds
@@ -319,13 +546,14 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
         bb.putInt(0);
         bb.putInt(0x14);
 
-        sendPacket(packetTypes[IDX_LOSS_STATS],
-                   bb.array(), bb.arrayOffset(), payloadLengths[IDX_LOSS_STATS]);
+        return sendPacket(packetTypes[IDX_LOSS_STATS],
+                          bb.array(), bb.arrayOffset(), payloadLengths[IDX_LOSS_STATS], null, 0);
     }
 
     @Override
-    public void sendInputPacket(byte[] data, int offset, int length) throws IOException {
-        sendPacket(packetTypes[IDX_INPUT_DATA], data, offset, length);
+    public boolean sendInputPacket(byte[] data, int offset, int length, long inputTime) throws IOException {
+        // Drop the input rather than failing the connection when the input comes in a burst.
+        return sendPacket(packetTypes[IDX_INPUT_DATA], data, offset, length, null, inputTime);
     }
 
     public void abort() {
@@ -348,32 +576,27 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
             }
         }
 
+        // Stop the I/O thread before closing the ENet connection it uses.
+        Util.stop(ioThread);
+
         if (enetConnection != null) {
             enetConnection.close();
         }
     }
 
     public void start() throws IOException {
-        // Use a finite timeout during the handshake process
-        if (s != null) {
-            s.setSoTimeout(CONTROL_TIMEOUT);
-        }
-
         doStartA();
         doStartB();
 
-        // Return to an infinite read timeout after the initial control handshake
-        if (s != null) {
-            s.setSoTimeout(0);
-        }
-
         final ByteBuffer lossStatsBuf = ByteBuffer.allocate(payloadLengths[IDX_LOSS_STATS])
                                                   .order(ByteOrder.LITTLE_ENDIAN);
         lossStatsFuture = Util.scheduleAtFixedDelay(() -> {
             boolean success = false;
             try {
-                sendLossStats(lossStatsBuf);
-                lossCountSinceLastReport = 0;
+                // Report the losses with the next report if too many packets are queued.
+                if (sendLossStats(lossStatsBuf)) {
+                    lossCountSinceLastReport = 0;
+                }
                 success = true;
             } catch (IOException ignored) {
             } finally {
@@ -385,9 +608,9 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
     }
 
     private void doStartA() throws IOException {
-        sendAndDiscardReply(packetTypes[IDX_START_A],
-                            preconstructedPayloads[IDX_START_A], 0,
-                            preconstructedPayloads[IDX_START_A].length);
+        awaitReply(sendPacketWithReply(packetTypes[IDX_START_A],
+                                       preconstructedPayloads[IDX_START_A], 0,
+                                       preconstructedPayloads[IDX_START_A].length));
     }
 
     private void doStartB() throws IOException {
@@ -401,20 +624,22 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
             payload.putInt(0);
             payload.putInt(0xa);
 
-            sendAndDiscardReply(packetTypes[IDX_START_B],
-                                payload.array(), 0, payloadLengths[IDX_START_B]);
+            awaitReply(sendPacketWithReply(packetTypes[IDX_START_B],
+                                           payload.array(), 0, payloadLengths[IDX_START_B]));
         } else {
-            sendAndDiscardReply(packetTypes[IDX_START_B],
-                                preconstructedPayloads[IDX_START_B], 0,
-                                preconstructedPayloads[IDX_START_B].length);
+            awaitReply(sendPacketWithReply(packetTypes[IDX_START_B],
+                                           preconstructedPayloads[IDX_START_B], 0,
+                                           preconstructedPayloads[IDX_START_B].length));
         }
     }
 
-    private void requestIdrFrame() throws IOException {
+    private CompletableFuture<Void> requestIdrFrame() throws IOException {
         // On Gen 3, we use the invalidate reference frames trick.
         // On Gen 4+, we use the known IDR frame request packet
         // On Gen 5, we're currently using the invalidate reference frames trick again.
 
+        CompletableFuture<Void> reply;
+
         if (context.serverGeneration >= ConnectionContext.SERVER_GENERATION_5) {
             ByteBuffer conf = ByteBuffer.wrap(new byte[payloadLengths[IDX_INVALIDATE_REF_FRAMES]]).order(
                     ByteOrder.LITTLE_ENDIAN);
@@ -435,19 +660,21 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
             }
             conf.putLong(0);
 
-            sendAndDiscardReply(packetTypes[IDX_INVALIDATE_REF_FRAMES],
-                                conf.array(), conf.arrayOffset(),
-                                payloadLengths[IDX_INVALIDATE_REF_FRAMES]);
+            reply = sendPacketWithReply(packetTypes[IDX_INVALIDATE_REF_FRAMES],
+                                        conf.array(), conf.arrayOffset(),
+                                        payloadLengths[IDX_INVALIDATE_REF_FRAMES]);
         } else {
-            sendAndDiscardReply(packetTypes[IDX_REQUEST_IDR_FRAME],
-                                preconstructedPayloads[IDX_REQUEST_IDR_FRAME], 0,
-                                preconstructedPayloads[IDX_REQUEST_IDR_FRAME].length);
+            reply = sendPacketWithReply(packetTypes[IDX_REQUEST_IDR_FRAME],
+                                        preconstructedPayloads[IDX_REQUEST_IDR_FRAME], 0,
+                                        preconstructedPayloads[IDX_REQUEST_IDR_FRAME].length);
         }
 
         logger.warn("IDR frame request sent");
+        return reply;
     }
 
-    private void invalidateReferenceFrames(int firstLostFrame, int nextSuccessfulFrame) throws IOException {
+    private CompletableFuture<Void> invalidateReferenceFrames(
+            int firstLostFrame, int nextSuccessfulFrame) throws IOException {
         logger.warn("Invalidating reference frames from " + firstLostFrame + " to " + nextSuccessfulFrame);
 
         ByteBuffer conf = ByteBuffer.wrap(new byte[payloadLengths[IDX_INVALIDATE_REF_FRAMES]]).order(
@@ -457,11 +684,12 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
         conf.putLong(nextSuccessfulFrame);
         conf.putLong(0);
 
-        sendAndDiscardReply(packetTypes[IDX_INVALIDATE_REF_FRAMES],
-                            conf.array(), conf.arrayOffset(),
-                            payloadLengths[IDX_INVALIDATE_REF_FRAMES]);
+        CompletableFuture<Void> reply = sendPacketWithReply(packetTypes[IDX_INVALIDATE_REF_FRAMES],
+                                                            conf.array(), conf.arrayOffset(),
+                                                            payloadLengths[IDX_INVALIDATE_REF_FRAMES]);
 
         logger.warn("Reference frame invalidation sent");
+        return reply;
     }
 
     private void resyncConnection(int firstLostFrame, int nextSuccessfulFrame) {
@@ -472,6 +700,7 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
     @Override
     public void connectionDetectedFrameLoss(int firstLostFrame, int nextSuccessfulFrame) {
         resyncConnection(firstLostFrame, nextSuccessfulFrame);
+        frameLosses.increment();
 
         // Suppress connection warnings for the first 150 frames to allow the connection
         // to stabilize
@@ -508,6 +737,7 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
     @Override
     public void connectionSinkTooSlow(int firstLostFrame, int nextSuccessfulFrame) {
         resyncConnection(firstLostFrame, nextSuccessfulFrame);
+        sinkTooSlow.increment();
 
         // Suppress connection warnings for the first 150 frames to allow the connection
         // to stabilize
@@ -525,6 +755,7 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
     @Override
     public void connectionReceivedCompleteFrame(int frameIndex) {
         lastGoodFrame = frameIndex;
+        completeFrames.increment();
     }
 
     @Override
@@ -535,6 +766,18 @@ public class ControlStream implements ConnectionStatusListener, InputPacketSende
     @Override
     public void connectionLostPackets(int lastReceivedPacket, int nextReceivedPacket) {
         // Update the loss count for the next loss report
-        lossCountSinceLastReport += nextReceivedPacket - lastReceivedPacket - 1;
+        int lostPackets = nextReceivedPacket - lastReceivedPacket - 1;
+        lossCountSinceLastReport += lostPackets;
+        if (lostPackets > 0) {
+            this.lostPackets.add(lostPackets);
+        }
+    }
+
+    private static final class OutboundPacket {
+        final byte[] data = new byte[MAX_PACKET_SIZE];
+        int length;
+        CompletableFuture<Void> reply;
+        long sendTime;
+        long inputTime;
     }
 }
@@ -4,5 +4,12 @@ import java.io.IOException;
 
 @FunctionalInterface
 public interface InputPacketSender {
-    void sendInputPacket(byte[] data, int offset, int length) throws IOException;
+    /**
+     * Sends an input packet.
+     *
+     * @param inputTime the {@link System#nanoTime()} when the controller state in the packet was read,
+     *                  or {@code 0} if the packet has no controller state
+     * @return {@code false} if the packet has been dropped because too many packets are queued
+     */
+    boolean sendInputPacket(byte[] data, int offset, int length, long inputTime) throws IOException;
 }
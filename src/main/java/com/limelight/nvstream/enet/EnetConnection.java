@@ -46,6 +46,18 @@ public final class EnetConnection implements Closeable {
         }
     }
 
+    /**
+     * Services the connection for up to the specified timeout and returns the length of the packet received
+     * meanwhile, discarding its content, or {@code 0} if no packet has been received.
+     */
+    public int pollPacket(int timeout) throws IOException {
+        int ret = readPacket(enetClient, null, 0, timeout);
+        if (ret < 0) {
+            throw new IOException("ENet connection failed");
+        }
+        return ret;
+    }
+
     public ByteBuffer readPacket(int maxSize, int timeout) throws IOException {
         ByteBuffer buffer;
         byte[] array;
@@ -14,6 +14,7 @@ import java.security.PrivateKey;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -24,6 +25,9 @@ import java.util.Map.Entry;
 import java.util.Scanner;
 import java.util.Stack;
 import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -31,6 +35,7 @@ import java.util.stream.Collectors;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509KeyManager;
 import javax.net.ssl.X509TrustManager;
@@ -42,6 +47,7 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 import com.limelight.nvstream.ConnectionContext;
+import com.limelight.nvstream.Util;
 import com.limelight.nvstream.http.PairingManager.PairState;
 import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.OkHttpClient;
@@ -62,65 +68,36 @@ public class NvHTTP {
     public static final int CONNECTION_TIMEOUT = 3000;
     public static final int READ_TIMEOUT = 5000;
 
-    public String baseUrlHttps;
-    public String baseUrlHttp;
-
-    private final OkHttpClient httpClient = new OkHttpClient();
-    private OkHttpClient httpClientWithReadTimeout;
-
-    private TrustManager[] trustAllCerts;
-    private KeyManager[] ourKeyman;
-
-    private void initializeHttpState(final CryptoProvider cryptoProvider) {
-        trustAllCerts = new TrustManager[] {
-                new X509TrustManager() {
-                    @Override
-                    public X509Certificate[] getAcceptedIssuers() {
-                        return new X509Certificate[0];
-                    }
-
-                    @Override
-                    public void checkClientTrusted(X509Certificate[] certs, String authType) {}
+    // How long the responses which change rarely are reused
+    private static final long SERVER_INFO_TTL_MILLIS = 5000;
+    private static final long APP_LIST_TTL_MILLIS = 60000;
 
-                    @Override
-                    public void checkServerTrusted(X509Certificate[] certs, String authType) {}
-                }
-        };
+    // Keep the connections to the server alive between the requests and across the instances,
+    // so that only the first request pays for the TCP and TLS handshakes.
+    private static final ConnectionPool connectionPool = new ConnectionPool(4, 300000);
 
-        ourKeyman = new KeyManager[] {
-                new X509KeyManager() {
-                    @Override
-                    public String chooseClientAlias(String[] keyTypes,
-                                                    Principal[] issuers,
-                                                    Socket socket) { return "Limelight-RSA"; }
+    // Ignore differences between given hostname and certificate hostname.
+    // NB: A pooled connection is reused only for the same verifier and socket factory.
+    private static final HostnameVerifier hostnameVerifier = (hostname, session) -> true;
+    // The socket factory of each CryptoProvider, dropped with the provider. A factory refers to
+    // the certificate and the key rather than the provider, so that it doesn't keep the provider alive.
+    private static final Map<CryptoProvider, SSLSocketFactory> sslSocketFactories =
+            Collections.synchronizedMap(new WeakHashMap<>());
 
-                    @Override
-                    public String chooseServerAlias(String keyType, Principal[] issuers,
-                                                    Socket socket) { return null; }
+    private static final ConcurrentMap<String, CachedResponse> responseCache = new ConcurrentHashMap<>();
 
-                    @Override
-                    public X509Certificate[] getCertificateChain(String alias) {
-                        return new X509Certificate[] { cryptoProvider.getClientCertificate() };
-                    }
-
-                    @Override
-                    public String[] getClientAliases(String keyType, Principal[] issuers) { return null; }
-
-                    @Override
-                    public PrivateKey getPrivateKey(String alias) {
-                        return cryptoProvider.getClientPrivateKey();
-                    }
-
-                    @Override
-                    public String[] getServerAliases(String keyType, Principal[] issuers) { return null; }
-                }
-        };
+    public String baseUrlHttps;
+    public String baseUrlHttp;
 
-        // Ignore differences between given hostname and certificate hostname
-        HostnameVerifier hv = (hostname, session) -> true;
+    private final OkHttpClient httpClient = new OkHttpClient();
+    private OkHttpClient httpClientWithReadTimeout;
+    private final String cacheKeyPrefix;
 
-        httpClient.setConnectionPool(new ConnectionPool(0, 60000));
-        httpClient.setHostnameVerifier(hv);
+    private void initializeHttpState(CryptoProvider cryptoProvider) {
+        httpClient.setConnectionPool(connectionPool);
+        httpClient.setHostnameVerifier(hostnameVerifier);
+        httpClient.setSslSocketFactory(sslSocketFactories.computeIfAbsent(
+                cryptoProvider, NvHTTP::newSslSocketFactory));
         httpClient.setConnectTimeout(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
         httpClient.setReadTimeout(5, TimeUnit.MINUTES);
 
@@ -145,6 +122,7 @@ public class NvHTTP {
 
         baseUrlHttps = "https://" + safeAddress + ':' + HTTPS_PORT;
         baseUrlHttp = "http://" + safeAddress + ':' + HTTP_PORT;
+        cacheKeyPrefix = safeAddress + '/' + uniqueId + '/';
         pm = new PairingManager(this, cryptoProvider);
     }
 
@@ -200,8 +178,15 @@ public class NvHTTP {
         }
     }
 
+    /**
+     * Returns the response of {@code /serverinfo}, which may have been cached for
+     * {@value #SERVER_INFO_TTL_MILLIS} milliseconds unless the state of the server was changed by this client.
+     */
     public String getServerInfo() throws IOException, XmlPullParserException {
-        String resp;
+        String resp = getCachedResponse("serverinfo");
+        if (resp != null) {
+            return resp;
+        }
 
         //
         // TODO: Shield Hub uses HTTP for this and is able to get an accurate PairStatus with HTTP.
@@ -218,15 +203,37 @@ public class NvHTTP {
         } catch (GfeHttpResponseException e) {
             if (e.getErrorCode() == 401) {
                 // Cert validation error - fall back to HTTP
-                return openHttpConnectionToString(baseUrlHttp + "/serverinfo", true);
+                resp = openHttpConnectionToString(baseUrlHttp + "/serverinfo", true);
+            } else {
+                // If it's not a cert validation error, throw it
+                throw e;
             }
-
-            // If it's not a cert validation error, throw it
-            throw e;
         }
+
+        cacheResponse("serverinfo", resp, SERVER_INFO_TTL_MILLIS);
         return resp;
     }
 
+    private String getCachedResponse(String name) {
+        CachedResponse cached = responseCache.get(cacheKeyPrefix + name);
+        if (cached == null || Util.monotonicMillis() - cached.expiryTime >= 0) {
+            return null;
+        }
+        return cached.content;
+    }
+
+    private void cacheResponse(String name, String content, long ttlMillis) {
+        responseCache.put(cacheKeyPrefix + name,
+                          new CachedResponse(content, Util.monotonicMillis() + ttlMillis));
+    }
+
+    /**
+     * Forgets the cached responses from this server, e.g. when a request of this client changed its state.
+     */
+    public void invalidateCache() {
+        responseCache.keySet().removeIf(key -> key.startsWith(cacheKeyPrefix));
+    }
+
     public ComputerDetails getComputerDetails()
             throws IOException, XmlPullParserException {
         ComputerDetails details = new ComputerDetails();
@@ -270,18 +277,63 @@ public class NvHTTP {
         return details;
     }
 
-    // This hack is Android-specific but we do it on all platforms
-    // because it doesn't really matter
-    private void performAndroidTlsHack(OkHttpClient client) {
-        // Doing this each time we create a socket is required
-        // to avoid the SSLv3 fallback that causes connection failures
+    // Create the SSL context once per client certificate rather than for each request, so that the pooled
+    // connections can be reused and a new connection can resume the TLS session of an earlier one.
+    // TLSv1 is still requested explicitly to avoid the SSLv3 fallback that causes connection failures.
+    private static SSLSocketFactory newSslSocketFactory(CryptoProvider cryptoProvider) {
+        X509Certificate clientCertificate = cryptoProvider.getClientCertificate();
+        PrivateKey clientPrivateKey = cryptoProvider.getClientPrivateKey();
+
+        TrustManager[] trustAllCerts = {
+                new X509TrustManager() {
+                    @Override
+                    public X509Certificate[] getAcceptedIssuers() {
+                        return new X509Certificate[0];
+                    }
+
+                    @Override
+                    public void checkClientTrusted(X509Certificate[] certs, String authType) {}
+
+                    @Override
+                    public void checkServerTrusted(X509Certificate[] certs, String authType) {}
+                }
+        };
+
+        KeyManager[] ourKeyman = {
+                new X509KeyManager() {
+                    @Override
+                    public String chooseClientAlias(String[] keyTypes,
+                                                    Principal[] issuers,
+                                                    Socket socket) { return "Limelight-RSA"; }
+
+                    @Override
+                    public String chooseServerAlias(String keyType, Principal[] issuers,
+                                                    Socket socket) { return null; }
+
+                    @Override
+                    public X509Certificate[] getCertificateChain(String alias) {
+                        return new X509Certificate[] { clientCertificate };
+                    }
+
+                    @Override
+                    public String[] getClientAliases(String keyType, Principal[] issuers) { return null; }
+
+                    @Override
+                    public PrivateKey getPrivateKey(String alias) {
+                        return clientPrivateKey;
+                    }
+
+                    @Override
+                    public String[] getServerAliases(String keyType, Principal[] issuers) { return null; }
+                }
+        };
+
         try {
             SSLContext sc = SSLContext.getInstance("TLSv1");
             sc.init(ourKeyman, trustAllCerts, new SecureRandom());
-
-            client.setSslSocketFactory(sc.getSocketFactory());
+            return sc.getSocketFactory();
         } catch (Exception e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Failed to initialize the SSL context", e);
         }
     }
 
@@ -294,10 +346,8 @@ public class NvHTTP {
         Response response;
 
         if (enableReadTimeout) {
-            performAndroidTlsHack(httpClientWithReadTimeout);
             response = httpClientWithReadTimeout.newCall(request).execute();
         } else {
-            performAndroidTlsHack(httpClient);
             response = httpClient.newCall(request).execute();
         }
 
@@ -495,7 +545,11 @@ public class NvHTTP {
     }
 
     public PairingManager.PairState pair(String serverInfo, String pin) throws Exception {
-        return pm.pair(serverInfo, pin);
+        try {
+            return pm.pair(serverInfo, pin);
+        } finally {
+            invalidateCache();
+        }
     }
 
     public static List<NvApp> getAppListByReader(Reader r) throws XmlPullParserException, IOException {
@@ -564,14 +618,28 @@ public class NvHTTP {
         return openHttpConnectionToString(baseUrlHttps + "/applist?" + buildUniqueIdUuidString(), true);
     }
 
+    /**
+     * Returns the apps in {@code /applist}, which may have been cached for
+     * {@value #APP_LIST_TTL_MILLIS} milliseconds unless the state of the server was changed by this client.
+     */
     public List<NvApp> getAppList() throws IOException, XmlPullParserException {
-        try (ResponseBody resp = openHttpConnection(baseUrlHttps + "/applist?" + buildUniqueIdUuidString(), true)) {
-            return getAppListByReader(new InputStreamReader(resp.byteStream()));
+        String resp = getCachedResponse("applist");
+        if (resp != null) {
+            return getAppListByReader(new StringReader(resp));
         }
+
+        resp = getAppListRaw();
+        List<NvApp> appList = getAppListByReader(new StringReader(resp));
+        cacheResponse("applist", resp, APP_LIST_TTL_MILLIS);
+        return appList;
     }
 
     public void unpair() throws IOException {
-        openHttpConnectionToString(baseUrlHttps + "/unpair?" + buildUniqueIdUuidString(), true);
+        try {
+            openHttpConnectionToString(baseUrlHttps + "/unpair?" + buildUniqueIdUuidString(), true);
+        } finally {
+            invalidateCache();
+        }
     }
 
     public InputStream getBoxArt(NvApp app) throws IOException {
@@ -625,6 +693,8 @@ public class NvHTTP {
     }
 
     public boolean launchApp(ConnectionContext context, int appId) throws IOException, XmlPullParserException {
+        // The running game changes.
+        invalidateCache();
         String xmlStr = openHttpConnectionToString(baseUrlHttps +
                                                    "/launch?" + buildUniqueIdUuidString() +
                                                    "&appid=" + appId +
@@ -645,6 +715,8 @@ public class NvHTTP {
     }
 
     public boolean resumeApp(ConnectionContext context) throws IOException, XmlPullParserException {
+        // The current client changes.
+        invalidateCache();
         String xmlStr = openHttpConnectionToString(baseUrlHttps + "/resume?" + buildUniqueIdUuidString() +
                                                    "&rikey=" + bytesToHex(context.riKey.getEncoded()) +
                                                    "&rikeyid=" + context.riKeyId, false);
@@ -661,9 +733,21 @@ public class NvHTTP {
             throw new GfeHttpResponseException(599, "");
         }
 
+        // The running game changes.
+        invalidateCache();
         String xmlStr = openHttpConnectionToString(baseUrlHttps + "/cancel?" + buildUniqueIdUuidString(),
                                                    false);
         String cancel = getXmlString(xmlStr, "cancel");
         return Integer.parseInt(cancel) != 0;
     }
+
+    private static final class CachedResponse {
+        final String content;
+        final long expiryTime;
+
+        CachedResponse(String content, long expiryTime) {
+            this.content = content;
+            this.expiryTime = expiryTime;
+        }
+    }
 }
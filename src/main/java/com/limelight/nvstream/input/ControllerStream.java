@@ -8,12 +8,9 @@ import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
-import java.util.Iterator;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,9 +20,11 @@ import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.Util;
 import com.limelight.nvstream.control.InputPacketSender;
 import com.limelight.nvstream.input.cipher.AesCbcInputCipher;
-import com.limelight.nvstream.input.cipher.AesGcmInputCipher;
-import com.limelight.nvstream.input.cipher.FastAesGcmInputCipher;
 import com.limelight.nvstream.input.cipher.InputCipher;
+import com.limelight.nvstream.input.cipher.ReusableAesGcmInputCipher;
+import com.limelight.nvstream.metrics.Counter;
+import com.limelight.nvstream.metrics.LatencyHistogram;
+import com.limelight.nvstream.metrics.MetricRegistry;
 
 public class ControllerStream {
 
@@ -35,6 +34,20 @@ public class ControllerStream {
 
     private static final int CONTROLLER_TIMEOUT = 10000;
 
+    /**
+     * The maximum number of controllers, which is the number of the joysticks GLFW supports.
+     */
+    private static final int MAX_CONTROLLERS = 16;
+
+    // The number of the events the input thread can lag behind before they are dropped
+    private static final int EVENT_RING_CAPACITY = 1024;
+
+    private static final byte EVENT_MOUSE_MOVE = 1;
+    private static final byte EVENT_MOUSE_BUTTON = 2;
+    private static final byte EVENT_MOUSE_SCROLL = 3;
+    private static final byte EVENT_KEYBOARD = 4;
+    private static final byte EVENT_CONTROLLER = 5;
+
     private final NvConnection parent;
     private final ConnectionContext context;
 
@@ -47,30 +60,43 @@ public class ControllerStream {
 
     private final InputCipher cipher;
 
-    private Thread inputThread;
-    private final BlockingQueue<InputPacket> inputQueue = new ArrayBlockingQueue<>(128);
-    private final byte[] gamepadAxisDirs = new byte[6];
-    private final AtomicInteger droppedPackets = new AtomicInteger();
+    private volatile Thread inputThread;
+    private final InputEventRing eventRing = new InputEventRing(EVENT_RING_CAPACITY);
+    private final Counter droppedPackets = MetricRegistry.global().counter(
+            "input_dropped_packets_total", "The number of input packets dropped because the queue was full");
+    private final LatencyHistogram controllerInputLatency = MetricRegistry.global().histogram(
+            "controller_input_latency", "The time taken from reading a controller state to writing it out");
+    // The value of the global counter when the last warning was logged, so that a warning does not count
+    // the drops of the previous connections
+    private long lastDroppedPackets;
     private ScheduledFuture<?> droppedPacketWarningFuture;
 
     private final ByteBuffer stagingBuffer = ByteBuffer.allocate(128);
     private final ByteBuffer sendBuffer = ByteBuffer.allocate(128);
 
+    // The packets the input thread fills and sends, so that no packet is allocated per event
+    private final MouseMovePacket mouseMovePacket = new MouseMovePacket((short) 0, (short) 0);
+    private final MouseButtonPacket mouseButtonPacket;
+    private final MouseScrollPacket mouseScrollPacket = new MouseScrollPacket((byte) 0);
+    private final KeyboardPacket keyboardPacket = new KeyboardPacket((short) 0, (byte) 0, (byte) 0);
+    private final MultiControllerPacket[] controllerPackets = new MultiControllerPacket[MAX_CONTROLLERS];
+
+    // The mouse movement and the controller states which have been coalesced but not sent yet
+    private int pendingMouseDeltaX;
+    private int pendingMouseDeltaY;
+    private int pendingControllers;
+    // The time when the oldest state coalesced into each pending controller state was read
+    private final long[] pendingControllerTimes = new long[MAX_CONTROLLERS];
+    private final byte[][] controllerAxisDirs = new byte[MAX_CONTROLLERS][6];
+
     public ControllerStream(NvConnection parent, ConnectionContext context) {
         this.parent = parent;
         this.context = context;
+        lastDroppedPackets = droppedPackets.value();
 
         if (context.serverGeneration >= ConnectionContext.SERVER_GENERATION_7) {
             // Newer GFE versions use AES GCM
-            InputCipher cipher;
-            try {
-                cipher = new FastAesGcmInputCipher();
-                logger.info("Using fast-path AES/GCM cipher");
-            } catch (Throwable t) {
-                logger.warn("Using slow-path AES/GCM cipher", t);
-                cipher = new AesGcmInputCipher();
-            }
-            this.cipher = cipher;
+            cipher = new ReusableAesGcmInputCipher();
         } else {
             // Older versions used AES CBC
             cipher = new AesCbcInputCipher();
@@ -79,6 +105,19 @@ public class ControllerStream {
         ByteBuffer bb = ByteBuffer.allocate(16);
         bb.putInt(context.riKeyId);
         cipher.initialize(context.riKey, bb.array(), 0, bb.capacity());
+
+        mouseButtonPacket = new MouseButtonPacket(context, false, (byte) 0);
+        for (short i = 0; i < MAX_CONTROLLERS; i++) {
+            if (context.serverGeneration == ConnectionContext.SERVER_GENERATION_3) {
+                // Use legacy controller packets for generation 3
+                controllerPackets[i] = new ControllerPacket((short) 0, (byte) 0, (byte) 0,
+                                                            (short) 0, (short) 0, (short) 0, (short) 0);
+            } else {
+                // Use multi-controller packets for generation 4 and above
+                controllerPackets[i] = new MultiControllerPacket(i, (short) 0, (byte) 0, (byte) 0,
+                                                                 (short) 0, (short) 0, (short) 0, (short) 0);
+            }
+        }
     }
 
     public void initialize(InputPacketSender controlSender) throws IOException {
@@ -95,35 +134,17 @@ public class ControllerStream {
     }
 
     public void start() {
-        inputThread = new Thread(() -> {
+        final Thread inputThread = new Thread(() -> {
             try {
                 // Move the mouse cursor very slightly to wake the screen up for gamepad-only scenarios.
-                sendPacket(new MouseMovePacket((short) 1, (short) 1));
-                sendPacket(new MouseMovePacket((short) -1, (short) -1));
+                sendMouseMovePacket(1, 1);
+                sendMouseMovePacket(-1, -1);
 
                 while (!Thread.currentThread().isInterrupted()) {
-                    final InputPacket packet = inputQueue.take();
-                    final int remainingPackets = inputQueue.size();
-
-                    if (remainingPackets != 0) {
-                        // Try to batch mouse move packets
-                        if (packet instanceof MouseMovePacket) {
-                            batchAndSendMouseMovePackets((MouseMovePacket) packet, remainingPackets);
-                            continue;
-                        }
-
-                        // Try to batch axis changes on controller packets too
-                        if (packet instanceof MultiControllerPacket) {
-                            batchAndSendControllerPackets((MultiControllerPacket) packet, remainingPackets);
-                            continue;
-                        }
+                    if (!sendQueuedEvents()) {
+                        LockSupport.park(this);
                     }
-
-                    // Send any other packet as-is
-                    sendPacket(packet);
                 }
-            } catch (InterruptedException e) {
-                // Interrupted
             } catch (IOException e) {
                 logger.warn("Failed to send a packet:", e);
             } finally {
@@ -132,77 +153,144 @@ public class ControllerStream {
         });
         inputThread.setName("Input - Queue");
         inputThread.setPriority(Thread.NORM_PRIORITY + 1);
+        this.inputThread = inputThread;
         inputThread.start();
 
         droppedPacketWarningFuture = Util.scheduleAtFixedDelay(() -> {
-            final int droppedPackets = this.droppedPackets.getAndSet(0);
-            if (droppedPackets != 0) {
-                logger.warn("Dropped {} input packets", this.droppedPackets);
+            final long droppedPackets = this.droppedPackets.value();
+            if (droppedPackets != lastDroppedPackets) {
+                logger.warn("Dropped {} input packets", droppedPackets - lastDroppedPackets);
+                lastDroppedPackets = droppedPackets;
             }
         }, 1, 1, TimeUnit.SECONDS);
     }
 
-    private void batchAndSendMouseMovePackets(
-            MouseMovePacket packet, int maxNumPackets) throws IOException {
+    /**
+     * Sends the events in the ring. The mouse movements are accumulated until a mouse button, wheel or
+     * keyboard event, which are sent in order, and the controller states are coalesced into the latest
+     * state of each controller.
+     *
+     * @return {@code false} if there was no event to send
+     */
+    private boolean sendQueuedEvents() throws IOException {
+        int slot = eventRing.peek();
+        if (slot < 0) {
+            return false;
+        }
 
-        int totalDeltaX = packet.deltaX;
-        int totalDeltaY = packet.deltaY;
+        // Flush the coalesced events at least once per ring capacity, even if the events keep coming.
+        for (int i = 0; slot >= 0 && i < EVENT_RING_CAPACITY; i++) {
+            final byte type = eventRing.type(slot);
+            final long arg0 = eventRing.arg0(slot);
+            final long arg1 = eventRing.arg1(slot);
+            final long timestamp = eventRing.timestamp(slot);
+            eventRing.remove(slot);
+
+            switch (type) {
+                case EVENT_MOUSE_MOVE:
+                    pendingMouseDeltaX += (int) arg0;
+                    pendingMouseDeltaY += (int) arg1;
+                    break;
+                case EVENT_CONTROLLER:
+                    coalesceControllerState(arg0, arg1, timestamp);
+                    break;
+                case EVENT_MOUSE_BUTTON:
+                    flushMouseMove();
+                    mouseButtonPacket.buttonDown = arg0 != 0;
+                    mouseButtonPacket.mouseButton = (byte) arg1;
+                    sendPacket(mouseButtonPacket);
+                    break;
+                case EVENT_MOUSE_SCROLL:
+                    flushMouseMove();
+                    mouseScrollPacket.scrollClicks = (byte) arg0;
+                    sendPacket(mouseScrollPacket);
+                    break;
+                case EVENT_KEYBOARD:
+                    flushMouseMove();
+                    keyboardPacket.keyCode = (short) arg0;
+                    keyboardPacket.keyDirection = (byte) (arg0 >>> 16);
+                    keyboardPacket.modifier = (byte) (arg0 >>> 24);
+                    sendPacket(keyboardPacket);
+                    break;
+                default:
+                    throw panic("Unknown input event type: " + type);
+            }
 
-        // Combine the deltas with other mouse move packets in the queue
-        final Iterator<InputPacket> it = inputQueue.iterator();
-        for (int i = 0; i < maxNumPackets; i++) {
-            final InputPacket queuedPacket = it.next();
-            if (queuedPacket instanceof MouseMovePacket) {
-                final MouseMovePacket queuedMouseMove = (MouseMovePacket) queuedPacket;
+            slot = eventRing.peek();
+        }
 
-                // Add this packet's deltas to the running total
-                totalDeltaX += queuedMouseMove.deltaX;
-                totalDeltaY += queuedMouseMove.deltaY;
+        flushMouseMove();
+        flushControllerStates();
+        return true;
+    }
 
-                // Remove this packet from the queue
-                it.remove();
-            }
-        }
+    private void flushMouseMove() throws IOException {
+        int totalDeltaX = pendingMouseDeltaX;
+        int totalDeltaY = pendingMouseDeltaY;
+        pendingMouseDeltaX = 0;
+        pendingMouseDeltaY = 0;
 
         // Total deltas could overflow the short so we must split them if required
-        do {
-            short partialDeltaX = (short) (totalDeltaX < 0 ?
-                                           Math.max(Short.MIN_VALUE, totalDeltaX) :
-                                           Math.min(Short.MAX_VALUE, totalDeltaX));
-            short partialDeltaY = (short) (totalDeltaY < 0 ?
-                                           Math.max(Short.MIN_VALUE, totalDeltaY) :
-                                           Math.min(Short.MAX_VALUE, totalDeltaY));
+        while (totalDeltaX != 0 || totalDeltaY != 0) {
+            final short partialDeltaX = (short) (totalDeltaX < 0 ?
+                                                 Math.max(Short.MIN_VALUE, totalDeltaX) :
+                                                 Math.min(Short.MAX_VALUE, totalDeltaX));
+            final short partialDeltaY = (short) (totalDeltaY < 0 ?
+                                                 Math.max(Short.MIN_VALUE, totalDeltaY) :
+                                                 Math.min(Short.MAX_VALUE, totalDeltaY));
 
-            packet.deltaX = partialDeltaX;
-            packet.deltaY = partialDeltaY;
-
-            sendPacket(packet);
+            sendMouseMovePacket(partialDeltaX, partialDeltaY);
 
             totalDeltaX -= partialDeltaX;
             totalDeltaY -= partialDeltaY;
-        } while (totalDeltaX != 0 && totalDeltaY != 0);
+        }
     }
 
-    private void batchAndSendControllerPackets(
-            MultiControllerPacket packet, int maxNumPackets) throws IOException {
-
-        Arrays.fill(gamepadAxisDirs, (byte) 0);
-        final Iterator<InputPacket> it = inputQueue.iterator();
-        for (int i = 0; i < maxNumPackets; i++) {
-            final InputPacket queuedPacket = it.next();
+    private void sendMouseMovePacket(int deltaX, int deltaY) throws IOException {
+        mouseMovePacket.deltaX = (short) deltaX;
+        mouseMovePacket.deltaY = (short) deltaY;
+        sendPacket(mouseMovePacket);
+    }
 
-            if (queuedPacket instanceof MultiControllerPacket) {
-                if (packet.merge((MultiControllerPacket) queuedPacket, gamepadAxisDirs)) {
-                    // Batching was successful, so remove this packet
-                    it.remove();
-                } else {
-                    // Unable to batch so we must stop
-                    break;
-                }
+    private void coalesceControllerState(long arg0, long arg1, long timestamp) throws IOException {
+        final int controllerNumber = (int) arg0 & 0xFFFF;
+        final short buttonFlags = (short) (arg0 >>> 16);
+        final byte leftTrigger = (byte) (arg0 >>> 32);
+        final byte rightTrigger = (byte) (arg0 >>> 40);
+        final short leftStickX = (short) arg1;
+        final short leftStickY = (short) (arg1 >>> 16);
+        final short rightStickX = (short) (arg1 >>> 32);
+        final short rightStickY = (short) (arg1 >>> 48);
+
+        final MultiControllerPacket packet = controllerPackets[controllerNumber];
+        final byte[] axisDirs = controllerAxisDirs[controllerNumber];
+        final int mask = 1 << controllerNumber;
+        if ((pendingControllers & mask) != 0) {
+            if (packet.merge(buttonFlags, leftTrigger, rightTrigger,
+                             leftStickX, leftStickY, rightStickX, rightStickY, axisDirs)) {
+                return;
             }
+
+            // Unable to merge, so the pending state must be seen by the server first.
+            sendControllerPacket(controllerNumber);
         }
 
-        sendPacket(packet);
+        packet.set(buttonFlags, leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
+        Arrays.fill(axisDirs, (byte) 0);
+        pendingControllers |= mask;
+        pendingControllerTimes[controllerNumber] = timestamp;
+    }
+
+    private void flushControllerStates() throws IOException {
+        while (pendingControllers != 0) {
+            final int controllerNumber = Integer.numberOfTrailingZeros(pendingControllers);
+            pendingControllers &= pendingControllers - 1;
+            sendControllerPacket(controllerNumber);
+        }
+    }
+
+    private void sendControllerPacket(int controllerNumber) throws IOException {
+        sendPacket(controllerPackets[controllerNumber], pendingControllerTimes[controllerNumber]);
     }
 
     public void abort() {
@@ -223,6 +311,17 @@ public class ControllerStream {
     }
 
     private void sendPacket(InputPacket packet) throws IOException {
+        sendPacket(packet, 0);
+    }
+
+    /**
+     * Sends a packet and records the {@code controller_input_latency} once the packet has been written out,
+     * which is done by the I/O thread of the control stream on Gen 5+.
+     *
+     * @param inputTime the {@link System#nanoTime()} when the controller state in the packet was read,
+     *                  or {@code 0} if the packet has no controller state
+     */
+    private void sendPacket(InputPacket packet, long inputTime) throws IOException {
         // Store the packet in wire form in the byte buffer
         packet.toWire(context, stagingBuffer);
         int packetLen = packet.packetLength();
@@ -243,8 +342,12 @@ public class ControllerStream {
 
         // Send the packet over the control stream on Gen 5+
         if (context.serverGeneration >= ConnectionContext.SERVER_GENERATION_5) {
-            controlSender.sendInputPacket(
-                    sendBuffer.array(), sendBuffer.arrayOffset(), paddedLength + 4);
+            if (!controlSender.sendInputPacket(
+                    sendBuffer.array(), sendBuffer.arrayOffset(), paddedLength + 4, inputTime)) {
+                // The server has not seen the packet, so keep the IV of the last packet it has seen.
+                droppedPackets.increment();
+                return;
+            }
 
             // For reasons that I can't understand, NVIDIA decides to use the last 16
             // bytes of ciphertext in the most recent game controller packet as the IV for
@@ -257,48 +360,70 @@ public class ControllerStream {
             // Send the packet over the TCP connection on Gen 4 and below
             out.write(sendBuffer.array(), 0, paddedLength + 4);
             out.flush();
+            if (inputTime != 0) {
+                controllerInputLatency.record(System.nanoTime() - inputTime);
+            }
         }
     }
 
-    private void queuePacket(InputPacket packet) {
-        // NB: Use offer() rather than add() so we do not block.
-        if (!inputQueue.offer(packet)) {
-            droppedPackets.incrementAndGet();
+    private void queueEvent(byte type, long arg0, long arg1) {
+        queueEvent(type, arg0, arg1, 0);
+    }
+
+    private void queueEvent(byte type, long arg0, long arg1, long timestamp) {
+        // NB: Never block the caller, which is usually the render thread.
+        if (eventRing.offer(type, arg0, arg1, timestamp)) {
+            LockSupport.unpark(inputThread);
+        } else {
+            droppedPackets.increment();
         }
     }
 
+    /**
+     * Sends the state of a controller.
+     *
+     * @param inputTime the {@link System#nanoTime()} when the state was read from the controller,
+     *                  which is used for measuring the latency of the controller input
+     */
     public void sendControllerInput(short controllerNumber,
                                     short buttonFlags, byte leftTrigger, byte rightTrigger,
-                                    short leftStickX, short leftStickY, short rightStickX, short rightStickY) {
+                                    short leftStickX, short leftStickY, short rightStickX, short rightStickY,
+                                    long inputTime) {
+        if (controllerNumber < 0 || controllerNumber >= MAX_CONTROLLERS) {
+            throw new IllegalArgumentException(
+                    "controllerNumber: " + controllerNumber + " (expected: 0-" + (MAX_CONTROLLERS - 1) + ')');
+        }
+
         if (context.serverGeneration == ConnectionContext.SERVER_GENERATION_3) {
-            // Use legacy controller packets for generation 3
-            queuePacket(new ControllerPacket(buttonFlags, leftTrigger, rightTrigger,
-                                             leftStickX, leftStickY, rightStickX, rightStickY));
-        } else {
-            // Use multi-controller packets for generation 4 and above
-            queuePacket(new MultiControllerPacket(controllerNumber, buttonFlags, leftTrigger, rightTrigger,
-                                                  leftStickX, leftStickY, rightStickX, rightStickY));
+            // Generation 3 supports only one controller.
+            controllerNumber = 0;
         }
+
+        queueEvent(EVENT_CONTROLLER,
+                   controllerNumber & 0xFFFF | (buttonFlags & 0xFFFFL) << 16 |
+                   (leftTrigger & 0xFFL) << 32 | (rightTrigger & 0xFFL) << 40,
+                   leftStickX & 0xFFFFL | (leftStickY & 0xFFFFL) << 16 |
+                   (rightStickX & 0xFFFFL) << 32 | (long) rightStickY << 48,
+                   inputTime);
     }
 
     public void sendMouseButtonDown(byte mouseButton) {
-        queuePacket(new MouseButtonPacket(context, true, mouseButton));
+        queueEvent(EVENT_MOUSE_BUTTON, 1, mouseButton);
     }
 
     public void sendMouseButtonUp(byte mouseButton) {
-        queuePacket(new MouseButtonPacket(context, false, mouseButton));
+        queueEvent(EVENT_MOUSE_BUTTON, 0, mouseButton);
     }
 
     public void sendMouseMove(short deltaX, short deltaY) {
-        queuePacket(new MouseMovePacket(deltaX, deltaY));
+        queueEvent(EVENT_MOUSE_MOVE, deltaX, deltaY);
     }
 
     public void sendKeyboardInput(short keyMap, byte keyDirection, byte modifier) {
-        queuePacket(new KeyboardPacket(keyMap, keyDirection, modifier));
+        queueEvent(EVENT_KEYBOARD, keyMap & 0xFFFF | (keyDirection & 0xFF) << 16 | (modifier & 0xFF) << 24, 0);
     }
 
     public void sendMouseScroll(byte scrollClicks) {
-        queuePacket(new MouseScrollPacket(scrollClicks));
+        queueEvent(EVENT_MOUSE_SCROLL, scrollClicks, 0);
     }
-
 }
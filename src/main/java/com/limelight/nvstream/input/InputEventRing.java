@@ -0,0 +1,107 @@
+package com.limelight.nvstream.input;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi-producer single-consumer queue of input events, whose slots are preallocated primitive
+ * fields rather than objects, so that queueing an event does not allocate. An event is a type, two
+ * {@code long} arguments whose meaning depends on the type, and the time when the input happened.
+ *
+ * <p>Each slot has a sequence number which tells whether the slot is free for the producer of a position
+ * or holds the event at a position for the consumer, as in Dmitry Vyukov's bounded queue.
+ */
+final class InputEventRing {
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final byte[] types;
+    private final long[] args0;
+    private final long[] args1;
+    private final long[] timestamps;
+
+    private final AtomicLong tail = new AtomicLong();
+    // Accessed only by the consumer
+    private long head;
+
+    InputEventRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity: " + capacity + " (expected: a power of 2)");
+        }
+
+        mask = capacity - 1;
+        sequences = new AtomicLongArray(capacity);
+        types = new byte[capacity];
+        args0 = new long[capacity];
+        args1 = new long[capacity];
+        timestamps = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences.lazySet(i, i);
+        }
+    }
+
+    /**
+     * Adds an event at the tail of the ring.
+     *
+     * @return {@code false} if the ring is full
+     */
+    boolean offer(byte type, long arg0, long arg1, long timestamp) {
+        long pos;
+        int slot;
+        for (;;) {
+            pos = tail.get();
+            slot = (int) pos & mask;
+            final long seq = sequences.get(slot);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+            } else if (seq < pos) {
+                // The consumer has not freed the slot yet.
+                return false;
+            }
+            // Otherwise, another producer took the position; try the next one.
+        }
+
+        types[slot] = type;
+        args0[slot] = arg0;
+        args1[slot] = arg1;
+        timestamps[slot] = timestamp;
+        sequences.lazySet(slot, pos + 1);
+        return true;
+    }
+
+    /**
+     * Returns the slot of the event at the head of the ring, or {@code -1} if the ring is empty.
+     * The event is read with {@link #type(int)}, {@link #arg0(int)}, {@link #arg1(int)} and
+     * {@link #timestamp(int)}, and then {@linkplain #remove(int) removed}.
+     */
+    int peek() {
+        final int slot = (int) head & mask;
+        return sequences.get(slot) == head + 1 ? slot : -1;
+    }
+
+    byte type(int slot) {
+        return types[slot];
+    }
+
+    long arg0(int slot) {
+        return args0[slot];
+    }
+
+    long arg1(int slot) {
+        return args1[slot];
+    }
+
+    long timestamp(int slot) {
+        return timestamps[slot];
+    }
+
+    /**
+     * Frees the slot returned by {@link #peek()} for the producers.
+     */
+    void remove(int slot) {
+        sequences.lazySet(slot, head + mask + 1);
+        head++;
+    }
+}
@@ -16,9 +16,10 @@ public final class KeyboardPacket extends InputPacket {
     private static final int PACKET_TYPE = 0x0A;
     private static final int PACKET_LENGTH = 14;
 
-    private final short keyCode;
-    private final byte keyDirection;
-    private final byte modifier;
+    // Accessed in ControllerStream for reusing the packet
+    short keyCode;
+    byte keyDirection;
+    byte modifier;
 
     KeyboardPacket(short keyCode, byte keyDirection, byte modifier) {
         this.keyCode = keyCode;
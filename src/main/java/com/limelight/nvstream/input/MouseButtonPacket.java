@@ -20,17 +20,19 @@ public final class MouseButtonPacket extends InputPacket {
     public static final byte BUTTON_MIDDLE = 0x02;
     public static final byte BUTTON_RIGHT = 0x03;
 
-    final byte buttonEventType;
+    // Accessed in ControllerStream for reusing the packet
+    boolean buttonDown;
     byte mouseButton;
 
     MouseButtonPacket(ConnectionContext context, boolean buttonDown, byte mouseButton) {
+        this.buttonDown = buttonDown;
         this.mouseButton = mouseButton;
-        buttonEventType = buttonDown ? PRESS_EVENT : RELEASE_EVENT;
     }
 
     @Override
     void toWirePayload(ConnectionContext ctx, ByteBuffer bb) {
         bb.order(ByteOrder.BIG_ENDIAN);
+        final byte buttonEventType = buttonDown ? PRESS_EVENT : RELEASE_EVENT;
         // On Gen 5 servers, the button event codes are incremented by one
         bb.put(ctx.serverGeneration >= SERVER_GENERATION_5 ? (byte) (buttonEventType + 1) : buttonEventType);
         bb.putInt(mouseButton);
@@ -13,7 +13,7 @@ final class MouseMovePacket extends InputPacket {
     private static final int PAYLOAD_LENGTH = 8;
     private static final int PACKET_LENGTH = PAYLOAD_LENGTH + HEADER_LENGTH;
 
-    // Accessed in ControllerStream for batching
+    // Accessed in ControllerStream for reusing the packet
     short deltaX;
     short deltaY;
 
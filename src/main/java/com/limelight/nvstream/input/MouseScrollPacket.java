@@ -13,10 +13,11 @@ final class MouseScrollPacket extends InputPacket {
     private static final int PAYLOAD_LENGTH = 10;
     private static final int PACKET_LENGTH = PAYLOAD_LENGTH + HEADER_LENGTH;
 
-    private final short scroll;
+    // Accessed in ControllerStream for reusing the packet
+    byte scrollClicks;
 
     MouseScrollPacket(byte scrollClicks) {
-        scroll = (short) (scrollClicks * 120);
+        this.scrollClicks = scrollClicks;
     }
 
     @Override
@@ -26,6 +27,7 @@ final class MouseScrollPacket extends InputPacket {
         bb.putInt(ctx.serverGeneration >= SERVER_GENERATION_5 ? HEADER_CODE + 1 : HEADER_CODE);
 
         bb.order(ByteOrder.BIG_ENDIAN);
+        final short scroll = (short) (scrollClicks * 120);
         bb.putShort(scroll);
         bb.putShort(scroll);
 
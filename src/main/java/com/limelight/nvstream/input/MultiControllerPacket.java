@@ -70,28 +70,42 @@ class MultiControllerPacket extends InputPacket {
         return PACKET_LENGTH;
     }
 
-    final boolean merge(MultiControllerPacket packet, byte[] axisDirs) {
-        if (buttonFlags != packet.buttonFlags ||
-            controllerNumber != packet.controllerNumber ||
-            !checkDirs(axisDirs, leftTrigger, packet.leftTrigger, 0) ||
-            !checkDirs(axisDirs, rightTrigger, packet.rightTrigger, 1) ||
-            !checkDirs(axisDirs, leftStickX, packet.leftStickX, 2) ||
-            !checkDirs(axisDirs, leftStickY, packet.leftStickY, 3) ||
-            !checkDirs(axisDirs, rightStickX, packet.rightStickX, 4) ||
-            !checkDirs(axisDirs, rightStickY, packet.rightStickY, 5)) {
+    /**
+     * Replaces the state of this packet with the specified one if the server does not need to see the
+     * current state, i.e. the buttons did not change and no axis has been zeroed or reversed its direction
+     * since the last packet was sent.
+     *
+     * @param axisDirs the directions of the axes since the last packet was sent
+     * @return {@code false} if this packet has to be sent before the specified state
+     */
+    final boolean merge(short buttonFlags, byte leftTrigger, byte rightTrigger,
+                        short leftStickX, short leftStickY, short rightStickX, short rightStickY,
+                        byte[] axisDirs) {
+        if (this.buttonFlags != buttonFlags ||
+            !checkDirs(axisDirs, this.leftTrigger, leftTrigger, 0) ||
+            !checkDirs(axisDirs, this.rightTrigger, rightTrigger, 1) ||
+            !checkDirs(axisDirs, this.leftStickX, leftStickX, 2) ||
+            !checkDirs(axisDirs, this.leftStickY, leftStickY, 3) ||
+            !checkDirs(axisDirs, this.rightStickX, rightStickX, 4) ||
+            !checkDirs(axisDirs, this.rightStickY, rightStickY, 5)) {
             return false;
         }
 
-        controllerNumber = packet.controllerNumber;
-        leftTrigger = packet.leftTrigger;
-        rightTrigger = packet.rightTrigger;
-        leftStickX = packet.leftStickX;
-        leftStickY = packet.leftStickY;
-        rightStickX = packet.rightStickX;
-        rightStickY = packet.rightStickY;
+        set(buttonFlags, leftTrigger, rightTrigger, leftStickX, leftStickY, rightStickX, rightStickY);
         return true;
     }
 
+    final void set(short buttonFlags, byte leftTrigger, byte rightTrigger,
+                   short leftStickX, short leftStickY, short rightStickX, short rightStickY) {
+        this.buttonFlags = buttonFlags;
+        this.leftTrigger = leftTrigger;
+        this.rightTrigger = rightTrigger;
+        this.leftStickX = leftStickX;
+        this.leftStickY = leftStickY;
+        this.rightStickX = rightStickX;
+        this.rightStickY = rightStickY;
+    }
+
     private static boolean checkDirs(byte[] axisDirs, byte currentVal, byte newVal, int dirIndex) {
         return checkDirs(axisDirs, (short) (currentVal & 0xFF), (short) (newVal & 0xFF), dirIndex);
     }
@@ -11,8 +11,7 @@ public class AesGcmInputCipher implements InputCipher {
     private static final int TAG_LENGTH = 16;
 
     private SecretKey key;
-    private byte[] iv;
-    private int ivOffset;
+    private final byte[] iv = new byte[16];
     private int ivLength;
 
     private final byte[] rawCipherOut = new byte[128];
@@ -26,8 +25,8 @@ public class AesGcmInputCipher implements InputCipher {
     @Override
     public final void initialize(SecretKey key, byte[] iv, int ivOffset, int ivLength) {
         this.key = key;
-        this.iv = iv;
-        this.ivOffset = ivOffset;
+        // Copy the IV because it may be a part of the output buffer, as when chaining the IVs on Gen 7.
+        System.arraycopy(iv, ivOffset, this.iv, 0, ivLength);
         this.ivLength = ivLength;
     }
 
@@ -39,7 +38,7 @@ public class AesGcmInputCipher implements InputCipher {
         // have an easy way that I know of to get a tag out mid-stream.
         try {
             final Cipher cipher = newCipher();
-            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv, ivOffset, ivLength));
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv, 0, ivLength));
 
             final int outLen = cipher.doFinal(inputData, inputOffset, inputLength, rawCipherOut);
             assert outLen == getEncryptedSize(inputLength);
@@ -0,0 +1,33 @@
+package com.limelight.nvstream.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count, e.g. the number of dropped packets.
+ */
+public final class Counter extends Metric {
+
+    private final AtomicLong value = new AtomicLong();
+
+    Counter(String name, String help, String[] labels) {
+        super(name, help, labels);
+    }
+
+    @Override
+    public Type type() {
+        return Type.COUNTER;
+    }
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        assert delta >= 0;
+        value.addAndGet(delta);
+    }
+
+    public long value() {
+        return value.get();
+    }
+}
@@ -0,0 +1,191 @@
+package com.limelight.nvstream.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends the metrics to a file at every export, as JSON lines if the file name ends with {@code .json}
+ * or as CSV otherwise. When the file grows beyond the maximum size, it's renamed by appending {@code .1}
+ * to its name, replacing the previous one, and a new file is started.
+ *
+ * <p>The counters and gauges are written with their current values, and the histograms with the number of
+ * the values recorded during the export interval and their 50th, 95th and 99th percentiles in milliseconds.
+ */
+public final class FileMetricExporter implements MetricExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileMetricExporter.class);
+
+    private static final long DEFAULT_MAX_FILE_SIZE = 16 * 1024 * 1024;
+    private static final String CSV_HEADER = "time_ms,name,labels,type,value,count,p50_ms,p95_ms,p99_ms\n";
+
+    private final File file;
+    private final File rolledFile;
+    private final boolean json;
+    private final long maxFileSize;
+    private final StringBuilder buf = new StringBuilder();
+    private Writer out;
+    private long fileSize;
+
+    public FileMetricExporter(File file) {
+        this(file, DEFAULT_MAX_FILE_SIZE);
+    }
+
+    public FileMetricExporter(File file, long maxFileSize) {
+        this.file = file;
+        this.maxFileSize = maxFileSize;
+        rolledFile = new File(file.getPath() + ".1");
+        json = file.getName().toLowerCase(Locale.ENGLISH).endsWith(".json");
+    }
+
+    @Override
+    public void export(List<Metric> metrics) throws IOException {
+        if (out == null) {
+            out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+            fileSize = 0;
+            if (!json) {
+                write(CSV_HEADER);
+            }
+            logger.info("Writing the metrics into {}", file);
+        }
+
+        buf.setLength(0);
+        final long time = System.currentTimeMillis();
+        if (json) {
+            appendJson(time, metrics);
+        } else {
+            appendCsv(time, metrics);
+        }
+        write(buf);
+        out.flush();
+
+        if (fileSize > maxFileSize) {
+            out.close();
+            out = null;
+            Files.move(file.toPath(), rolledFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void write(CharSequence text) throws IOException {
+        out.append(text);
+        fileSize += text.length();
+    }
+
+    private void appendCsv(long time, List<Metric> metrics) {
+        for (Metric m : metrics) {
+            buf.append(time).append(',').append(m.name()).append(',');
+            for (int i = 0; i < m.numLabels(); i++) {
+                if (i != 0) {
+                    buf.append(';');
+                }
+                buf.append(m.labelName(i)).append('=').append(m.labelValue(i));
+            }
+            buf.append(',').append(m.type().name().toLowerCase(Locale.ENGLISH)).append(',');
+
+            switch (m.type()) {
+                case COUNTER:
+                    buf.append(((Counter) m).value()).append(",,,,\n");
+                    break;
+                case GAUGE:
+                    buf.append(format(((Gauge) m).value())).append(",,,,\n");
+                    break;
+                case HISTOGRAM:
+                    final LatencyHistogram h = (LatencyHistogram) m;
+                    buf.append(',').append(h.intervalCount())
+                       .append(',').append(millis(h.intervalPercentile(50)))
+                       .append(',').append(millis(h.intervalPercentile(95)))
+                       .append(',').append(millis(h.intervalPercentile(99))).append('\n');
+                    break;
+            }
+        }
+    }
+
+    private void appendJson(long time, List<Metric> metrics) {
+        buf.append("{\"time_ms\":").append(time).append(",\"metrics\":[");
+        for (int i = 0; i < metrics.size(); i++) {
+            final Metric m = metrics.get(i);
+            if (i != 0) {
+                buf.append(',');
+            }
+
+            buf.append("{\"name\":");
+            appendJsonString(m.name());
+            if (m.numLabels() != 0) {
+                buf.append(",\"labels\":{");
+                for (int j = 0; j < m.numLabels(); j++) {
+                    if (j != 0) {
+                        buf.append(',');
+                    }
+                    appendJsonString(m.labelName(j));
+                    buf.append(':');
+                    appendJsonString(m.labelValue(j));
+                }
+                buf.append('}');
+            }
+            buf.append(",\"type\":\"").append(m.type().name().toLowerCase(Locale.ENGLISH)).append('"');
+
+            switch (m.type()) {
+                case COUNTER:
+                    buf.append(",\"value\":").append(((Counter) m).value());
+                    break;
+                case GAUGE:
+                    buf.append(",\"value\":").append(format(((Gauge) m).value()));
+                    break;
+                case HISTOGRAM:
+                    final LatencyHistogram h = (LatencyHistogram) m;
+                    buf.append(",\"count\":").append(h.intervalCount())
+                       .append(",\"p50_ms\":").append(millis(h.intervalPercentile(50)))
+                       .append(",\"p95_ms\":").append(millis(h.intervalPercentile(95)))
+                       .append(",\"p99_ms\":").append(millis(h.intervalPercentile(99)));
+                    break;
+            }
+            buf.append('}');
+        }
+        buf.append("]}\n");
+    }
+
+    private void appendJsonString(String value) {
+        buf.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                buf.append('\\');
+            }
+            buf.append(ch);
+        }
+        buf.append('"');
+    }
+
+    private static String millis(long nanos) {
+        return format(nanos / 1000000.0);
+    }
+
+    private static String format(double value) {
+        // NaN and infinities are neither valid JSON nor meaningful here.
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return "0";
+        }
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileMetricExporter(" + file + ')';
+    }
+}
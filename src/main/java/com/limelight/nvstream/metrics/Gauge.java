@@ -0,0 +1,26 @@
+package com.limelight.nvstream.metrics;
+
+/**
+ * A value which goes up and down, e.g. the estimated refresh rate of the display.
+ */
+public final class Gauge extends Metric {
+
+    private volatile double value;
+
+    Gauge(String name, String help, String[] labels) {
+        super(name, help, labels);
+    }
+
+    @Override
+    public Type type() {
+        return Type.GAUGE;
+    }
+
+    public void set(double value) {
+        this.value = value;
+    }
+
+    public double value() {
+        return value;
+    }
+}
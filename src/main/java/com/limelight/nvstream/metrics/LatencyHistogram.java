@@ -0,0 +1,92 @@
+package com.limelight.nvstream.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * The distribution of a duration in nanoseconds, e.g. the time taken to decode a frame.
+ *
+ * <p>{@link #record(long)} is wait-free and allocation-free, so it can be called from the render and
+ * decoder threads for every frame. The recorded values are moved into the {@linkplain #intervalPercentile(double)
+ * interval} and the {@linkplain #totalPercentile(double) total} histograms whenever {@link MetricRegistry}
+ * exports the metrics. The values are kept with 2 significant digits, i.e. within 1% of the actual value.
+ */
+public final class LatencyHistogram extends Metric {
+
+    private static final long LOWEST_DISCERNIBLE_VALUE = TimeUnit.MICROSECONDS.toNanos(1);
+    private static final long HIGHEST_TRACKABLE_VALUE = TimeUnit.MINUTES.toNanos(1);
+    private static final int NUM_SIGNIFICANT_DIGITS = 2;
+
+    private final Recorder recorder =
+            new Recorder(LOWEST_DISCERNIBLE_VALUE, HIGHEST_TRACKABLE_VALUE, NUM_SIGNIFICANT_DIGITS);
+
+    // Guarded by this
+    private Histogram interval;
+    private final Histogram total =
+            new Histogram(LOWEST_DISCERNIBLE_VALUE, HIGHEST_TRACKABLE_VALUE, NUM_SIGNIFICANT_DIGITS);
+
+    LatencyHistogram(String name, String help, String[] labels) {
+        super(name, help, labels);
+    }
+
+    @Override
+    public Type type() {
+        return Type.HISTOGRAM;
+    }
+
+    /**
+     * Records a duration in nanoseconds. A negative duration, e.g. from an unset timestamp, is ignored.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        recorder.recordValue(Math.min(nanos, HIGHEST_TRACKABLE_VALUE));
+    }
+
+    /**
+     * Moves the values recorded since the last call into the interval histogram.
+     */
+    synchronized void snapshot() {
+        interval = interval != null ? recorder.getIntervalHistogram(interval)
+                                    : recorder.getIntervalHistogram();
+        total.add(interval);
+    }
+
+    /**
+     * Returns the number of the values recorded during the last export interval.
+     */
+    public synchronized long intervalCount() {
+        return interval != null ? interval.getTotalCount() : 0;
+    }
+
+    /**
+     * Returns the specified percentile of the values recorded during the last export interval in nanoseconds.
+     */
+    public synchronized long intervalPercentile(double percentile) {
+        return interval != null ? interval.getValueAtPercentile(percentile) : 0;
+    }
+
+    /**
+     * Returns the number of the values recorded until the last export.
+     */
+    public synchronized long totalCount() {
+        return total.getTotalCount();
+    }
+
+    /**
+     * Returns the approximate sum of the values recorded until the last export in nanoseconds.
+     */
+    public synchronized double totalSum() {
+        return total.getMean() * total.getTotalCount();
+    }
+
+    /**
+     * Returns the specified percentile of the values recorded until the last export in nanoseconds.
+     */
+    public synchronized long totalPercentile(double percentile) {
+        return total.getValueAtPercentile(percentile);
+    }
+}
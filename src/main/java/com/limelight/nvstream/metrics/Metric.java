@@ -0,0 +1,62 @@
+package com.limelight.nvstream.metrics;
+
+/**
+ * A named value tracked by a {@link MetricRegistry}, optionally distinguished from the other metrics of
+ * the same name by labels, e.g. {@code video_frame_latency{stage="decode"}}.
+ */
+public abstract class Metric {
+
+    public enum Type {
+        COUNTER,
+        GAUGE,
+        HISTOGRAM
+    }
+
+    private final String name;
+    private final String help;
+    private final String[] labels;
+
+    Metric(String name, String help, String[] labels) {
+        this.name = name;
+        this.help = help;
+        this.labels = labels;
+    }
+
+    public abstract Type type();
+
+    public String name() {
+        return name;
+    }
+
+    public String help() {
+        return help;
+    }
+
+    public int numLabels() {
+        return labels.length / 2;
+    }
+
+    public String labelName(int index) {
+        return labels[index * 2];
+    }
+
+    public String labelValue(int index) {
+        return labels[index * 2 + 1];
+    }
+
+    @Override
+    public String toString() {
+        if (labels.length == 0) {
+            return name;
+        }
+
+        final StringBuilder buf = new StringBuilder(name).append('{');
+        for (int i = 0; i < numLabels(); i++) {
+            if (i != 0) {
+                buf.append(',');
+            }
+            buf.append(labelName(i)).append("=\"").append(labelValue(i)).append('"');
+        }
+        return buf.append('}').toString();
+    }
+}
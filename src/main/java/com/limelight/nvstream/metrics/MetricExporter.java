@@ -0,0 +1,20 @@
+package com.limelight.nvstream.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Publishes the metrics of a {@link MetricRegistry}, e.g. into a file.
+ */
+public interface MetricExporter extends Closeable {
+
+    /**
+     * Invoked by {@link MetricRegistry} at every export interval, right after the interval histograms of
+     * the {@link LatencyHistogram}s were updated.
+     */
+    void export(List<Metric> metrics) throws IOException;
+
+    @Override
+    default void close() throws IOException {}
+}
@@ -0,0 +1,156 @@
+package com.limelight.nvstream.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.Util;
+
+/**
+ * Holds the {@link Counter}s, {@link Gauge}s and {@link LatencyHistogram}s of the process, and hands them
+ * to the {@link MetricExporter}s periodically once {@linkplain #start(long, TimeUnit) started}.
+ *
+ * <p>A metric is looked up by its name and labels, so a stream which is created again for a new connection
+ * keeps updating the same metric. Look a metric up once and keep it in a field, because the lookup is
+ * synchronized while the updates are lock-free and allocation-free.
+ */
+public final class MetricRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricRegistry.class);
+
+    private static final MetricRegistry global = new MetricRegistry();
+
+    public static MetricRegistry global() {
+        return global;
+    }
+
+    private final Map<String, Metric> metrics = new LinkedHashMap<>();
+    private final List<MetricExporter> exporters = new CopyOnWriteArrayList<>();
+    private ScheduledFuture<?> exportFuture;
+
+    /**
+     * Returns the counter of the specified name and labels, creating it if necessary.
+     *
+     * @param labels the names and values of the labels, e.g. {@code "stage", "decode"}
+     */
+    public Counter counter(String name, String help, String... labels) {
+        return register(name, help, labels, Counter.class);
+    }
+
+    /**
+     * Returns the gauge of the specified name and labels, creating it if necessary.
+     *
+     * @param labels the names and values of the labels, e.g. {@code "stage", "decode"}
+     */
+    public Gauge gauge(String name, String help, String... labels) {
+        return register(name, help, labels, Gauge.class);
+    }
+
+    /**
+     * Returns the histogram of the specified name and labels, creating it if necessary.
+     *
+     * @param labels the names and values of the labels, e.g. {@code "stage", "decode"}
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return register(name, help, labels, LatencyHistogram.class);
+    }
+
+    private synchronized <T extends Metric> T register(String name, String help, String[] labels,
+                                                       Class<T> type) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("labels: " + Arrays.toString(labels) +
+                                               " (expected: name and value pairs)");
+        }
+
+        final String key = name + Arrays.toString(labels);
+        final Metric metric = metrics.get(key);
+        if (metric != null) {
+            if (!type.isInstance(metric)) {
+                throw new IllegalArgumentException(
+                        "metric: " + metric + " (expected: " + type.getSimpleName() + ", actual: " +
+                        metric.getClass().getSimpleName() + ')');
+            }
+            return type.cast(metric);
+        }
+
+        final Metric newMetric;
+        final String[] labelsCopy = labels.clone();
+        if (type == Counter.class) {
+            newMetric = new Counter(name, help, labelsCopy);
+        } else if (type == Gauge.class) {
+            newMetric = new Gauge(name, help, labelsCopy);
+        } else {
+            newMetric = new LatencyHistogram(name, help, labelsCopy);
+        }
+        metrics.put(key, newMetric);
+        return type.cast(newMetric);
+    }
+
+    /**
+     * Returns all metrics in the order of their registration.
+     */
+    public synchronized List<Metric> metrics() {
+        return new ArrayList<>(metrics.values());
+    }
+
+    public void addExporter(MetricExporter exporter) {
+        exporters.add(exporter);
+    }
+
+    /**
+     * Starts exporting the metrics at the specified interval.
+     */
+    public synchronized void start(long interval, TimeUnit unit) {
+        if (exportFuture == null) {
+            exportFuture = Util.scheduleAtFixedDelay(this::export, interval, interval, unit);
+        }
+    }
+
+    /**
+     * Stops exporting the metrics, exports them for the last time and closes the exporters.
+     */
+    public synchronized void stop() {
+        if (exportFuture == null) {
+            return;
+        }
+
+        exportFuture.cancel(false);
+        exportFuture = null;
+        export();
+
+        for (MetricExporter exporter : exporters) {
+            try {
+                exporter.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close a metric exporter: {}", exporter, e);
+            }
+        }
+        exporters.clear();
+    }
+
+    private void export() {
+        final List<Metric> metrics = metrics();
+        for (Metric metric : metrics) {
+            if (metric instanceof LatencyHistogram) {
+                ((LatencyHistogram) metric).snapshot();
+            }
+        }
+
+        for (MetricExporter exporter : exporters) {
+            try {
+                exporter.export(metrics);
+            } catch (Exception e) {
+                logger.warn("Failed to export the metrics: {}", exporter, e);
+            }
+        }
+    }
+}
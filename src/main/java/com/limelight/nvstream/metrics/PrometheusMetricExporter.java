@@ -0,0 +1,147 @@
+package com.limelight.nvstream.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the metrics at {@code http://<address>/metrics} in the Prometheus text exposition format.
+ *
+ * <p>The counters and gauges are served with their current values. The histograms are served as summaries
+ * of the values recorded until the last export, in seconds as Prometheus expects, with their
+ * 50th, 95th and 99th percentiles.
+ */
+public final class PrometheusMetricExporter implements MetricExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrometheusMetricExporter.class);
+
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private final MetricRegistry registry;
+    private final HttpServer server;
+
+    public PrometheusMetricExporter(MetricRegistry registry, InetSocketAddress address) throws IOException {
+        this.registry = registry;
+        server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+        logger.info("Serving the metrics at http://{}:{}/metrics",
+                    address.getHostString(), server.getAddress().getPort());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            final byte[] content = format(registry.metrics()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    static String format(List<Metric> metrics) {
+        // Group the metrics of the same name, because a name may have only one TYPE line.
+        final Map<String, List<Metric>> families = new LinkedHashMap<>();
+        for (Metric m : metrics) {
+            families.computeIfAbsent(m.name(), unused -> new ArrayList<>()).add(m);
+        }
+
+        final StringBuilder buf = new StringBuilder();
+        for (List<Metric> family : families.values()) {
+            final Metric first = family.get(0);
+            final String name;
+            final String type;
+            switch (first.type()) {
+                case COUNTER:
+                    name = first.name();
+                    type = "counter";
+                    break;
+                case GAUGE:
+                    name = first.name();
+                    type = "gauge";
+                    break;
+                default:
+                    name = first.name() + "_seconds";
+                    type = "summary";
+            }
+
+            buf.append("# HELP ").append(name).append(' ').append(first.help()).append('\n');
+            buf.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+
+            for (Metric m : family) {
+                switch (m.type()) {
+                    case COUNTER:
+                        appendSample(buf, name, m, null, ((Counter) m).value());
+                        break;
+                    case GAUGE:
+                        appendSample(buf, name, m, null, ((Gauge) m).value());
+                        break;
+                    case HISTOGRAM:
+                        final LatencyHistogram h = (LatencyHistogram) m;
+                        for (double q : QUANTILES) {
+                            appendSample(buf, name, m, q, h.totalPercentile(q * 100) / 1e9);
+                        }
+                        appendSample(buf, name + "_sum", m, null, h.totalSum() / 1e9);
+                        appendSample(buf, name + "_count", m, null, h.totalCount());
+                        break;
+                }
+            }
+        }
+        return buf.toString();
+    }
+
+    private static void appendSample(StringBuilder buf, String name, Metric m, Double quantile, double value) {
+        buf.append(name);
+        if (m.numLabels() != 0 || quantile != null) {
+            buf.append('{');
+            for (int i = 0; i < m.numLabels(); i++) {
+                buf.append(m.labelName(i)).append("=\"").append(m.labelValue(i)).append("\",");
+            }
+            if (quantile != null) {
+                buf.append("quantile=\"").append(quantile).append("\",");
+            }
+            buf.setCharAt(buf.length() - 1, '}');
+        }
+        buf.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            buf.append((long) value);
+        } else {
+            buf.append(value);
+        }
+        buf.append('\n');
+    }
+
+    @Override
+    public void export(List<Metric> metrics) {
+        // The metrics are pulled by Prometheus.
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    @Override
+    public String toString() {
+        return "PrometheusMetricExporter(" + server.getAddress() + ')';
+    }
+}
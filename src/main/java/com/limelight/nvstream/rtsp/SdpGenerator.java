@@ -129,11 +129,17 @@ public final class SdpGenerator {
             addSessionAttribute(config, "x-nv-vqos[0].bw.maximumBitrate", String.valueOf(bitrate));
         }
 
-        // Using FEC turns padding on which makes us have to take the slow path
-        // in the depacketizer, not to mention exposing some ambiguous cases with
-        // distinguishing padding from valid sequences. Since we can only perform
-        // execute an FEC recovery on a 1 packet frame, we'll just turn it off completely.
-        addSessionAttribute(config, "x-nv-vqos[0].fec.enable", "0");
+        // VideoFecQueue recovers the lost packets from the FEC packets of Gen 7 servers. Using FEC turns
+        // padding on, but the depacketizer takes the slow path only at the start of an IDR frame, where
+        // the padding between the NALs is expected anyway, and the padding at the end of a frame is just
+        // trailing zeros to the decoder. The FEC packets haven't been verified against a capture of
+        // a real GFE session yet, so keep it off unless asked, and always off for older servers.
+        if (context.streamConfig.getVideoFecEnabled() &&
+            context.serverGeneration >= ConnectionContext.SERVER_GENERATION_7) {
+            addSessionAttribute(config, "x-nv-vqos[0].fec.enable", "1");
+        } else {
+            addSessionAttribute(config, "x-nv-vqos[0].fec.enable", "0");
+        }
 
         addSessionAttribute(config, "x-nv-vqos[0].videoQualityScoreUpdateTime", "5000");
 
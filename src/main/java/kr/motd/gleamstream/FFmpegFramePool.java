@@ -1,17 +1,28 @@
 package kr.motd.gleamstream;
 
+import static org.bytedeco.javacpp.avutil.AVCOL_RANGE_JPEG;
+import static org.bytedeco.javacpp.avutil.AVCOL_SPC_BT709;
 import static org.bytedeco.javacpp.avutil.AVFrame;
-import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_BGR0;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV420P;
 import static org.bytedeco.javacpp.avutil.av_frame_alloc;
 import static org.bytedeco.javacpp.avutil.av_image_fill_arrays;
+import static org.bytedeco.javacpp.avutil.av_image_get_buffer_size;
 
+import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedTransferQueue;
 
 import org.bytedeco.javacpp.BytePointer;
 
+/**
+ * A pool of YUV420P frames, i.e. a full-resolution luma plane followed by two chroma planes of half the width
+ * and half the height, which is 1.5 bytes per pixel. The conversion to RGB is done on the GPU by
+ * {@link FrameRenderer}.
+ */
 final class FFmpegFramePool {
 
+    static final int NUM_PLANES = 3;
+
     private static final int POOL_SIZE = 8;
     private final BlockingQueue<FFmpegFrame> pool = new LinkedTransferQueue<>();
 
@@ -24,8 +35,8 @@ final class FFmpegFramePool {
 
         for (int i = 0; i < POOL_SIZE; i++) {
             AVFrame frame = av_frame_alloc();
-            BytePointer buf = new BytePointer(width * height * 4L);
-            av_image_fill_arrays(frame.data(), frame.linesize(), buf, AV_PIX_FMT_BGR0,
+            BytePointer buf = new BytePointer(av_image_get_buffer_size(AV_PIX_FMT_YUV420P, width, height, 1));
+            av_image_fill_arrays(frame.data(), frame.linesize(), buf, AV_PIX_FMT_YUV420P,
                                  width, height, 1);
             pool.add(new FFmpegFrame(frame, buf));
         }
@@ -40,18 +51,28 @@ final class FFmpegFramePool {
     }
 
     FFmpegFrame acquire() throws InterruptedException {
-        return pool.take();
+        final FFmpegFrame frame = pool.take();
+        Arrays.fill(frame.timestamps, 0);
+        return frame;
     }
 
     final class FFmpegFrame {
         private final AVFrame avFrame;
+        // Keeps the native buffer of the planes from being deallocated
         private final BytePointer data;
-        private final long dataAddress;
+        private final long[] planeAddresses = new long[NUM_PLANES];
+        private final int[] lineSizes = new int[NUM_PLANES];
+        private boolean bt709;
+        private boolean fullRange;
+        private final long[] timestamps = new long[LatencyRecorder.NUM_TIMESTAMPS];
 
         FFmpegFrame(AVFrame avFrame, BytePointer data) {
             this.avFrame = avFrame;
             this.data = data;
-            dataAddress = data.address();
+            for (int i = 0; i < NUM_PLANES; i++) {
+                planeAddresses[i] = avFrame.data(i).address();
+                lineSizes[i] = avFrame.linesize(i);
+            }
         }
 
         AVFrame avFrame() {
@@ -66,8 +87,58 @@ final class FFmpegFramePool {
             return height;
         }
 
-        long dataAddress() {
-            return dataAddress;
+        /**
+         * Returns the address of the Y (0), U (1) or V (2) plane.
+         */
+        long planeAddress(int plane) {
+            return planeAddresses[plane];
+        }
+
+        /**
+         * Returns the number of bytes per row of the Y (0), U (1) or V (2) plane.
+         */
+        int lineSize(int plane) {
+            return lineSizes[plane];
+        }
+
+        /**
+         * Returns whether the picture uses the BT.709 color matrix rather than BT.601.
+         */
+        boolean bt709() {
+            return bt709;
+        }
+
+        /**
+         * Returns whether the samples use the full 0-255 range rather than the limited 16-235 (16-240 for
+         * chroma) range.
+         */
+        boolean fullRange() {
+            return fullRange;
+        }
+
+        /**
+         * Updates the color properties from the {@code colorspace} and {@code color_range} of
+         * the decoded picture.
+         */
+        void setColorProperties(int colorSpace, int colorRange) {
+            // An unspecified color space is BT.601, which is what GFE uses unless told otherwise.
+            bt709 = colorSpace == AVCOL_SPC_BT709;
+            fullRange = colorRange == AVCOL_RANGE_JPEG;
+        }
+
+        /**
+         * Returns the {@link System#nanoTime()} when the picture was decoded into this frame.
+         */
+        long timestampNanos() {
+            return timestamps[LatencyRecorder.CONVERTED];
+        }
+
+        /**
+         * Returns the {@link System#nanoTime()}s when this frame went through each stage of the pipeline.
+         * See {@link LatencyRecorder} for the indexes.
+         */
+        long[] timestamps() {
+            return timestamps;
         }
 
         void release() {
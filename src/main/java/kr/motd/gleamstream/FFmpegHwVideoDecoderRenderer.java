@@ -0,0 +1,150 @@
+package kr.motd.gleamstream;
+
+import static org.bytedeco.javacpp.avcodec.AV_CODEC_FLAG_LOW_DELAY;
+import static org.bytedeco.javacpp.avutil.AV_HWDEVICE_TYPE_VAAPI;
+import static org.bytedeco.javacpp.avutil.AV_HWDEVICE_TYPE_VDPAU;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_FLAG_HWACCEL;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_NONE;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_VAAPI;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_VDPAU;
+import static org.bytedeco.javacpp.avutil.av_buffer_ref;
+import static org.bytedeco.javacpp.avutil.av_buffer_unref;
+import static org.bytedeco.javacpp.avutil.av_frame_alloc;
+import static org.bytedeco.javacpp.avutil.av_frame_unref;
+import static org.bytedeco.javacpp.avutil.av_hwdevice_ctx_create;
+import static org.bytedeco.javacpp.avutil.av_hwframe_transfer_data;
+import static org.bytedeco.javacpp.avutil.av_pix_fmt_desc_get;
+
+import java.util.List;
+
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.avcodec.AVCodecContext;
+import org.bytedeco.javacpp.avcodec.AVCodecContext.Get_format_AVCodecContext_IntPointer;
+import org.bytedeco.javacpp.avutil.AVBufferRef;
+import org.bytedeco.javacpp.avutil.AVDictionary;
+import org.bytedeco.javacpp.avutil.AVFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the video stream on the GPU with the hwaccel of FFmpeg, and copies the decoded pictures back to
+ * system memory for the {@link FrameSink}.
+ *
+ * <p>The candidate {@link HwAccel}s are tried in order when the decoder is set up, and the first one whose
+ * device can be opened is used. If none can be opened, e.g. no GPU or no driver is present, this decodes
+ * in software exactly as {@link FFmpegVideoDecoderRenderer} does. If the device cannot decode the stream,
+ * e.g. an HEVC stream on an older GPU, FFmpeg falls back to software as well.
+ */
+final class FFmpegHwVideoDecoderRenderer extends FFmpegVideoDecoderRenderer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FFmpegHwVideoDecoderRenderer.class);
+
+    enum HwAccel {
+        VAAPI(AV_HWDEVICE_TYPE_VAAPI, AV_PIX_FMT_VAAPI),
+        VDPAU(AV_HWDEVICE_TYPE_VDPAU, AV_PIX_FMT_VDPAU);
+
+        final int deviceType;
+        final int pixelFormat;
+
+        HwAccel(int deviceType, int pixelFormat) {
+            this.deviceType = deviceType;
+            this.pixelFormat = pixelFormat;
+        }
+    }
+
+    private final List<HwAccel> candidates;
+    private HwAccel hwAccel;
+    private AVBufferRef deviceCtx;
+    private AVFrame swFrame;
+
+    // Keep a strong reference so that the native callback is not garbage-collected.
+    private final Get_format_AVCodecContext_IntPointer getFormat = new Get_format_AVCodecContext_IntPointer() {
+        @Override
+        public int call(AVCodecContext ctx, IntPointer formats) {
+            return selectPixelFormat(formats);
+        }
+    };
+
+    FFmpegHwVideoDecoderRenderer(FrameSink frameSink, int width, int height, List<HwAccel> candidates) {
+        super(frameSink, width, height);
+        this.candidates = candidates;
+    }
+
+    @Override
+    void configure(AVCodecContext ctx, VideoFormat format) {
+        for (HwAccel candidate : candidates) {
+            final AVBufferRef deviceCtx = new AVBufferRef(null);
+            final int result = av_hwdevice_ctx_create(deviceCtx, candidate.deviceType, (String) null,
+                                                      (AVDictionary) null, 0);
+            if (result < 0) {
+                logger.info("{} is not available: {}", candidate, result);
+                continue;
+            }
+
+            logger.info("Using {} for video decoding", candidate);
+            hwAccel = candidate;
+            this.deviceCtx = deviceCtx;
+            swFrame = av_frame_alloc();
+
+            // No slice threads unlike the software decoder, because the GPU does the heavy lifting.
+            ctx.hw_device_ctx(av_buffer_ref(deviceCtx));
+            ctx.get_format(getFormat);
+            ctx.flags(ctx.flags() | AV_CODEC_FLAG_LOW_DELAY);
+            return;
+        }
+
+        logger.warn("No hardware video decoder is available; falling back to software decoding");
+        super.configure(ctx, format);
+    }
+
+    private int selectPixelFormat(IntPointer formats) {
+        // Prefer the pixel format of our device, and fall back to the first software format otherwise.
+        int softwareFormat = AV_PIX_FMT_NONE;
+        for (int i = 0;; i++) {
+            final int format = formats.get(i);
+            if (format == AV_PIX_FMT_NONE) {
+                break;
+            }
+            if (format == hwAccel.pixelFormat) {
+                return format;
+            }
+            if (softwareFormat == AV_PIX_FMT_NONE &&
+                (av_pix_fmt_desc_get(format).flags() & AV_PIX_FMT_FLAG_HWACCEL) == 0) {
+                softwareFormat = format;
+            }
+        }
+
+        logger.warn("{} cannot decode the video stream; falling back to software decoding", hwAccel);
+        return softwareFormat;
+    }
+
+    @Override
+    String decoderName() {
+        return hwAccel != null ? hwAccel.name() : super.decoderName();
+    }
+
+    @Override
+    AVFrame retrieveFrame(AVFrame frame) {
+        if (hwAccel == null || frame.format() != hwAccel.pixelFormat) {
+            return frame;
+        }
+
+        // Download the picture from the GPU, usually in NV12.
+        av_frame_unref(swFrame);
+        final int result = av_hwframe_transfer_data(swFrame, frame, 0);
+        if (result < 0) {
+            logger.warn("Failed to transfer a decoded picture from {}: {}", hwAccel, result);
+            return null;
+        }
+        return swFrame;
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        if (deviceCtx != null) {
+            av_buffer_unref(deviceCtx);
+            deviceCtx = null;
+        }
+    }
+}
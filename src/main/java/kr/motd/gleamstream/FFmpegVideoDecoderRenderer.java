@@ -13,13 +13,17 @@ import static org.bytedeco.javacpp.avcodec.avcodec_open2;
 import static org.bytedeco.javacpp.avcodec.avcodec_receive_frame;
 import static org.bytedeco.javacpp.avcodec.avcodec_register_all;
 import static org.bytedeco.javacpp.avcodec.avcodec_send_packet;
-import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_BGR0;
+import static org.bytedeco.javacpp.avutil.AVCOL_RANGE_JPEG;
 import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUV420P;
+import static org.bytedeco.javacpp.avutil.AV_PIX_FMT_YUVJ420P;
 import static org.bytedeco.javacpp.avutil.AV_SAMPLE_FMT_U8;
 import static org.bytedeco.javacpp.avutil.av_frame_alloc;
+import static org.bytedeco.javacpp.avutil.av_image_copy;
 import static org.bytedeco.javacpp.swscale.SWS_FAST_BILINEAR;
-import static org.bytedeco.javacpp.swscale.sws_getContext;
+import static org.bytedeco.javacpp.swscale.sws_getCachedContext;
 import static org.bytedeco.javacpp.swscale.sws_scale;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
 
 import java.nio.ByteBuffer;
 
@@ -41,7 +45,12 @@ import com.limelight.nvstream.av.video.VideoDepacketizer;
 
 import kr.motd.gleamstream.FFmpegFramePool.FFmpegFrame;
 
-final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
+/**
+ * Decodes the video stream with the software decoders of FFmpeg, and copies the decoded pictures into
+ * the YUV420P frames of {@link FFmpegFramePool} for the {@link FrameSink}. {@link FFmpegHwVideoDecoderRenderer} overrides {@link #configure(AVCodecContext,
+ * VideoFormat)} and {@link #retrieveFrame(AVFrame)} to decode on the GPU instead.
+ */
+class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
 
     private static final Logger logger = LoggerFactory.getLogger(FFmpegVideoDecoderRenderer.class);
 
@@ -53,7 +62,7 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
 
     private static final int DECODER_BUFFER_SIZE = 256 * 1024;
 
-    private final MainWindow mainWindow;
+    private final FrameSink frameSink;
     private final FFmpegFramePool framePool;
     private AVCodecContext ctx;
     private AVFrame decFrame;
@@ -68,8 +77,8 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
     private int totalFrames;
     private long totalDecoderTimeMs;
 
-    FFmpegVideoDecoderRenderer(MainWindow mainWindow, int width, int height) {
-        this.mainWindow = mainWindow;
+    FFmpegVideoDecoderRenderer(FrameSink frameSink, int width, int height) {
+        this.frameSink = frameSink;
         framePool = new FFmpegFramePool(width, height);
     }
 
@@ -104,20 +113,16 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
         ctx.width(width);
         ctx.height(height);
 
-        if (format == VideoFormat.H265) {
-            ctx.thread_count(2);
-            ctx.thread_type(FF_THREAD_SLICE);
-        } else {
-            ctx.flags(ctx.flags() | AV_CODEC_FLAG_LOW_DELAY);
-        }
+        configure(ctx, format);
         ctx.flags2(ctx.flags2() | AV_CODEC_FLAG2_FAST);
 
         int result = avcodec_open2(ctx, codec, (AVDictionary) null);
-        decFrame = av_frame_alloc();
-        scalerCtx = sws_getContext(
-                ctx.width(), ctx.height(), ctx.pix_fmt(), ctx.width(), ctx.height(), AV_PIX_FMT_BGR0,
-                SWS_FAST_BILINEAR, null, null, (DoublePointer) null);
+        if (result < 0) {
+            logger.warn("Failed to open the video codec: {}", result);
+            return false;
+        }
 
+        decFrame = av_frame_alloc();
         packet = av_packet_alloc();
 
         decoderBuffer = ByteBuffer.allocateDirect(DECODER_BUFFER_SIZE + AV_INPUT_BUFFER_PADDING_SIZE);
@@ -125,6 +130,34 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
         return true;
     }
 
+    /**
+     * Configures the codec context before it's opened.
+     */
+    void configure(AVCodecContext ctx, VideoFormat format) {
+        if (format == VideoFormat.H265) {
+            ctx.thread_count(2);
+            ctx.thread_type(FF_THREAD_SLICE);
+        } else {
+            ctx.flags(ctx.flags() | AV_CODEC_FLAG_LOW_DELAY);
+        }
+    }
+
+    /**
+     * Returns the name of the decoder, which is shown in the name of the decoder thread.
+     */
+    String decoderName() {
+        return "CPU";
+    }
+
+    /**
+     * Returns the decoded picture in system memory.
+     *
+     * @return {@code null} if the picture could not be retrieved
+     */
+    AVFrame retrieveFrame(AVFrame frame) {
+        return frame;
+    }
+
     /**
      * Starts the decoding and rendering of the video stream on a new thread
      */
@@ -148,7 +181,7 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
             }
         });
         decoderThread.setPriority(Thread.MAX_PRIORITY - 1);
-        decoderThread.setName("Video - Decoder (CPU)");
+        decoderThread.setName("Video - Decoder (" + decoderName() + ')');
         decoderThread.start();
         return true;
     }
@@ -183,6 +216,7 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
      * @param decodeUnit the unit to be decoded
      */
     public void submitDecodeUnit(VideoDecodeUnit decodeUnit) {
+        long decodeStartTime = System.nanoTime();
 
         if (decoderBuffer.capacity() < decodeUnit.getDataLength() + AV_INPUT_BUFFER_PADDING_SIZE) {
             int newCapacity = (int) (1.15f * decodeUnit.getDataLength()) + AV_INPUT_BUFFER_PADDING_SIZE;
@@ -193,18 +227,22 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
             decoderBuffer = ByteBuffer.allocateDirect(newCapacity);
         }
 
-        decoderBuffer.clear();
-
+        // The packets are in direct memory, so gather them with a native copy each.
+        long decoderBufferAddress = memAddress(decoderBuffer, 0);
+        int length = 0;
         for (ByteBufferDescriptor bbd = decodeUnit.getBufferHead();
              bbd != null; bbd = bbd.nextDescriptor) {
-            decoderBuffer.put(bbd.data, bbd.offset, bbd.length);
+            memCopy(memAddress(bbd.buffer, bbd.offset), decoderBufferAddress + length, bbd.length);
+            length += bbd.length;
         }
-        decoderBuffer.flip();
 
-        if (!decoderBuffer.hasRemaining()) {
+        if (length == 0) {
             return;
         }
 
+        decoderBuffer.clear();
+        decoderBuffer.limit(length);
+
         BytePointer ptr = new BytePointer(decoderBuffer);
         packet.data(ptr);
         packet.size(decoderBuffer.limit());
@@ -215,8 +253,14 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
         if (result != 0) {
             return;
         }
+        long decodeEndTime = System.nanoTime();
+
+        AVFrame frame = retrieveFrame(decFrame);
+        if (frame == null) {
+            return;
+        }
 
-        // Convert the YUV image to RGB
+        // Copy the picture into a pooled frame. It's converted to RGB on the GPU when rendered.
         FFmpegFrame e;
         try {
             e = framePool.acquire();
@@ -224,12 +268,35 @@ final class FFmpegVideoDecoderRenderer extends VideoDecoderRenderer {
             return;
         }
 
-        // http://stackoverflow.com/questions/22456884/how-to-render-androids-yuv-nv21-camera-image-on-the-background-in-libgdx-with-o
-        AVFrame rgbFrame = e.avFrame();
-        sws_scale(scalerCtx, decFrame.data(), decFrame.linesize(), 0, ctx.height(), rgbFrame.data(),
-                  rgbFrame.linesize());
+        AVFrame yuvFrame = e.avFrame();
+        int format = frame.format();
+        int colorRange = frame.color_range();
+        if (format == AV_PIX_FMT_YUV420P || format == AV_PIX_FMT_YUVJ420P) {
+            // The software decoders produce YUV420P already, so a plain copy of the planes will do.
+            av_image_copy(yuvFrame.data(), yuvFrame.linesize(), frame.data(), frame.linesize(),
+                          AV_PIX_FMT_YUV420P, e.width(), e.height());
+            if (format == AV_PIX_FMT_YUVJ420P) {
+                colorRange = AVCOL_RANGE_JPEG;
+            }
+        } else {
+            // The hardware decoders produce other formats such as NV12. The pixel format is known
+            // only after decoding, so the scaler is (re)created lazily for the current format.
+            scalerCtx = sws_getCachedContext(
+                    scalerCtx, frame.width(), frame.height(), format, e.width(), e.height(),
+                    AV_PIX_FMT_YUV420P, SWS_FAST_BILINEAR, null, null, (DoublePointer) null);
+            sws_scale(scalerCtx, frame.data(), frame.linesize(), 0, frame.height(), yuvFrame.data(),
+                      yuvFrame.linesize());
+        }
+        e.setColorProperties(frame.colorspace(), colorRange);
+
+        long[] timestamps = e.timestamps();
+        timestamps[LatencyRecorder.FIRST_PACKET] = decodeUnit.getReceiveTimestampNanos();
+        timestamps[LatencyRecorder.REASSEMBLED] = decodeUnit.getReassembleTimestampNanos();
+        timestamps[LatencyRecorder.DECODE_START] = decodeStartTime;
+        timestamps[LatencyRecorder.DECODE_END] = decodeEndTime;
+        timestamps[LatencyRecorder.CONVERTED] = System.nanoTime();
 
-        mainWindow.addFrame(e);
+        frameSink.addFrame(e);
 
         long timeAfterDecode = System.nanoTime() / 1000000L;
 
@@ -0,0 +1,227 @@
+package kr.motd.gleamstream;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import kr.motd.gleamstream.FFmpegFramePool.FFmpegFrame;
+
+/**
+ * Decides which of the decoded frames to present at each vertical sync of the display.
+ *
+ * <p>The render loop of {@link MainWindow} runs once per vertical sync because of {@code glfwSwapInterval(1)},
+ * so the pacer estimates the refresh interval of the display from the time between the buffer swaps,
+ * and the frame interval of the stream from the time the frames were decoded at. With those, it applies
+ * one of the following {@link Policy policies}:
+ * <ul>
+ *   <li>{@link Policy#LOWEST_LATENCY} presents the newest frame as soon as it's decoded, and drops the older
+ *       ones. The time a frame stays on the screen varies with the network and decoder jitter.</li>
+ *   <li>{@link Policy#SMOOTHEST} holds a frame back by one stream frame interval, and presents the frames
+ *       in order on a timeline which advances by the stream frame interval, so that the jitter is absorbed.
+ *       e.g. a 60 fps stream on a 144 Hz display is shown for 2, 3, 2, 3, 2 vsyncs rather than whatever
+ *       the arrival times happen to give. A frame is dropped only if the queue grows beyond
+ *       {@value #MAX_SMOOTH_QUEUE_SIZE} frames.</li>
+ *   <li>{@link Policy#ADAPTIVE} paces the frames as {@link Policy#SMOOTHEST} does when the display refreshes
+ *       noticeably faster than the stream, where the uneven cadence is visible, and behaves as
+ *       {@link Policy#LOWEST_LATENCY} otherwise, where smoothing would only add latency.</li>
+ * </ul>
+ *
+ * <p>The judder is the mean absolute difference between the time a frame was shown for and the time
+ * between it and the next frame in the stream. It's 0 when the display reproduces the stream timing perfectly.
+ *
+ * <p>All methods must be called from the render thread.
+ */
+final class FramePacer {
+
+    enum Policy {
+        LOWEST_LATENCY,
+        SMOOTHEST,
+        ADAPTIVE
+    }
+
+    private static final int MAX_SMOOTH_QUEUE_SIZE = 2;
+
+    // The weight of a new sample in the moving averages
+    private static final double EWMA_ALPHA = 0.05;
+
+    // Use SMOOTHEST if the stream frame interval is longer than the refresh interval by this ratio.
+    private static final double ADAPTIVE_SMOOTH_THRESHOLD = 1.1;
+
+    private final Policy policy;
+
+    // Estimated intervals in nanoseconds
+    private double refreshInterval;
+    private double streamInterval;
+
+    private long lastVsyncTime;
+    private long lastFrameTimestamp;
+
+    // The time the next frame is due in the SMOOTHEST mode, or 0 if not scheduled yet
+    private long nextPresentTime;
+    private boolean smoothing;
+
+    private long lastPresentTime;
+    private long lastPresentedTimestamp;
+
+    // Stats since the last reset
+    private int presentedFrames;
+    private int droppedFrames;
+    private long judderSum;
+    private int judderSamples;
+
+    /**
+     * Creates a new pacer.
+     *
+     * @param refreshRate the nominal refresh rate of the display in Hz, or 0 if unknown
+     */
+    FramePacer(Policy policy, int refreshRate) {
+        this.policy = policy;
+        refreshInterval = refreshRate > 0 ? (double) TimeUnit.SECONDS.toNanos(1) / refreshRate : 0;
+    }
+
+    Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Returns whether the frames are currently paced as {@link Policy#SMOOTHEST} does.
+     */
+    boolean isSmoothing() {
+        return smoothing;
+    }
+
+    /**
+     * Updates the refresh interval estimate. Must be called right after the buffers are swapped.
+     */
+    void vsync(long now) {
+        if (lastVsyncTime != 0) {
+            final long interval = now - lastVsyncTime;
+            if (refreshInterval == 0) {
+                refreshInterval = interval;
+            } else if (interval < refreshInterval * 1.5) {
+                // Ignore the missed vsyncs, e.g. while the window is hidden.
+                refreshInterval += (interval - refreshInterval) * EWMA_ALPHA;
+            }
+        }
+        lastVsyncTime = now;
+    }
+
+    /**
+     * Returns the frame to present at the coming vsync, releasing the frames which are dropped.
+     *
+     * @return {@code null} if the last frame should stay on the screen
+     */
+    FFmpegFrame poll(Queue<FFmpegFrame> pendingFrames, long now) {
+        final FFmpegFrame head = pendingFrames.peek();
+        if (head == null) {
+            return null;
+        }
+
+        smoothing = policy == Policy.SMOOTHEST ||
+                    policy == Policy.ADAPTIVE && streamInterval > refreshInterval * ADAPTIVE_SMOOTH_THRESHOLD;
+
+        if (!smoothing) {
+            nextPresentTime = 0;
+            FFmpegFrame frame = take(pendingFrames);
+            for (;;) {
+                final FFmpegFrame next = take(pendingFrames);
+                if (next == null) {
+                    break;
+                }
+                drop(frame);
+                frame = next;
+            }
+            return present(frame, now);
+        }
+
+        // Bound the latency if the frames come faster than we present them.
+        while (pendingFrames.size() > MAX_SMOOTH_QUEUE_SIZE) {
+            drop(take(pendingFrames));
+        }
+
+        if (nextPresentTime == 0) {
+            // Hold back the first frame by a frame interval so that the next one is likely here in time.
+            nextPresentTime = pendingFrames.peek().timestampNanos() + (long) streamInterval;
+        }
+
+        // Present the frame at the vsync closest to its due time.
+        if (now + (long) (refreshInterval / 2) < nextPresentTime) {
+            return null;
+        }
+
+        final FFmpegFrame frame = take(pendingFrames);
+        nextPresentTime += (long) streamInterval;
+        if (nextPresentTime < now) {
+            // The frame came late, e.g. because of a network hiccup. Don't rush the following frames.
+            nextPresentTime = now + (long) streamInterval;
+        }
+        return present(frame, now);
+    }
+
+    private FFmpegFrame take(Queue<FFmpegFrame> pendingFrames) {
+        final FFmpegFrame frame = pendingFrames.poll();
+        if (frame == null) {
+            return null;
+        }
+
+        // Every frame goes through here exactly once, in the decoding order.
+        final long timestamp = frame.timestampNanos();
+        if (lastFrameTimestamp != 0) {
+            final long interval = timestamp - lastFrameTimestamp;
+            if (streamInterval == 0) {
+                streamInterval = interval;
+            } else if (interval > 0 && interval < streamInterval * 4) {
+                streamInterval += (interval - streamInterval) * EWMA_ALPHA;
+            }
+        }
+        lastFrameTimestamp = timestamp;
+        return frame;
+    }
+
+    private void drop(FFmpegFrame frame) {
+        frame.release();
+        droppedFrames++;
+    }
+
+    private FFmpegFrame present(FFmpegFrame frame, long now) {
+        if (lastPresentTime != 0) {
+            final long shownFor = now - lastPresentTime;
+            final long streamGap = frame.timestampNanos() - lastPresentedTimestamp;
+            judderSum += Math.abs(shownFor - streamGap);
+            judderSamples++;
+        }
+        lastPresentTime = now;
+        lastPresentedTimestamp = frame.timestampNanos();
+        presentedFrames++;
+        return frame;
+    }
+
+    double refreshRate() {
+        return refreshInterval > 0 ? TimeUnit.SECONDS.toNanos(1) / refreshInterval : 0;
+    }
+
+    double streamFrameRate() {
+        return streamInterval > 0 ? TimeUnit.SECONDS.toNanos(1) / streamInterval : 0;
+    }
+
+    int presentedFrames() {
+        return presentedFrames;
+    }
+
+    int droppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the mean judder since the last reset in milliseconds.
+     */
+    double judderMillis() {
+        return judderSamples != 0 ? judderSum / 1000000.0 / judderSamples : 0;
+    }
+
+    void resetStats() {
+        presentedFrames = 0;
+        droppedFrames = 0;
+        judderSum = 0;
+        judderSamples = 0;
+    }
+}
@@ -0,0 +1,447 @@
+package kr.motd.gleamstream;
+
+import static org.lwjgl.opengl.ARBBufferStorage.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.ARBBufferStorage.GL_MAP_PERSISTENT_BIT;
+import static org.lwjgl.opengl.ARBBufferStorage.glBufferStorage;
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_RED;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLE_STRIP;
+import static org.lwjgl.opengl.GL11.GL_TRUE;
+import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
+import static org.lwjgl.opengl.GL11.GL_UNPACK_ROW_LENGTH;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.glBindTexture;
+import static org.lwjgl.opengl.GL11.glDeleteTextures;
+import static org.lwjgl.opengl.GL11.glDrawArrays;
+import static org.lwjgl.opengl.GL11.glGenTextures;
+import static org.lwjgl.opengl.GL11.glPixelStorei;
+import static org.lwjgl.opengl.GL11.glTexImage2D;
+import static org.lwjgl.opengl.GL11.glTexParameteri;
+import static org.lwjgl.opengl.GL11.glTexSubImage2D;
+import static org.lwjgl.opengl.GL11.glViewport;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL15.glUnmapBuffer;
+import static org.lwjgl.opengl.GL20.GL_COMPILE_STATUS;
+import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL20.GL_LINK_STATUS;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
+import static org.lwjgl.opengl.GL20.glAttachShader;
+import static org.lwjgl.opengl.GL20.glCompileShader;
+import static org.lwjgl.opengl.GL20.glCreateProgram;
+import static org.lwjgl.opengl.GL20.glCreateShader;
+import static org.lwjgl.opengl.GL20.glDeleteProgram;
+import static org.lwjgl.opengl.GL20.glDeleteShader;
+import static org.lwjgl.opengl.GL20.glGetProgramInfoLog;
+import static org.lwjgl.opengl.GL20.glGetProgrami;
+import static org.lwjgl.opengl.GL20.glGetShaderInfoLog;
+import static org.lwjgl.opengl.GL20.glGetShaderi;
+import static org.lwjgl.opengl.GL20.glGetUniformLocation;
+import static org.lwjgl.opengl.GL20.glLinkProgram;
+import static org.lwjgl.opengl.GL20.glShaderSource;
+import static org.lwjgl.opengl.GL20.glUniform1i;
+import static org.lwjgl.opengl.GL20.glUniform3fv;
+import static org.lwjgl.opengl.GL20.glUniformMatrix3fv;
+import static org.lwjgl.opengl.GL20.glUseProgram;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_MAP_INVALIDATE_BUFFER_BIT;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30.GL_R8;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
+import static org.lwjgl.opengl.GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
+import static org.lwjgl.opengl.GL32.GL_TIMEOUT_EXPIRED;
+import static org.lwjgl.opengl.GL32.GL_WAIT_FAILED;
+import static org.lwjgl.opengl.GL32.glClientWaitSync;
+import static org.lwjgl.opengl.GL32.glDeleteSync;
+import static org.lwjgl.opengl.GL32.glFenceSync;
+import static org.lwjgl.system.MemoryUtil.NULL;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import kr.motd.gleamstream.FFmpegFramePool.FFmpegFrame;
+
+/**
+ * Renders the YUV420P frames decoded by {@link FFmpegVideoDecoderRenderer}. The three planes are uploaded
+ * as separate single-channel textures, which is 1.5 bytes per pixel instead of 4 bytes of BGRA, and
+ * converted to RGB by a fragment shader with the color matrix and the range of the frame.
+ *
+ * <p>The planes are uploaded through a ring of pixel buffer objects, so that {@code glTexSubImage2D} only
+ * schedules a DMA transfer instead of stalling the render thread until the driver has copied the frame.
+ * If {@code GL_ARB_buffer_storage} is available, the ring is a single buffer mapped persistently, and a fence
+ * per slot tells when the GPU is done with a slot. Otherwise, each slot is a separate buffer which is
+ * orphaned and mapped again for every frame, letting the driver allocate new storage if the old one is
+ * still in use.
+ *
+ * <p>All methods must be called from the thread which owns the OpenGL context.
+ */
+final class FrameRenderer {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameRenderer.class);
+
+    enum UploadMode {
+        PERSISTENT,
+        ORPHAN
+    }
+
+    private static final int NUM_PIXEL_BUFFERS = 3;
+    private static final long FENCE_TIMEOUT_NANOS = 1000000000L;
+
+    private static final String SHADER_VERSION =
+            Platform.get() == Platform.MACOSX ? "#version 150\n" : "#version 300 es\n";
+
+    // Draws a quad covering the viewport without any vertex buffer, flipping the texture vertically
+    // because the first row of a picture is the top row.
+    private static final String VERTEX_SHADER =
+            SHADER_VERSION +
+            "out vec2 Frag_UV;\n" +
+            "void main() {\n" +
+            "   vec2 pos = vec2(gl_VertexID & 1, gl_VertexID >> 1);\n" +
+            "   Frag_UV = vec2(pos.x, 1.0 - pos.y);\n" +
+            "   gl_Position = vec4(pos * 2.0 - 1.0, 0, 1);\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            SHADER_VERSION +
+            "precision highp float;\n" +
+            "uniform sampler2D YTexture;\n" +
+            "uniform sampler2D UTexture;\n" +
+            "uniform sampler2D VTexture;\n" +
+            "uniform mat3 YuvToRgb;\n" +
+            "uniform vec3 YuvOffset;\n" +
+            "in vec2 Frag_UV;\n" +
+            "out vec4 Out_Color;\n" +
+            "void main() {\n" +
+            "   vec3 yuv = vec3(texture(YTexture, Frag_UV).r,\n" +
+            "                   texture(UTexture, Frag_UV).r,\n" +
+            "                   texture(VTexture, Frag_UV).r);\n" +
+            "   Out_Color = vec4(clamp(YuvToRgb * (yuv - YuvOffset), 0.0, 1.0), 1.0);\n" +
+            "}\n";
+
+    // Indexed by (bt709 ? 2 : 0) + (fullRange ? 1 : 0)
+    private static final float[][] YUV_TO_RGB = {
+            yuvToRgb(0.299f, 0.114f, false),
+            yuvToRgb(0.299f, 0.114f, true),
+            yuvToRgb(0.2126f, 0.0722f, false),
+            yuvToRgb(0.2126f, 0.0722f, true),
+    };
+
+    private static final float[] LIMITED_RANGE_OFFSET = { 16 / 255f, 128 / 255f, 128 / 255f };
+    private static final float[] FULL_RANGE_OFFSET = { 0, 128 / 255f, 128 / 255f };
+
+    /**
+     * Returns the column-major matrix which converts Y'CbCr to R'G'B' for the specified luma coefficients.
+     */
+    private static float[] yuvToRgb(float kr, float kb, boolean fullRange) {
+        final float kg = 1 - kr - kb;
+        // Expand the limited range (16-235 for luma and 16-240 for chroma) to the full range.
+        final float yScale = fullRange ? 1 : 255f / 219;
+        final float cScale = fullRange ? 1 : 255f / 224;
+
+        final float crToR = 2 * (1 - kr);
+        final float cbToG = -2 * kb * (1 - kb) / kg;
+        final float crToG = -2 * kr * (1 - kr) / kg;
+        final float cbToB = 2 * (1 - kb);
+
+        return new float[] {
+                yScale, yScale, yScale,                  // Y
+                0, cbToG * cScale, cbToB * cScale,       // Cb
+                crToR * cScale, crToG * cScale, 0        // Cr
+        };
+    }
+
+    private final int[] textures = new int[FFmpegFramePool.NUM_PLANES];
+    private int program;
+    private int vertexArray;
+    private int uniformYuvToRgb;
+    private int uniformYuvOffset;
+
+    private int textureWidth;
+    private int textureHeight;
+
+    private final boolean preferPersistentMapping;
+    private UploadMode uploadMode;
+    private final int[] pixelBuffers = new int[NUM_PIXEL_BUFFERS];
+    private final long[] fences = new long[NUM_PIXEL_BUFFERS];
+    private long slotSize;
+    private int nextSlot;
+    // The address of the persistently mapped ring, or 0 in the ORPHAN mode
+    private long mappedAddress;
+
+    /**
+     * Creates a new renderer.
+     *
+     * @param preferPersistentMapping {@code false} to use the orphaned pixel buffer objects even if
+     *                                {@code GL_ARB_buffer_storage} is available
+     */
+    FrameRenderer(boolean preferPersistentMapping) {
+        this.preferPersistentMapping = preferPersistentMapping;
+    }
+
+    UploadMode uploadMode() {
+        return uploadMode;
+    }
+
+    void init() {
+        program = glCreateProgram();
+        final int vertexShader = compileShader(GL_VERTEX_SHADER, VERTEX_SHADER);
+        final int fragmentShader = compileShader(GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        glAttachShader(program, vertexShader);
+        glAttachShader(program, fragmentShader);
+        glLinkProgram(program);
+        glDeleteShader(vertexShader);
+        glDeleteShader(fragmentShader);
+        if (glGetProgrami(program, GL_LINK_STATUS) != GL_TRUE) {
+            throw new IllegalStateException("failed to link the frame shader: " + glGetProgramInfoLog(program));
+        }
+
+        uniformYuvToRgb = glGetUniformLocation(program, "YuvToRgb");
+        uniformYuvOffset = glGetUniformLocation(program, "YuvOffset");
+        glUseProgram(program);
+        glUniform1i(glGetUniformLocation(program, "YTexture"), 0);
+        glUniform1i(glGetUniformLocation(program, "UTexture"), 1);
+        glUniform1i(glGetUniformLocation(program, "VTexture"), 2);
+        glUseProgram(0);
+
+        // The core profile requires a vertex array object even if there's no vertex attribute.
+        vertexArray = glGenVertexArrays();
+
+        for (int i = 0; i < textures.length; i++) {
+            textures[i] = glGenTextures();
+            glBindTexture(GL_TEXTURE_2D, textures[i]);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        }
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        final GLCapabilities caps = GL.getCapabilities();
+        if (preferPersistentMapping && (caps.OpenGL44 || caps.GL_ARB_buffer_storage)) {
+            uploadMode = UploadMode.PERSISTENT;
+        } else {
+            uploadMode = UploadMode.ORPHAN;
+        }
+        logger.info("Uploading the video frames via {} pixel buffer objects",
+                    uploadMode == UploadMode.PERSISTENT ? "persistently mapped" : "orphaned");
+    }
+
+    private static int compileShader(int type, String source) {
+        final int shader = glCreateShader(type);
+        glShaderSource(shader, source);
+        glCompileShader(shader);
+        if (glGetShaderi(shader, GL_COMPILE_STATUS) != GL_TRUE) {
+            throw new IllegalStateException("failed to compile the frame shader: " + glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+
+    /**
+     * Uploads the planes of the specified frame to the textures.
+     */
+    void upload(FFmpegFrame frame) {
+        final int width = frame.width();
+        final int height = frame.height();
+        if (width != textureWidth || height != textureHeight) {
+            allocateTextures(width, height);
+        }
+
+        long frameSize = 0;
+        for (int i = 0; i < textures.length; i++) {
+            frameSize += (long) frame.lineSize(i) * planeHeight(i, height);
+        }
+        if (frameSize > slotSize) {
+            allocatePixelBuffers(frameSize);
+        }
+
+        // Copy the planes into the next slot of the ring.
+        final int slot = nextSlot;
+        nextSlot = (slot + 1) % NUM_PIXEL_BUFFERS;
+        long offset;
+        if (uploadMode == UploadMode.PERSISTENT) {
+            waitForFence(slot);
+            offset = slot * slotSize;
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBuffers[0]);
+            copyPlanes(frame, mappedAddress + offset);
+        } else {
+            offset = 0;
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBuffers[slot]);
+            glBufferData(GL_PIXEL_UNPACK_BUFFER, slotSize, GL_STREAM_DRAW);
+            final ByteBuffer mapped = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, slotSize,
+                                                       GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT);
+            if (mapped == null) {
+                throw new IllegalStateException("failed to map a pixel buffer object");
+            }
+            copyPlanes(frame, memAddress(mapped));
+            glUnmapBuffer(GL_PIXEL_UNPACK_BUFFER);
+        }
+
+        // Schedule the transfers from the pixel buffer object, which return immediately.
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        for (int i = 0; i < textures.length; i++) {
+            glBindTexture(GL_TEXTURE_2D, textures[i]);
+            glPixelStorei(GL_UNPACK_ROW_LENGTH, frame.lineSize(i));
+            glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, planeWidth(i, width), planeHeight(i, height),
+                            GL_RED, GL_UNSIGNED_BYTE, offset);
+            offset += (long) frame.lineSize(i) * planeHeight(i, height);
+        }
+        glPixelStorei(GL_UNPACK_ROW_LENGTH, 0);
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+
+        if (uploadMode == UploadMode.PERSISTENT) {
+            fences[slot] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+    }
+
+    private static void copyPlanes(FFmpegFrame frame, long address) {
+        final int height = frame.height();
+        for (int i = 0; i < FFmpegFramePool.NUM_PLANES; i++) {
+            final long planeSize = (long) frame.lineSize(i) * planeHeight(i, height);
+            memCopy(frame.planeAddress(i), address, planeSize);
+            address += planeSize;
+        }
+    }
+
+    private void waitForFence(int slot) {
+        final long fence = fences[slot];
+        if (fence == NULL) {
+            return;
+        }
+
+        // Usually signaled already, because the slot was used two frames ago.
+        final int result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+        if (result == GL_TIMEOUT_EXPIRED || result == GL_WAIT_FAILED) {
+            logger.warn("Failed to wait for a pixel buffer object: 0x{}", Integer.toHexString(result));
+        }
+        glDeleteSync(fence);
+        fences[slot] = NULL;
+    }
+
+    private void allocatePixelBuffers(long frameSize) {
+        deletePixelBuffers();
+
+        slotSize = frameSize;
+        if (uploadMode == UploadMode.PERSISTENT) {
+            final int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            final long size = slotSize * NUM_PIXEL_BUFFERS;
+            pixelBuffers[0] = glGenBuffers();
+            glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBuffers[0]);
+            glBufferStorage(GL_PIXEL_UNPACK_BUFFER, size, flags);
+            final ByteBuffer mapped = glMapBufferRange(GL_PIXEL_UNPACK_BUFFER, 0, size, flags);
+            if (mapped == null) {
+                throw new IllegalStateException("failed to map a pixel buffer object persistently");
+            }
+            mappedAddress = memAddress(mapped);
+        } else {
+            for (int i = 0; i < NUM_PIXEL_BUFFERS; i++) {
+                pixelBuffers[i] = glGenBuffers();
+                glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBuffers[i]);
+                glBufferData(GL_PIXEL_UNPACK_BUFFER, slotSize, GL_STREAM_DRAW);
+            }
+        }
+        glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+    }
+
+    private void deletePixelBuffers() {
+        for (int i = 0; i < NUM_PIXEL_BUFFERS; i++) {
+            if (fences[i] != NULL) {
+                glDeleteSync(fences[i]);
+                fences[i] = NULL;
+            }
+            if (pixelBuffers[i] != 0) {
+                // A persistently mapped buffer is unmapped implicitly when deleted.
+                glDeleteBuffers(pixelBuffers[i]);
+                pixelBuffers[i] = 0;
+            }
+        }
+        mappedAddress = 0;
+        slotSize = 0;
+    }
+
+    private void allocateTextures(int width, int height) {
+        for (int i = 0; i < textures.length; i++) {
+            glBindTexture(GL_TEXTURE_2D, textures[i]);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_R8, planeWidth(i, width), planeHeight(i, height), 0,
+                         GL_RED, GL_UNSIGNED_BYTE, NULL);
+        }
+        textureWidth = width;
+        textureHeight = height;
+    }
+
+    private static int planeWidth(int plane, int width) {
+        return plane == 0 ? width : width + 1 >>> 1;
+    }
+
+    private static int planeHeight(int plane, int height) {
+        return plane == 0 ? height : height + 1 >>> 1;
+    }
+
+    /**
+     * Draws the textures uploaded last into the specified rectangle of the frame buffer.
+     * The viewport is left at the specified rectangle.
+     */
+    void draw(FFmpegFrame frame, int x, int y, int width, int height) {
+        glViewport(x, y, width, height);
+        glUseProgram(program);
+        glUniformMatrix3fv(uniformYuvToRgb, false,
+                           YUV_TO_RGB[(frame.bt709() ? 2 : 0) + (frame.fullRange() ? 1 : 0)]);
+        glUniform3fv(uniformYuvOffset, frame.fullRange() ? FULL_RANGE_OFFSET : LIMITED_RANGE_OFFSET);
+
+        for (int i = 0; i < textures.length; i++) {
+            glActiveTexture(GL_TEXTURE0 + i);
+            glBindTexture(GL_TEXTURE_2D, textures[i]);
+        }
+
+        glBindVertexArray(vertexArray);
+        glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+        glBindVertexArray(0);
+
+        for (int i = textures.length - 1; i >= 0; i--) {
+            glActiveTexture(GL_TEXTURE0 + i);
+            glBindTexture(GL_TEXTURE_2D, 0);
+        }
+        glUseProgram(0);
+    }
+
+    void destroy() {
+        deletePixelBuffers();
+        for (int i = 0; i < textures.length; i++) {
+            if (textures[i] != 0) {
+                glDeleteTextures(textures[i]);
+                textures[i] = 0;
+            }
+        }
+        if (vertexArray != 0) {
+            glDeleteVertexArrays(vertexArray);
+            vertexArray = 0;
+        }
+        if (program != 0) {
+            glDeleteProgram(program);
+            program = 0;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package kr.motd.gleamstream;
+
+import kr.motd.gleamstream.FFmpegFramePool.FFmpegFrame;
+
+/**
+ * Consumes the frames decoded by {@link FFmpegVideoDecoderRenderer}.
+ * An implementation must {@linkplain FFmpegFrame#release() release} a frame once it's done with it.
+ */
+interface FrameSink {
+    void addFrame(FFmpegFrame frame);
+}
@@ -0,0 +1,53 @@
+package kr.motd.gleamstream;
+
+import java.util.concurrent.TimeUnit;
+
+import kr.motd.gleamstream.FFmpegFramePool.FFmpegFrame;
+
+/**
+ * A {@link FrameSink} which discards the decoded frames, counting them for the summary of a headless run.
+ */
+final class HeadlessFrameSink implements FrameSink {
+
+    private final LatencyRecorder latencyRecorder;
+    private volatile long startTimeNanos;
+    private volatile long endTimeNanos;
+    private volatile long frames;
+
+    HeadlessFrameSink(LatencyRecorder latencyRecorder) {
+        this.latencyRecorder = latencyRecorder;
+    }
+
+    @Override
+    public void addFrame(FFmpegFrame frame) {
+        final long now = System.nanoTime();
+        if (frames == 0) {
+            startTimeNanos = now;
+        }
+        endTimeNanos = now;
+
+        // Only the decoder thread updates the counter.
+        frames++;
+        latencyRecorder.record(frame.timestamps());
+        frame.release();
+    }
+
+    long frames() {
+        return frames;
+    }
+
+    /**
+     * Returns the time between the first and the last frame in milliseconds.
+     */
+    long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(endTimeNanos - startTimeNanos);
+    }
+
+    double framesPerSecond() {
+        final long elapsedNanos = endTimeNanos - startTimeNanos;
+        if (frames < 2 || elapsedNanos <= 0) {
+            return 0;
+        }
+        return (frames - 1) * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+}
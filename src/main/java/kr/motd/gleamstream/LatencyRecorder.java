@@ -0,0 +1,245 @@
+package kr.motd.gleamstream;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.Util;
+import com.limelight.nvstream.metrics.LatencyHistogram;
+import com.limelight.nvstream.metrics.MetricRegistry;
+
+/**
+ * Records when each video frame went through each stage of the pipeline, from the arrival of its first
+ * packet to the buffer swap which shows it, and reports the 50th, 95th and 99th percentile of the time
+ * spent in each {@link Stage} every {@value #REPORT_INTERVAL_SECONDS} seconds.
+ *
+ * <p>A frame carries its timestamps in an array indexed by {@link #FIRST_PACKET} ... {@link #PRESENTED},
+ * which is {@linkplain #record(long[]) recorded} into a ring by a single thread, i.e. the render thread, or
+ * the decoder thread if headless. The ring is read by the reporting task without blocking the writer.
+ * A timestamp of 0 means the frame did not go through the stage, e.g. a headless frame is never uploaded.
+ *
+ * <p>The time spent in each stage is also recorded into the {@code video_frame_latency} histograms of
+ * {@link MetricRegistry#global()}, so that it's exported along with the other metrics.
+ */
+final class LatencyRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(LatencyRecorder.class);
+
+    // The indexes of the timestamps of a frame
+    static final int FIRST_PACKET = 0;
+    static final int REASSEMBLED = 1;
+    static final int DECODE_START = 2;
+    static final int DECODE_END = 3;
+    static final int CONVERTED = 4;
+    static final int DEQUEUED = 5;
+    static final int UPLOADED = 6;
+    static final int PRESENTED = 7;
+    static final int NUM_TIMESTAMPS = 8;
+
+    enum Stage {
+        /** From the first packet to the last packet of a frame. */
+        NETWORK("net", FIRST_PACKET, REASSEMBLED),
+        /** From the reassembly of a frame to the decoder picking it up. */
+        DECODE_WAIT("wait", REASSEMBLED, DECODE_START),
+        DECODE("decode", DECODE_START, DECODE_END),
+        /** The copy or conversion into a pooled YUV420P frame, including the download from the GPU. */
+        CONVERT("convert", DECODE_END, CONVERTED),
+        /** From a frame being queued to the render thread to being picked by {@link FramePacer}. */
+        QUEUE("queue", CONVERTED, DEQUEUED),
+        UPLOAD("upload", DEQUEUED, UPLOADED),
+        /** From the upload to the return of the buffer swap which shows the frame. */
+        PRESENT("present", UPLOADED, PRESENTED),
+        TOTAL("total", FIRST_PACKET, PRESENTED);
+
+        final String label;
+        final int start;
+        final int end;
+
+        Stage(String label, int start, int end) {
+            this.label = label;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+    private static final int REPORT_INTERVAL_SECONDS = 2;
+
+    // Enough for 2 seconds of a 240 fps stream
+    private static final int CAPACITY = 1024;
+
+    private final long[] ring = new long[CAPACITY * NUM_TIMESTAMPS];
+    private final LatencyHistogram[] stageHistograms = new LatencyHistogram[STAGES.length];
+    private final AtomicLong writeCount = new AtomicLong();
+
+    // Used only by the reporting task
+    private final File csvFile;
+    private BufferedWriter csvWriter;
+    private long readCount;
+    private final long[] samples = new long[CAPACITY * NUM_TIMESTAMPS];
+    private final long[] stageSamples = new long[CAPACITY];
+    private final long startTime = System.nanoTime();
+    private ScheduledFuture<?> reportFuture;
+
+    private volatile String summary = "";
+
+    /**
+     * Creates a new recorder.
+     *
+     * @param csvFile the file to write the percentiles to, or {@code null} not to write them
+     */
+    LatencyRecorder(File csvFile) {
+        this.csvFile = csvFile;
+        for (Stage stage : STAGES) {
+            stageHistograms[stage.ordinal()] = MetricRegistry.global().histogram(
+                    "video_frame_latency", "The time a video frame spends in each stage of the pipeline",
+                    "stage", stage.label);
+        }
+    }
+
+    synchronized void start() {
+        if (csvFile != null) {
+            try {
+                csvWriter = Files.newBufferedWriter(csvFile.toPath(), StandardCharsets.UTF_8);
+                csvWriter.write("time_ms,stage,frames,p50_ms,p95_ms,p99_ms\n");
+                logger.info("Writing the frame latency into {}", csvFile);
+            } catch (IOException e) {
+                logger.warn("Failed to open {}", csvFile, e);
+            }
+        }
+
+        reportFuture = Util.scheduleAtFixedDelay(this::report, REPORT_INTERVAL_SECONDS,
+                                                 REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    synchronized void stop() {
+        if (reportFuture == null) {
+            return;
+        }
+
+        reportFuture.cancel(false);
+        reportFuture = null;
+        report();
+
+        if (csvWriter != null) {
+            try {
+                csvWriter.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close {}", csvFile, e);
+            }
+            csvWriter = null;
+        }
+    }
+
+    /**
+     * Records the timestamps of a frame. Must be called from one thread only.
+     */
+    void record(long[] timestamps) {
+        final long count = writeCount.get();
+        System.arraycopy(timestamps, 0, ring, (int) (count & CAPACITY - 1) * NUM_TIMESTAMPS, NUM_TIMESTAMPS);
+        writeCount.lazySet(count + 1);
+
+        for (Stage stage : STAGES) {
+            final long start = timestamps[stage.start];
+            final long end = timestamps[stage.end];
+            if (start != 0 && end != 0) {
+                stageHistograms[stage.ordinal()].record(end - start);
+            }
+        }
+    }
+
+    /**
+     * Returns the percentiles of the last report, e.g.
+     * {@code "Latency p50/p95/p99 ms[net: 1.2/2.3/3.1, ...]"}, or an empty string if nothing was reported.
+     */
+    String summary() {
+        return summary;
+    }
+
+    private synchronized void report() {
+        final long endCount = writeCount.get();
+        final long startCount = Math.max(readCount, endCount - CAPACITY);
+        final int numFrames = (int) (endCount - startCount);
+        for (int i = 0; i < numFrames; i++) {
+            final int index = (int) (startCount + i & CAPACITY - 1) * NUM_TIMESTAMPS;
+            System.arraycopy(ring, index, samples, i * NUM_TIMESTAMPS, NUM_TIMESTAMPS);
+        }
+
+        // Skip the frames the writer may have overwritten while we were copying, including the one
+        // being written now.
+        final int numOverwritten = (int) Math.max(0, writeCount.get() - CAPACITY + 1 - startCount);
+        readCount = endCount;
+        if (numOverwritten >= numFrames) {
+            return;
+        }
+
+        final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        final StringBuilder buf = new StringBuilder("Latency p50/p95/p99 ms[");
+        boolean hasStages = false;
+        for (Stage stage : STAGES) {
+            int numSamples = 0;
+            for (int i = numOverwritten; i < numFrames; i++) {
+                final long start = samples[i * NUM_TIMESTAMPS + stage.start];
+                final long end = samples[i * NUM_TIMESTAMPS + stage.end];
+                if (start != 0 && end != 0) {
+                    stageSamples[numSamples++] = end - start;
+                }
+            }
+
+            if (numSamples == 0) {
+                continue;
+            }
+
+            Arrays.sort(stageSamples, 0, numSamples);
+            final double p50 = percentile(numSamples, 50);
+            final double p95 = percentile(numSamples, 95);
+            final double p99 = percentile(numSamples, 99);
+
+            if (hasStages) {
+                buf.append(", ");
+            }
+            buf.append(String.format("%s: %.1f/%.1f/%.1f", stage.label, p50, p95, p99));
+            hasStages = true;
+
+            if (csvWriter != null) {
+                try {
+                    csvWriter.write(String.format(Locale.ROOT, "%d,%s,%d,%.3f,%.3f,%.3f\n",
+                                                  time, stage.label, numSamples, p50, p95, p99));
+                } catch (IOException e) {
+                    logger.warn("Failed to write to {}", csvFile, e);
+                }
+            }
+        }
+        buf.append(']');
+
+        if (csvWriter != null) {
+            try {
+                csvWriter.flush();
+            } catch (IOException e) {
+                logger.warn("Failed to write to {}", csvFile, e);
+            }
+        }
+
+        summary = buf.toString();
+        logger.debug("{}", summary);
+    }
+
+    /**
+     * Returns the specified percentile of the sorted {@link #stageSamples} in milliseconds,
+     * using the nearest-rank method.
+     */
+    private double percentile(int numSamples, int percentile) {
+        final int rank = (numSamples * percentile + 99) / 100;
+        return stageSamples[Math.max(rank, 1) - 1] / 1000000.0;
+    }
+}
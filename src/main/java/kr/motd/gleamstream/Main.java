@@ -2,22 +2,37 @@ package kr.motd.gleamstream;
 
 import static java.lang.System.exit;
 import static kr.motd.gleamstream.Panic.panic;
+import static kr.motd.gleamstream.Panic.panicWithoutTrace;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import org.lwjgl.system.Library;
+import org.lwjgl.system.Platform;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
+import com.google.common.net.HostAndPort;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.NvConnectionListener;
 import com.limelight.nvstream.StreamConfiguration;
 import com.limelight.nvstream.Util;
+import com.limelight.nvstream.av.DecodedUnitPool.WaitStrategy;
+import com.limelight.nvstream.av.audio.AudioRenderer;
 import com.limelight.nvstream.av.audio.AudioStream;
+import com.limelight.nvstream.av.capture.RtpReplay;
 import com.limelight.nvstream.av.video.VideoDecoderRenderer;
 import com.limelight.nvstream.enet.EnetConnection;
 import com.limelight.nvstream.http.CryptoProvider;
@@ -26,6 +41,13 @@ import com.limelight.nvstream.http.NvApp;
 import com.limelight.nvstream.http.NvHTTP;
 import com.limelight.nvstream.http.PairingManager;
 import com.limelight.nvstream.http.PairingManager.PairState;
+import com.limelight.nvstream.metrics.FileMetricExporter;
+import com.limelight.nvstream.metrics.MetricRegistry;
+import com.limelight.nvstream.metrics.PrometheusMetricExporter;
+
+import kr.motd.gleamstream.FFmpegHwVideoDecoderRenderer.HwAccel;
+import kr.motd.gleamstream.FramePacer.Policy;
+import kr.motd.gleamstream.gamepad.LinuxGamepadBackend;
 
 public final class Main {
 
@@ -51,6 +73,11 @@ public final class Main {
             description = "Quits the running application in the specified IP address or hostname")
     private String quitHost;
 
+    @Parameter(
+            names = "-replay",
+            description = "Replays the session recorded with -capture option in the specified file")
+    private String replayFile;
+
     @Parameter(
             names = "-res",
             description = "The resolution of the video stream (must be 1080 or 720)")
@@ -76,6 +103,103 @@ public final class Main {
     @Parameter(names = "-appid", description = "The ID of the application to launch")
     private Integer appId;
 
+    @Parameter(
+            names = "-capture",
+            description = "Records the received video and audio packets into the specified file")
+    private String captureFile;
+
+    @Parameter(
+            names = "-replayfast",
+            description = "Replays as fast as possible rather than at the original timing")
+    private Boolean replayFast;
+
+    @Parameter(
+            names = "-replayloopback",
+            description = "Replays over the loopback interface rather than bypassing the network")
+    private Boolean replayLoopback;
+
+    @Parameter(
+            names = "-reorderwindow",
+            description = "The maximum number of video packets to hold while waiting for a reordered packet")
+    private Integer reorderWindow;
+
+    @Parameter(
+            names = "-reorderdelay",
+            description = "The maximum time to wait for a reordered video packet in milliseconds")
+    private Integer reorderDelayMs;
+
+    @Parameter(
+            names = "-fec",
+            description = "Asks a Gen 7 server for the FEC packets and recovers the lost video packets from them " +
+                          "(experimental)")
+    private Boolean useFec;
+
+    @Parameter(
+            names = "-decoder",
+            description = "The video decoder: auto, software, vaapi or vdpau. " +
+                          "auto tries the hardware decoders and falls back to software.")
+    private String decoder = "auto";
+
+    @Parameter(
+            names = "-orphanpbo",
+            description = "Uploads the video frames via orphaned pixel buffer objects " +
+                          "even if persistently mapped ones are supported")
+    private Boolean useOrphanPixelBuffers;
+
+    @Parameter(
+            names = "-pacing",
+            description = "The frame pacing policy: latency, smooth or adaptive. " +
+                          "adaptive smooths the frames only when the display refreshes faster than the stream.")
+    private String pacing = "adaptive";
+
+    @Parameter(
+            names = "-handoff",
+            description = "How the video decoder and the audio player wait for the next decode unit: " +
+                          "spin, spinpark or park. spin has the lowest latency but keeps a CPU core busy.")
+    private String handoff = "spinpark";
+
+    @Parameter(
+            names = "-latencycsv",
+            description = "Writes the percentiles of the latency of each stage of the video pipeline " +
+                          "into the specified CSV file every 2 seconds")
+    private String latencyCsvFile;
+
+    @Parameter(
+            names = "-metricsfile",
+            description = "Writes the metrics into the specified file every 2 seconds, " +
+                          "as JSON lines if the file name ends with .json or as CSV otherwise")
+    private String metricsFile;
+
+    @Parameter(
+            names = "-prometheus",
+            description = "Serves the metrics in the Prometheus text format at the specified [host:]port " +
+                          "(e.g. -prometheus 9100). The host defaults to 127.0.0.1.")
+    private String prometheusAddress;
+
+    @Parameter(
+            names = "-surround",
+            description = "Requests 5.1 surround audio. It's downmixed to stereo if the sound device " +
+                          "does not support 5.1.")
+    private Boolean surround;
+
+    @Parameter(
+            names = "-gamepad",
+            description = "How the gamepads are read: auto, linux or glfw. linux reads /dev/input/js* " +
+                          "on dedicated threads as soon as an input arrives, while glfw polls them " +
+                          "once per frame. auto uses linux on Linux.")
+    private String gamepad = "auto";
+
+    @Parameter(
+            names = "-gamepadreplay",
+            description = "Replays the gamepad events recorded from a Linux joystick device " +
+                          "(e.g. cat /dev/input/js0 > gamepad.jsdev) as an extra gamepad")
+    private String gamepadReplayFile;
+
+    @Parameter(
+            names = "-headless",
+            description = "Decodes the stream without showing or playing it, and prints the statistics at exit")
+    private Boolean headless;
+
     @Parameter(names = { "-help", "-h" }, description = "Prints the usage", help = true)
     private Boolean help;
 
@@ -94,11 +218,14 @@ public final class Main {
 
         if (args.length == 0) {
             help = true;
-        } else if (Util.countNonNull(connectHost, pairHost, listHost, quitHost) == 0) {
-            System.err.println("-connect, -pair, -list or -quit must be specified.");
+        } else if (Util.countNonNull(connectHost, pairHost, listHost, quitHost, replayFile) == 0) {
+            System.err.println("-connect, -pair, -list, -quit or -replay must be specified.");
             help = true;
-        } else if (Util.countNonNull(connectHost, pairHost, listHost, quitHost) != 1) {
-            System.err.println("-connect, -pair, -list and -quit cannot be specified with each other.");
+        } else if (Util.countNonNull(connectHost, pairHost, listHost, quitHost, replayFile) != 1) {
+            System.err.println("-connect, -pair, -list, -quit and -replay cannot be specified with each other.");
+            help = true;
+        } else if (captureFile != null && connectHost == null) {
+            System.err.println("-capture option can be specified only with -connect.");
             help = true;
         } else if (resolution != 1080 && resolution != 720) {
             System.err.println("The value of -res option must be 1080 or 720.");
@@ -106,6 +233,33 @@ public final class Main {
         } else if (fps != 60 && fps != 30) {
             System.err.println("The value of -fps option must be 60 or 30.");
             help = true;
+        } else if (reorderWindow != null && (reorderWindow < 2 || reorderWindow > 16384)) {
+            System.err.println("The value of -reorderwindow option must be between 2 and 16384.");
+            help = true;
+        } else if (reorderDelayMs != null && reorderDelayMs < 0) {
+            System.err.println("The value of -reorderdelay option must not be negative.");
+            help = true;
+        } else if (!isValidDecoder(decoder)) {
+            System.err.println("The value of -decoder option must be auto, software, vaapi or vdpau.");
+            help = true;
+        } else if (framePacingPolicy(pacing) == null) {
+            System.err.println("The value of -pacing option must be latency, smooth or adaptive.");
+            help = true;
+        } else if (waitStrategy(handoff) == null) {
+            System.err.println("The value of -handoff option must be spin, spinpark or park.");
+            help = true;
+        } else if (prometheusAddress != null && parseSocketAddress(prometheusAddress) == null) {
+            System.err.println("The value of -prometheus option must be a port number or a host and port pair.");
+            help = true;
+        } else if (!"auto".equals(gamepad) && !"linux".equals(gamepad) && !"glfw".equals(gamepad)) {
+            System.err.println("The value of -gamepad option must be auto, linux or glfw.");
+            help = true;
+        } else if ("linux".equals(gamepad) && !LinuxGamepadBackend.isAvailable()) {
+            System.err.println("-gamepad linux is available only on Linux with /dev/input.");
+            help = true;
+        } else if (gamepadReplayFile != null && !new File(gamepadReplayFile).isFile()) {
+            System.err.println("The file specified with -gamepadreplay option does not exist.");
+            help = true;
         }
 
         if (Boolean.TRUE.equals(help)) {
@@ -122,6 +276,8 @@ public final class Main {
         final Preferences prefs = new Preferences();
         if (connectHost != null) {
             connect(prefs, resolution != 720, Boolean.TRUE.equals(useLocalAudio));
+        } else if (replayFile != null) {
+            replay(prefs);
         } else if (pairHost != null) {
             pair(prefs);
         } else if (listHost != null) {
@@ -145,44 +301,192 @@ public final class Main {
     }
 
     private void connect(Preferences prefs, boolean use1080p, boolean useLocalAudio) throws Exception {
-        final MainWindow window = new MainWindow(prefs.gamepadMappings());
+        final int width;
+        final int height;
+        if (use1080p) {
+            width = 1920;
+            height = 1080;
+        } else {
+            width = 1280;
+            height = 720;
+        }
 
-        Util.execute(() -> {
-            final int width;
-            final int height;
-            if (use1080p) {
-                width = 1920;
-                height = 1080;
-            } else {
-                width = 1280;
-                height = 720;
-            }
+        final StreamConfiguration streamConfig = createConfiguration(
+                width, height, useLocalAudio, Boolean.TRUE.equals(useHevc));
+
+        stream(prefs, streamConfig,
+               listener -> new NvConnection(connectHost, prefs.uniqueId(), listener,
+                                            streamConfig, new DefaultCryptoProvider()));
+    }
+
+    private void replay(Preferences prefs) throws Exception {
+        final RtpReplay replay = RtpReplay.open(new File(replayFile),
+                                                !Boolean.TRUE.equals(replayFast),
+                                                Boolean.TRUE.equals(replayLoopback));
+        final StreamConfiguration.Builder builder = replay.newStreamConfigurationBuilder();
+        configurePipeline(builder);
+        final StreamConfiguration streamConfig = builder.build();
+
+        stream(prefs, streamConfig, listener -> new NvConnection(replay, listener, streamConfig));
+    }
 
-            StreamConfiguration streamConfig = createConfiguration(
-                    width, height, useLocalAudio, Boolean.TRUE.equals(useHevc));
+    private void stream(Preferences prefs, StreamConfiguration streamConfig,
+                        Function<NvConnectionListener, NvConnection> connFactory) throws Exception {
+        final int width = streamConfig.getWidth();
+        final int height = streamConfig.getHeight();
 
-            final NvConnection conn = new NvConnection(connectHost, prefs.uniqueId(),
-                                                       new DefaultNvConnectionListener(window),
-                                                       streamConfig, new DefaultCryptoProvider());
+        final LatencyRecorder latencyRecorder =
+                new LatencyRecorder(latencyCsvFile != null ? new File(latencyCsvFile) : null);
+        latencyRecorder.start();
+        startMetrics();
+
+        if (Boolean.TRUE.equals(headless)) {
+            final HeadlessFrameSink frameSink = new HeadlessFrameSink(latencyRecorder);
+            final FFmpegVideoDecoderRenderer decoder = newVideoDecoderRenderer(frameSink, width, height);
+            final NvConnection conn = connFactory.apply(new DefaultNvConnectionListener(null));
             addShutdownHook(conn);
 
-            try {
-                conn.start(VideoDecoderRenderer.FLAG_PREFER_QUALITY,
-                           new OpenAlAudioRenderer(),
-                           new FFmpegVideoDecoderRenderer(window, width, height));
-            } catch (UnknownHostException e) {
-                throw panic("Failed to connect to the server", e);
+            start(conn, new NullAudioRenderer(), decoder);
+            while (!conn.isStopped()) {
+                Thread.sleep(100);
             }
 
+            logger.info("Decoded {} frames in {} ms ({} fps, average decoder latency: {} ms)",
+                        frameSink.frames(), frameSink.elapsedMillis(),
+                        String.format("%.2f", frameSink.framesPerSecond()), decoder.getAverageDecoderLatency());
+            latencyRecorder.stop();
+            MetricRegistry.global().stop();
+            logger.info("{}", latencyRecorder.summary());
+            return;
+        }
+
+        final boolean linuxGamepads = "linux".equals(gamepad) ||
+                                      "auto".equals(gamepad) && LinuxGamepadBackend.isAvailable();
+        final MainWindow window = new MainWindow(prefs.gamepadMappings(), linuxGamepads,
+                                                 gamepadReplayFile != null ? new File(gamepadReplayFile) : null,
+                                                 !Boolean.TRUE.equals(useOrphanPixelBuffers),
+                                                 framePacingPolicy(pacing), latencyRecorder);
+
+        Util.execute(() -> {
+            final NvConnection conn = connFactory.apply(new DefaultNvConnectionListener(window));
+            addShutdownHook(conn);
+
+            start(conn, new OpenAlAudioRenderer(), newVideoDecoderRenderer(window, width, height));
+
             window.setNvConnection(conn);
         });
 
         // NB: GLFW event loop must be run on the main thread.
         window.osd().setProgress("Initializing");
         window.run();
+        latencyRecorder.stop();
+        MetricRegistry.global().stop();
         Panic.enableGui();
     }
 
+    private void startMetrics() throws IOException {
+        final MetricRegistry registry = MetricRegistry.global();
+        if (metricsFile != null) {
+            registry.addExporter(new FileMetricExporter(new File(metricsFile)));
+        }
+        if (prometheusAddress != null) {
+            registry.addExporter(new PrometheusMetricExporter(registry, parseSocketAddress(prometheusAddress)));
+        }
+        registry.start(2, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Parses a {@code [host:]port} pair, binding to the loopback address if the host is omitted.
+     *
+     * @return {@code null} if invalid
+     */
+    private static InetSocketAddress parseSocketAddress(String value) {
+        try {
+            if (value.chars().allMatch(Character::isDigit)) {
+                return new InetSocketAddress("127.0.0.1", Integer.parseInt(value));
+            }
+
+            final HostAndPort hostAndPort = HostAndPort.fromString(value);
+            if (!hostAndPort.hasPort()) {
+                return null;
+            }
+            return new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static Policy framePacingPolicy(String pacing) {
+        switch (pacing) {
+            case "latency":
+                return Policy.LOWEST_LATENCY;
+            case "smooth":
+                return Policy.SMOOTHEST;
+            case "adaptive":
+                return Policy.ADAPTIVE;
+            default:
+                return null;
+        }
+    }
+
+    private static WaitStrategy waitStrategy(String handoff) {
+        switch (handoff) {
+            case "spin":
+                return WaitStrategy.BUSY_SPIN;
+            case "spinpark":
+                return WaitStrategy.SPIN_THEN_PARK;
+            case "park":
+                return WaitStrategy.PARK;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isValidDecoder(String decoder) {
+        switch (decoder) {
+            case "auto":
+            case "software":
+                return true;
+        }
+
+        try {
+            HwAccel.valueOf(decoder.toUpperCase(Locale.ENGLISH));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private FFmpegVideoDecoderRenderer newVideoDecoderRenderer(FrameSink frameSink, int width, int height) {
+        final List<HwAccel> candidates;
+        switch (decoder) {
+            case "auto":
+                // VAAPI and VDPAU are available only on Linux.
+                candidates = Platform.get() == Platform.LINUX ? Arrays.asList(HwAccel.values())
+                                                              : Collections.emptyList();
+                break;
+            case "software":
+                candidates = Collections.emptyList();
+                break;
+            default:
+                candidates = Collections.singletonList(HwAccel.valueOf(decoder.toUpperCase(Locale.ENGLISH)));
+        }
+
+        if (candidates.isEmpty()) {
+            return new FFmpegVideoDecoderRenderer(frameSink, width, height);
+        }
+        return new FFmpegHwVideoDecoderRenderer(frameSink, width, height, candidates);
+    }
+
+    private static void start(NvConnection conn, AudioRenderer audioRenderer,
+                              FFmpegVideoDecoderRenderer videoRenderer) {
+        try {
+            conn.start(VideoDecoderRenderer.FLAG_PREFER_QUALITY, audioRenderer, videoRenderer);
+        } catch (UnknownHostException e) {
+            throw panic("Failed to connect to the server", e);
+        }
+    }
+
     private void pair(Preferences prefs) throws Exception {
         final CryptoProvider crypto = new DefaultCryptoProvider();
         final NvHTTP nvHttp = new NvHTTP(InetAddress.getByName(pairHost), prefs.uniqueId(), crypto);
@@ -259,9 +563,27 @@ public final class Main {
         if (useHevc) {
             builder.setHevcSupported(true);
         }
+        if (Boolean.TRUE.equals(surround)) {
+            builder.setAudioConfiguration(StreamConfiguration.AUDIO_CONFIGURATION_5_1);
+        }
+        if (captureFile != null) {
+            builder.setCaptureFile(new File(captureFile));
+        }
+        configurePipeline(builder);
         return builder.build();
     }
 
+    private void configurePipeline(StreamConfiguration.Builder builder) {
+        builder.setDecodeUnitWaitStrategy(waitStrategy(handoff));
+        if (reorderWindow != null) {
+            builder.setVideoReorderQueueSize(reorderWindow);
+        }
+        if (reorderDelayMs != null) {
+            builder.setVideoReorderQueueDelay(reorderDelayMs);
+        }
+        builder.setVideoFecEnabled(Boolean.TRUE.equals(useFec));
+    }
+
     private static void addShutdownHook(NvConnection conn) {
         final Thread connStopper = new Thread(() -> {
             try {
@@ -280,6 +602,7 @@ public final class Main {
 
     private static class DefaultNvConnectionListener implements NvConnectionListener {
 
+        // null if headless
         private final MainWindow window;
 
         DefaultNvConnectionListener(MainWindow window) {
@@ -312,17 +635,25 @@ public final class Main {
                     return;
             }
 
-            window.osd().setProgress(message);
+            if (window != null) {
+                window.osd().setProgress(message);
+            }
             logger.info(message);
         }
 
         @Override
         public void stageComplete(Stage stage) {
-            window.osd().clear();
+            if (window != null) {
+                window.osd().clear();
+            }
         }
 
         @Override
         public void stageFailed(Stage stage) {
+            if (window == null) {
+                throw panicWithoutTrace("Stage failed: " + stage);
+            }
+
             logger.error("Stage failed: {}", stage);
             window.destroy();
         }
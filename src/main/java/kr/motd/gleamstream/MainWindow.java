@@ -6,18 +6,14 @@ import static com.limelight.nvstream.input.ControllerPacket.SPECIAL_BUTTON_FLAG;
 import static com.limelight.nvstream.input.ControllerPacket.Y_FLAG;
 import static kr.motd.gleamstream.Panic.panic;
 import static org.lwjgl.glfw.GLFW.GLFW_BLUE_BITS;
-import static org.lwjgl.glfw.GLFW.GLFW_CONNECTED;
 import static org.lwjgl.glfw.GLFW.GLFW_CONTEXT_VERSION_MAJOR;
 import static org.lwjgl.glfw.GLFW.GLFW_CONTEXT_VERSION_MINOR;
 import static org.lwjgl.glfw.GLFW.GLFW_CURSOR;
 import static org.lwjgl.glfw.GLFW.GLFW_CURSOR_DISABLED;
 import static org.lwjgl.glfw.GLFW.GLFW_CURSOR_NORMAL;
 import static org.lwjgl.glfw.GLFW.GLFW_DECORATED;
-import static org.lwjgl.glfw.GLFW.GLFW_DISCONNECTED;
 import static org.lwjgl.glfw.GLFW.GLFW_FALSE;
 import static org.lwjgl.glfw.GLFW.GLFW_GREEN_BITS;
-import static org.lwjgl.glfw.GLFW.GLFW_JOYSTICK_1;
-import static org.lwjgl.glfw.GLFW.GLFW_JOYSTICK_LAST;
 import static org.lwjgl.glfw.GLFW.GLFW_KEY_ESCAPE;
 import static org.lwjgl.glfw.GLFW.GLFW_KEY_GRAVE_ACCENT;
 import static org.lwjgl.glfw.GLFW.GLFW_MAXIMIZED;
@@ -39,21 +35,16 @@ import static org.lwjgl.glfw.GLFW.GLFW_VISIBLE;
 import static org.lwjgl.glfw.GLFW.glfwCreateWindow;
 import static org.lwjgl.glfw.GLFW.glfwDefaultWindowHints;
 import static org.lwjgl.glfw.GLFW.glfwGetFramebufferSize;
-import static org.lwjgl.glfw.GLFW.glfwGetJoystickAxes;
-import static org.lwjgl.glfw.GLFW.glfwGetJoystickButtons;
-import static org.lwjgl.glfw.GLFW.glfwGetJoystickName;
 import static org.lwjgl.glfw.GLFW.glfwGetPrimaryMonitor;
 import static org.lwjgl.glfw.GLFW.glfwGetVideoMode;
 import static org.lwjgl.glfw.GLFW.glfwGetWindowSize;
 import static org.lwjgl.glfw.GLFW.glfwInit;
-import static org.lwjgl.glfw.GLFW.glfwJoystickPresent;
 import static org.lwjgl.glfw.GLFW.glfwMakeContextCurrent;
 import static org.lwjgl.glfw.GLFW.glfwPollEvents;
 import static org.lwjgl.glfw.GLFW.glfwSetCharCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetCursorPosCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetErrorCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetInputMode;
-import static org.lwjgl.glfw.GLFW.glfwSetJoystickCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetKeyCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetMouseButtonCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetScrollCallback;
@@ -70,39 +61,18 @@ import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
 import static org.lwjgl.opengl.GL11.GL_DEPTH_TEST;
 import static org.lwjgl.opengl.GL11.GL_LIGHTING;
-import static org.lwjgl.opengl.GL11.GL_NEAREST;
-import static org.lwjgl.opengl.GL11.GL_RGBA8;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
-import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
-import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
-import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
-import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
-import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
-import static org.lwjgl.opengl.GL11.glBindTexture;
 import static org.lwjgl.opengl.GL11.glClear;
 import static org.lwjgl.opengl.GL11.glClearColor;
-import static org.lwjgl.opengl.GL11.glDeleteTextures;
 import static org.lwjgl.opengl.GL11.glDisable;
 import static org.lwjgl.opengl.GL11.glEnable;
-import static org.lwjgl.opengl.GL11.glGenTextures;
-import static org.lwjgl.opengl.GL11.glTexImage2D;
-import static org.lwjgl.opengl.GL11.glTexParameteri;
-import static org.lwjgl.opengl.GL11.glTexSubImage2D;
 import static org.lwjgl.opengl.GL11.glViewport;
-import static org.lwjgl.opengl.GL12.GL_BGRA;
-import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
-import static org.lwjgl.opengl.GL30.GL_COLOR_ATTACHMENT0;
-import static org.lwjgl.opengl.GL30.GL_READ_FRAMEBUFFER;
-import static org.lwjgl.opengl.GL30.glBindFramebuffer;
-import static org.lwjgl.opengl.GL30.glBlitFramebuffer;
-import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
-import static org.lwjgl.opengl.GL30.glFramebufferTexture2D;
-import static org.lwjgl.opengl.GL30.glGenFramebuffers;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
-import java.nio.ByteBuffer;
-import java.nio.FloatBuffer;
+import java.io.File;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
@@ -120,25 +90,22 @@ import org.slf4j.LoggerFactory;
 import com.limelight.nvstream.NvConnection;
 import com.limelight.nvstream.input.KeyboardPacket;
 import com.limelight.nvstream.input.MouseButtonPacket;
+import com.limelight.nvstream.metrics.Counter;
+import com.limelight.nvstream.metrics.Gauge;
+import com.limelight.nvstream.metrics.LatencyHistogram;
+import com.limelight.nvstream.metrics.MetricRegistry;
 
-import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.ints.Int2ShortMap;
-import it.unimi.dsi.fastutil.ints.Int2ShortOpenHashMap;
-import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
-import it.unimi.dsi.fastutil.ints.IntSet;
 import kr.motd.gleamstream.FFmpegFramePool.FFmpegFrame;
-import kr.motd.gleamstream.gamepad.GamepadInput;
-import kr.motd.gleamstream.gamepad.GamepadMapping;
+import kr.motd.gleamstream.FramePacer.Policy;
+import kr.motd.gleamstream.FrameRenderer.UploadMode;
+import kr.motd.gleamstream.gamepad.GamepadBackend;
+import kr.motd.gleamstream.gamepad.GamepadDispatcher;
 import kr.motd.gleamstream.gamepad.GamepadMappings;
-import kr.motd.gleamstream.gamepad.GamepadOutput;
-import kr.motd.gleamstream.gamepad.GamepadState;
+import kr.motd.gleamstream.gamepad.GamepadReplayer;
+import kr.motd.gleamstream.gamepad.GlfwGamepadBackend;
+import kr.motd.gleamstream.gamepad.LinuxGamepadBackend;
 
-final class MainWindow {
-
-    private static final int NV_MAX_NUM_GAMEPADS = 4;
-    private static final int NV_STICK_MAX = 0x7FFE;
-    private static final int NV_TRIGGER_MAX = 0xFF;
+final class MainWindow implements FrameSink {
 
     private static volatile MainWindow currentWindow;
 
@@ -152,11 +119,8 @@ final class MainWindow {
     private long window;
 
     // Fields for gamepad input
-    private final GamepadMappings availableGamepadMappings;
-    private final Int2ObjectMap<GamepadMapping> attachedGamepads;
-    private final Int2ShortMap gamepadAssignments;
-    private final GamepadState[] lastGamepadStates;
-    private final IntSet knownMissingGamepadMappings;
+    private final GamepadDispatcher gamepadDispatcher;
+    private final List<GamepadBackend> gamepadBackends = new ArrayList<>();
 
     // Fields for mouse cursor position
     private double lastCursorXpos;
@@ -164,9 +128,13 @@ final class MainWindow {
 
     // Fields for video stream
     private final Queue<FFmpegFrame> pendingFrames = new SpscArrayQueue<>(64);
-    private int frameTexture;
-    private int frameBuffer;
+    private final FrameRenderer frameRenderer;
+    private final Policy framePacingPolicy;
+    private FramePacer framePacer;
     private FFmpegFrame lastFrame;
+    // The frame drawn in the current iteration of the render loop, if any
+    private FFmpegFrame presentingFrame;
+    private final LatencyRecorder latencyRecorder;
 
     // Fields for OSD
     private NuklearHelper nk;
@@ -178,22 +146,42 @@ final class MainWindow {
     private long lastStatUpdateTime = System.nanoTime();
     private int osdFrameCounter;
     private int streamFrameCounter;
-    private int droppedStreamFrameCounter;
-    private long osdRenderTime;
-    private long streamRenderTime;
+    private final OsdMetricExporter metricExporter = new OsdMetricExporter();
+    private final LatencyHistogram streamRenderTime = MetricRegistry.global().histogram(
+            "render_time", "The time taken to render a frame", "target", "stream");
+    private final LatencyHistogram osdRenderTime = MetricRegistry.global().histogram(
+            "render_time", "The time taken to render a frame", "target", "osd");
+    private final Counter presentedFrames = MetricRegistry.global().counter(
+            "video_presented_frames_total", "The number of video frames presented");
+    private final Counter pacingDrops = MetricRegistry.global().counter(
+            "video_pacing_drops_total", "The number of decoded video frames dropped by the frame pacing");
+    private final Gauge refreshRate = MetricRegistry.global().gauge(
+            "display_refresh_rate_hz", "The estimated refresh rate of the display");
+    private final Gauge sourceFrameRate = MetricRegistry.global().gauge(
+            "video_source_fps", "The estimated frame rate of the video stream");
+    private final Gauge judder = MetricRegistry.global().gauge(
+            "video_judder_ms", "The mean difference between the display timing and the stream timing");
 
     private volatile NvConnection nvConn;
 
-    MainWindow(GamepadMappings availableGamepadMappings) {
-        this.availableGamepadMappings = availableGamepadMappings;
-        attachedGamepads = new Int2ObjectOpenHashMap<>();
-        gamepadAssignments = new Int2ShortOpenHashMap();
-        gamepadAssignments.defaultReturnValue((short) -1);
-        lastGamepadStates = new GamepadState[NV_MAX_NUM_GAMEPADS];
-        for (int i = 0; i < lastGamepadStates.length; i++) {
-            lastGamepadStates[i] = new GamepadState();
+    /**
+     * Creates a new instance.
+     *
+     * @param linuxGamepads whether to read the gamepads via {@link LinuxGamepadBackend} rather than GLFW
+     * @param gamepadReplayFile the file to replay the gamepad events from, or {@code null}
+     */
+    MainWindow(GamepadMappings availableGamepadMappings, boolean linuxGamepads, File gamepadReplayFile,
+               boolean persistentPixelBuffers, Policy framePacingPolicy, LatencyRecorder latencyRecorder) {
+        gamepadDispatcher = new GamepadDispatcher(availableGamepadMappings, this::onGamepadButtons);
+        gamepadBackends.add(linuxGamepads ? new LinuxGamepadBackend(gamepadDispatcher)
+                                          : new GlfwGamepadBackend(gamepadDispatcher));
+        if (gamepadReplayFile != null) {
+            gamepadBackends.add(new GamepadReplayer(gamepadReplayFile, gamepadDispatcher, !linuxGamepads));
         }
-        knownMissingGamepadMappings = new IntOpenHashSet();
+        frameRenderer = new FrameRenderer(persistentPixelBuffers);
+        this.framePacingPolicy = framePacingPolicy;
+        this.latencyRecorder = latencyRecorder;
+        MetricRegistry.global().addExporter(metricExporter);
         currentWindow = this;
     }
 
@@ -201,12 +189,14 @@ final class MainWindow {
         return osd;
     }
 
+    @Override
     public void addFrame(FFmpegFrame frame) {
         pendingFrames.add(frame);
     }
 
     public void setNvConnection(NvConnection nvConn) {
         this.nvConn = nvConn;
+        gamepadDispatcher.setNvConnection(nvConn);
         pendingTasks.add(() -> setOsdVisibility(window, false));
     }
 
@@ -236,18 +226,14 @@ final class MainWindow {
                 stopFuture = CompletableFuture.completedFuture(null);
             }
 
+            gamepadBackends.forEach(GamepadBackend::stop);
             releaseLastFrame();
 
             if (nk != null) {
                 nk.destroy();
             }
 
-            if (frameBuffer != 0) {
-                glDeleteFramebuffers(frameBuffer);
-            }
-            if (frameTexture != 0) {
-                glDeleteTextures(frameTexture);
-            }
+            frameRenderer.destroy();
 
             glfwTerminate();
             glfwSetErrorCallback(null).free();
@@ -286,6 +272,7 @@ final class MainWindow {
         glfwWindowHint(GLFW_GREEN_BITS, videoMode.greenBits());
         glfwWindowHint(GLFW_BLUE_BITS, videoMode.blueBits());
         glfwWindowHint(GLFW_REFRESH_RATE, videoMode.refreshRate());
+        framePacer = new FramePacer(framePacingPolicy, videoMode.refreshRate());
         glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 3);
         glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
         glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
@@ -310,7 +297,6 @@ final class MainWindow {
         glfwSwapInterval(1);
         glfwSetKeyCallback(window, this::onKey);
         glfwSetCharCallback(window, this::onChar);
-        glfwSetJoystickCallback(this::onJoystick);
         glfwSetScrollCallback(window, this::onScroll);
         glfwSetCursorPosCallback(window, this::onCursorPos);
         glfwSetMouseButtonCallback(window, this::onMouseButton);
@@ -325,32 +311,11 @@ final class MainWindow {
         nk = new NuklearHelper(window);
         nk.init();
 
-        // Initialize the texture and the frame buffer for displaying the video stream.
-        frameTexture = glGenTextures();
-        frameBuffer = glGenFramebuffers();
-        glBindTexture(GL_TEXTURE_2D, frameTexture);
-        glBindFramebuffer(GL_READ_FRAMEBUFFER, frameBuffer);
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 2048, 2048, 0, GL_BGRA, GL_UNSIGNED_BYTE, NULL);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-        glFramebufferTexture2D(GL_READ_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, frameTexture, 0);
-        glBindFramebuffer(GL_READ_FRAMEBUFFER, 0);
-        glBindTexture(GL_TEXTURE_2D, 0);
-
-        // Initialize the Joystick state
-        for (int i = GLFW_JOYSTICK_1; i <= GLFW_JOYSTICK_LAST; i++) {
-            if (attachedGamepads.containsKey(i)) {
-                if (!glfwJoystickPresent(i)) {
-                    onJoystick(i, GLFW_DISCONNECTED);
-                }
-            } else {
-                if (glfwJoystickPresent(i)) {
-                    onJoystick(i, GLFW_CONNECTED);
-                }
-            }
-        }
+        // Initialize the textures and the shader for displaying the video stream.
+        frameRenderer.init();
+
+        // Start to read the gamepads.
+        gamepadBackends.forEach(GamepadBackend::start);
 
         // Show the main window.
         glfwShowWindow(window);
@@ -366,7 +331,9 @@ final class MainWindow {
                     break;
                 }
 
-                handleGamepadInput(nvConn);
+                for (GamepadBackend b : gamepadBackends) {
+                    b.poll();
+                }
 
                 // Get the width and height of the frame buffer.
                 glfwGetFramebufferSize(window, widthBuf, heightBuf);
@@ -390,6 +357,13 @@ final class MainWindow {
 
                 updateStats();
                 glfwSwapBuffers(window); // swap the color buffers
+                final long swapTime = System.nanoTime();
+                framePacer.vsync(swapTime);
+                if (presentingFrame != null) {
+                    presentingFrame.timestamps()[LatencyRecorder.PRESENTED] = swapTime;
+                    latencyRecorder.record(presentingFrame.timestamps());
+                    presentingFrame = null;
+                }
             }
         } finally {
             MemoryUtil.memFree(widthBuf);
@@ -397,276 +371,60 @@ final class MainWindow {
         }
     }
 
-    private void handleGamepadInput(NvConnection nvConn) {
-        for (Int2ObjectMap.Entry<GamepadMapping> e : attachedGamepads.int2ObjectEntrySet()) {
-            final int jid = e.getIntKey();
-            final GamepadMapping mapping = e.getValue();
-            final ByteBuffer buttons = glfwGetJoystickButtons(jid);
-            if (buttons == null) {
-                continue;
-            }
-
-            short nvJid = gamepadAssignments.get(jid);
-            short buttonFlags = 0;
-            short leftStickX  = 0;
-            short leftStickY  = 0;
-            short rightStickX = 0;
-            short rightStickY = 0;
-            byte leftTrigger  = 0;
-            byte rightTrigger = 0;
-
-            final int numButtons = buttons.remaining();
-            for (int i = 0; i < numButtons; i++) {
-                if (buttons.get(i) == GLFW_PRESS) {
-                    final GamepadMapping.Entry mapped = mapping.mapButton(i);
-                    if (mapped == GamepadMapping.MISSING) {
-                        final int key = jid << 16 | i;
-                        if (!knownMissingGamepadMappings.contains(key)) {
-                            knownMissingGamepadMappings.add(key);
-                            logger.warn("Missing gamepad button mapping for {}: {}",
-                                        glfwGetJoystickName(jid), i);
-                        }
-                        continue;
-                    }
-
-                    if (mapped == GamepadMapping.IGNORED) {
-                        continue;
-                    }
-
-                    switch (mapped.out()) {
-                        case LS_LEFT:
-                            leftStickX = -NV_STICK_MAX;
-                            break;
-                        case LS_RIGHT:
-                            leftStickX = NV_STICK_MAX;
-                            break;
-                        case LS_DOWN:
-                            leftStickY = -NV_STICK_MAX;
-                            break;
-                        case LS_UP:
-                            leftStickY = NV_STICK_MAX;
-                            break;
-                        case RS_LEFT:
-                            rightStickX = -NV_STICK_MAX;
-                            break;
-                        case RS_RIGHT:
-                            rightStickX = NV_STICK_MAX;
-                            break;
-                        case RS_DOWN:
-                            rightStickY = -NV_STICK_MAX;
-                            break;
-                        case RS_UP:
-                            rightStickY = NV_STICK_MAX;
-                            break;
-                        case LT:
-                            leftTrigger = (byte) NV_TRIGGER_MAX;
-                            break;
-                        case RT:
-                            rightTrigger = (byte) NV_TRIGGER_MAX;
-                            break;
-                        default:
-                            buttonFlags |= mapped.out().buttonFlag();
-                            break;
-                    }
-                }
-            }
-
-            if (nvJid < 0) {
-                // Assign the controller number on the first button press
-                // so that unused gamepads are not assigned.
-                if (buttonFlags != 0) {
-                    for (short i = 0; i < NV_MAX_NUM_GAMEPADS; i++) {
-                        if (!gamepadAssignments.containsValue(i)) {
-                            nvJid = i;
-                            gamepadAssignments.put(jid, i);
-                            logger.info("Gamepad {} ({}) assigned to {}",
-                                        jid, glfwGetJoystickName(jid), i);
-                            break;
-                        }
-                    }
-
-                    if (nvJid < 0) {
-                        logger.warn("Failed to assign the controller {} ({})", jid, glfwGetJoystickName(jid));
-                    }
-                }
-            }
-
-            if (nvJid < 0) {
-                continue;
-            }
-
-            final FloatBuffer axes = glfwGetJoystickAxes(jid);
-            if (axes == null) {
-                continue;
-            }
-
-            final int numAxes = axes.remaining();
-            for (int i = 0; i < numAxes; i++) {
-                final float value = axes.get(i);
-                final GamepadMapping.Entry mapped = mapping.mapAxis(i, value);
-                if (mapped == GamepadMapping.MISSING) {
-                    final float absVal = Math.abs(value);
-                    if (absVal >= 0.5) {
-                        final int key = jid << 16 | (value >= 0 ? 0x0100 : 0x0200) | i;
-                        if (!knownMissingGamepadMappings.contains(key)) {
-                            knownMissingGamepadMappings.add(key);
-                            logger.warn("Missing gamepad axis mapping for {} ({}): {}{}{}",
-                                        jid, glfwGetJoystickName(jid), i, value > 0 ? "+" : "-", absVal);
-                        }
-                    }
-                    continue;
-                }
-
-                if (mapped == GamepadMapping.IGNORED) {
-                    continue;
-                }
-
-                final GamepadInput in = mapped.in();
-                final GamepadOutput out = mapped.out();
-                switch (out) {
-                    case LS_LEFT:
-                    case LS_RIGHT:
-                        leftStickX = getGamepadStickValue(in, value);
-                        break;
-                    case LS_DOWN:
-                    case LS_UP:
-                        leftStickY = getGamepadStickValue(in, value);
-                        break;
-                    case RS_LEFT:
-                    case RS_RIGHT:
-                        rightStickX = getGamepadStickValue(in, value);
-                        break;
-                    case RS_DOWN:
-                    case RS_UP:
-                        rightStickY = getGamepadStickValue(in, value);
-                        break;
-                    case LT:
-                        leftTrigger = getGamepadTriggerValue(in, value);
-                        break;
-                    case RT:
-                        rightTrigger = getGamepadTriggerValue(in, value);
-                        break;
-                    default:
-                        if (isGamepadButtonPressed(value)) {
-                            buttonFlags |= out.buttonFlag();
-                        }
-                        break;
-                }
-            }
-
-            // Apply dead zone.
-            final float leftStickScalar = (float) Math.sqrt((double) leftStickX * leftStickX +
-                                                            (double) leftStickY * leftStickY) / NV_STICK_MAX;
-            final float rightStickScalar = (float) Math.sqrt((double) rightStickX * rightStickX +
-                                                             (double) rightStickY * rightStickY) / NV_STICK_MAX;
-            if (leftStickScalar < mapping.leftStickDeadZone()) {
-                leftStickX = 0;
-                leftStickY = 0;
-            }
-            if (rightStickScalar < mapping.rightStickDeadZone()) {
-                rightStickX = 0;
-                rightStickY = 0;
-            }
-
-            final GamepadState lastGamepadState = lastGamepadStates[nvJid];
-            final short lastGamepadButtonFlags = lastGamepadState.buttonFlags();
-
-            // Process the input only when there's a change.
-            if (lastGamepadState.update(
-                    buttonFlags, leftTrigger, rightTrigger,
-                    leftStickX, leftStickY, rightStickX, rightStickY)) {
-
-                if (nvConn != null) {
-                    nvConn.sendControllerInput(
-                            nvJid, buttonFlags, leftTrigger, rightTrigger,
-                            leftStickX, leftStickY, rightStickX, rightStickY);
-                }
-
-                // Quit when OSD is visible and BACK+START is pressed.
-                if (showOsd) {
-                    if (buttonFlags == (BACK_FLAG | PLAY_FLAG) &&
-                        (lastGamepadButtonFlags == 0 ||
-                         lastGamepadButtonFlags == BACK_FLAG ||
-                         lastGamepadButtonFlags == PLAY_FLAG)) {
-
-                        glfwSetWindowShouldClose(window, true);
-                    }
-                }
-
-                // Toggle OSD when SPECIAL+Y or BACK+Y is pressed.
-                if (buttonFlags == (SPECIAL_BUTTON_FLAG | Y_FLAG) &&
-                    (lastGamepadButtonFlags == 0 ||
-                     lastGamepadButtonFlags == SPECIAL_BUTTON_FLAG) ||
-                    buttonFlags == (BACK_FLAG | Y_FLAG) &&
-                    (lastGamepadButtonFlags == 0 ||
-                     lastGamepadButtonFlags == BACK_FLAG)) {
-
-                    setOsdVisibility(window, !showOsd);
-                }
-            }
+    private void onGamepadButtons(short buttonFlags, short lastButtonFlags) {
+        // NB: May be invoked by a thread other than the render thread.
+        if (!pendingTasks.offer(() -> handleGamepadHotkeys(buttonFlags, lastButtonFlags))) {
+            logger.warn("Too many pending tasks; ignoring a gamepad hotkey");
         }
     }
 
-    private static boolean isGamepadButtonPressed(float value) {
-        return Math.abs(value) > 0.5f;
-    }
-
-    private static short getGamepadStickValue(GamepadInput in, float value) {
-        return (short) (Math.min(Math.max(getGamepadAxisValue(in, value), -1.0), 1.0) * NV_STICK_MAX);
-    }
-
-    private static byte getGamepadTriggerValue(GamepadInput in, float value) {
-        return (byte) (Math.min(Math.max(getGamepadAxisValue(in, value), 0), 1.0) * NV_TRIGGER_MAX);
-    }
+    private void handleGamepadHotkeys(short buttonFlags, short lastButtonFlags) {
+        // Quit when OSD is visible and BACK+START is pressed.
+        if (showOsd) {
+            if (buttonFlags == (BACK_FLAG | PLAY_FLAG) &&
+                (lastButtonFlags == 0 ||
+                 lastButtonFlags == BACK_FLAG ||
+                 lastButtonFlags == PLAY_FLAG)) {
 
-    private static float getGamepadAxisValue(GamepadInput in, float value) {
-        final float start = in.start();
-        final float end = in.end();
-        final float outputStart = in.outputStart();
-        final float outputEnd = in.outputEnd();
-        final float scalar;
-        if (start < end) {
-            scalar = (value - start) / (end - start);
-        } else {
-            scalar = (start - value) / (start - end);
+                glfwSetWindowShouldClose(window, true);
+            }
         }
 
-        float outValue;
-        if (outputStart < outputEnd) {
-            outValue = outputStart + (outputEnd - outputStart) * scalar;
-        } else {
-            outValue = outputStart - (outputStart - outputEnd) * scalar;
-        }
+        // Toggle OSD when SPECIAL+Y or BACK+Y is pressed.
+        if (buttonFlags == (SPECIAL_BUTTON_FLAG | Y_FLAG) &&
+            (lastButtonFlags == 0 ||
+             lastButtonFlags == SPECIAL_BUTTON_FLAG) ||
+            buttonFlags == (BACK_FLAG | Y_FLAG) &&
+            (lastButtonFlags == 0 ||
+             lastButtonFlags == BACK_FLAG)) {
 
-        return outValue;
+            setOsdVisibility(window, !showOsd);
+        }
     }
 
     private void handlePendingFrames(int fbWidth, int fbHeight) {
-        final int numFrames = pendingFrames.size();
-        if (numFrames == 0) {
+        final long renderStartTime = System.nanoTime();
+        final FFmpegFrame e = framePacer.poll(pendingFrames, renderStartTime);
+        if (e == null) {
             if (lastFrame != null) {
                 drawFrame(fbWidth, fbHeight, lastFrame);
             }
             return;
         }
 
-        if (numFrames > 2) {
-            for (int i = 1; i < numFrames; i++) {
-                pendingFrames.poll().release();
-                droppedStreamFrameCounter++;
-            }
-        }
-
-        final FFmpegFrame e = pendingFrames.poll();
         releaseLastFrame();
 
-        final long renderStartTime = System.nanoTime();
-
+        final long[] timestamps = e.timestamps();
+        timestamps[LatencyRecorder.DEQUEUED] = renderStartTime;
+        frameRenderer.upload(e);
+        timestamps[LatencyRecorder.UPLOADED] = System.nanoTime();
         drawFrame(fbWidth, fbHeight, e);
         lastFrame = e;
+        presentingFrame = e;
         streamFrameCounter++;
+        presentedFrames.increment();
 
-        streamRenderTime += System.nanoTime() - renderStartTime;
+        streamRenderTime.record(System.nanoTime() - renderStartTime);
     }
 
     private void releaseLastFrame() {
@@ -675,6 +433,7 @@ final class MainWindow {
             lastFrame = null;
         }
     }
+
     private void drawFrame(int fbWidth, int fbHeight, FFmpegFrame e) {
         final int streamWidth = e.width();
         final int streamHeight = e.height();
@@ -692,16 +451,8 @@ final class MainWindow {
         zoomedX = fbWidth - zoomedWidth >>> 1;
         zoomedY = fbHeight - zoomedHeight >>> 1;
 
-        glBindTexture(GL_TEXTURE_2D, frameTexture);
-        glBindFramebuffer(GL_READ_FRAMEBUFFER, frameBuffer);
-
-        glTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, streamWidth, streamHeight,
-                        GL_BGRA, GL_UNSIGNED_BYTE, e.dataAddress());
-        glBlitFramebuffer(0, streamHeight, streamWidth, 0,
-                          zoomedX, zoomedY,
-                          zoomedWidth + zoomedX, zoomedHeight + zoomedY, GL_COLOR_BUFFER_BIT, GL_NEAREST);
-        glBindFramebuffer(GL_READ_FRAMEBUFFER, 0);
-        glBindTexture(GL_TEXTURE_2D, 0);
+        frameRenderer.draw(e, zoomedX, zoomedY, zoomedWidth, zoomedHeight);
+        glViewport(0, 0, fbWidth, fbHeight);
     }
 
     private void handlePendingTasks() {
@@ -725,27 +476,31 @@ final class MainWindow {
         nk.render(width, height, fbWidth, fbHeight);
 
         osdFrameCounter++;
-        osdRenderTime += System.nanoTime() - renderStartTime;
+        osdRenderTime.record(System.nanoTime() - renderStartTime);
     }
 
     private void updateStats() {
         final long currentTime = System.nanoTime();
         final long elapsedTime = currentTime - lastStatUpdateTime;
         if (elapsedTime > 2000000000) { // Update at every other second
+            pacingDrops.add(framePacer.droppedFrames());
+            refreshRate.set(framePacer.refreshRate());
+            sourceFrameRate.set(framePacer.streamFrameRate());
+            judder.set(framePacer.judderMillis());
+
             if (nvConn != null) {
                 osd.setStatus(String.format(
-                        "Stream[fps: %2.2f, drops: %2.2f, ms/f: %2.2f] OSD[fps: %2.2f, ms/f: %2.2f]",
+                        "Stream[fps: %2.2f, drops: %2.2f, upload: %s, pacing: %s] OSD[fps: %2.2f]\n%s",
                         streamFrameCounter * 1000000000.0 / elapsedTime,
-                        droppedStreamFrameCounter * 1000000000.0 / elapsedTime,
-                        streamFrameCounter != 0 ? streamRenderTime / 1000000.0 / streamFrameCounter : 0,
+                        framePacer.droppedFrames() * 1000000000.0 / elapsedTime,
+                        frameRenderer.uploadMode() == UploadMode.PERSISTENT ? "persistent" : "orphan",
+                        framePacer.isSmoothing() ? "smooth" : "latency",
                         osdFrameCounter * 1000000000.0 / elapsedTime,
-                        osdFrameCounter != 0 ? osdRenderTime / 1000000.0 / osdFrameCounter : 0));
+                        metricExporter.text()));
             }
             streamFrameCounter = 0;
-            droppedStreamFrameCounter = 0;
-            streamRenderTime = 0;
+            framePacer.resetStats();
             osdFrameCounter = 0;
-            osdRenderTime = 0;
             lastStatUpdateTime = currentTime;
         }
     }
@@ -840,22 +595,6 @@ final class MainWindow {
         }
     }
 
-    private void onJoystick(int jid, int event) {
-        switch (event) {
-            case GLFW_CONNECTED:
-                final String name = glfwGetJoystickName(jid);
-                final GamepadMapping mapping = availableGamepadMappings.find(name);
-                attachedGamepads.put(jid, mapping);
-                logger.info("Gamepad {} ({}) attached; using mapping '{}'", jid, name, mapping.id());
-                break;
-            case GLFW_DISCONNECTED:
-                attachedGamepads.remove(jid);
-                gamepadAssignments.remove(jid);
-                logger.info("Gamepad {} detached", jid);
-                break;
-        }
-    }
-
     private static void onError(int error, long description) {
         throw panic(String.format("[0x%X]: %s", error, getDescription(description)));
     }
@@ -0,0 +1,25 @@
+package kr.motd.gleamstream;
+
+import com.limelight.nvstream.av.audio.AudioRenderer;
+
+/**
+ * An {@link AudioRenderer} which decodes the audio stream without playing it.
+ */
+final class NullAudioRenderer implements AudioRenderer {
+
+    @Override
+    public int getCapabilities() {
+        return CAPABILITY_DIRECT_SUBMIT;
+    }
+
+    @Override
+    public boolean streamInitialized(int channelCount, int channelMask, int samplesPerFrame, int sampleRate) {
+        return true;
+    }
+
+    @Override
+    public void playDecodedAudio(byte[] audioData, int offset, int length) {}
+
+    @Override
+    public void streamClosing() {}
+}
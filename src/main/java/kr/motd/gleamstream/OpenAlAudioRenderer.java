@@ -17,6 +17,7 @@ import static org.lwjgl.openal.AL10.alGenSources;
 import static org.lwjgl.openal.AL10.alGetError;
 import static org.lwjgl.openal.AL10.alGetSourcei;
 import static org.lwjgl.openal.AL10.alGetString;
+import static org.lwjgl.openal.AL10.alIsExtensionPresent;
 import static org.lwjgl.openal.AL10.alListenerf;
 import static org.lwjgl.openal.AL10.alSourcePlay;
 import static org.lwjgl.openal.AL10.alSourceQueueBuffers;
@@ -29,6 +30,7 @@ import static org.lwjgl.openal.ALC10.alcDestroyContext;
 import static org.lwjgl.openal.ALC10.alcGetString;
 import static org.lwjgl.openal.ALC10.alcMakeContextCurrent;
 import static org.lwjgl.openal.ALC10.alcOpenDevice;
+import static org.lwjgl.openal.EXTMCFormats.AL_FORMAT_51CHN16;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 import java.nio.ByteBuffer;
@@ -43,13 +45,31 @@ import org.slf4j.LoggerFactory;
 
 import com.limelight.nvstream.av.audio.AudioRenderer;
 
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
-
+/**
+ * Plays the audio through OpenAL on the thread which receives it.
+ *
+ * <p>The frames are copied into a staging buffer as they are submitted, and the staged frames are queued
+ * into the source as a single AL buffer when {@link #flushDecodedAudio()} is invoked, so that a burst of
+ * frames, e.g. the concealed frames after a loss or the silence after an underrun, costs a single
+ * {@code alBufferData()} and {@code alSourceQueueBuffers()}. The AL buffers are taken from a fixed ring,
+ * and the processed ones are unqueued all at once when the number of the pending frames is asked.
+ */
 public final class OpenAlAudioRenderer implements AudioRenderer {
 
     private static final Logger logger = LoggerFactory.getLogger(OpenAlAudioRenderer.class);
 
+    // The downmix gains in Q15: 1 and 1/sqrt(2) for the center and rear channels, divided by their sum
+    private static final int DOWNMIX_GAIN_SHIFT = 15;
+    private static final int DOWNMIX_FRONT_GAIN = 13572;
+    private static final int DOWNMIX_SIDE_GAIN = 9598;
+
+    // More than the jitter buffer keeps queued at most
+    private static final int NUM_BUFFERS = 64;
+    private static final int MAX_FRAMES_PER_BUFFER = 8;
+
+    // Check if the source ran dry before queueing only if fewer frames than this were pending.
+    private static final int MIN_SAFE_PENDING_FRAMES = 2;
+
     private boolean initialized;
     private long device;
     private long ctx;
@@ -58,8 +78,19 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
     private int frequency;
     private int source;
     private ByteBuffer directBuffer;
+    private boolean downmix;
 
-    private final IntList buffers = new IntArrayList();
+    // The ring of the AL buffers. The queued ones start from ringHead.
+    private final int[] ring = new int[NUM_BUFFERS];
+    private final int[] ringFrames = new int[NUM_BUFFERS];
+    private int ringHead;
+    private int queuedBuffers;
+    private int queuedFrames;
+    private IntBuffer unqueuedBuffers;
+    private boolean reclaimedSinceFlush;
+
+    // The frames in directBuffer which were not queued yet
+    private int stagedFrames;
 
     /**
      * The callback for the audio stream being initialized and starting to receive.
@@ -72,7 +103,7 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
     public boolean streamInitialized(int channelCount, int channelMask, int samplesPerFrame, int sampleRate) {
         switch (channelCount) {
             case 2:
-                format = AL_FORMAT_STEREO16;
+            case 6:
                 break;
             default:
                 logger.warn("Unsupported channel count: {}", channelCount);
@@ -108,6 +139,18 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
             return false;
         }
 
+        format = AL_FORMAT_STEREO16;
+        downmix = false;
+        if (channelCount == 6) {
+            if (alIsExtensionPresent("AL_EXT_MCFORMATS")) {
+                format = AL_FORMAT_51CHN16;
+                logger.info("Playing 5.1 surround audio");
+            } else {
+                downmix = true;
+                logger.info("Downmixing 5.1 surround audio to stereo; AL_EXT_MCFORMATS is unsupported");
+            }
+        }
+
         source = alGenSources();
         alError = alGetError();
         if (alError != AL_NO_ERROR) {
@@ -119,13 +162,29 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
         alSourcef(source, AL_GAIN, 1.0f);
         alListenerf(AL_GAIN, 1.0f);
 
-        directBuffer = MemoryUtil.memAlloc(8192);
+        for (int i = 0; i < NUM_BUFFERS; i++) {
+            ring[i] = alGenBuffers();
+        }
+        alError = alGetError();
+        if (alError != AL_NO_ERROR) {
+            logger.warn("Failed to generate sound buffers: {}", alGetString(alError));
+            destroy();
+            return false;
+        }
+        ringHead = 0;
+        queuedBuffers = 0;
+        queuedFrames = 0;
+        stagedFrames = 0;
+
+        // Leave room for the frames stretched by the jitter buffer.
+        directBuffer = MemoryUtil.memAlloc(samplesPerFrame * 2 * MAX_FRAMES_PER_BUFFER * 2);
+        unqueuedBuffers = MemoryUtil.memAllocInt(NUM_BUFFERS);
 
         return true;
     }
 
     /**
-     * Takes some audio data and writes it out to the renderer.
+     * Takes some audio data and stages it until {@link #flushDecodedAudio()} is invoked.
      * @param pcmData the array that contains the audio data
      * @param offset the offset at which the data starts in the array
      * @param length the length of data to be rendered
@@ -136,23 +195,47 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
             return;
         }
 
-        setCurrentThread(alCaps);
+        final int stagedLength = downmix ? length / 3 : length;
+        if (stagedFrames == MAX_FRAMES_PER_BUFFER || directBuffer.remaining() < stagedLength) {
+            flushDecodedAudio();
+        }
+        if (directBuffer.remaining() < stagedLength) {
+            directBuffer = MemoryUtil.memRealloc(directBuffer, stagedLength * 2);
+        }
 
-        final int buf;
-        if (alGetSourcei(source, AL_BUFFERS_PROCESSED) != 0) {
-            buf = alSourceUnqueueBuffers(source);
+        if (downmix) {
+            downmix51(pcmData, offset, length, directBuffer);
         } else {
-            buf = alGenBuffers();
-            buffers.add(buf);
+            directBuffer.put(pcmData, offset, length);
         }
+        stagedFrames++;
+    }
 
-        if (directBuffer.capacity() < length) {
-            directBuffer = MemoryUtil.memRealloc(directBuffer, length * 2);
+    /**
+     * Queues the staged frames into the source as a single buffer.
+     */
+    @Override
+    public void flushDecodedAudio() {
+        if (device == NULL || stagedFrames == 0) {
+            return;
+        }
+
+        setCurrentThread(alCaps);
+        if (!reclaimedSinceFlush || queuedBuffers == NUM_BUFFERS) {
+            reclaimBuffers();
+        }
+        reclaimedSinceFlush = false;
+
+        if (queuedBuffers == NUM_BUFFERS) {
+            logger.warn("Sound device is too slow! Forced to drop {} frame(s)", stagedFrames);
+            directBuffer.clear();
+            stagedFrames = 0;
+            return;
         }
-        directBuffer.clear();
-        directBuffer.put(pcmData, offset, length);
-        directBuffer.flip();
 
+        final int index = (ringHead + queuedBuffers) % NUM_BUFFERS;
+        final int buf = ring[index];
+        directBuffer.flip();
         alBufferData(buf, format, directBuffer, frequency);
         alSourceQueueBuffers(source, buf);
         final int alError = alGetError();
@@ -160,9 +243,69 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
             throw panic("Failed to enqueue a sound buffer: " + alGetString(alError));
         }
 
-        if (alGetSourcei(source, AL_SOURCE_STATE) != AL_PLAYING) {
+        // The source stops when it runs dry. It can't have run dry since the buffers were reclaimed
+        // if enough frames were pending at that time.
+        if (queuedFrames < MIN_SAFE_PENDING_FRAMES && alGetSourcei(source, AL_SOURCE_STATE) != AL_PLAYING) {
             alSourcePlay(source);
         }
+
+        ringFrames[index] = stagedFrames;
+        queuedBuffers++;
+        queuedFrames += stagedFrames;
+        directBuffer.clear();
+        stagedFrames = 0;
+    }
+
+    /**
+     * Unqueues the processed buffers from the source.
+     */
+    private void reclaimBuffers() {
+        final int processed = alGetSourcei(source, AL_BUFFERS_PROCESSED);
+        if (processed == 0) {
+            return;
+        }
+
+        unqueuedBuffers.clear().limit(processed);
+        alSourceUnqueueBuffers(source, unqueuedBuffers);
+        for (int i = 0; i < processed; i++) {
+            queuedFrames -= ringFrames[ringHead];
+            ringHead = (ringHead + 1) % NUM_BUFFERS;
+        }
+        queuedBuffers -= processed;
+    }
+
+    /**
+     * Downmixes the interleaved 5.1 samples (front left, front right, center, LFE, rear left and rear right)
+     * into stereo, mixing the center and the rear channels at -3 dB and dropping the LFE channel. The gains
+     * are scaled so that they add up to 1, which never clips. The decoder writes the samples in the native
+     * byte order, which is little endian on all supported platforms.
+     */
+    private static void downmix51(byte[] in, int offset, int length, ByteBuffer out) {
+        final int end = offset + length / 12 * 12;
+        for (int i = offset; i < end; i += 12) {
+            final int fl = in[i] & 0xFF | in[i + 1] << 8;
+            final int fr = in[i + 2] & 0xFF | in[i + 3] << 8;
+            final int c = in[i + 4] & 0xFF | in[i + 5] << 8;
+            final int rl = in[i + 8] & 0xFF | in[i + 9] << 8;
+            final int rr = in[i + 10] & 0xFF | in[i + 11] << 8;
+            out.putShort((short) (fl * DOWNMIX_FRONT_GAIN + (c + rl) * DOWNMIX_SIDE_GAIN >> DOWNMIX_GAIN_SHIFT));
+            out.putShort((short) (fr * DOWNMIX_FRONT_GAIN + (c + rr) * DOWNMIX_SIDE_GAIN >> DOWNMIX_GAIN_SHIFT));
+        }
+    }
+
+    /**
+     * Returns the number of the staged frames and the frames in the queued buffers which were not played yet.
+     */
+    @Override
+    public int getPendingFrames() {
+        if (device == NULL) {
+            return -1;
+        }
+
+        setCurrentThread(alCaps);
+        reclaimBuffers();
+        reclaimedSinceFlush = true;
+        return queuedFrames + stagedFrames;
     }
 
     /**
@@ -170,6 +313,7 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
      */
     @Override
     public void streamClosing() {
+        flushDecodedAudio();
         setCurrentThread(alCaps);
         boolean interrupted = false;
         try {
@@ -191,19 +335,24 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
             MemoryUtil.memFree(directBuffer);
             directBuffer = null;
         }
-
-        for (int buf : buffers) {
-            if (buf != 0) {
-                alDeleteBuffers(buf);
-            }
+        if (unqueuedBuffers != null) {
+            MemoryUtil.memFree(unqueuedBuffers);
+            unqueuedBuffers = null;
         }
-        buffers.clear();
 
+        // Delete the source first, so that no buffer is queued.
         if (source != 0) {
             alDeleteSources(source);
             source = 0;
         }
 
+        for (int i = 0; i < NUM_BUFFERS; i++) {
+            if (ring[i] != 0) {
+                alDeleteBuffers(ring[i]);
+                ring[i] = 0;
+            }
+        }
+
         if (ctx != NULL) {
             alcDestroyContext(ctx);
             ctx = NULL;
@@ -216,6 +365,6 @@ public final class OpenAlAudioRenderer implements AudioRenderer {
 
     @Override
     public int getCapabilities() {
-        return 0;
+        return CAPABILITY_DIRECT_SUBMIT;
     }
 }
@@ -102,8 +102,9 @@ public final class Osd {
         try (MemoryStack stack = stackPush()) {
             final int y;
             if (progressText != null) {
-                drawProgress(ctx, stack, width, lineHeight * 3, progressText, progressDotIdx);
-                y = lineHeight * 3;
+                final String[] lines = progressText.split("\n");
+                y = lineHeight * (lines.length + 2);
+                drawProgress(ctx, stack, width, y, lineHeight, lines, progressDotIdx);
             } else {
                 y = 0;
             }
@@ -111,20 +112,28 @@ public final class Osd {
         }
     }
 
-    private static void drawProgress(NkContext ctx, MemoryStack stack, int width, int height,
-                                     String progressText, int progressDotIdx) {
+    private static void drawProgress(NkContext ctx, MemoryStack stack, int width, int height, int lineHeight,
+                                     String[] lines, int progressDotIdx) {
         NkRect rect = NkRect.mallocStack(stack);
         if (nk_begin(ctx, "Progress", nk_rect(0, 0, width, height, rect), NK_WINDOW_NO_SCROLLBAR)) {
             NkRect contentRect = NkRect.mallocStack(stack);
             nk_window_get_content_region(ctx, contentRect);
-            nk_layout_row_dynamic(ctx, height, 1);
-            final String text;
-            if (progressDotIdx >= 0) {
-                text = progressText + ' ' + PROGRESS_DOTS[progressDotIdx];
+            if (lines.length == 1) {
+                nk_layout_row_dynamic(ctx, height, 1);
+                final String text;
+                if (progressDotIdx >= 0) {
+                    text = lines[0] + ' ' + PROGRESS_DOTS[progressDotIdx];
+                } else {
+                    text = lines[0];
+                }
+                nk_label(ctx, text, NK_TEXT_CENTERED);
             } else {
-                text = progressText;
+                // A multi-line status, e.g. the stream statistics
+                nk_layout_row_dynamic(ctx, lineHeight, 1);
+                for (String line : lines) {
+                    nk_label(ctx, line, NK_TEXT_CENTERED);
+                }
             }
-            nk_label(ctx, text, NK_TEXT_CENTERED);
         }
         nk_end(ctx);
     }
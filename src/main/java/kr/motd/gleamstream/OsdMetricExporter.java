@@ -0,0 +1,109 @@
+package kr.motd.gleamstream;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.limelight.nvstream.metrics.Counter;
+import com.limelight.nvstream.metrics.Gauge;
+import com.limelight.nvstream.metrics.LatencyHistogram;
+import com.limelight.nvstream.metrics.Metric;
+import com.limelight.nvstream.metrics.MetricExporter;
+
+/**
+ * Formats the metrics into the lines shown in the status of the {@link Osd}: the gauges in one line,
+ * the counters with their rates in another, and the 50th, 95th and 99th percentiles of the histograms of
+ * the same name in a line per name, e.g.
+ * <pre>{@code
+ * video_frame_latency p50/p95/p99 ms[net: 1.2/2.3/3.1, decode: 4.0/4.8/5.5, ...]
+ * }</pre>
+ */
+final class OsdMetricExporter implements MetricExporter {
+
+    private final Map<Metric, Long> lastCounterValues = new IdentityHashMap<>();
+    private long lastExportTime;
+    private volatile String text = "";
+
+    /**
+     * Returns the lines formatted at the last export, or an empty string if not exported yet.
+     */
+    String text() {
+        return text;
+    }
+
+    @Override
+    public void export(List<Metric> metrics) {
+        final long currentTime = System.nanoTime();
+        final double elapsedSeconds = lastExportTime != 0 ? (currentTime - lastExportTime) / 1e9 : 0;
+        lastExportTime = currentTime;
+
+        final StringBuilder gauges = new StringBuilder();
+        final StringBuilder counters = new StringBuilder();
+        final Map<String, StringBuilder> histograms = new LinkedHashMap<>();
+
+        for (Metric m : metrics) {
+            switch (m.type()) {
+                case GAUGE:
+                    separate(gauges).append(m).append(": ")
+                                    .append(String.format(Locale.ROOT, "%.2f", ((Gauge) m).value()));
+                    break;
+                case COUNTER: {
+                    final long value = ((Counter) m).value();
+                    final Long lastValue = lastCounterValues.put(m, value);
+                    separate(counters).append(m).append(": ").append(value);
+                    if (lastValue != null && elapsedSeconds > 0) {
+                        counters.append(String.format(Locale.ROOT, " (%.1f/s)",
+                                                      (value - lastValue) / elapsedSeconds));
+                    }
+                    break;
+                }
+                case HISTOGRAM: {
+                    final LatencyHistogram h = (LatencyHistogram) m;
+                    if (h.intervalCount() == 0) {
+                        break;
+                    }
+
+                    StringBuilder buf = histograms.get(m.name());
+                    if (buf == null) {
+                        buf = new StringBuilder(m.name()).append(" p50/p95/p99 ms[");
+                        histograms.put(m.name(), buf);
+                    } else {
+                        buf.append(", ");
+                    }
+                    for (int i = 0; i < m.numLabels(); i++) {
+                        buf.append(m.labelValue(i)).append(": ");
+                    }
+                    buf.append(String.format(Locale.ROOT, "%.1f/%.1f/%.1f",
+                                             h.intervalPercentile(50) / 1e6,
+                                             h.intervalPercentile(95) / 1e6,
+                                             h.intervalPercentile(99) / 1e6));
+                    break;
+                }
+            }
+        }
+
+        final StringBuilder buf = new StringBuilder();
+        if (gauges.length() != 0) {
+            buf.append(gauges).append('\n');
+        }
+        if (counters.length() != 0) {
+            buf.append(counters).append('\n');
+        }
+        for (StringBuilder h : histograms.values()) {
+            buf.append(h).append("]\n");
+        }
+        if (buf.length() != 0) {
+            buf.setLength(buf.length() - 1);
+        }
+        text = buf.toString();
+    }
+
+    private static StringBuilder separate(StringBuilder buf) {
+        if (buf.length() != 0) {
+            buf.append(", ");
+        }
+        return buf;
+    }
+}
@@ -0,0 +1,200 @@
+package kr.motd.gleamstream.gamepad;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A {@link GamepadMapping} compiled into flat primitive tables indexed by the button and axis numbers, so that
+ * mapping a {@link JoystickState} neither looks up a map nor recomputes the range of an axis for each sample.
+ *
+ * <p>A pressed button and a matching axis range set a flag in the button flags and write a value into one of
+ * the slots of the stick and trigger values, i.e. {@link #SLOT_LEFT_TRIGGER} ... {@link #SLOT_RIGHT_STICK_Y}.
+ * A mapping which only sets a flag writes into {@link #SLOT_NONE}, and a mapping which only writes a value sets
+ * no flag, so that both are applied without branching on the kind of the output. An axis range is a record of
+ * the range it matches, the {@code scale} and {@code offset} which turn an axis value into a slot value, and
+ * the bounds of the slot value.
+ */
+final class CompiledGamepadMapping {
+
+    static final int NV_STICK_MAX = 0x7FFE;
+    static final int NV_TRIGGER_MAX = 0xFF;
+
+    static final int SLOT_LEFT_TRIGGER = 0;
+    static final int SLOT_RIGHT_TRIGGER = 1;
+    static final int SLOT_LEFT_STICK_X = 2;
+    static final int SLOT_LEFT_STICK_Y = 3;
+    static final int SLOT_RIGHT_STICK_X = 4;
+    static final int SLOT_RIGHT_STICK_Y = 5;
+    // Written by the outputs which are not a stick or a trigger, and never read
+    static final int SLOT_NONE = 6;
+    static final int NUM_SLOTS = 7;
+
+    // Indexed by the button number
+    final boolean[] missingButtons = new boolean[JoystickState.MAX_BUTTONS];
+    final short[] buttonFlags = new short[JoystickState.MAX_BUTTONS];
+    final byte[] buttonSlots = new byte[JoystickState.MAX_BUTTONS];
+    final int[] buttonValues = new int[JoystickState.MAX_BUTTONS];
+
+    // Indexed by the axis number. The records of the axis i are from axisRecordStarts[i] to axisRecordStarts[i + 1].
+    final boolean[] missingAxes = new boolean[JoystickState.MAX_AXES];
+    final int[] axisRecordStarts = new int[JoystickState.MAX_AXES + 1];
+
+    // Indexed by the record number, in the order of the mappings
+    final float[] recordMins;
+    final float[] recordMaxes;
+    final float[] recordScales;
+    final float[] recordOffsets;
+    final float[] recordMinValues;
+    final float[] recordMaxValues;
+    final short[] recordFlags;
+    final byte[] recordSlots;
+
+    // Compared with the squared distance of a stick from the center, which saves a square root
+    final double leftStickDeadZoneSquared;
+    final double rightStickDeadZoneSquared;
+
+    CompiledGamepadMapping(Map<GamepadOutput, GamepadInput> mappings,
+                           Set<Integer> ignoredButtons, Set<Integer> ignoredAxes,
+                           float leftStickDeadZone, float rightStickDeadZone) {
+
+        // Buttons
+        Arrays.fill(missingButtons, true);
+        Arrays.fill(buttonSlots, (byte) SLOT_NONE);
+        for (int button : ignoredButtons) {
+            if (isValid(button, JoystickState.MAX_BUTTONS)) {
+                missingButtons[button] = false;
+            }
+        }
+        mappings.forEach((out, in) -> {
+            final int button = in.id();
+            if (in.isAxis() || !isValid(button, JoystickState.MAX_BUTTONS)) {
+                return;
+            }
+
+            missingButtons[button] = false;
+            buttonFlags[button] = 0;
+            buttonSlots[button] = (byte) slot(out);
+            buttonValues[button] = 0;
+            switch (out) {
+                case LS_LEFT:
+                case LS_DOWN:
+                case RS_LEFT:
+                case RS_DOWN:
+                    buttonValues[button] = -NV_STICK_MAX;
+                    break;
+                case LS_RIGHT:
+                case LS_UP:
+                case RS_RIGHT:
+                case RS_UP:
+                    buttonValues[button] = NV_STICK_MAX;
+                    break;
+                case LT:
+                case RT:
+                    buttonValues[button] = NV_TRIGGER_MAX;
+                    break;
+                default:
+                    buttonFlags[button] = out.buttonFlag();
+            }
+        });
+
+        // Axes; count the records of each axis first.
+        final int[] numRecords = new int[JoystickState.MAX_AXES];
+        mappings.values().forEach(in -> {
+            if (in.isAxis() && isValid(in.id(), JoystickState.MAX_AXES)) {
+                numRecords[in.id()]++;
+            }
+        });
+        for (int axis : ignoredAxes) {
+            // An ignored axis is a record which matches any value and writes nothing.
+            if (isValid(axis, JoystickState.MAX_AXES) && numRecords[axis] == 0) {
+                numRecords[axis] = 1;
+            }
+        }
+
+        int totalRecords = 0;
+        for (int i = 0; i < JoystickState.MAX_AXES; i++) {
+            axisRecordStarts[i] = totalRecords;
+            missingAxes[i] = numRecords[i] == 0;
+            totalRecords += numRecords[i];
+        }
+        axisRecordStarts[JoystickState.MAX_AXES] = totalRecords;
+
+        recordMins = new float[totalRecords];
+        recordMaxes = new float[totalRecords];
+        recordScales = new float[totalRecords];
+        recordOffsets = new float[totalRecords];
+        recordMinValues = new float[totalRecords];
+        recordMaxValues = new float[totalRecords];
+        recordFlags = new short[totalRecords];
+        recordSlots = new byte[totalRecords];
+        Arrays.fill(recordMins, Float.NEGATIVE_INFINITY);
+        Arrays.fill(recordMaxes, Float.POSITIVE_INFINITY);
+        Arrays.fill(recordSlots, (byte) SLOT_NONE);
+
+        final int[] nextRecords = Arrays.copyOf(axisRecordStarts, JoystickState.MAX_AXES);
+        mappings.forEach((out, in) -> {
+            final int axis = in.id();
+            if (!in.isAxis() || !isValid(axis, JoystickState.MAX_AXES)) {
+                return;
+            }
+
+            final int r = nextRecords[axis]++;
+            final float start = in.start();
+            final float end = in.end();
+            recordMins[r] = Math.min(start, end);
+            recordMaxes[r] = Math.max(start, end);
+
+            final int slot = slot(out);
+            recordSlots[r] = (byte) slot;
+            if (slot == SLOT_NONE) {
+                // Pressed when the value is beyond the half of the range.
+                recordFlags[r] = out.buttonFlag();
+                return;
+            }
+
+            // outputStart + (outputEnd - outputStart) * (value - start) / (end - start), multiplied by the maximum
+            final float maxValue = slot == SLOT_LEFT_TRIGGER || slot == SLOT_RIGHT_TRIGGER ? NV_TRIGGER_MAX
+                                                                                           : NV_STICK_MAX;
+            final float scale = (in.outputEnd() - in.outputStart()) / (end - start);
+            recordScales[r] = scale * maxValue;
+            recordOffsets[r] = (in.outputStart() - start * scale) * maxValue;
+            recordMinValues[r] = maxValue == NV_TRIGGER_MAX ? 0 : -maxValue;
+            recordMaxValues[r] = maxValue;
+        });
+
+        leftStickDeadZoneSquared = square(leftStickDeadZone * NV_STICK_MAX);
+        rightStickDeadZoneSquared = square(rightStickDeadZone * NV_STICK_MAX);
+    }
+
+    private static int slot(GamepadOutput out) {
+        switch (out) {
+            case LS_LEFT:
+            case LS_RIGHT:
+                return SLOT_LEFT_STICK_X;
+            case LS_DOWN:
+            case LS_UP:
+                return SLOT_LEFT_STICK_Y;
+            case RS_LEFT:
+            case RS_RIGHT:
+                return SLOT_RIGHT_STICK_X;
+            case RS_DOWN:
+            case RS_UP:
+                return SLOT_RIGHT_STICK_Y;
+            case LT:
+                return SLOT_LEFT_TRIGGER;
+            case RT:
+                return SLOT_RIGHT_TRIGGER;
+            default:
+                return SLOT_NONE;
+        }
+    }
+
+    private static boolean isValid(int id, int max) {
+        return id >= 0 && id < max;
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
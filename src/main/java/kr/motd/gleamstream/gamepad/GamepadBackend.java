@@ -0,0 +1,22 @@
+package kr.motd.gleamstream.gamepad;
+
+/**
+ * Reads the gamepads attached to the machine and feeds their states to a {@link GamepadDispatcher}.
+ */
+public interface GamepadBackend {
+
+    /**
+     * Starts to read the gamepads. Invoked by the render thread after GLFW is initialized.
+     */
+    void start();
+
+    /**
+     * Invoked by the render thread once per frame.
+     */
+    void poll();
+
+    /**
+     * Stops reading the gamepads. Invoked by the render thread before GLFW is terminated.
+     */
+    void stop();
+}
@@ -0,0 +1,131 @@
+package kr.motd.gleamstream.gamepad;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.NvConnection;
+
+/**
+ * Maps the {@link JoystickState}s read by a {@link GamepadBackend} and sends them to the server when they
+ * change. A gamepad is assigned a controller number when its button is pressed for the first time, so that
+ * unused gamepads are not assigned. The methods may be called from any thread, e.g. the render thread for
+ * {@link GlfwGamepadBackend} and a thread per device for {@link LinuxGamepadBackend}.
+ */
+public final class GamepadDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(GamepadDispatcher.class);
+
+    private static final int NV_MAX_NUM_GAMEPADS = 4;
+
+    /**
+     * Invoked when the buttons pressed in an assigned gamepad change.
+     */
+    @FunctionalInterface
+    public interface ButtonListener {
+        void onButtonFlagsChange(short buttonFlags, short lastButtonFlags);
+    }
+
+    private final GamepadMappings mappings;
+    private final ButtonListener listener;
+    private final Gamepad[] assignedGamepads = new Gamepad[NV_MAX_NUM_GAMEPADS];
+    private volatile NvConnection nvConn;
+
+    public GamepadDispatcher(GamepadMappings mappings, ButtonListener listener) {
+        this.mappings = mappings;
+        this.listener = listener;
+    }
+
+    public void setNvConnection(NvConnection nvConn) {
+        this.nvConn = nvConn;
+    }
+
+    /**
+     * Starts to accept the input from the specified gamepad.
+     *
+     * @param id the ID of the gamepad in the backend, e.g. {@code js0}
+     * @param name the name of the gamepad, which is used for finding its {@link GamepadMapping}
+     */
+    public Gamepad attach(String id, String name) {
+        final GamepadMapping mapping = mappings.find(name);
+        logger.info("Gamepad {} ({}) attached; using mapping '{}'", id, name, mapping.id());
+        return new Gamepad(new GamepadMapper(id, name, mapping), id, name);
+    }
+
+    public synchronized void detach(Gamepad gamepad) {
+        if (gamepad.controllerNumber >= 0) {
+            assignedGamepads[gamepad.controllerNumber] = null;
+            gamepad.controllerNumber = -1;
+        }
+        logger.info("Gamepad {} detached", gamepad.id);
+    }
+
+    /**
+     * Sends the state of the specified gamepad if it has changed.
+     *
+     * @param inputTime the {@link System#nanoTime()} when the {@link JoystickState} was read
+     */
+    public synchronized void dispatch(Gamepad gamepad, JoystickState joystick, long inputTime) {
+        final GamepadState state = gamepad.state;
+        final short lastButtonFlags = state.buttonFlags();
+        if (!gamepad.mapper.map(joystick, state)) {
+            return;
+        }
+
+        final short buttonFlags = state.buttonFlags();
+        if (gamepad.controllerNumber < 0) {
+            if (buttonFlags == 0 || !assign(gamepad)) {
+                return;
+            }
+        }
+
+        final NvConnection nvConn = this.nvConn;
+        if (nvConn != null) {
+            nvConn.sendControllerInput(
+                    gamepad.controllerNumber, buttonFlags, state.leftTrigger(), state.rightTrigger(),
+                    state.leftStickX(), state.leftStickY(), state.rightStickX(), state.rightStickY(),
+                    inputTime);
+        }
+
+        if (buttonFlags != lastButtonFlags) {
+            listener.onButtonFlagsChange(buttonFlags, lastButtonFlags);
+        }
+    }
+
+    private boolean assign(Gamepad gamepad) {
+        for (short i = 0; i < NV_MAX_NUM_GAMEPADS; i++) {
+            if (assignedGamepads[i] == null) {
+                assignedGamepads[i] = gamepad;
+                gamepad.controllerNumber = i;
+                logger.info("Gamepad {} ({}) assigned to {}", gamepad.id, gamepad.name, i);
+                return true;
+            }
+        }
+
+        logger.warn("Failed to assign the controller {} ({})", gamepad.id, gamepad.name);
+        return false;
+    }
+
+    /**
+     * A gamepad {@linkplain #attach(String, String) attached} to a {@link GamepadDispatcher}.
+     */
+    public static final class Gamepad {
+
+        final GamepadMapper mapper;
+        final String id;
+        final String name;
+        final GamepadState state = new GamepadState();
+        // Guarded by the GamepadDispatcher
+        short controllerNumber = -1;
+
+        Gamepad(GamepadMapper mapper, String id, String name) {
+            this.mapper = mapper;
+            this.id = id;
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return id + " (" + name + ')';
+        }
+    }
+}
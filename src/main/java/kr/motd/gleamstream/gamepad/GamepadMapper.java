@@ -0,0 +1,112 @@
+package kr.motd.gleamstream.gamepad;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+/**
+ * Maps the {@link JoystickState} of a gamepad into the {@link GamepadState} GFE understands,
+ * according to its {@link CompiledGamepadMapping}. Mapping a state does not allocate.
+ */
+final class GamepadMapper {
+
+    private static final Logger logger = LoggerFactory.getLogger(GamepadMapper.class);
+
+    private final String id;
+    private final String name;
+    private final CompiledGamepadMapping mapping;
+    private final IntSet knownMissingMappings = new IntOpenHashSet();
+    // The values of the sticks and triggers being mapped, indexed by the slots of CompiledGamepadMapping
+    private final int[] slots = new int[CompiledGamepadMapping.NUM_SLOTS];
+
+    GamepadMapper(String id, String name, GamepadMapping mapping) {
+        this.id = id;
+        this.name = name;
+        this.mapping = mapping.compiled();
+    }
+
+    /**
+     * Updates the specified {@link GamepadState} with the mapped state of the joystick.
+     *
+     * @return whether the {@link GamepadState} has been changed
+     */
+    boolean map(JoystickState joystick, GamepadState state) {
+        final CompiledGamepadMapping mapping = this.mapping;
+        final int[] slots = this.slots;
+        Arrays.fill(slots, 0);
+        int buttonFlags = 0;
+
+        final boolean[] buttons = joystick.buttons;
+        final int numButtons = joystick.numButtons;
+        for (int i = 0; i < numButtons; i++) {
+            if (!buttons[i]) {
+                continue;
+            }
+
+            if (mapping.missingButtons[i]) {
+                if (knownMissingMappings.add(i)) {
+                    logger.warn("Missing gamepad button mapping for {} ({}): {}", id, name, i);
+                }
+                continue;
+            }
+
+            buttonFlags |= mapping.buttonFlags[i];
+            slots[mapping.buttonSlots[i]] = mapping.buttonValues[i];
+        }
+
+        final float[] axes = joystick.axes;
+        final int numAxes = joystick.numAxes;
+        for (int i = 0; i < numAxes; i++) {
+            final float value = axes[i];
+            if (mapping.missingAxes[i]) {
+                final float absVal = Math.abs(value);
+                if (absVal >= 0.5) {
+                    final int key = (value >= 0 ? 0x0100 : 0x0200) | i;
+                    if (knownMissingMappings.add(key)) {
+                        logger.warn("Missing gamepad axis mapping for {} ({}): {}{}{}",
+                                    id, name, i, value > 0 ? "+" : "-", absVal);
+                    }
+                }
+                continue;
+            }
+
+            // Apply the first range which contains the value, if any.
+            final int end = mapping.axisRecordStarts[i + 1];
+            for (int r = mapping.axisRecordStarts[i]; r < end; r++) {
+                if (value >= mapping.recordMins[r] && value <= mapping.recordMaxes[r]) {
+                    if (Math.abs(value) > 0.5f) {
+                        buttonFlags |= mapping.recordFlags[r];
+                    }
+                    slots[mapping.recordSlots[r]] = (int) Math.min(
+                            Math.max(value * mapping.recordScales[r] + mapping.recordOffsets[r],
+                                     mapping.recordMinValues[r]),
+                            mapping.recordMaxValues[r]);
+                    break;
+                }
+            }
+        }
+
+        // Apply dead zone.
+        int leftStickX = slots[CompiledGamepadMapping.SLOT_LEFT_STICK_X];
+        int leftStickY = slots[CompiledGamepadMapping.SLOT_LEFT_STICK_Y];
+        int rightStickX = slots[CompiledGamepadMapping.SLOT_RIGHT_STICK_X];
+        int rightStickY = slots[CompiledGamepadMapping.SLOT_RIGHT_STICK_Y];
+        if (leftStickX * leftStickX + leftStickY * leftStickY < mapping.leftStickDeadZoneSquared) {
+            leftStickX = 0;
+            leftStickY = 0;
+        }
+        if (rightStickX * rightStickX + rightStickY * rightStickY < mapping.rightStickDeadZoneSquared) {
+            rightStickX = 0;
+            rightStickY = 0;
+        }
+
+        return state.update((short) buttonFlags,
+                            (byte) slots[CompiledGamepadMapping.SLOT_LEFT_TRIGGER],
+                            (byte) slots[CompiledGamepadMapping.SLOT_RIGHT_TRIGGER],
+                            (short) leftStickX, (short) leftStickY, (short) rightStickX, (short) rightStickY);
+    }
+}
@@ -0,0 +1,136 @@
+package kr.motd.gleamstream.gamepad;
+
+import static kr.motd.gleamstream.Panic.panic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.Util;
+
+import kr.motd.gleamstream.gamepad.GamepadDispatcher.Gamepad;
+
+/**
+ * A {@link GamepadBackend} which replays the events of a Linux joystick device recorded into a file, e.g.
+ * {@code cat /dev/input/js0 > gamepad.jsdev}, at their original timing, as a gamepad with the default mapping.
+ * It feeds the states as the other backend would, so that the input latency of both backends can be
+ * compared with the same input:
+ * <ul>
+ *   <li>as {@link LinuxGamepadBackend} does, i.e. as soon as an event happens, or</li>
+ *   <li>as {@link GlfwGamepadBackend} does, i.e. when the render thread {@linkplain #poll() polls} for the
+ *       next frame, in which case the input time is when the earliest unpolled event happened.</li>
+ * </ul>
+ */
+public final class GamepadReplayer implements GamepadBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(GamepadReplayer.class);
+
+    private final File file;
+    private final GamepadDispatcher dispatcher;
+    private final boolean polled;
+    private final JoystickState joystick = new JoystickState();
+    private Gamepad gamepad;
+    private Thread thread;
+
+    // The time when the earliest event not polled yet happened, or 0 if none. Guarded by this.
+    private long pendingInputTime;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param polled whether the render thread polls the state for each frame, as with GLFW
+     */
+    public GamepadReplayer(File file, GamepadDispatcher dispatcher, boolean polled) {
+        this.file = file;
+        this.dispatcher = dispatcher;
+        this.polled = polled;
+    }
+
+    @Override
+    public void start() {
+        final ByteBuffer events;
+        try {
+            events = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            throw panic("Failed to read the gamepad events from " + file, e);
+        }
+
+        gamepad = dispatcher.attach("replay", file.getName());
+        thread = new Thread(() -> replay(events), "Gamepad - replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void replay(ByteBuffer events) {
+        final int numEvents = events.remaining() / JoydevEvents.EVENT_SIZE;
+        if (numEvents == 0) {
+            return;
+        }
+
+        final long startTimeMillis = JoydevEvents.timeMillis(events, 0);
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < numEvents; i++) {
+            final int offset = i * JoydevEvents.EVENT_SIZE;
+            final long eventTime = startTime + TimeUnit.MILLISECONDS.toNanos(
+                    JoydevEvents.timeMillis(events, offset) - startTimeMillis);
+            for (;;) {
+                final long delay = eventTime - System.nanoTime();
+                if (delay <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(delay);
+                if (Thread.interrupted()) {
+                    return;
+                }
+            }
+
+            synchronized (this) {
+                JoydevEvents.apply(events, offset, joystick);
+                if (polled) {
+                    if (pendingInputTime == 0) {
+                        pendingInputTime = eventTime;
+                    }
+                } else {
+                    // Dispatch the events which happened at the same time at once, as a read(2) would return.
+                    final int nextOffset = offset + JoydevEvents.EVENT_SIZE;
+                    if (i + 1 == numEvents ||
+                        JoydevEvents.timeMillis(events, nextOffset) != JoydevEvents.timeMillis(events, offset)) {
+                        dispatcher.dispatch(gamepad, joystick, System.nanoTime());
+                    }
+                }
+            }
+        }
+
+        logger.info("Replayed {} gamepad events from {}", numEvents, file);
+    }
+
+    @Override
+    public void poll() {
+        if (!polled) {
+            return;
+        }
+
+        synchronized (this) {
+            if (pendingInputTime != 0) {
+                dispatcher.dispatch(gamepad, joystick, pendingInputTime);
+                pendingInputTime = 0;
+            }
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (thread != null) {
+            Util.stop(thread);
+            thread = null;
+            dispatcher.detach(gamepad);
+        }
+    }
+}
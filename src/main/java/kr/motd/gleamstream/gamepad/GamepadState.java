@@ -36,4 +36,28 @@ public final class GamepadState {
     public short buttonFlags() {
         return buttonFlags;
     }
+
+    public byte leftTrigger() {
+        return leftTrigger;
+    }
+
+    public byte rightTrigger() {
+        return rightTrigger;
+    }
+
+    public short leftStickX() {
+        return leftStickX;
+    }
+
+    public short leftStickY() {
+        return leftStickY;
+    }
+
+    public short rightStickX() {
+        return rightStickX;
+    }
+
+    public short rightStickY() {
+        return rightStickY;
+    }
 }
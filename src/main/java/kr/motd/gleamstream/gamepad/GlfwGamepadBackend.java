@@ -0,0 +1,99 @@
+package kr.motd.gleamstream.gamepad;
+
+import static org.lwjgl.glfw.GLFW.GLFW_CONNECTED;
+import static org.lwjgl.glfw.GLFW.GLFW_DISCONNECTED;
+import static org.lwjgl.glfw.GLFW.GLFW_JOYSTICK_1;
+import static org.lwjgl.glfw.GLFW.GLFW_JOYSTICK_LAST;
+import static org.lwjgl.glfw.GLFW.GLFW_PRESS;
+import static org.lwjgl.glfw.GLFW.glfwGetJoystickAxes;
+import static org.lwjgl.glfw.GLFW.glfwGetJoystickButtons;
+import static org.lwjgl.glfw.GLFW.glfwGetJoystickName;
+import static org.lwjgl.glfw.GLFW.glfwJoystickPresent;
+import static org.lwjgl.glfw.GLFW.glfwSetJoystickCallback;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import kr.motd.gleamstream.gamepad.GamepadDispatcher.Gamepad;
+
+/**
+ * A {@link GamepadBackend} which polls the joysticks via GLFW once per frame, which works on all platforms.
+ * Note that GLFW does not tell when a state was read, so the input time is when it's polled, i.e. the wait
+ * for the next frame is not measured.
+ */
+public final class GlfwGamepadBackend implements GamepadBackend {
+
+    private final GamepadDispatcher dispatcher;
+    private final Int2ObjectMap<Gamepad> attachedGamepads = new Int2ObjectOpenHashMap<>();
+    private final JoystickState joystick = new JoystickState();
+
+    public GlfwGamepadBackend(GamepadDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void start() {
+        glfwSetJoystickCallback(this::onJoystick);
+
+        // Initialize the Joystick state
+        for (int i = GLFW_JOYSTICK_1; i <= GLFW_JOYSTICK_LAST; i++) {
+            if (attachedGamepads.containsKey(i)) {
+                if (!glfwJoystickPresent(i)) {
+                    onJoystick(i, GLFW_DISCONNECTED);
+                }
+            } else {
+                if (glfwJoystickPresent(i)) {
+                    onJoystick(i, GLFW_CONNECTED);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void poll() {
+        for (Int2ObjectMap.Entry<Gamepad> e : attachedGamepads.int2ObjectEntrySet()) {
+            final int jid = e.getIntKey();
+            final ByteBuffer buttons = glfwGetJoystickButtons(jid);
+            final FloatBuffer axes = glfwGetJoystickAxes(jid);
+            if (buttons == null || axes == null) {
+                continue;
+            }
+
+            final long inputTime = System.nanoTime();
+            final int numButtons = Math.min(buttons.remaining(), JoystickState.MAX_BUTTONS);
+            for (int i = 0; i < numButtons; i++) {
+                joystick.buttons[i] = buttons.get(i) == GLFW_PRESS;
+            }
+            joystick.numButtons = numButtons;
+
+            final int numAxes = Math.min(axes.remaining(), JoystickState.MAX_AXES);
+            for (int i = 0; i < numAxes; i++) {
+                joystick.axes[i] = axes.get(i);
+            }
+            joystick.numAxes = numAxes;
+
+            dispatcher.dispatch(e.getValue(), joystick, inputTime);
+        }
+    }
+
+    @Override
+    public void stop() {
+        // GLFW stops reporting the joysticks when terminated.
+    }
+
+    private void onJoystick(int jid, int event) {
+        switch (event) {
+            case GLFW_CONNECTED:
+                attachedGamepads.put(jid, dispatcher.attach(String.valueOf(jid), glfwGetJoystickName(jid)));
+                break;
+            case GLFW_DISCONNECTED:
+                final Gamepad gamepad = attachedGamepads.remove(jid);
+                if (gamepad != null) {
+                    dispatcher.detach(gamepad);
+                }
+                break;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package kr.motd.gleamstream.gamepad;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes the {@code struct js_event}s read from a Linux joystick device, i.e. {@code /dev/input/js*}:
+ * <pre>{@code
+ * struct js_event {
+ *     __u32 time;   // event timestamp in milliseconds
+ *     __s16 value;  // value
+ *     __u8 type;    // event type
+ *     __u8 number;  // axis/button number
+ * };
+ * }</pre>
+ * The values are normalized as GLFW 3.2 does, which reads the same devices, so that the button and axis
+ * numbers and the ranges in {@code gamepads.json} mean the same thing whichever backend reads a gamepad.
+ * The {@link ByteBuffer}s must be in the little endian order.
+ */
+final class JoydevEvents {
+
+    static final int EVENT_SIZE = 8;
+
+    private static final int JS_EVENT_BUTTON = 0x01;
+    private static final int JS_EVENT_AXIS = 0x02;
+    // Set for the synthetic events which tell the initial state on open
+    private static final int JS_EVENT_INIT = 0x80;
+
+    /**
+     * Applies all complete events in the remaining bytes of the specified buffer, leaving a partial event
+     * at the end, if any.
+     */
+    static void applyAll(ByteBuffer buf, JoystickState state) {
+        int offset = buf.position();
+        final int limit = buf.limit();
+        for (; offset + EVENT_SIZE <= limit; offset += EVENT_SIZE) {
+            apply(buf, offset, state);
+        }
+        buf.position(offset);
+    }
+
+    /**
+     * Applies the event at the specified offset of the buffer.
+     */
+    static void apply(ByteBuffer buf, int offset, JoystickState state) {
+        final short value = buf.getShort(offset + 4);
+        final int type = buf.get(offset + 6) & 0xFF & ~JS_EVENT_INIT;
+        final int number = buf.get(offset + 7) & 0xFF;
+        switch (type) {
+            case JS_EVENT_BUTTON:
+                state.setButton(number, value != 0);
+                break;
+            case JS_EVENT_AXIS:
+                state.setAxis(number, value / 32767.0f);
+                break;
+        }
+    }
+
+    /**
+     * Returns the timestamp of the event at the specified offset of the buffer, in milliseconds.
+     */
+    static long timeMillis(ByteBuffer buf, int offset) {
+        return buf.getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    private JoydevEvents() {}
+}
@@ -0,0 +1,31 @@
+package kr.motd.gleamstream.gamepad;
+
+/**
+ * The raw state of the buttons and axes of a joystick, as GLFW reports it, i.e. an axis is between
+ * {@code -1.0} and {@code 1.0}, so that the same {@link GamepadMapping} applies to all backends.
+ */
+public final class JoystickState {
+
+    // joydev numbers the buttons and axes with a byte.
+    static final int MAX_BUTTONS = 256;
+    static final int MAX_AXES = 256;
+
+    final boolean[] buttons = new boolean[MAX_BUTTONS];
+    final float[] axes = new float[MAX_AXES];
+    int numButtons;
+    int numAxes;
+
+    void setButton(int button, boolean pressed) {
+        buttons[button] = pressed;
+        if (button >= numButtons) {
+            numButtons = button + 1;
+        }
+    }
+
+    void setAxis(int axis, float value) {
+        axes[axis] = value;
+        if (axis >= numAxes) {
+            numAxes = axis + 1;
+        }
+    }
+}
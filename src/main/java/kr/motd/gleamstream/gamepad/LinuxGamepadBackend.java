@@ -0,0 +1,162 @@
+package kr.motd.gleamstream.gamepad;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.lwjgl.system.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.Util;
+
+import kr.motd.gleamstream.gamepad.GamepadDispatcher.Gamepad;
+
+/**
+ * A {@link GamepadBackend} which reads the Linux joystick devices, i.e. {@code /dev/input/js*}, each on its
+ * own thread, so that a state is sent as soon as the kernel reports it rather than at the next frame.
+ * The devices are the ones GLFW 3.2 reads as well, so the same {@link GamepadMapping}s apply.
+ * New devices are looked for every {@value #SCAN_INTERVAL_MILLIS} milliseconds.
+ */
+public final class LinuxGamepadBackend implements GamepadBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(LinuxGamepadBackend.class);
+
+    private static final Path INPUT_DIR = Paths.get("/dev/input");
+    private static final Path SYSFS_INPUT_DIR = Paths.get("/sys/class/input");
+    private static final long SCAN_INTERVAL_MILLIS = 1000;
+    // joydev queues up to 64 events per reader.
+    private static final int MAX_EVENTS_PER_READ = 64;
+
+    public static boolean isAvailable() {
+        return Platform.get() == Platform.LINUX && Files.isDirectory(INPUT_DIR);
+    }
+
+    private final GamepadDispatcher dispatcher;
+    private final Map<String, Thread> readerThreads = new ConcurrentHashMap<>();
+    // The devices which failed to open, so that the failure is logged only once per device
+    private final Set<String> unreadableDevices = ConcurrentHashMap.newKeySet();
+    private ScheduledFuture<?> scanFuture;
+    // Guarded by readerThreads, so that a scan in progress does not start a reader after stop()
+    private boolean stopped;
+
+    public LinuxGamepadBackend(GamepadDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    @Override
+    public void start() {
+        scanFuture = Util.scheduleAtFixedDelay(this::scan, 0, SCAN_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void poll() {
+        // The devices are read by their own threads.
+    }
+
+    @Override
+    public void stop() {
+        if (scanFuture != null) {
+            // Does not wait for the scan in progress, which starts no reader once stopped is set.
+            scanFuture.cancel(false);
+            scanFuture = null;
+        }
+
+        final Thread[] threads;
+        synchronized (readerThreads) {
+            stopped = true;
+            threads = readerThreads.values().toArray(new Thread[0]);
+        }
+
+        // Interrupting a thread closes the channel it's blocked on.
+        Util.stop(threads);
+    }
+
+    private void scan() {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(INPUT_DIR, "js[0-9]*")) {
+            for (Path path : stream) {
+                final String device = path.getFileName().toString();
+                if (readerThreads.containsKey(device)) {
+                    continue;
+                }
+
+                final ReadableByteChannel ch;
+                try {
+                    ch = Files.newByteChannel(path);
+                } catch (IOException e) {
+                    // udev may not have granted the access to a new device yet.
+                    if (unreadableDevices.add(device)) {
+                        logger.warn("Failed to open {}; will retry", path, e);
+                    }
+                    continue;
+                }
+
+                unreadableDevices.remove(device);
+                final Thread thread = new Thread(() -> read(device, ch), "Gamepad - " + device);
+                thread.setDaemon(true);
+                synchronized (readerThreads) {
+                    if (stopped) {
+                        closeQuietly(ch);
+                        return;
+                    }
+                    readerThreads.put(device, thread);
+                    thread.start();
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to look for the joystick devices in {}", INPUT_DIR, e);
+        }
+    }
+
+    private void read(String device, ReadableByteChannel ch) {
+        final Gamepad gamepad = dispatcher.attach(device, readName(device));
+        try {
+            final ByteBuffer buf = ByteBuffer.allocate(JoydevEvents.EVENT_SIZE * MAX_EVENTS_PER_READ)
+                                             .order(ByteOrder.LITTLE_ENDIAN);
+            final JoystickState joystick = new JoystickState();
+            while (ch.read(buf) >= 0) {
+                final long inputTime = System.nanoTime();
+                buf.flip();
+                JoydevEvents.applyAll(buf, joystick);
+                buf.compact();
+                dispatcher.dispatch(gamepad, joystick, inputTime);
+            }
+        } catch (ClosedByInterruptException ignored) {
+            // Stopped
+        } catch (IOException e) {
+            // Unplugged
+            logger.debug("Failed to read /dev/input/{}", device, e);
+        } finally {
+            closeQuietly(ch);
+            dispatcher.detach(gamepad);
+            readerThreads.remove(device);
+        }
+    }
+
+    private static void closeQuietly(ReadableByteChannel ch) {
+        try {
+            ch.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static String readName(String device) {
+        try {
+            final byte[] name = Files.readAllBytes(SYSFS_INPUT_DIR.resolve(device).resolve("device/name"));
+            return new String(name, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return device;
+        }
+    }
+}
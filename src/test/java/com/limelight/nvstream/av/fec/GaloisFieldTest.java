@@ -0,0 +1,119 @@
+package com.limelight.nvstream.av.fec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class GaloisFieldTest {
+
+    @Test
+    public void multiplyByGenerator() {
+        // Multiplying by x shifts left and reduces by 0x11D on overflow.
+        assertEquals(0x02, GaloisField.multiply((byte) 0x01, GaloisField.GENERATOR) & 0xFF);
+        assertEquals(0x80, GaloisField.multiply((byte) 0x40, GaloisField.GENERATOR) & 0xFF);
+        assertEquals(0x1D, GaloisField.multiply((byte) 0x80, GaloisField.GENERATOR) & 0xFF);
+        assertEquals(0xE7, GaloisField.multiply((byte) 0xFD, GaloisField.GENERATOR) & 0xFF);
+    }
+
+    @Test
+    public void multiply() {
+        for (int a = 0; a < GaloisField.FIELD_SIZE; a++) {
+            assertEquals(0, GaloisField.multiply((byte) a, (byte) 0));
+            assertEquals(a, GaloisField.multiply((byte) a, (byte) 1) & 0xFF);
+            for (int b = 0; b < GaloisField.FIELD_SIZE; b++) {
+                assertEquals(slowMultiply(a, b), GaloisField.multiply((byte) a, (byte) b) & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void divideInvertsMultiply() {
+        for (int a = 0; a < GaloisField.FIELD_SIZE; a++) {
+            for (int b = 1; b < GaloisField.FIELD_SIZE; b++) {
+                final byte product = GaloisField.multiply((byte) a, (byte) b);
+                assertEquals(a, GaloisField.divide(product, (byte) b) & 0xFF);
+            }
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void divideByZero() {
+        GaloisField.divide((byte) 1, (byte) 0);
+    }
+
+    @Test
+    public void exp() {
+        // x generates the multiplicative group, so its powers visit every non-zero element once.
+        final boolean[] seen = new boolean[GaloisField.FIELD_SIZE];
+        byte power = 1;
+        for (int n = 0; n < GaloisField.FIELD_SIZE - 1; n++) {
+            assertEquals(power, GaloisField.exp(GaloisField.GENERATOR, n));
+            assertFalse(seen[power & 0xFF]);
+            seen[power & 0xFF] = true;
+            power = GaloisField.multiply(power, GaloisField.GENERATOR);
+        }
+        assertEquals(1, power);
+        assertFalse(seen[0]);
+
+        assertEquals(1, GaloisField.exp((byte) 0, 0));
+        assertEquals(0, GaloisField.exp((byte) 0, 3));
+        assertEquals(1, GaloisField.exp(GaloisField.GENERATOR, GaloisField.FIELD_SIZE - 1));
+        assertEquals(0x1D, GaloisField.exp(GaloisField.GENERATOR, 8) & 0xFF);
+    }
+
+    @Test
+    public void invert() {
+        final byte[][] matrix = {
+                { 1, 2, 3 },
+                { 4, 5, 6 },
+                { 7, 8, 10 },
+        };
+        final byte[][] inverse = copy(matrix);
+        assertTrue(GaloisField.invert(inverse));
+
+        final byte[][] identity = GaloisField.multiply(matrix, inverse);
+        for (int i = 0; i < identity.length; i++) {
+            final byte[] row = new byte[identity.length];
+            row[i] = 1;
+            assertArrayEquals(row, identity[i]);
+        }
+    }
+
+    @Test
+    public void invertSingular() {
+        // The last row is the sum of the first two.
+        final byte[][] matrix = {
+                { 1, 2, 3 },
+                { 4, 5, 6 },
+                { 5, 7, 5 },
+        };
+        assertFalse(GaloisField.invert(matrix));
+    }
+
+    // Multiplies as a polynomial and reduces modulo 0x11D, bit by bit.
+    private static int slowMultiply(int a, int b) {
+        int product = 0;
+        for (int i = 0; i < 8; i++) {
+            if ((b & 1 << i) != 0) {
+                product ^= a << i;
+            }
+        }
+        for (int i = 14; i >= 8; i--) {
+            if ((product & 1 << i) != 0) {
+                product ^= 0x11D << i - 8;
+            }
+        }
+        return product;
+    }
+
+    private static byte[][] copy(byte[][] matrix) {
+        final byte[][] copy = new byte[matrix.length][];
+        for (int i = 0; i < matrix.length; i++) {
+            copy[i] = matrix[i].clone();
+        }
+        return copy;
+    }
+}
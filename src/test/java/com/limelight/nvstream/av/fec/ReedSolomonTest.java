@@ -0,0 +1,172 @@
+package com.limelight.nvstream.av.fec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ReedSolomonTest {
+
+    // The parity shards of the data shards made by data(), as computed by the construction of rs.c in
+    // moonlight-common-c, i.e. fec.c by Luigi Rizzo, which decodes the parity GFE sends.
+    private static final String[] RS_C_PARITY_6_4 = {
+            "773008459af476a6f9678dd01f7cf1aa",
+            "16f59a5d55870fd9674d70a7bf7faf74",
+            "22c9379eea78455f1b4aa71e7aed5a0b",
+            "7a08fad16d87f2ff7295dfe448ae719a",
+    };
+    private static final String[] RS_C_PARITY_3_3 = {
+            "90d48b8281b2959c",
+            "adb01a63787da2db",
+            "321125e1ca2ba367",
+    };
+    private static final String[] RS_C_PARITY_10_3 = {
+            "264908e83d1d07b3c24dac1f",
+            "bc10c82ece1a8269918d387a",
+            "b02e51809b39e9ec416bf7ae",
+    };
+
+    @Test
+    public void encodeAsRsC() {
+        assertParity(6, RS_C_PARITY_6_4);
+        assertParity(3, RS_C_PARITY_3_3);
+        assertParity(10, RS_C_PARITY_10_3);
+    }
+
+    @Test
+    public void reconstructFromRsCParity() {
+        // Lose as many data shards as there are parity shards, so that every parity row is needed.
+        assertReconstruction(6, RS_C_PARITY_6_4, 0, 2, 3, 5);
+        assertReconstruction(3, RS_C_PARITY_3_3, 0, 1, 2);
+        assertReconstruction(10, RS_C_PARITY_10_3, 1, 4, 9);
+    }
+
+    @Test
+    public void reconstructEveryErasurePattern() {
+        final int dataShards = 4;
+        final int parityShards = 3;
+        final int totalShards = dataShards + parityShards;
+        // Put the shard content in the middle of each array to see that nothing outside is touched.
+        final int offset = 5;
+        final int length = 9;
+        final int padding = 3;
+        final ReedSolomon codec = new ReedSolomon(dataShards, parityShards);
+
+        final byte[][] original = new byte[totalShards][];
+        for (int i = 0; i < totalShards; i++) {
+            original[i] = data(i, offset + length + padding);
+        }
+        codec.encodeParity(original, offset, length);
+
+        for (int lostMask = 0; lostMask < 1 << totalShards; lostMask++) {
+            final byte[][] shards = new byte[totalShards][];
+            final boolean[] present = new boolean[totalShards];
+            int lostShards = 0;
+            int lostDataShards = 0;
+            for (int i = 0; i < totalShards; i++) {
+                shards[i] = original[i].clone();
+                present[i] = (lostMask & 1 << i) == 0;
+                if (!present[i]) {
+                    // Garbage where the lost shard would be
+                    for (int j = offset; j < offset + length; j++) {
+                        shards[i][j] = (byte) (lostMask + j);
+                    }
+                    lostShards++;
+                    if (i < dataShards) {
+                        lostDataShards++;
+                    }
+                }
+            }
+
+            final String pattern = "lost shards: " + Integer.toBinaryString(lostMask);
+            if (lostDataShards != 0 && lostShards > parityShards) {
+                assertFalse(pattern, codec.reconstructData(shards, present, offset, length));
+                continue;
+            }
+
+            assertTrue(pattern, codec.reconstructData(shards, present, offset, length));
+            for (int i = 0; i < dataShards; i++) {
+                assertArrayEquals(pattern, original[i], shards[i]);
+            }
+        }
+    }
+
+    @Test
+    public void reconstructWithFewerParityShardsThanCodec() {
+        // A block with 2 parity shards, decoded by a codec made for 3
+        final int length = 16;
+        final byte[][] shards = shards(5, 2, length);
+        new ReedSolomon(5, 2).encodeParity(shards, 0, length);
+        final boolean[] present = { false, true, true, false, true, true, true };
+        shards[0] = new byte[length];
+        shards[3] = new byte[length];
+
+        final ReedSolomon codec = new ReedSolomon(5, 3);
+        assertEquals(3, codec.parityShards());
+        assertTrue(codec.reconstructData(shards, present, 0, length));
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(data(i, length), shards[i]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooManyShards() {
+        new ReedSolomon(200, ReedSolomon.MAX_SHARDS - 199);
+    }
+
+    private static void assertParity(int dataShards, String[] expectedParity) {
+        final int length = expectedParity[0].length() / 2;
+        final byte[][] shards = shards(dataShards, expectedParity.length, length);
+        new ReedSolomon(dataShards, expectedParity.length).encodeParity(shards, 0, length);
+        for (int p = 0; p < expectedParity.length; p++) {
+            assertArrayEquals(hex(expectedParity[p]), shards[dataShards + p]);
+        }
+    }
+
+    private static void assertReconstruction(int dataShards, String[] parity, int... lostShards) {
+        final int length = parity[0].length() / 2;
+        final byte[][] shards = shards(dataShards, parity.length, length);
+        final boolean[] present = new boolean[shards.length];
+        for (int p = 0; p < parity.length; p++) {
+            shards[dataShards + p] = hex(parity[p]);
+        }
+        for (int i = 0; i < shards.length; i++) {
+            present[i] = true;
+        }
+        for (int lost : lostShards) {
+            shards[lost] = new byte[length];
+            present[lost] = false;
+        }
+
+        assertTrue(new ReedSolomon(dataShards, parity.length).reconstructData(shards, present, 0, length));
+        for (int i = 0; i < dataShards; i++) {
+            assertArrayEquals(data(i, length), shards[i]);
+        }
+    }
+
+    private static byte[][] shards(int dataShards, int parityShards, int length) {
+        final byte[][] shards = new byte[dataShards + parityShards][length];
+        for (int i = 0; i < dataShards; i++) {
+            shards[i] = data(i, length);
+        }
+        return shards;
+    }
+
+    private static byte[] data(int shard, int length) {
+        final byte[] data = new byte[length];
+        for (int j = 0; j < length; j++) {
+            data[j] = (byte) (shard * 31 + j * 7 + 1);
+        }
+        return data;
+    }
+
+    private static byte[] hex(String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
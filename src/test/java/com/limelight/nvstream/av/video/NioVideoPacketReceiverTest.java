@@ -0,0 +1,145 @@
+package com.limelight.nvstream.av.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.limelight.nvstream.av.RtpPacket;
+
+public class NioVideoPacketReceiverTest {
+
+    private static final int PACKET_SIZE = 1024 + RtpPacket.MAX_HEADER_SIZE;
+
+    private DatagramChannel sender;
+    private NioVideoPacketReceiver receiver;
+    private final VideoPacket[] packets = new VideoPacket[4];
+
+    @Before
+    public void setUp() throws Exception {
+        final InetAddress loopback = InetAddress.getLoopbackAddress();
+        final DatagramChannel channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(loopback, 0));
+        sender = DatagramChannel.open();
+        sender.bind(new InetSocketAddress(loopback, 0));
+        sender.connect(channel.getLocalAddress());
+        channel.connect(sender.getLocalAddress());
+        receiver = new NioVideoPacketReceiver(channel);
+
+        for (int i = 0; i < packets.length; i++) {
+            packets[i] = new VideoPacket(ByteBuffer.allocateDirect(PACKET_SIZE), false);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        receiver.close();
+        sender.close();
+    }
+
+    @Test(timeout = 10000)
+    public void receiveBatches() throws Exception {
+        // More datagrams than a batch can hold
+        for (int i = 0; i < 6; i++) {
+            sender.write(ByteBuffer.wrap(datagram(i)));
+        }
+
+        int next = 0;
+        while (next < 6) {
+            final int received = receiver.receive(packets, packets.length);
+            assertTrue(received >= 1 && received <= packets.length);
+            for (int i = 0; i < received; i++) {
+                assertDatagram(next++, packets[i]);
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void waitForDatagram() throws Exception {
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                future.complete(receiver.receive(packets, packets.length));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        thread.start();
+
+        // Let the thread wait for a while.
+        Thread.sleep(100);
+        assertFalse(future.isDone());
+
+        sender.write(ByteBuffer.wrap(datagram(0)));
+        assertEquals(1, (int) future.get(5, TimeUnit.SECONDS));
+        assertDatagram(0, packets[0]);
+        thread.join();
+    }
+
+    @Test(timeout = 10000)
+    public void closeWhileWaiting() throws Exception {
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                future.complete(receiver.receive(packets, packets.length));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        thread.start();
+        Thread.sleep(100);
+
+        receiver.close();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("receive() returned after close()");
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ClosedChannelException);
+        }
+        thread.join();
+    }
+
+    @Test
+    public void readChannelOneDatagramAtATime() throws Exception {
+        final byte[] data = datagram(3);
+        final NioVideoPacketReceiver channelReceiver =
+                new NioVideoPacketReceiver(Channels.newChannel(new ByteArrayInputStream(data)));
+        assertEquals(1, channelReceiver.receive(packets, packets.length));
+        assertDatagram(3, packets[0]);
+        channelReceiver.close();
+    }
+
+    private static byte[] datagram(int index) {
+        // A different length and content for each datagram
+        final byte[] datagram = new byte[PACKET_SIZE - index * 7];
+        for (int i = 0; i < datagram.length; i++) {
+            datagram[i] = (byte) (index * 31 + i);
+        }
+        return datagram;
+    }
+
+    private static void assertDatagram(int index, VideoPacket packet) {
+        final ByteBuffer buffer = packet.getByteBuffer();
+        final byte[] expected = datagram(index);
+        assertEquals(0, buffer.position());
+        assertEquals(expected.length, buffer.limit());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], buffer.get(i));
+        }
+        assertTrue(packet.getReceiveTimestampNanos() != 0);
+    }
+}
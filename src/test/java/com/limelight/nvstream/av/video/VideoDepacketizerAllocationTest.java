@@ -0,0 +1,143 @@
+package com.limelight.nvstream.av.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.limelight.nvstream.ConnectionContext;
+import com.limelight.nvstream.av.RtpReorderQueue;
+import com.limelight.nvstream.av.RtpReorderQueue.RtpQueueStatus;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer.VideoFormat;
+import com.limelight.nvstream.av.video.VideoDepacketizerBenchmark.NoopConnectionStatusListener;
+
+/**
+ * Makes sure the depacketization of an in-order stream does not allocate at all once it's warmed up,
+ * which is what {@link VideoDepacketizerBenchmark} reports as {@code gc.alloc.rate.norm} with {@code -prof gc}.
+ * The packets go through the same path as in the benchmark and {@link VideoStream}.
+ */
+public class VideoDepacketizerAllocationTest {
+
+    private static final int MAX_PACKET_SIZE = 1024;
+    private static final int P_FRAME_SIZE = 48 * 1024;
+    private static final int IDR_FRAME_SIZE = 160 * 1024;
+    private static final int FRAMES_PER_CYCLE = 120;
+    private static final int MAX_MEASURED_CYCLES = 10;
+
+    private com.sun.management.ThreadMXBean threadBean;
+    private long threadId;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+        threadId = Thread.currentThread().getId();
+    }
+
+    @Test
+    public void inOrderH264() {
+        assertNoAllocation(VideoFormat.H264, FRAMES_PER_CYCLE);
+    }
+
+    @Test
+    public void inOrderH265() {
+        assertNoAllocation(VideoFormat.H265, FRAMES_PER_CYCLE);
+    }
+
+    @Test
+    public void idrHeavyH264() {
+        // Every 4th frame is an IDR frame, which has to go through the slow path.
+        assertNoAllocation(VideoFormat.H264, 4);
+    }
+
+    @Test
+    public void idrHeavyH265() {
+        assertNoAllocation(VideoFormat.H265, 4);
+    }
+
+    private void assertNoAllocation(VideoFormat format, int idrInterval) {
+        final SyntheticVideoStream stream = new SyntheticVideoStream(
+                format, MAX_PACKET_SIZE, FRAMES_PER_CYCLE, idrInterval, P_FRAME_SIZE, IDR_FRAME_SIZE,
+                0, false, 0, true);
+        final Pipeline pipeline = new Pipeline(format);
+
+        // Let the pools of the decode units and the reorder queue grow to their steady state.
+        final int packetsPerCycle = stream.packetsPerCycle();
+        assertEquals(stream.framesPerCycle() * 2, pipeline.run(stream, packetsPerCycle * 2));
+
+        // Measure the overhead of measuring, because getThreadAllocatedBytes() may allocate by itself.
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        final long overhead = threadBean.getThreadAllocatedBytes(threadId) - start;
+
+        // The JIT compiler may allocate a few bytes on this thread when it deoptimizes the code,
+        // so look for a cycle that allocated nothing rather than expecting all of them to.
+        final StringBuilder allocations = new StringBuilder();
+        for (int i = 0; i < MAX_MEASURED_CYCLES; i++) {
+            start = threadBean.getThreadAllocatedBytes(threadId);
+            final int frames = pipeline.run(stream, packetsPerCycle);
+            final long allocated = threadBean.getThreadAllocatedBytes(threadId) - start - overhead;
+
+            assertEquals(stream.framesPerCycle(), frames);
+            if (allocated <= 0) {
+                return;
+            }
+            allocations.append(allocations.length() == 0 ? "" : ", ").append(allocated);
+        }
+
+        fail("allocated bytes per " + packetsPerCycle + " packets: " + allocations);
+    }
+
+    /**
+     * The receive thread of {@link VideoStream} and the decoder thread, run on the same thread.
+     */
+    private static final class Pipeline {
+
+        private final VideoDepacketizer depacketizer;
+        private final RtpReorderQueue<VideoPacket> rtpQueue;
+        private final VideoFecQueue fecQueue;
+
+        Pipeline(VideoFormat format) {
+            // The capabilities of FFmpegVideoDecoderRenderer, as in the benchmark
+            final ConnectionContext context = SyntheticVideoStream.newConnectionContext(format, 0);
+            depacketizer = new VideoDepacketizer(context, NoopConnectionStatusListener.INSTANCE, MAX_PACKET_SIZE);
+            rtpQueue = new RtpReorderQueue<>(context.streamConfig.getVideoReorderQueueSize(),
+                                             context.streamConfig.getVideoReorderQueueDelay());
+            fecQueue = new VideoFecQueue(depacketizer, true, MAX_PACKET_SIZE, true);
+        }
+
+        /**
+         * Feeds the specified number of packets and returns the number of pictures decoded from them.
+         */
+        int run(SyntheticVideoStream stream, int packets) {
+            int frames = 0;
+            for (int i = 0; i < packets; i++) {
+                final VideoPacket packet = stream.next();
+                final RtpQueueStatus queueStatus = rtpQueue.addPacket(packet);
+                if (queueStatus == RtpQueueStatus.HANDLE_IMMEDIATELY) {
+                    fecQueue.addPacket(packet);
+                } else if (queueStatus == RtpQueueStatus.QUEUED_PACKETS_READY) {
+                    VideoPacket queuedPacket;
+                    while ((queuedPacket = rtpQueue.getQueuedPacket()) != null) {
+                        fecQueue.addPacket(queuedPacket);
+                        queuedPacket.dereferencePacket();
+                    }
+                }
+
+                VideoDecodeUnit du;
+                while ((du = depacketizer.pollNextDecodeUnit()) != null) {
+                    if ((du.getFlags() & VideoDecodeUnit.DU_FLAG_CODEC_CONFIG) == 0) {
+                        frames++;
+                    }
+                    depacketizer.freeDecodeUnit(du);
+                }
+            }
+            return frames;
+        }
+    }
+}
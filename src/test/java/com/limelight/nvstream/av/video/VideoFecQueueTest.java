@@ -0,0 +1,222 @@
+package com.limelight.nvstream.av.video;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.limelight.nvstream.ConnectionContext;
+import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.av.RtpPacket;
+import com.limelight.nvstream.av.fec.ReedSolomon;
+
+public class VideoFecQueueTest {
+
+    private static final int MAX_PACKET_SIZE = 64;
+    private static final int SHARD_SIZE = MAX_PACKET_SIZE + RtpPacket.MAX_HEADER_SIZE;
+    private static final int PAYLOAD_OFFSET = RtpPacket.MAX_HEADER_SIZE + VideoPacket.HEADER_SIZE;
+
+    private final List<VideoPacket> receivedPackets = new ArrayList<>();
+    private final List<String> received = new ArrayList<>();
+    private VideoFecQueue queue;
+
+    @Before
+    public void setUp() {
+        final ConnectionContext context = new ConnectionContext();
+        context.streamConfig = new StreamConfiguration.Builder().build();
+        context.serverGeneration = ConnectionContext.SERVER_GENERATION_7;
+        context.serverAppVersion = new int[] { 7, 1, 431, 0 };
+
+        final VideoDepacketizer depacketizer = new VideoDepacketizer(context, null, MAX_PACKET_SIZE) {
+            @Override
+            void addInputData(VideoPacket packet) {
+                // Describe the packet now, because a recovered packet is reused once released.
+                receivedPackets.add(packet);
+                received.add(describe(packet));
+            }
+        };
+        queue = new VideoFecQueue(depacketizer, true, MAX_PACKET_SIZE, false);
+    }
+
+    @Test
+    public void passThroughInOrder() {
+        final VideoPacket[] block = block(1, 100, 10, 4, 50);
+        assertEquals(6, block.length);
+
+        final List<String> expected = describe(block, 0, 1, 2, 3);
+        for (VideoPacket packet : block) {
+            queue.addPacket(packet);
+        }
+        queue.addPacket(block(2, 106, 14, 4, 50)[0]);
+
+        assertEquals(expected.size() + 1, received.size());
+        assertEquals(expected, received.subList(0, expected.size()));
+        for (int i = 0; i < 4; i++) {
+            // Passed as they are, and released once the next block started
+            assertSame(block[i], receivedPackets.get(i));
+            assertEquals(0, block[i].getRefCount());
+        }
+        assertEquals(0, queue.getRecoveredPacketCount());
+        assertEquals(0, queue.getUnrecoverableBlockCount());
+    }
+
+    @Test
+    public void recoverLostDataPacket() {
+        final VideoPacket[] block = block(1, 100, 10, 4, 50);
+        final List<String> expected = describe(block, 0, 1, 2, 3);
+
+        add(block, 0, 2, 3);
+        // Nothing after the lost packet goes through until it's recovered.
+        assertEquals(expected.subList(0, 1), received);
+
+        add(block, 4);
+        assertEquals(expected, received);
+        assertEquals(1, queue.getRecoveredPacketCount());
+
+        // The second parity packet is not needed anymore.
+        add(block, 5);
+        assertEquals(expected, received);
+        assertEquals(0, queue.getUnrecoverableBlockCount());
+    }
+
+    @Test
+    public void recoverLostFirstPacket() {
+        // The block starts right before the RTP sequence number wraps around, and its first packet is lost,
+        // so the headers of the recovered packet are rebuilt from the packet after it.
+        final VideoPacket[] block = block(1, 0xFFFF, 10, 4, 50);
+        final List<String> expected = describe(block, 0, 1, 2, 3);
+
+        add(block, 1, 2, 3);
+        assertEquals(0, received.size());
+
+        add(block, 5);
+        assertEquals(expected, received);
+        assertEquals(1, queue.getRecoveredPacketCount());
+        assertEquals(0, queue.getUnrecoverableBlockCount());
+    }
+
+    @Test
+    public void unrecoverableBlock() {
+        final VideoPacket[] block = block(1, 100, 10, 4, 50);
+        final VideoPacket[] nextBlock = block(2, 106, 14, 4, 50);
+
+        final List<String> expected = describe(block, 0, 3);
+        expected.addAll(describe(nextBlock, 0));
+
+        // Two data packets and a parity packet are lost, so one parity packet is not enough.
+        add(block, 0, 3, 4);
+        assertEquals(expected.subList(0, 1), received);
+
+        // Pass what we have once the next block starts.
+        add(nextBlock, 0);
+        assertEquals(expected, received);
+        assertEquals(0, queue.getRecoveredPacketCount());
+        assertEquals(1, queue.getUnrecoverableBlockCount());
+        assertEquals(0, block[3].getRefCount());
+        assertEquals(0, block[4].getRefCount());
+    }
+
+    @Test
+    public void allDataPacketsLost() {
+        // Enough parity packets to recover, but no data packet to rebuild the headers from
+        final VideoPacket[] block = block(1, 100, 10, 2, 100);
+        final VideoPacket[] nextBlock = block(2, 104, 12, 2, 100);
+        assertEquals(4, block.length);
+
+        add(block, 2, 3);
+        assertEquals(0, received.size());
+
+        add(nextBlock, 0, 1);
+        assertEquals(describe(nextBlock, 0, 1), received);
+        assertEquals(0, queue.getRecoveredPacketCount());
+        assertEquals(1, queue.getUnrecoverableBlockCount());
+    }
+
+    private void add(VideoPacket[] block, int... fecIndices) {
+        for (int i : fecIndices) {
+            queue.addPacket(block[i]);
+        }
+    }
+
+    /**
+     * Builds the data packets of a frame followed by its parity packets, as GFE sends them.
+     * The last data packet is shorter than the others, so the parity covers its zero padding.
+     */
+    private static VideoPacket[] block(int frameIndex, int firstSequenceNumber, int firstStreamPacketIndex,
+                                       int dataShards, int fecPercentage) {
+        final int parityShards = (dataShards * fecPercentage + 99) / 100;
+        final byte[][] shards = new byte[dataShards + parityShards][SHARD_SIZE];
+        final int[] lengths = new int[shards.length];
+        Arrays.fill(lengths, SHARD_SIZE);
+        lengths[dataShards - 1] = SHARD_SIZE - 10;
+        for (int i = 0; i < dataShards; i++) {
+            for (int j = PAYLOAD_OFFSET; j < lengths[i]; j++) {
+                shards[i][j] = (byte) (frameIndex * 61 + i * 31 + j * 7 + 1);
+            }
+        }
+        new ReedSolomon(dataShards, parityShards).encodeParity(shards, PAYLOAD_OFFSET, SHARD_SIZE - PAYLOAD_OFFSET);
+
+        final VideoPacket[] packets = new VideoPacket[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            int flags = 0;
+            if (i < dataShards) {
+                flags = VideoPacket.FLAG_CONTAINS_PIC_DATA;
+                if (i == 0) {
+                    flags |= VideoPacket.FLAG_SOF;
+                }
+                if (i == dataShards - 1) {
+                    flags |= VideoPacket.FLAG_EOF;
+                }
+            }
+            // The parity packets are not counted in the stream packet index.
+            final int streamPacketIndex = firstStreamPacketIndex + Math.min(i, dataShards - 1);
+
+            final ByteBuffer buf = ByteBuffer.allocateDirect(SHARD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(shards[i]);
+            buf.put(0, (byte) 0x90);
+            buf.put(1, (byte) 0x60);
+            // The RTP sequence number is big endian while the rest of the header is little endian.
+            buf.putShort(2, Short.reverseBytes((short) (firstSequenceNumber + i)));
+            buf.putInt(RtpPacket.MAX_HEADER_SIZE, streamPacketIndex << 8);
+            buf.putInt(RtpPacket.MAX_HEADER_SIZE + 4, frameIndex);
+            buf.putInt(RtpPacket.MAX_HEADER_SIZE + 8, flags);
+            buf.putInt(RtpPacket.MAX_HEADER_SIZE + 12, dataShards << 22 | i << 12 | fecPercentage << 4);
+
+            packets[i] = new VideoPacket(buf, false);
+            packets[i].initializeWithLength(lengths[i]);
+        }
+        return packets;
+    }
+
+    private static List<String> describe(VideoPacket[] block, int... fecIndices) {
+        final List<String> descriptions = new ArrayList<>();
+        for (int i : fecIndices) {
+            descriptions.add(describe(block[i]));
+        }
+        return descriptions;
+    }
+
+    private static String describe(VideoPacket packet) {
+        final ByteBuffer buf = packet.getByteBuffer();
+        final StringBuilder payload = new StringBuilder();
+        for (int i = PAYLOAD_OFFSET; i < packet.getLength(); i++) {
+            payload.append(String.format("%02x", buf.get(i)));
+        }
+        // A recovered packet keeps the zero padding at the end of a frame.
+        while (payload.length() >= 2 && payload.toString().endsWith("00")) {
+            payload.setLength(payload.length() - 2);
+        }
+
+        return String.format("seq=%d, index=%d, frame=%d, flags=0x%x, fec=%d/%d/%d%%, payload=%s",
+                             packet.getRtpSequenceNumber() & 0xFFFF, packet.getStreamPacketIndex(),
+                             packet.getFrameIndex(), packet.getFlags(), packet.getFecIndex(),
+                             packet.getFecDataShards(), packet.getFecPercentage(), payload);
+    }
+}
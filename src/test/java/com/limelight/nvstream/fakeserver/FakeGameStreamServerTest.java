@@ -0,0 +1,238 @@
+package com.limelight.nvstream.fakeserver;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.limelight.nvstream.NvConnection;
+import com.limelight.nvstream.NvConnectionListener;
+import com.limelight.nvstream.StreamConfiguration;
+import com.limelight.nvstream.Util;
+import com.limelight.nvstream.av.audio.AudioRenderer;
+import com.limelight.nvstream.av.video.VideoDecodeUnit;
+import com.limelight.nvstream.av.video.VideoDecoderRenderer;
+import com.limelight.nvstream.av.video.VideoDepacketizer;
+import com.limelight.nvstream.http.CryptoProvider;
+import com.limelight.nvstream.metrics.Counter;
+import com.limelight.nvstream.metrics.Gauge;
+import com.limelight.nvstream.metrics.MetricRegistry;
+
+/**
+ * Connects the client to a {@link FakeGameStreamServer} over the loopback interface, which exercises the
+ * HTTP and HTTPS requests, the RTSP handshake, the control and input streams, and the reassembly of
+ * the video frames end to end.
+ */
+public class FakeGameStreamServerTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(FakeGameStreamServerTest.class);
+
+    private static final int NUM_FRAMES = 120;
+    private static final int BITRATE_KBPS = 2000;
+    private static final long FRAME_TIMEOUT_SECONDS = 30;
+
+    private final Counter frameLosses = MetricRegistry.global().counter(
+            "video_frame_losses_total",
+            "The number of times video frames were lost and the server was asked to resync");
+    private final Gauge timeToFirstFrame = MetricRegistry.global().gauge(
+            "connection_time_to_first_frame_ms",
+            "The time from the start of the connection until the first complete video frame");
+
+    @Test(timeout = 60000)
+    public void streamWithoutLoss() throws Exception {
+        stream(0, NUM_FRAMES);
+    }
+
+    @Test(timeout = 60000)
+    public void streamWithLoss() throws Exception {
+        // The frames are reassembled again after the client asks for an IDR frame over the control stream.
+        final long lossesBefore = frameLosses.value();
+        stream(2, NUM_FRAMES);
+        assertTrue("no frame has been lost", frameLosses.value() > lossesBefore);
+    }
+
+    @Test(timeout = 60000)
+    public void timeToFirstFrame() throws Exception {
+        timeToFirstFrame.set(0);
+        stream(0, 1);
+
+        // Includes the launch, the RTSP handshake and the start of all streams, and the first IDR frame.
+        final double elapsedMillis = timeToFirstFrame.value();
+        logger.info("Time to the first frame: {} ms", String.format("%.1f", elapsedMillis));
+        assertTrue("time to the first frame: " + elapsedMillis + " ms",
+                   elapsedMillis > 0 && elapsedMillis < TimeUnit.SECONDS.toMillis(FRAME_TIMEOUT_SECONDS));
+    }
+
+    /**
+     * Connects to a new {@link FakeGameStreamServer} which drops the specified percentage of the datagrams,
+     * and waits until the specified number of video frames have been reassembled.
+     */
+    private static void stream(double lossPercentage, int numFrames) throws Exception {
+        try (FakeGameStreamServer server = new FakeGameStreamServer.Builder()
+                .setBitrate(BITRATE_KBPS)
+                .setLossPercentage(lossPercentage)
+                .start()) {
+
+            final StageListener listener = new StageListener();
+            final FrameCounter frameCounter = new FrameCounter(numFrames);
+            final StreamConfiguration config = new StreamConfiguration.Builder()
+                    .setBitrate(BITRATE_KBPS)
+                    .build();
+
+            // Use a new client ID for each connection, so that no server information is cached.
+            final String uniqueId = String.format("%016X", new SecureRandom().nextLong());
+            final NvConnection conn = new NvConnection(server.address().getHostAddress(), uniqueId,
+                                                       listener, config, new TestCryptoProvider());
+            try {
+                conn.start(0, new DiscardingAudioRenderer(), frameCounter);
+                assertNull("failed stage", listener.failedStage);
+                assertTrue("received only " + (numFrames - frameCounter.remainingFrames.getCount()) +
+                           " frames out of " + numFrames,
+                           frameCounter.remainingFrames.await(FRAME_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            } finally {
+                conn.stop(true);
+            }
+        }
+    }
+
+    private static final class StageListener implements NvConnectionListener {
+
+        volatile Stage failedStage;
+
+        @Override
+        public void stageStarting(Stage stage) {}
+
+        @Override
+        public void stageComplete(Stage stage) {}
+
+        @Override
+        public void stageFailed(Stage stage) {
+            failedStage = stage;
+        }
+    }
+
+    /**
+     * Counts the reassembled frames instead of decoding them, because the synthetic frames are not decodable.
+     */
+    private static final class FrameCounter extends VideoDecoderRenderer {
+
+        final CountDownLatch remainingFrames;
+        private Thread thread;
+
+        FrameCounter(int numFrames) {
+            remainingFrames = new CountDownLatch(numFrames);
+        }
+
+        @Override
+        public boolean setup(VideoFormat format, int width, int height, int drFlags) {
+            return true;
+        }
+
+        @Override
+        public boolean start(VideoDepacketizer depacketizer) {
+            thread = new Thread(() -> {
+                try {
+                    for (;;) {
+                        final VideoDecodeUnit du = depacketizer.takeNextDecodeUnit();
+                        depacketizer.freeDecodeUnit(du);
+                        remainingFrames.countDown();
+                    }
+                } catch (InterruptedException ignored) {
+                    // Stopped
+                }
+            }, "Test - Frame counter");
+            thread.setDaemon(true);
+            thread.start();
+            return true;
+        }
+
+        @Override
+        public void stop() {
+            Util.stop(thread);
+        }
+
+        @Override
+        public void release() {}
+    }
+
+    private static final class DiscardingAudioRenderer implements AudioRenderer {
+        @Override
+        public int getCapabilities() {
+            return CAPABILITY_DIRECT_SUBMIT;
+        }
+
+        @Override
+        public boolean streamInitialized(int channelCount, int channelMask, int samplesPerFrame, int sampleRate) {
+            return true;
+        }
+
+        @Override
+        public void playDecodedAudio(byte[] audioData, int offset, int length) {}
+
+        @Override
+        public void streamClosing() {}
+    }
+
+    /**
+     * Provides a self-signed client certificate, which the fake server accepts without pairing.
+     */
+    private static final class TestCryptoProvider implements CryptoProvider {
+
+        private final X509Certificate cert;
+        private final RSAPrivateKey key;
+
+        TestCryptoProvider() throws Exception {
+            final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+            keyPairGenerator.initialize(2048);
+            final KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+            final Date now = new Date();
+            final X500Name name = new X500Name("CN=NVIDIA GameStream Client");
+            final JcaX509v3CertificateBuilder certBuilder = new JcaX509v3CertificateBuilder(
+                    name, new BigInteger(64, new SecureRandom()), now,
+                    new Date(now.getTime() + TimeUnit.DAYS.toMillis(1)), name, keyPair.getPublic());
+            cert = new JcaX509CertificateConverter().getCertificate(
+                    certBuilder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+            key = (RSAPrivateKey) keyPair.getPrivate();
+        }
+
+        @Override
+        public X509Certificate getClientCertificate() {
+            return cert;
+        }
+
+        @Override
+        public RSAPrivateKey getClientPrivateKey() {
+            return key;
+        }
+
+        @Override
+        public byte[] getPemEncodedClientCertificate() {
+            try {
+                return ("-----BEGIN CERTIFICATE-----\n" +
+                        Base64.getMimeEncoder().encodeToString(cert.getEncoded()) +
+                        "\n-----END CERTIFICATE-----\n").getBytes(StandardCharsets.US_ASCII);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
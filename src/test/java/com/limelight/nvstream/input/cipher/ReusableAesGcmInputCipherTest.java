@@ -0,0 +1,140 @@
+package com.limelight.nvstream.input.cipher;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Test;
+
+public class ReusableAesGcmInputCipherTest {
+
+    private static final int TAG_LENGTH = 16;
+
+    @Test
+    public void nistTestVectors() {
+        // Test cases 1 to 3 of "The Galois/Counter Mode of Operation (GCM)" by McGrew and Viega,
+        // which are the ones without additional authenticated data
+        assertVector("00000000000000000000000000000000",
+                     "000000000000000000000000",
+                     "",
+                     "",
+                     "58e2fccefa7e3061367f1d57a4e7455a");
+        assertVector("00000000000000000000000000000000",
+                     "000000000000000000000000",
+                     "00000000000000000000000000000000",
+                     "0388dace60b6a392f328c2b971b2fe78",
+                     "ab6e47d42cec13bdf53a67b21257bddf");
+        assertVector("feffe9928665731c6d6a8f9467308308",
+                     "cafebabefacedbaddecaf888",
+                     "d9313225f88406e5a55909c5aff5269a86a7a9531534f7da2e4c303d8a318a72" +
+                     "1c3c0c95956809532fcf0e2449a6b525b16aedf5aa0de657ba637b391aafd255",
+                     "42831ec2217774244b7221b784d0d49ce3aa212f2c02a4e035c17e2329aca12e" +
+                     "21d514b25466931c7d8f6a5aac84aa051ba30b396a0aac973d58e091473f5985",
+                     "4d5c2af327cd64a62cf35abd2ba6fab4");
+    }
+
+    @Test
+    public void sameAsJdkWithChainedIvs() throws Exception {
+        final Random random = new Random(0x6cb);
+        final ReusableAesGcmInputCipher cipher = new ReusableAesGcmInputCipher();
+        SecretKey key = newKey(random);
+
+        // Start with a 16-byte IV, and then use the last 16 bytes of each packet as the IV of the next one,
+        // as on Gen 7 servers. The output buffer is reused, so the IV is overwritten by the next packet.
+        final byte[] output = new byte[4 + 128 + TAG_LENGTH];
+        byte[] iv = new byte[16];
+        random.nextBytes(iv);
+        cipher.initialize(key, iv, 0, iv.length);
+
+        for (int i = 0; i < 500; i++) {
+            // Lengths which are and aren't multiples of the block size
+            final int length = i % 67;
+            final byte[] input = new byte[3 + length];
+            random.nextBytes(input);
+
+            final int encryptedLength = cipher.getEncryptedSize(length);
+            assertEquals(length + TAG_LENGTH, encryptedLength);
+            cipher.encrypt(input, 3, length, output, 4);
+            final byte[] actual = Arrays.copyOfRange(output, 4, 4 + encryptedLength);
+            assertArrayEquals("packet " + i + " of " + length + " bytes",
+                              jdkEncrypt(key, iv, Arrays.copyOfRange(input, 3, input.length)), actual);
+
+            if (i % 100 == 99) {
+                // A new key and a 12-byte IV from time to time
+                key = newKey(random);
+                iv = new byte[12];
+                random.nextBytes(iv);
+                cipher.initialize(key, iv, 0, iv.length);
+            } else {
+                iv = Arrays.copyOfRange(output, 4 + encryptedLength - 16, 4 + encryptedLength);
+                cipher.initialize(key, output, 4 + encryptedLength - 16, 16);
+            }
+        }
+    }
+
+    @Test
+    public void sameAsJdkWithIvLengths() throws Exception {
+        final Random random = new Random(0x1f);
+        final ReusableAesGcmInputCipher cipher = new ReusableAesGcmInputCipher();
+        final SecretKey key = newKey(random);
+        final byte[] input = new byte[45];
+        random.nextBytes(input);
+
+        // 12 bytes is the only length which is used as is. The others are hashed into the pre-counter block.
+        for (int ivLength = 1; ivLength <= 40; ivLength++) {
+            final byte[] iv = new byte[ivLength];
+            random.nextBytes(iv);
+            cipher.initialize(key, iv, 0, ivLength);
+
+            final byte[] output = new byte[cipher.getEncryptedSize(input.length)];
+            cipher.encrypt(input, 0, input.length, output, 0);
+            assertArrayEquals("IV of " + ivLength + " bytes", jdkEncrypt(key, iv, input), output);
+        }
+    }
+
+    private static void assertVector(String key, String iv, String plaintext, String ciphertext, String tag) {
+        final ReusableAesGcmInputCipher cipher = new ReusableAesGcmInputCipher();
+        final byte[] ivBytes = hex(iv);
+        final byte[] input = hex(plaintext);
+        cipher.initialize(new SecretKeySpec(hex(key), "AES"), ivBytes, 0, ivBytes.length);
+
+        final byte[] output = new byte[cipher.getEncryptedSize(input.length)];
+        cipher.encrypt(input, 0, input.length, output, 0);
+        assertArrayEquals(hex(tag + ciphertext), output);
+    }
+
+    private static SecretKey newKey(Random random) {
+        final byte[] key = new byte[16];
+        random.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * Encrypts with the AES/GCM {@link Cipher} of the JDK, and returns {@code <tag><ciphertext>}.
+     */
+    private static byte[] jdkEncrypt(SecretKey key, byte[] iv, byte[] input) throws Exception {
+        final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+        final byte[] ciphertextAndTag = cipher.doFinal(input);
+
+        final byte[] output = new byte[ciphertextAndTag.length];
+        System.arraycopy(ciphertextAndTag, input.length, output, 0, TAG_LENGTH);
+        System.arraycopy(ciphertextAndTag, 0, output, TAG_LENGTH, input.length);
+        return output;
+    }
+
+    private static byte[] hex(String hex) {
+        final byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
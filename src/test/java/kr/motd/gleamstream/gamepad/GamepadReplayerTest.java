@@ -0,0 +1,150 @@
+package kr.motd.gleamstream.gamepad;
+
+import static com.limelight.nvstream.input.ControllerPacket.A_FLAG;
+import static com.limelight.nvstream.input.ControllerPacket.PLAY_FLAG;
+import static com.limelight.nvstream.input.ControllerPacket.Y_FLAG;
+import static kr.motd.gleamstream.gamepad.CompiledGamepadMapping.NV_STICK_MAX;
+import static kr.motd.gleamstream.gamepad.CompiledGamepadMapping.NV_TRIGGER_MAX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lwjgl.system.Platform;
+
+import kr.motd.gleamstream.gamepad.GamepadDispatcher.Gamepad;
+
+/**
+ * Replays {@code xpad.jsdev}, the events of an Xbox 360 pad read from {@code /dev/input/js0}, which
+ * presses A, moves the left stick to the upper right, pulls the right trigger, and presses Y and START.
+ */
+public class GamepadReplayerTest {
+
+    private static final String FIXTURE = "xpad.jsdev";
+
+    private final BlockingQueue<String> buttonChanges = new LinkedBlockingQueue<>();
+    private GamepadDispatcher dispatcher;
+
+    @Before
+    public void setUp() throws Exception {
+        // The default mapping of Windows numbers the buttons and axes differently from joydev.
+        assumeTrue(Platform.get() != Platform.WINDOWS);
+
+        final GamepadMappings mappings;
+        try (InputStream in = GamepadReplayerTest.class.getResourceAsStream("/gamepads.json")) {
+            mappings = GamepadMappings.load(in);
+        }
+        dispatcher = new GamepadDispatcher(mappings, (buttonFlags, lastButtonFlags) -> buttonChanges.add(
+                change(lastButtonFlags, buttonFlags)));
+    }
+
+    @Test
+    public void mapRecordedEvents() throws Exception {
+        final ByteBuffer events = ByteBuffer.wrap(Files.readAllBytes(fixture().toPath()))
+                                            .order(ByteOrder.LITTLE_ENDIAN);
+        final Gamepad gamepad = dispatcher.attach("js0", "Microsoft X-Box 360 pad");
+        final JoystickState joystick = new JoystickState();
+        final List<String> states = new ArrayList<>();
+
+        // Dispatch the events which happened at the same time at once, as GamepadReplayer does.
+        final int numEvents = events.remaining() / JoydevEvents.EVENT_SIZE;
+        for (int i = 0; i < numEvents; i++) {
+            final int offset = i * JoydevEvents.EVENT_SIZE;
+            JoydevEvents.apply(events, offset, joystick);
+            if (i + 1 == numEvents ||
+                JoydevEvents.timeMillis(events, offset + JoydevEvents.EVENT_SIZE) !=
+                JoydevEvents.timeMillis(events, offset)) {
+                dispatcher.dispatch(gamepad, joystick, System.nanoTime());
+                states.add(state(gamepad.state));
+            }
+        }
+
+        assertEquals(11, joystick.numButtons);
+        assertEquals(8, joystick.numAxes);
+
+        final List<String> expected = new ArrayList<>();
+        expected.add(state(0, 0, 0, 0, 0));                       // The initial state on open
+        expected.add(state(A_FLAG, 0, 0, 0, 0));
+        expected.add(state(0, 0, 0, 0, 0));
+        expected.add(state(0, 0, 0, NV_STICK_MAX, NV_STICK_MAX)); // Up is positive in GFE.
+        expected.add(state(0, 0, 0, 0, 0));
+        expected.add(state(0, 0, NV_TRIGGER_MAX / 2, 0, 0));      // Half pulled
+        expected.add(state(0, 0, NV_TRIGGER_MAX, 0, 0));
+        expected.add(state(0, 0, 0, 0, 0));
+        expected.add(state(Y_FLAG | PLAY_FLAG, 0, 0, 0, 0));
+        expected.add(state(0, 0, 0, 0, 0));
+        assertEquals(expected, states);
+
+        assertButtonChanges();
+    }
+
+    @Test(timeout = 10000)
+    public void replayEvents() throws Exception {
+        final GamepadReplayer replayer = new GamepadReplayer(fixture(), dispatcher, false);
+        final long startTime = System.nanoTime();
+        replayer.start();
+        try {
+            assertButtonChanges();
+            // The last button was released 517 ms after the gamepad was opened.
+            assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(500));
+        } finally {
+            replayer.stop();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void replayPolledEvents() throws Exception {
+        final GamepadReplayer replayer = new GamepadReplayer(fixture(), dispatcher, true);
+        replayer.start();
+        try {
+            // Poll more often than the buttons change, as the render thread would at 200 fps.
+            for (int i = 0; i < 200; i++) {
+                replayer.poll();
+                Thread.sleep(5);
+            }
+            assertButtonChanges();
+        } finally {
+            replayer.stop();
+        }
+    }
+
+    private void assertButtonChanges() throws InterruptedException {
+        assertEquals(change(0, A_FLAG), buttonChanges.poll(5, TimeUnit.SECONDS));
+        assertEquals(change(A_FLAG, 0), buttonChanges.poll(5, TimeUnit.SECONDS));
+        assertEquals(change(0, Y_FLAG | PLAY_FLAG), buttonChanges.poll(5, TimeUnit.SECONDS));
+        assertEquals(change(Y_FLAG | PLAY_FLAG, 0), buttonChanges.poll(5, TimeUnit.SECONDS));
+    }
+
+    private static File fixture() throws Exception {
+        return new File(GamepadReplayerTest.class.getResource(FIXTURE).toURI());
+    }
+
+    private static String change(int lastButtonFlags, int buttonFlags) {
+        return String.format("0x%04X -> 0x%04X", lastButtonFlags & 0xFFFF, buttonFlags & 0xFFFF);
+    }
+
+    private static String state(GamepadState state) {
+        assertEquals("right stick X", 0, state.rightStickX());
+        assertEquals("right stick Y", 0, state.rightStickY());
+        return state(state.buttonFlags(), state.leftTrigger() & 0xFF, state.rightTrigger() & 0xFF,
+                     state.leftStickX(), state.leftStickY());
+    }
+
+    private static String state(int buttonFlags, int leftTrigger, int rightTrigger,
+                                int leftStickX, int leftStickY) {
+        return String.format("buttons=0x%04X, LT=%d, RT=%d, LS=(%d, %d)",
+                             buttonFlags & 0xFFFF, leftTrigger, rightTrigger, leftStickX, leftStickY);
+    }
+}